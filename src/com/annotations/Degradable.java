@@ -0,0 +1,15 @@
+package com.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The endpoint only reads the catalog, and it's served from the last data read, when the DB is unavailable.
+ * The other endpoints are rejected at once while the circuit breaker is open.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Degradable {
+}
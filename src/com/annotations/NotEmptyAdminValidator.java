@@ -1,11 +1,8 @@
 package com.annotations;
 
-import javax.inject.Inject;
 import javax.validation.ConstraintValidator;
 import javax.validation.ConstraintValidatorContext;
 
-import org.elasticsearch.client.transport.TransportClient;
-
 import com.encrypt.CodeDecodeTokens;
 
 public class NotEmptyAdminValidator implements ConstraintValidator<NotEmptyAdmin, String> {
@@ -15,14 +12,11 @@ public class NotEmptyAdminValidator implements ConstraintValidator<NotEmptyAdmin
 
 	}
 
-	@Inject
-	TransportClient transportClient;
-	
 	@Override
 	public boolean isValid(String arg0, ConstraintValidatorContext arg1) {
 
 		CodeDecodeTokens cdt = new CodeDecodeTokens();
-		boolean haveRights = cdt.userIsAdmin(transportClient, arg0);
+		boolean haveRights = cdt.userIsAdmin(arg0);
 		if (!haveRights) {
 			return false;
 		} else {
@@ -0,0 +1,16 @@
+package com.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The bulkhead of the endpoint: the thread pool and the limit of the Requests to the DB it shares
+ * with the other endpoints of the same bulkhead. The endpoints without this annotation use the "shopper" bulkhead.
+ */
+@Target({ElementType.METHOD, ElementType.TYPE})
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ThreadPool {
+	String value();
+}
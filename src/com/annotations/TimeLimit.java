@@ -0,0 +1,19 @@
+package com.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * The time a Request of the endpoint has, until the Response is sent.
+ * The value can be overridden with the "deadline." + name property.
+ * The endpoints without this annotation get the "deadline.default" time.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface TimeLimit {
+	String name();
+	
+	long millis();
+}
@@ -3,15 +3,20 @@
  * 	userid			- The id of the Client;
  *  totalquantity	- The quantity of object inside the Cart.
  *  totalcost		- Total cost of items in the Cart.
- *  items			- List of id's and quantities of products in the Cart.
+ *  lines			- The Products in the Cart with their quantity and price, by the id of the Product.
  *  
  *  @author sandor.naghi
  */
 
 package com.beans;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class Cart {
@@ -25,8 +30,12 @@ public class Cart {
 	@JsonProperty("totalcost")
 	private long totalcost;
 	
-	@JsonProperty("items")
-	private List<String> items;
+	// stored as the list of the lines, the Carts stored before the lines have the items
+	private final Map<String, CartLine> lines = new LinkedHashMap<>();
+	
+	// the version of the stored document the Cart was read from, 0 if it was not read from the storage
+	@JsonIgnore
+	private long version;
 	
 	/**
 	 * Default constructor.
@@ -38,12 +47,12 @@ public class Cart {
 	 * Constructor of the class with arguments.
 	 * @param totalquantity	- Total quantity of products in the Cart.
 	 * @param totalcost	- Total cost of products in the Cart.
-	 * @param items	- List of id's and quantities of products from the Cart.
+	 * @param lines	- The lines of the products from the Cart.
 	 */
-	public Cart(int totalquantity, long totalcost, List<String> items) {
+	public Cart(int totalquantity, long totalcost, Collection<CartLine> lines) {
 		this.totalquantity = totalquantity;
 		this.totalcost = totalcost;
-		this.items = items;
+		setLines(lines);
 	}
 
 	/**
@@ -73,12 +82,106 @@ public class Cart {
 		this.totalcost = totalcost;
 	}
 
-	public List<String> getItems() {
-		return items;
+	/**
+	 * Get the version of the stored document, a write with this version fails if the Cart was changed since it was read.
+	 * @return	The version, 0 if the Cart was not read from the storage.
+	 */
+	@JsonIgnore
+	public long getVersion() {
+		return version;
+	}
+
+	@JsonIgnore
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	/**
+	 * Get the lines, in the order the Products were added.
+	 * @return	The lines, they can't be changed.
+	 */
+	@JsonProperty("lines")
+	public Collection<CartLine> getLines() {
+		return Collections.unmodifiableCollection(lines.values());
+	}
+
+	@JsonProperty("lines")
+	public void setLines(Collection<CartLine> lines) {
+		this.lines.clear();
+		if (lines != null) {
+			for (CartLine line : lines) {
+				putLine(line);
+			}
+		}
 	}
 
+	/**
+	 * Read the items stored before the lines, the ids of the Products followed by their quantity.
+	 * @param items	The ids and the quantities.
+	 */
+	@JsonProperty("items")
 	public void setItems(List<String> items) {
-		this.items = items;
+		if (items != null) {
+			setLines(CartLine.fromItems(items));
+		}
+	}
+
+	/**
+	 * Get the line of a Product.
+	 * @param productid	The id of the Product.
+	 * @return	The line, or null if the Product is not in the Cart.
+	 */
+	public CartLine line(String productid) {
+		return lines.get(productid);
+	}
+
+	/**
+	 * Add the line of a Product, or replace it if the Product is already in the Cart.
+	 * @param line	The line.
+	 */
+	public void putLine(CartLine line) {
+		lines.put(line.getProductid(), line);
+	}
+
+	/**
+	 * Remove the line of a Product.
+	 * @param productid	The id of the Product.
+	 */
+	public void removeLine(String productid) {
+		lines.remove(productid);
+	}
+
+	/**
+	 * Add Products to the Cart, or remove them, with the totals. The storages change a Cart in one step the same way.
+	 * The whole line of added Products gets the current price, the removed Products are refunded at the price of
+	 * the line (the current price if the line has none).
+	 * @param change	The id of the Product, the number of Products added (negative to remove), and the current price.
+	 * @return	false if the Cart has less of the Product than removed, the Cart is not changed.
+	 */
+	public boolean change(CartLine change) {
+		CartLine line = lines.get(change.getProductid());
+		int quantity = change.getQuantity();
+		long unitPrice = line == null || line.getPrice() <= 0 ? change.getPrice() : line.getPrice();
+
+		if (quantity > 0) {
+			int newQuantity = (line == null ? 0 : line.getQuantity()) + quantity;
+			totalcost += newQuantity * change.getPrice() - (line == null ? 0 : line.getQuantity() * unitPrice);
+			totalquantity += quantity;
+			putLine(new CartLine(change.getProductid(), newQuantity, change.getPrice()));
+			return true;
+		}
+
+		if (line == null || line.getQuantity() < -quantity) {
+			return false;
+		}
+		if (line.getQuantity() == -quantity) {
+			removeLine(change.getProductid());
+		} else {
+			putLine(new CartLine(change.getProductid(), line.getQuantity() + quantity, line.getPrice()));
+		}
+		totalcost += quantity * unitPrice;
+		totalquantity += quantity;
+		return true;
 	}
 
 	/**
@@ -88,7 +191,7 @@ public class Cart {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((items == null) ? 0 : items.hashCode());
+		result = prime * result + lines.hashCode();
 		result = prime * result + (int) (totalcost ^ (totalcost >>> 32));
 		result = prime * result + totalquantity;
 		result = prime * result + ((userid == null) ? 0 : userid.hashCode());
@@ -107,10 +210,7 @@ public class Cart {
 		if (getClass() != obj.getClass())
 			return false;
 		Cart other = (Cart) obj;
-		if (items == null) {
-			if (other.items != null)
-				return false;
-		} else if (!items.equals(other.items))
+		if (!lines.equals(other.lines))
 			return false;
 		if (totalcost != other.totalcost)
 			return false;
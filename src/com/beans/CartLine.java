@@ -0,0 +1,125 @@
+/**
+ * This class is a line of a Cart or an Order, never changed: a changed line is replaced with a new one.
+ * 	productid	- The id of the Product.
+ * 	quantity	- The number of Products.
+ * 	price	- The price of one Product when it was put in the Cart, 0 if it's not known
+ * 			  (the lines of the Carts and Orders stored before the lines had prices).
+ *
+ * @author sandor.naghi
+ */
+
+package com.beans;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+public final class CartLine {
+
+	private static final Logger LOGGER = Logger.getLogger(CartLine.class.getName());
+
+	@JsonProperty("productid")
+	private final String productid;
+
+	@JsonProperty("quantity")
+	private final int quantity;
+
+	@JsonProperty("price")
+	private final long price;
+
+	/**
+	 * Constructor of the class.
+	 * @param productid	The id of the Product.
+	 * @param quantity	The number of Products.
+	 * @param price	The price of one Product.
+	 */
+	@JsonCreator
+	public CartLine(@JsonProperty("productid") String productid, @JsonProperty("quantity") int quantity, @JsonProperty("price") long price) {
+		this.productid = productid;
+		this.quantity = quantity;
+		this.price = price;
+	}
+
+	/**
+	 * Read the lines from the items stored before the lines: the id of a Product followed by the quantity.
+	 * The ids and the quantities are told apart by their place, so an id made of digits is read well too.
+	 * A malformed item fails the whole document, and it's not migrated: a dropped line would leave the totals
+	 * counting Products no longer in the Cart, and they can't be recomputed without the prices.
+	 * @param items	The ids and the quantities.
+	 * @return	The lines, without prices.
+	 * @throws IllegalArgumentException	If a quantity is not a number, or the last id has no quantity.
+	 */
+	public static List<CartLine> fromItems(List<String> items) {
+		if (items.size() % 2 != 0) {
+			LOGGER.log(Level.WARNING, "The items {0} have an id without a quantity.", items);
+			throw new IllegalArgumentException("The id " + items.get(items.size() - 1) + " has no quantity.");
+		}
+
+		List<CartLine> lines = new ArrayList<>();
+		for (int i = 0; i < items.size(); i += 2) {
+			try {
+				lines.add(new CartLine(items.get(i), Integer.parseInt(items.get(i + 1)), 0));
+			} catch (NumberFormatException e) {
+				LOGGER.log(Level.WARNING, "The items {0} have a malformed quantity.", items);
+				throw new IllegalArgumentException("The quantity " + items.get(i + 1) + " of the Product " + items.get(i) + " is not a number.", e);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Public getters.
+	 */
+	public String getProductid() {
+		return productid;
+	}
+
+	public int getQuantity() {
+		return quantity;
+	}
+
+	public long getPrice() {
+		return price;
+	}
+
+	/**
+	 * The overridden hashcode() method.
+	 */
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (price ^ (price >>> 32));
+		result = prime * result + ((productid == null) ? 0 : productid.hashCode());
+		result = prime * result + quantity;
+		return result;
+	}
+
+	/**
+	 * The overridden equals() method.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		CartLine other = (CartLine) obj;
+		if (price != other.price)
+			return false;
+		if (productid == null) {
+			if (other.productid != null)
+				return false;
+		} else if (!productid.equals(other.productid))
+			return false;
+		if (quantity != other.quantity)
+			return false;
+		return true;
+	}
+}
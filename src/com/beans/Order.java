@@ -1,7 +1,7 @@
 /**
  * This Class contains information fields about the Clients Order.
  * 	userid	- Id of Client.
- * 	items	- List of id's and quantities of products in the Order.
+ * 	lines	- The Products in the Order with their quantity and price, by the id of the Product.
  * 	totalquantity	- Total quantity of products from the Order.
  * 	totalcost	- Total cost of products from the Order.
  * 	ordernumber	- Number of the Order.
@@ -12,8 +12,13 @@
 
 package com.beans;
 
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 public class Order {
@@ -21,8 +26,12 @@ public class Order {
 	@JsonProperty("userid")
 	private String userid;
 	
-	@JsonProperty("items")
-	private List<String> items;
+	// stored as the list of the lines, the Orders stored before the lines have the items
+	private final Map<String, CartLine> lines = new LinkedHashMap<>();
+	
+	// the version of the stored document the Order was read from, 0 if it was not read from the storage
+	@JsonIgnore
+	private long version;
 	
 	@JsonProperty("totalquantity")
 	private int totalquantity;
@@ -52,7 +61,7 @@ public class Order {
 	/**
 	 * Constructor of the Class with arguments.
 	 * @param userid	The Clients id.
-	 * @param items		List of id's and quantities of products in the Order.
+	 * @param lines		The lines of the products in the Order.
 	 * @param totalquantity	Total number of products in the Order.
 	 * @param totalcost	Total cost of products in the Order.
 	 * @param ordernumber	Number of the Order.
@@ -60,9 +69,9 @@ public class Order {
 	 * @param confirmed	Boolean value, if the Order is confirmed or not, only the administrator can change it's value.
 	 * @param completed	Boolean value if the Order is confirmed or not, only the administrator can change it's value.
 	 */
-	public Order(String userid, List<String> items, int totalquantity, long totalcost, int ordernumber, String date, boolean confirmed, boolean completed) {
+	public Order(String userid, Collection<CartLine> lines, int totalquantity, long totalcost, int ordernumber, String date, boolean confirmed, boolean completed) {
 		this.userid = userid;
-		this.items = items;
+		setLines(lines);
 		this.totalquantity = totalquantity;
 		this.totalcost = totalcost;
 		this.ordernumber = ordernumber;
@@ -82,12 +91,73 @@ public class Order {
 		this.userid = userid;
 	}
 
-	public List<String> getItems() {
-		return items;
+	/**
+	 * Get the version of the stored document, a write with this version fails if the Order was changed since it was read.
+	 * @return	The version, 0 if the Order was not read from the storage.
+	 */
+	@JsonIgnore
+	public long getVersion() {
+		return version;
+	}
+
+	@JsonIgnore
+	public void setVersion(long version) {
+		this.version = version;
+	}
+
+	/**
+	 * Get the lines, in the order the Products were added.
+	 * @return	The lines, they can't be changed.
+	 */
+	@JsonProperty("lines")
+	public Collection<CartLine> getLines() {
+		return Collections.unmodifiableCollection(lines.values());
 	}
 
+	@JsonProperty("lines")
+	public void setLines(Collection<CartLine> lines) {
+		this.lines.clear();
+		if (lines != null) {
+			for (CartLine line : lines) {
+				putLine(line);
+			}
+		}
+	}
+
+	/**
+	 * Read the items stored before the lines, the ids of the Products followed by their quantity.
+	 * @param items	The ids and the quantities.
+	 */
+	@JsonProperty("items")
 	public void setItems(List<String> items) {
-		this.items = items;
+		if (items != null) {
+			setLines(CartLine.fromItems(items));
+		}
+	}
+
+	/**
+	 * Get the line of a Product.
+	 * @param productid	The id of the Product.
+	 * @return	The line, or null if the Product is not in the Order.
+	 */
+	public CartLine line(String productid) {
+		return lines.get(productid);
+	}
+
+	/**
+	 * Add the line of a Product, or replace it if the Product is already in the Order.
+	 * @param line	The line.
+	 */
+	public void putLine(CartLine line) {
+		lines.put(line.getProductid(), line);
+	}
+
+	/**
+	 * Remove the line of a Product.
+	 * @param productid	The id of the Product.
+	 */
+	public void removeLine(String productid) {
+		lines.remove(productid);
 	}
 
 	public int getTotalquantity() {
@@ -148,7 +218,7 @@ public class Order {
 		result = prime * result + (completed ? 1231 : 1237);
 		result = prime * result + (confirmed ? 1231 : 1237);
 		result = prime * result + ((date == null) ? 0 : date.hashCode());
-		result = prime * result + ((items == null) ? 0 : items.hashCode());
+		result = prime * result + lines.hashCode();
 		result = prime * result + ordernumber;
 		result = prime * result + (int) (totalcost ^ (totalcost >>> 32));
 		result = prime * result + totalquantity;
@@ -177,10 +247,7 @@ public class Order {
 				return false;
 		} else if (!date.equals(other.date))
 			return false;
-		if (items == null) {
-			if (other.items != null)
-				return false;
-		} else if (!items.equals(other.items))
+		if (!lines.equals(other.lines))
 			return false;
 		if (ordernumber != other.ordernumber)
 			return false;
@@ -0,0 +1,111 @@
+/**
+ * This class reads the configuration of the application from the "shoppingcart.properties" file.
+ * A value given as a system property (-Dkey=value) overrides the value from the file.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+public final class ApplicationProperties {
+
+	private static final String FILE_NAME = "shoppingcart.properties";
+
+	private static final Properties PROPERTIES = load();
+
+	private ApplicationProperties() {
+	}
+
+	/**
+	 * Load the properties file from the classpath.
+	 * @return	The properties, or empty properties if the file is missing.
+	 */
+	private static Properties load() {
+		Properties properties = new Properties();
+
+		try (InputStream in = ApplicationProperties.class.getClassLoader().getResourceAsStream(FILE_NAME)) {
+			if (in != null) {
+				properties.load(in);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		return properties;
+	}
+
+	/**
+	 * Get a value as String.
+	 * @param key	The name of the property.
+	 * @param defaultValue	Value returned if the property is not set.
+	 * @return	The value of the property.
+	 */
+	public static String getString(String key, String defaultValue) {
+		String value = System.getProperty(key, PROPERTIES.getProperty(key));
+		if (value == null || value.trim().isEmpty()) {
+			return defaultValue;
+		}
+		return value.trim();
+	}
+
+	public static int getInt(String key, int defaultValue) {
+		String value = getString(key, null);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	public static long getLong(String key, long defaultValue) {
+		String value = getString(key, null);
+		return value == null ? defaultValue : Long.parseLong(value);
+	}
+
+	public static boolean getBoolean(String key, boolean defaultValue) {
+		String value = getString(key, null);
+		return value == null ? defaultValue : Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * Get a comma separated value as a List.
+	 * @param key	The name of the property.
+	 * @param defaultValue	Comma separated value used if the property is not set.
+	 * @return	The list of values, without empty entries.
+	 */
+	public static List<String> getList(String key, String defaultValue) {
+		List<String> list = new ArrayList<>();
+
+		for (String value : getString(key, defaultValue).split(",")) {
+			if (!value.trim().isEmpty()) {
+				list.add(value.trim());
+			}
+		}
+		return list;
+	}
+
+	/**
+	 * Get all the properties starting with a prefix, with the prefix removed from the keys.
+	 * @param prefix	The prefix of the keys, for example "elasticsearch.settings.".
+	 * @return	The matching properties, ordered by key.
+	 */
+	public static Map<String, String> getByPrefix(String prefix) {
+		Map<String, String> map = new TreeMap<>();
+
+		for (String key : PROPERTIES.stringPropertyNames()) {
+			if (key.startsWith(prefix)) {
+				map.put(key.substring(prefix.length()), getString(key, ""));
+			}
+		}
+		for (String key : System.getProperties().stringPropertyNames()) {
+			if (key.startsWith(prefix)) {
+				map.put(key.substring(prefix.length()), System.getProperty(key));
+			}
+		}
+		return map;
+	}
+}
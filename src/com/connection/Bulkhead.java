@@ -0,0 +1,181 @@
+/**
+ * This class isolates the endpoints of the application from each other: every group of endpoints
+ * (shopper, checkout, admin) has its own threads completing the Responses of the Elasticsearch DB,
+ * and its own limit of the Requests waiting for the DB, so a heavy admin report can't starve the checkouts.
+ * The bulkhead of a Request is set on the thread calling the DAOs, like the deadline.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+public class Bulkhead {
+
+	public static final String SHOPPER = "shopper";
+	public static final String CHECKOUT = "checkout";
+	public static final String ADMIN = "admin";
+
+	private static final ThreadLocal<Bulkhead> CURRENT = new ThreadLocal<>();
+
+	private static final Map<String, Bulkhead> BULKHEADS = new ConcurrentHashMap<>();
+
+	private final String name;
+	private final ExecutorService executor;
+	private final int maxConcurrent;
+	private final boolean priority;
+
+	private final AtomicInteger inflight = new AtomicInteger();
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	/**
+	 * Constructor of the class, the settings are read from the "bulkhead." + name properties.
+	 * @param name	The name of the bulkhead.
+	 */
+	private Bulkhead(String name) {
+		this.name = name;
+		this.executor = VirtualThreads.newExecutor(RequestExecutor.getMode(), "elasticsearch-" + name,
+				ApplicationProperties.getInt("bulkhead." + name + ".threads", ApplicationProperties.getInt("async.threads", Runtime.getRuntime().availableProcessors())));
+		this.maxConcurrent = ApplicationProperties.getInt("bulkhead." + name + ".concurrency", 50);
+		this.priority = ApplicationProperties.getBoolean("bulkhead." + name + ".priority", CHECKOUT.equals(name));
+	}
+
+	/**
+	 * Get the bulkhead with the given name, it's created at the first use.
+	 * @param name	The name of the bulkhead.
+	 * @return	The bulkhead.
+	 */
+	public static Bulkhead get(String name) {
+		return BULKHEADS.computeIfAbsent(name, Bulkhead::new);
+	}
+
+	/**
+	 * Get the bulkhead of the Request running on the current thread.
+	 * @return	The bulkhead, the shopper bulkhead if the current thread has none.
+	 */
+	public static Bulkhead current() {
+		Bulkhead bulkhead = CURRENT.get();
+		return bulkhead == null ? get(SHOPPER) : bulkhead;
+	}
+
+	/**
+	 * Set the bulkhead of the current thread.
+	 * @param bulkhead	The bulkhead, or null to remove it.
+	 */
+	public static void set(Bulkhead bulkhead) {
+		if (bulkhead == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(bulkhead);
+		}
+	}
+
+	/**
+	 * Run code in this bulkhead, the calls to the DB made by the code use this bulkhead.
+	 * Used when the bulkhead of a Request is known only later, like the orders listed for the admin.
+	 * @param task	The code.
+	 * @return	The result of the code.
+	 */
+	public <T> T call(Callable<T> task) {
+		Bulkhead previous = CURRENT.get();
+		set(this);
+		try {
+			return task.call();
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		} finally {
+			set(previous);
+		}
+	}
+
+	/**
+	 * Take a place for a Request to the DB, if the limit of the bulkhead is not reached.
+	 * @return	true if the Request can be sent, false if it's rejected.
+	 */
+	boolean tryAcquire() {
+		if (inflight.incrementAndGet() > maxConcurrent) {
+			inflight.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+		accepted.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Free the place of a Request.
+	 */
+	void release() {
+		inflight.decrementAndGet();
+	}
+
+	/**
+	 * Run the code waiting for a Response on the threads of the bulkhead.
+	 * @param task	The code.
+	 */
+	void execute(Runnable task) {
+		executor.execute(task);
+	}
+
+	/**
+	 * Check if the Requests of the bulkhead are preferred by the limiter of the application.
+	 * @return	true if the bulkhead has priority.
+	 */
+	boolean hasPriority() {
+		return priority;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Get the state of the bulkhead.
+	 * @return	A JSONObject with the limit, the Requests sent and rejected, and the Responses waiting for a thread.
+	 */
+	public JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("concurrency", maxConcurrent);
+		json.put("priority", priority);
+		json.put("inflight", inflight.get());
+		json.put("accepted", accepted.get());
+		json.put("rejected", rejected.get());
+		json.put("queuedepth", executor instanceof ThreadPoolExecutor ? ((ThreadPoolExecutor) executor).getQueue().size() : 0);
+
+		return json;
+	}
+
+	/**
+	 * Get the state of all the bulkheads.
+	 * @return	A JSONObject with the state of every bulkhead, by name.
+	 */
+	public static JSONObject getAllStats() {
+		JSONObject json = new JSONObject();
+		for (Map.Entry<String, Bulkhead> entry : new TreeMap<>(BULKHEADS).entrySet()) {
+			json.put(entry.getKey(), entry.getValue().getStats());
+		}
+		return json;
+	}
+
+	/**
+	 * Stop the threads of the bulkheads, when the application is stopped.
+	 */
+	static void shutdownAll() {
+		for (Bulkhead bulkhead : BULKHEADS.values()) {
+			bulkhead.executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * This class stops sending Requests to the Elasticsearch DB, when too many of the last Requests failed.
+ * Closed: the Requests are sent, and the result of the last Requests is counted.
+ * Open: the Requests fail at once, for the open time.
+ * Half open: after the open time a few Requests are sent to probe the DB; if they succeed the breaker closes,
+ * if one of them fails the breaker opens again.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.json.JSONObject;
+
+public class CircuitBreaker {
+
+	private static final Logger LOGGER = Logger.getLogger(CircuitBreaker.class.getName());
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private final int window;
+	private final double failureRate;
+	private final long openNanos;
+	private final int probes;
+
+	private final AtomicLong opened = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	// guarded by this
+	private final boolean[] failures;
+	private int count;
+	private int failureCount;
+	private int next;
+	private int probesSent;
+	private int probesSucceeded;
+
+	private volatile State state = State.CLOSED;
+	private volatile long openedAt;
+
+	/**
+	 * Constructor of the class.
+	 * @param window	The number of the last Requests counted.
+	 * @param failureRate	The part of the counted Requests that must fail to open the breaker, between 0 and 1.
+	 * @param openMillis	The time the breaker stays open, in milliseconds.
+	 * @param probes	The number of Requests sent when the breaker is half open.
+	 */
+	public CircuitBreaker(int window, double failureRate, long openMillis, int probes) {
+		this.window = window;
+		this.failureRate = failureRate;
+		this.openNanos = TimeUnit.MILLISECONDS.toNanos(openMillis);
+		this.probes = probes;
+		this.failures = new boolean[window];
+	}
+
+	/**
+	 * Check if a Request can be sent, and take a probe place if the breaker is half open.
+	 * @return	true if the Request can be sent, false if the breaker is open.
+	 */
+	public synchronized boolean allowRequest() {
+		if (state == State.OPEN) {
+			if (System.nanoTime() - openedAt < openNanos) {
+				rejected.incrementAndGet();
+				return false;
+			}
+			state = State.HALF_OPEN;
+			probesSent = 0;
+			probesSucceeded = 0;
+			LOGGER.info("Circuit breaker of Elasticsearch is half open, probing the DB.");
+		}
+		if (state == State.HALF_OPEN) {
+			if (probesSent >= probes) {
+				rejected.incrementAndGet();
+				return false;
+			}
+			probesSent++;
+		}
+		return true;
+	}
+
+	/**
+	 * Give back the place of a Request allowed, but not sent.
+	 */
+	public synchronized void cancel() {
+		if (state == State.HALF_OPEN && probesSent > 0) {
+			probesSent--;
+		}
+	}
+
+	/**
+	 * Count the result of a Request sent.
+	 * @param failed	true if the Request failed because the DB is unavailable or overloaded.
+	 */
+	public synchronized void record(boolean failed) {
+		if (state == State.HALF_OPEN) {
+			if (failed) {
+				open("a probe failed");
+			} else if (++probesSucceeded >= probes) {
+				close();
+			}
+			return;
+		}
+		if (state == State.OPEN) {
+			// Response of a Request sent before the breaker opened
+			return;
+		}
+
+		if (count == window) {
+			if (failures[next]) {
+				failureCount--;
+			}
+		} else {
+			count++;
+		}
+		failures[next] = failed;
+		if (failed) {
+			failureCount++;
+		}
+		next = (next + 1) % window;
+
+		if (count == window && failureCount >= failureRate * window) {
+			open(failureCount + " of the last " + window + " Requests failed");
+		}
+	}
+
+	private void open(String reason) {
+		state = State.OPEN;
+		openedAt = System.nanoTime();
+		opened.incrementAndGet();
+		LOGGER.warning("Circuit breaker of Elasticsearch opened, " + reason + ".");
+	}
+
+	private void close() {
+		state = State.CLOSED;
+		count = 0;
+		failureCount = 0;
+		next = 0;
+		LOGGER.info("Circuit breaker of Elasticsearch closed, the DB is available again.");
+	}
+
+	/**
+	 * Check if the Requests fail at once, without taking a probe place.
+	 * @return	true if the breaker is open, and the open time is not over.
+	 */
+	public boolean isOpen() {
+		return state == State.OPEN && System.nanoTime() - openedAt < openNanos;
+	}
+
+	/**
+	 * Get the time until the breaker lets Requests through again.
+	 * @return	The remaining open time in milliseconds, 0 if the breaker is not open.
+	 */
+	public long getRemainingOpenMillis() {
+		if (state != State.OPEN) {
+			return 0;
+		}
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(openNanos - (System.nanoTime() - openedAt)));
+	}
+
+	/**
+	 * Get the state of the breaker.
+	 * @return	A JSONObject with the state, the failures counted, the times it opened, and the Requests rejected.
+	 */
+	public synchronized JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("state", state.name());
+		json.put("failurerate", count == 0 ? 0 : (double) failureCount / count);
+		json.put("opened", opened.get());
+		json.put("rejected", rejected.get());
+
+		return json;
+	}
+}
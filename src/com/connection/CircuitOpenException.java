@@ -0,0 +1,21 @@
+/**
+ * This exception is thrown when a Request to the Elasticsearch DB is not sent,
+ * because the circuit breaker is open after too many failures of the DB.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+public class CircuitOpenException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor of the class.
+	 * @param message	The description of the state of the DB.
+	 */
+	public CircuitOpenException(String message) {
+		super(message);
+	}
+}
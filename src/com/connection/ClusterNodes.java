@@ -0,0 +1,292 @@
+/**
+ * This class keeps a TransportClient for every node of the Elasticsearch cluster,
+ * and measures the round-trip time of the nodes, so the Requests are sent to the fastest healthy node.
+ * The nodes are the seed nodes from the configuration, and if sniffing is enabled,
+ * the other data nodes of the cluster discovered through the seed nodes.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.threadpool.ThreadPoolStats;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+public class ClusterNodes {
+
+	private static final Logger LOGGER = Logger.getLogger(ClusterNodes.class.getName());
+
+	// weight of the newest round-trip time in the average latency of a node
+	private static final double LATENCY_WEIGHT = 0.3;
+
+	private final Settings settings;
+	private final List<TransportAddress> seeds;
+	private final TimeValue pingTimeout;
+	private final Map<String, Node> nodes = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService scheduler;
+	private TransportClient discoveryClient;
+
+	/**
+	 * Create a client for every seed node, and start measuring the latency of the nodes.
+	 * @param settings	Settings of the clients.
+	 * @param seeds	Addresses of the seed nodes.
+	 * @param sniff	true if the other nodes of the cluster are discovered from the seed nodes.
+	 * @param pingInterval	Time between two measurements.
+	 * @param pingTimeout	Time after a node is considered unreachable.
+	 */
+	public ClusterNodes(Settings settings, List<TransportAddress> seeds, boolean sniff, TimeValue pingInterval, TimeValue pingTimeout) {
+		this.settings = settings;
+		this.seeds = seeds;
+		this.pingTimeout = pingTimeout;
+
+		for (TransportAddress address : seeds) {
+			addNode(address);
+		}
+
+		if (sniff) {
+			discoveryClient = TransportClient.builder()
+					.settings(Settings.settingsBuilder().put(settings).put("client.transport.sniff", true))
+					.build();
+			for (TransportAddress address : seeds) {
+				discoveryClient.addTransportAddress(address);
+			}
+		}
+
+		probe();
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("elasticsearch-node-probe"));
+		scheduler.scheduleWithFixedDelay(this::probe, pingInterval.millis(), pingInterval.millis(), TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Create a client connected only to one node.
+	 * @param address	The address of the node.
+	 */
+	private void addNode(TransportAddress address) {
+		TransportClient client = TransportClient.builder().settings(settings).build();
+		client.addTransportAddress(address);
+
+		nodes.put(key(address), new Node(key(address), client));
+	}
+
+	private static String key(TransportAddress address) {
+		return address.getAddress() + ":" + address.getPort();
+	}
+
+	/**
+	 * Add the newly discovered data nodes, remove the nodes that left the cluster,
+	 * and measure the round-trip time of every node.
+	 */
+	private void probe() {
+		try {
+			if (discoveryClient != null) {
+				List<String> discovered = new ArrayList<>();
+				for (DiscoveryNode discoveryNode : discoveryClient.connectedNodes()) {
+					if (discoveryNode.isDataNode()) {
+						discovered.add(key(discoveryNode.getAddress()));
+						if (!nodes.containsKey(key(discoveryNode.getAddress()))) {
+							addNode(discoveryNode.getAddress());
+							LOGGER.info("Elasticsearch node discovered: " + key(discoveryNode.getAddress()));
+						}
+					}
+				}
+				if (!discovered.isEmpty()) {
+					removeNodesExcept(discovered);
+				}
+			}
+
+			for (Node node : nodes.values()) {
+				node.ping(pingTimeout);
+			}
+		} catch (RuntimeException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Remove the nodes that are not seed nodes and are not in the cluster anymore.
+	 * @param discovered	The nodes found in the cluster.
+	 */
+	private void removeNodesExcept(List<String> discovered) {
+		List<String> keep = new ArrayList<>(discovered);
+		for (TransportAddress address : seeds) {
+			keep.add(key(address));
+		}
+
+		for (Node node : nodes.values()) {
+			if (!keep.contains(node.address)) {
+				nodes.remove(node.address);
+				node.client.close();
+				LOGGER.info("Elasticsearch node removed: " + node.address);
+			}
+		}
+	}
+
+	/**
+	 * Get the client of the healthy node with the smallest latency.
+	 * @return	The client of the fastest node, or of any node if none of them is healthy.
+	 */
+	public TransportClient select() {
+		Node best = fastest(null);
+		return best == null ? null : best.client;
+	}
+
+	/**
+	 * Mark the node of a client as unhealthy, after a Request failed on it, and get the next node.
+	 * @param failed	The client of the failed node.
+	 * @return	The client of the fastest other node, or null if there is no other node.
+	 */
+	public TransportClient failover(TransportClient failed) {
+		Node failedNode = null;
+		for (Node node : nodes.values()) {
+			if (node.client == failed) {
+				failedNode = node;
+			}
+		}
+		if (failedNode != null && failedNode.healthy) {
+			failedNode.healthy = false;
+			LOGGER.warning("Elasticsearch node unreachable: " + failedNode.address);
+		}
+
+		Node next = fastest(failed);
+		return next == null ? null : next.client;
+	}
+
+	/**
+	 * Get the fastest node other than the node of a client, to send a Request again, without marking the node as unhealthy.
+	 * @param client	The client of the node.
+	 * @return	The client of the fastest other node, or the same client if there is no other node.
+	 */
+	public TransportClient other(TransportClient client) {
+		Node next = fastest(client);
+		return next == null ? client : next.client;
+	}
+
+	/**
+	 * Find the healthy node with the smallest latency.
+	 * @param exclude	Client that is not taken into account, can be null.
+	 * @return	The fastest healthy node, any other node if none of them is healthy, or null if there is no node.
+	 */
+	private Node fastest(TransportClient exclude) {
+		Node best = null;
+		for (Node node : nodes.values()) {
+			if (node.client == exclude) {
+				continue;
+			}
+			if (best == null || (node.healthy && !best.healthy)
+					|| (node.healthy == best.healthy && node.latency < best.latency)) {
+				best = node;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Get the state of every node.
+	 * @return	A JSONArray with the address, latency, health and thread pools of the nodes.
+	 */
+	public JSONArray getStats() {
+		JSONArray jsonArray = new JSONArray();
+
+		for (Node node : nodes.values()) {
+			JSONObject json = new JSONObject();
+			json.put("address", node.address);
+			json.put("healthy", node.healthy);
+			json.put("latencyms", node.latency / 1000000.0);
+			json.put("threadpools", getThreadPoolStats(node.client));
+			jsonArray.put(json);
+		}
+		return jsonArray;
+	}
+
+	/**
+	 * Get the statistics of the thread pools of a client.
+	 * @param client	The client.
+	 * @return	A JSONArray with the statistics of every thread pool.
+	 */
+	private static JSONArray getThreadPoolStats(TransportClient client) {
+		JSONArray threadPools = new JSONArray();
+
+		for (ThreadPoolStats.Stats stats : client.threadPool().stats()) {
+			JSONObject pool = new JSONObject();
+			pool.put("name", stats.getName());
+			pool.put("threads", stats.getThreads());
+			pool.put("active", stats.getActive());
+			pool.put("queue", stats.getQueue());
+			pool.put("largest", stats.getLargest());
+			pool.put("rejected", stats.getRejected());
+			pool.put("completed", stats.getCompleted());
+			threadPools.put(pool);
+		}
+		return threadPools;
+	}
+
+	/**
+	 * Stop the measurements and close every client.
+	 */
+	public void close() {
+		scheduler.shutdownNow();
+
+		for (Node node : nodes.values()) {
+			node.client.close();
+		}
+		if (discoveryClient != null) {
+			discoveryClient.close();
+		}
+	}
+
+	/**
+	 * One node of the cluster, with the client connected to it.
+	 */
+	private static class Node {
+
+		private final String address;
+		private final TransportClient client;
+		// average round-trip time in nanoseconds
+		private volatile double latency;
+		private volatile boolean healthy = true;
+
+		private Node(String address, TransportClient client) {
+			this.address = address;
+			this.client = client;
+		}
+
+		/**
+		 * Measure the round-trip time of a local cluster health Request.
+		 * @param timeout	Time after the node is considered unreachable.
+		 */
+		private void ping(TimeValue timeout) {
+			long start = System.nanoTime();
+			try {
+				client.admin().cluster().prepareHealth().setLocal(true).get(timeout);
+				long elapsed = System.nanoTime() - start;
+
+				latency = latency == 0 ? elapsed : LATENCY_WEIGHT * elapsed + (1 - LATENCY_WEIGHT) * latency;
+				if (!healthy) {
+					LOGGER.info("Elasticsearch node reachable again: " + address);
+				}
+				healthy = true;
+			} catch (RuntimeException e) {
+				if (healthy) {
+					LOGGER.warning("Elasticsearch node unreachable: " + address);
+				}
+				healthy = false;
+			}
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * This class limits the number of Requests sent to the Elasticsearch DB at the same time.
+ * The limit adapts to the latency of the Responses (additive increase, multiplicative decrease):
+ * while the average latency stays close to the smallest latency measured, the limit grows by one per
+ * limit Responses; when the latency grows over tolerance times the smallest latency, or a Request fails
+ * because the DB is overloaded, the limit is decreased. A Request over the limit is rejected, not queued.
+ * A part of the limit is reserved for the Requests with priority (checkout).
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+public class ConcurrencyLimiter {
+
+	// weight of the newest latency in the average latency
+	private static final double LATENCY_WEIGHT = 0.1;
+
+	// number of Responses after the smallest latency is measured again, so it follows the changes of the cluster
+	private static final int MIN_LATENCY_WINDOW = 1000;
+
+	private final int minLimit;
+	private final int maxLimit;
+	private final double tolerance;
+	private final double backoff;
+	private final double priorityReserve;
+
+	private final AtomicInteger inflight = new AtomicInteger();
+	private final AtomicLong accepted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+
+	private volatile double limit;
+
+	// guarded by this
+	private double latency;
+	private long minLatency = Long.MAX_VALUE;
+	private long windowMinLatency = Long.MAX_VALUE;
+	private int windowCount;
+	private long lastDecrease;
+
+	/**
+	 * Constructor of the class.
+	 * @param initialLimit	The limit at the start.
+	 * @param minLimit	The limit is never decreased under this value.
+	 * @param maxLimit	The limit is never increased over this value.
+	 * @param tolerance	How many times the smallest latency the average latency can grow, before the limit is decreased.
+	 * @param backoff	The limit is multiplied with it, when it's decreased.
+	 * @param priorityReserve	The part of the limit only the Requests with priority can use, between 0 and 1.
+	 */
+	public ConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, double tolerance, double backoff, double priorityReserve) {
+		this.limit = initialLimit;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.tolerance = tolerance;
+		this.backoff = backoff;
+		this.priorityReserve = priorityReserve;
+	}
+
+	/**
+	 * Take a place for a Request, if the limit is not reached.
+	 * @param priority	true if the Request can use the reserved part of the limit.
+	 * @return	true if the Request can be sent, false if it's rejected.
+	 */
+	public boolean tryAcquire(boolean priority) {
+		int available = priority ? (int) limit : (int) (limit * (1 - priorityReserve));
+		if (inflight.incrementAndGet() > Math.max(1, available)) {
+			inflight.decrementAndGet();
+			rejected.incrementAndGet();
+			return false;
+		}
+		accepted.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Free the place of a Request, and adapt the limit to the latency of the Request.
+	 * @param elapsed	The time from sending the Request to the Response, in nanoseconds.
+	 * @param overloaded	true if the Request failed because the DB is overloaded: rejected or timed out by the DB.
+	 */
+	public void release(long elapsed, boolean overloaded) {
+		int current = inflight.getAndDecrement();
+		if (overloaded) {
+			dropped.incrementAndGet();
+		}
+		update(elapsed, overloaded, current);
+	}
+
+	private synchronized void update(long elapsed, boolean overloaded, int current) {
+		latency = latency == 0 ? elapsed : LATENCY_WEIGHT * elapsed + (1 - LATENCY_WEIGHT) * latency;
+
+		windowMinLatency = Math.min(windowMinLatency, elapsed);
+		minLatency = Math.min(minLatency, elapsed);
+		if (++windowCount >= MIN_LATENCY_WINDOW) {
+			minLatency = windowMinLatency;
+			windowMinLatency = Long.MAX_VALUE;
+			windowCount = 0;
+		}
+
+		if (overloaded || latency > minLatency * tolerance) {
+			// decrease once in a round-trip time, the Responses of the Requests already sent are slow too
+			long now = System.nanoTime();
+			if (now - lastDecrease >= latency) {
+				limit = Math.max(minLimit, limit * backoff);
+				lastDecrease = now;
+			}
+		} else if (current * 2 >= limit) {
+			// grow only if the limit is used, one place for every limit Responses
+			limit = Math.min(maxLimit, limit + 1 / limit);
+		}
+	}
+
+	/**
+	 * Get the state of the limiter.
+	 * @return	A JSONObject with the limit, the number of Requests sent and rejected, and the latencies.
+	 */
+	public synchronized JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("limit", (int) limit);
+		json.put("inflight", inflight.get());
+		json.put("accepted", accepted.get());
+		json.put("rejected", rejected.get());
+		json.put("dropped", dropped.get());
+		json.put("latencyms", latency / 1000000.0);
+		json.put("minlatencyms", minLatency == Long.MAX_VALUE ? 0 : minLatency / 1000000.0);
+
+		return json;
+	}
+}
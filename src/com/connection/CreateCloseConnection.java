@@ -1,33 +1,173 @@
+/**
+ * This class creates and closes the connection to the Elasticsearch DB.
+ * The clients of the nodes are created once for the whole application at deployment,
+ * every injection gets the client of the fastest healthy node, and the clients are closed
+ * when the application is stopped.
+ * The storage used by the DAOs is chosen by the "storage.backend" property: "elasticsearch",
+ * or "memory" to keep the data in the memory of the application, without connecting to the DB.
+ * The catalog is loaded in the memory when the storage is created, the Carts and Orders stored with the items
+ * list are rewritten with the lines in the background, and the invalidation bus between the instances of the application is started.
+ * The Carts kept in memory to be written later are written when the application is stopped.
+ *
+ * @author sandor.naghi
+ */
+
 package com.connection;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 
-import javax.enterprise.inject.Disposes;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.enterprise.context.ApplicationScoped;
+import javax.enterprise.context.Initialized;
+import javax.enterprise.event.Observes;
 import javax.enterprise.inject.Produces;
 
 import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.unit.TimeValue;
+import org.json.JSONObject;
+
+import com.dao.ItemsMigration;
+import com.dao.ProductCatalog;
+import com.repository.Repositories;
+import com.repository.elasticsearch.ElasticsearchStorage;
+import com.repository.memory.InMemoryStorage;
 
+@ApplicationScoped
 public class CreateCloseConnection {
 
+	private ClusterNodes clusterNodes;
+
+	/**
+	 * Create the clients when the application starts, and measure the latency of the nodes,
+	 * so the connections are opened before the first Request arrives.
+	 */
+	@PostConstruct
+	private void createConnection() {
+		InvalidationBus.start();
+
+		if ("memory".equalsIgnoreCase(ApplicationProperties.getString("storage.backend", "elasticsearch"))) {
+			Repositories.setStorage(new InMemoryStorage());
+			ProductCatalog.start();
+			ItemsMigration.start();
+			return;
+		}
+
+		List<TransportAddress> seeds = new ArrayList<>();
+		for (String host : ApplicationProperties.getList("elasticsearch.hosts", "localhost:9300")) {
+			try {
+				seeds.add(toTransportAddress(host));
+			} catch (UnknownHostException e) {
+				e.printStackTrace();
+			}
+		}
+
+		clusterNodes = new ClusterNodes(createSettings(), seeds,
+				ApplicationProperties.getBoolean("elasticsearch.sniff", false),
+				TimeValue.parseTimeValue(ApplicationProperties.getString("elasticsearch.ping.interval", "5s"), null, "elasticsearch.ping.interval"),
+				TimeValue.parseTimeValue(ApplicationProperties.getString("elasticsearch.ping.timeout", "5s"), null, "elasticsearch.ping.timeout"));
+
+		RequestExecutor.setClusterNodes(clusterNodes);
+		Repositories.setStorage(new ElasticsearchStorage(clusterNodes::select));
+		ProductCatalog.start();
+		ItemsMigration.start();
+	}
+
+	/**
+	 * Create the settings of the clients from the properties of the application.
+	 * @return	The settings of the TransportClient.
+	 */
+	private Settings createSettings() {
+		Settings.Builder settings = Settings.settingsBuilder()
+				.put("cluster.name", ApplicationProperties.getString("elasticsearch.cluster.name", "elasticsearch"))
+				.put("client.transport.nodes_sampler_interval", ApplicationProperties.getString("elasticsearch.ping.interval", "5s"))
+				.put("client.transport.ping_timeout", ApplicationProperties.getString("elasticsearch.ping.timeout", "5s"))
+				.put("transport.netty.worker_count", ApplicationProperties.getInt("elasticsearch.transport.workers", 4))
+				.put("threadpool.listener.size", ApplicationProperties.getInt("elasticsearch.threadpool.listener.size", 4))
+				.put("transport.connections_per_node.reg", ApplicationProperties.getInt("elasticsearch.connections.per.node", 6));
+
+		for (Map.Entry<String, String> entry : ApplicationProperties.getByPrefix("elasticsearch.settings.").entrySet()) {
+			settings.put(entry.getKey(), entry.getValue());
+		}
+
+		return settings.build();
+	}
+
+	/**
+	 * Create a transport address from a "host:port" String.
+	 * @param host	The host and the port, the port is 9300 if it's missing.
+	 * @return	The transport address.
+	 * @throws UnknownHostException	If the host can't be resolved.
+	 */
+	private TransportAddress toTransportAddress(String host) throws UnknownHostException {
+		int index = host.lastIndexOf(':');
+		if (index < 0) {
+			return new InetSocketTransportAddress(InetAddress.getByName(host), 9300);
+		}
+		return new InetSocketTransportAddress(InetAddress.getByName(host.substring(0, index)), Integer.parseInt(host.substring(index + 1)));
+	}
+
+	/**
+	 * Observing the initialization of the application, creates the clients at deployment.
+	 * @param context	The application context.
+	 */
+	public void init(@Observes @Initialized(ApplicationScoped.class) Object context) {
+		// the clients are created in createConnection(), when this bean is instantiated
+	}
+
+	/**
+	 * Every injection point gets the client of the fastest healthy node.
+	 * @return	The TransportClient, null if the data is kept in memory.
+	 */
 	@Produces
-	private TransportClient createConnection() {
-		TransportClient client = null;
-		try {
-			client = TransportClient.builder().build()
-					        .addTransportAddress(new InetSocketTransportAddress(InetAddress.getByName("localhost"), 9300));
-		} catch (UnknownHostException e) {
-			e.printStackTrace();
+	public TransportClient getConnection() {
+		return clusterNodes == null ? null : clusterNodes.select();
+	}
+
+	/**
+	 * Get information about the connection: the latency and the health of every node,
+	 * the statistics of the thread pools of the clients, the threads completing the Responses,
+	 * the limit of the Requests sent at the same time, the state of the bulkheads, the reads sent again,
+	 * the state of the circuit breaker, and the storage used with its caches.
+	 * @return	A JSONObject with the statistics.
+	 */
+	public JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("asyncmode", RequestExecutor.getMode());
+		json.put("limiter", RequestExecutor.getLimiter().getStats());
+		json.put("bulkheads", Bulkhead.getAllStats());
+		json.put("reads", RequestExecutor.getReadStats());
+		json.put("breaker", RequestExecutor.getBreaker().getStats());
+		json.put("storage", Repositories.getStorage().getName());
+		json.put("storagestats", Repositories.getStorage().getStats());
+		if (clusterNodes != null) {
+			json.put("nodes", clusterNodes.getStats());
 		}
-		
-		return client;
+
+		return json;
 	}
-	
-	@SuppressWarnings("unused")
-	private void closeConnection(@Disposes TransportClient client) {
-		if (client != null) {
-			client.close();
+
+	/**
+	 * Close the clients when the application is stopped.
+	 */
+	@PreDestroy
+	private void closeConnection() {
+		ItemsMigration.stop();
+		ProductCatalog.stop();
+		InvalidationBus.stop();
+		// the Carts written later are written while the clients are open
+		Repositories.getStorage().close();
+		RequestExecutor.setClusterNodes(null);
+		RequestExecutor.shutdown();
+		if (clusterNodes != null) {
+			clusterNodes.close();
 		}
 	}
 }
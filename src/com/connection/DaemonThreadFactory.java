@@ -0,0 +1,31 @@
+/**
+ * This class creates the daemon threads of the thread pools of the application, named after the pool.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DaemonThreadFactory implements ThreadFactory {
+
+	private final String name;
+	private final AtomicInteger count = new AtomicInteger();
+
+	/**
+	 * Constructor of the class.
+	 * @param name	Name of the thread pool, the threads are named "name-1", "name-2"...
+	 */
+	public DaemonThreadFactory(String name) {
+		this.name = name;
+	}
+
+	@Override
+	public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+		thread.setDaemon(true);
+		return thread;
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * This class is the time limit of a Request of the application.
+ * The deadline of the Request is set on the thread calling the DAOs, and it's carried over to the threads
+ * completing the Responses of the Elasticsearch DB, so every call of the Request shares the same budget.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+public final class Deadline {
+
+	private static final ThreadLocal<Deadline> CURRENT = new ThreadLocal<>();
+
+	private final String name;
+	private final long millis;
+	private final long expiresAt;
+	private final Map<Class<?>, Object> attachments = new ConcurrentHashMap<>();
+
+	private Deadline(String name, long millis) {
+		this.name = name;
+		this.millis = millis;
+		this.expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Create a deadline, starting now.
+	 * @param name	The name of the endpoint, shown in the failure.
+	 * @param millis	The time the Request has, in milliseconds.
+	 * @return	The deadline.
+	 */
+	public static Deadline after(String name, long millis) {
+		return new Deadline(name, millis);
+	}
+
+	/**
+	 * Get the deadline of the Request running on the current thread.
+	 * @return	The deadline, or null if the current thread has none.
+	 */
+	public static Deadline current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Set the deadline of the current thread.
+	 * @param deadline	The deadline, or null to remove it.
+	 */
+	public static void set(Deadline deadline) {
+		if (deadline == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(deadline);
+		}
+	}
+
+	/**
+	 * Get the time left until the deadline.
+	 * @return	The remaining time in milliseconds, 0 if the deadline is exceeded.
+	 */
+	public long remainingMillis() {
+		return Math.max(0, TimeUnit.NANOSECONDS.toMillis(expiresAt - System.nanoTime()));
+	}
+
+	/**
+	 * Check if the deadline has passed.
+	 * @return	true if there is no time left.
+	 */
+	public boolean isExpired() {
+		return expiresAt - System.nanoTime() <= 0;
+	}
+
+	/**
+	 * Get an object attached to the Request of the deadline, it's created at the first use.
+	 * @param type	The type of the object, one object of every type is attached.
+	 * @param create	Creates the object.
+	 * @return	The object.
+	 */
+	public <T> T attachment(Class<T> type, Supplier<T> create) {
+		return type.cast(attachments.computeIfAbsent(type, key -> create.get()));
+	}
+
+	/**
+	 * Get an object attached to the Request of the deadline.
+	 * @param type	The type of the object.
+	 * @return	The object, or null if it was never created.
+	 */
+	public <T> T getAttachment(Class<T> type) {
+		return type.cast(attachments.get(type));
+	}
+
+	/**
+	 * Remove an object attached to the Request of the deadline, when the Request doesn't need it any more.
+	 * @param type	The type of the object.
+	 * @return	The object, or null if it was never created.
+	 */
+	public <T> T detach(Class<T> type) {
+		return type.cast(attachments.remove(type));
+	}
+
+	/**
+	 * Create the exception a Request fails with, when the deadline has passed.
+	 * @return	The exception.
+	 */
+	public DeadlineExceededException exceeded() {
+		return new DeadlineExceededException("The deadline of " + name + " (" + millis + "ms) has been exceeded.");
+	}
+}
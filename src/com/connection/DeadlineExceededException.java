@@ -0,0 +1,20 @@
+/**
+ * This exception is thrown when a Request of the application ran out of time, before the DB answered.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+public class DeadlineExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor of the class.
+	 * @param message	The description of the deadline.
+	 */
+	public DeadlineExceededException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,72 @@
+/**
+ * This class contains helper methods for working with CompletableFutures.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+public final class Futures {
+
+	private Futures() {
+	}
+
+	/**
+	 * Wait for all the futures, and collect their results.
+	 * @param futures	The futures.
+	 * @return	A future with the results, in the order of the futures.
+	 */
+	public static <T> CompletableFuture<List<T>> allAsList(List<CompletableFuture<T>> futures) {
+		return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]))
+				.thenApply(ignored -> {
+					List<T> results = new ArrayList<>(futures.size());
+					for (CompletableFuture<T> future : futures) {
+						results.add(future.join());
+					}
+					return results;
+				});
+	}
+
+	/**
+	 * Block the current thread until the future is completed.
+	 * Used only where the caller can't be asynchronous, like the validation of the parameters.
+	 * @param future	The future.
+	 * @return	The result of the future.
+	 */
+	public static <T> T await(CompletableFuture<T> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = unwrap(e);
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	/**
+	 * Get the real cause of a failed future.
+	 * @param throwable	The exception the future completed with.
+	 * @return	The cause, without the CompletionException and ExecutionException wrappers.
+	 */
+	public static Throwable unwrap(Throwable throwable) {
+		Throwable cause = throwable;
+		while ((cause instanceof CompletionException || cause instanceof ExecutionException) && cause.getCause() != null) {
+			cause = cause.getCause();
+		}
+		return cause;
+	}
+}
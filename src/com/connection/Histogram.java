@@ -0,0 +1,67 @@
+/**
+ * This class counts the values measured in buckets, like the size of the batches sent to the DB.
+ * Every bucket counts the values up to its upper bound, the last bucket counts the values over all the bounds.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.json.JSONObject;
+
+public class Histogram {
+
+	private final long[] bounds;
+	private final AtomicLongArray counts;
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Constructor of the class.
+	 * @param bounds	The upper bounds of the buckets, in increasing order.
+	 */
+	public Histogram(long... bounds) {
+		this.bounds = bounds.clone();
+		this.counts = new AtomicLongArray(bounds.length + 1);
+	}
+
+	/**
+	 * Count a value.
+	 * @param value	The value.
+	 */
+	public void record(long value) {
+		int bucket = 0;
+		while (bucket < bounds.length && value > bounds[bucket]) {
+			bucket++;
+		}
+		counts.incrementAndGet(bucket);
+		count.incrementAndGet();
+		sum.addAndGet(value);
+		max.accumulateAndGet(value, Math::max);
+	}
+
+	/**
+	 * Get the counts of the buckets.
+	 * @return	A JSONObject with the number of values, the average, the largest value, and the count of every bucket.
+	 */
+	public JSONObject getStats() {
+		JSONObject buckets = new JSONObject();
+		for (int i = 0; i < bounds.length; i++) {
+			buckets.put("<=" + bounds[i], counts.get(i));
+		}
+		buckets.put(">" + bounds[bounds.length - 1], counts.get(bounds.length));
+
+		long values = count.get();
+		JSONObject json = new JSONObject();
+		json.put("count", values);
+		json.put("mean", values == 0 ? 0 : (double) sum.get() / values);
+		json.put("max", max.get());
+		json.put("buckets", buckets);
+
+		return json;
+	}
+}
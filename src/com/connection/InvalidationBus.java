@@ -0,0 +1,328 @@
+/**
+ * This class tells the other instances of the application which documents were changed by this instance,
+ * so their caches don't keep serving the old state until the cache expires.
+ * The keys of the changed documents ("product/id", "client/id") are collected for "invalidation.bus.batch.ms"
+ * milliseconds, then sent in one UDP datagram to every peer listed in "invalidation.bus.peers".
+ * Every datagram of an instance has the next sequence number, and the last number is repeated every
+ * "invalidation.bus.heartbeat.ms" milliseconds, so an instance that misses a datagram (UDP doesn't resend it)
+ * sees the gap, and empties all its caches instead of keeping a document that may be stale.
+ * The caches subscribe with a name, a new subscription with the same name replaces the old one.
+ * The Carts are not published: they are read from the DB by every Request, or with write-behind they are kept
+ * in memory only by the instance serving the Client, and a change of another instance is found by the version of the Cart.
+ *
+ * Several instances on one host listen on different ports, like:
+ * -Dinvalidation.bus.port=7401 -Dinvalidation.bus.peers=127.0.0.1:7402,127.0.0.1:7403
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+public final class InvalidationBus {
+
+	private static final Logger LOGGER = Logger.getLogger(InvalidationBus.class.getName());
+
+	private static final boolean ENABLED = ApplicationProperties.getBoolean("invalidation.bus", false);
+	private static final int PORT = ApplicationProperties.getInt("invalidation.bus.port", 7400);
+	private static final long BATCH = ApplicationProperties.getLong("invalidation.bus.batch.ms", 5);
+	private static final long HEARTBEAT = ApplicationProperties.getLong("invalidation.bus.heartbeat.ms", 1000);
+
+	// a datagram this large is not fragmented on the usual networks
+	private static final int MAX_DATAGRAM = 1400;
+
+	// the instances are told apart by this id, a restarted instance starts its sequence again
+	private static final String NODE = UUID.randomUUID().toString();
+
+	private static final Map<String, Listener> LISTENERS = new ConcurrentHashMap<>();
+	private static final Queue<String> PENDING = new ConcurrentLinkedQueue<>();
+	private static final Map<String, Long> RECEIVED = new ConcurrentHashMap<>();
+
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+	private static final AtomicLong SENT_KEYS = new AtomicLong();
+	private static final AtomicLong RECEIVED_MESSAGES = new AtomicLong();
+	private static final AtomicLong RECEIVED_KEYS = new AtomicLong();
+	private static final AtomicLong GAPS = new AtomicLong();
+	private static final AtomicLong FAILURES = new AtomicLong();
+
+	private static volatile DatagramSocket socket;
+	private static volatile ScheduledExecutorService sender;
+	private static volatile List<InetSocketAddress> peers = new ArrayList<>();
+
+	private InvalidationBus() {
+	}
+
+	/**
+	 * Start sending and receiving the changed keys. Called when the application starts.
+	 */
+	public static synchronized void start() {
+		if (!ENABLED || socket != null) {
+			return;
+		}
+
+		List<InetSocketAddress> addresses = new ArrayList<>();
+		for (String peer : ApplicationProperties.getList("invalidation.bus.peers", "")) {
+			// a wrong peer is left out, the application starts with the others
+			int colon = peer.lastIndexOf(':');
+			try {
+				if (colon < 0) {
+					throw new IllegalArgumentException("host:port expected");
+				}
+				addresses.add(new InetSocketAddress(peer.substring(0, colon), Integer.parseInt(peer.substring(colon + 1))));
+			} catch (IllegalArgumentException e) {
+				LOGGER.warning("Invalid peer of the invalidation bus left out: " + peer + " (" + e.getMessage() + ")");
+			}
+		}
+		peers = addresses;
+
+		try {
+			socket = new DatagramSocket(PORT);
+			// the datagrams of a burst of changes wait here while the caches are invalidated
+			socket.setReceiveBufferSize(1 << 20);
+		} catch (SocketException e) {
+			e.printStackTrace();
+			return;
+		}
+
+		Thread receiver = new DaemonThreadFactory("invalidation-receiver").newThread(InvalidationBus::receive);
+		receiver.start();
+
+		sender = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("invalidation-sender"));
+		sender.scheduleWithFixedDelay(InvalidationBus::flush, BATCH, BATCH, TimeUnit.MILLISECONDS);
+		sender.scheduleWithFixedDelay(InvalidationBus::heartbeat, HEARTBEAT, HEARTBEAT, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Stop the bus, when the application is stopped. The keys not sent yet are sent first.
+	 */
+	public static synchronized void stop() {
+		if (sender != null) {
+			sender.shutdown();
+			try {
+				sender.awaitTermination(1, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			flush();
+			sender = null;
+		}
+		if (socket != null) {
+			socket.close();
+			socket = null;
+		}
+	}
+
+	/**
+	 * Subscribe a cache to the keys changed by the other instances.
+	 * @param name	The name of the cache, it replaces the cache subscribed before with the same name.
+	 * @param listener	Removes the changed documents from the cache.
+	 */
+	public static void subscribe(String name, Listener listener) {
+		LISTENERS.put(name, listener);
+	}
+
+	/**
+	 * Tell the other instances that a document was changed, call it when the change is written.
+	 * @param type	The type of the document, like "product".
+	 * @param id	The id of the document.
+	 */
+	public static void publish(String type, String id) {
+		if (socket != null && id != null) {
+			PENDING.add(type + "/" + id);
+		}
+	}
+
+	/**
+	 * Send the keys collected since the last batch, in as few datagrams as possible.
+	 */
+	private static void flush() {
+		Set<String> keys = new LinkedHashSet<>();
+		String key;
+		while ((key = PENDING.poll()) != null) {
+			keys.add(key);
+		}
+
+		JSONArray batch = new JSONArray();
+		int size = 0;
+		for (String next : keys) {
+			// the quotes and the comma of the key
+			int length = next.getBytes(StandardCharsets.UTF_8).length + 3;
+			if (size + length > MAX_DATAGRAM - 100 && batch.length() > 0) {
+				send(SEQUENCE.incrementAndGet(), batch);
+				batch = new JSONArray();
+				size = 0;
+			}
+			batch.put(next);
+			size += length;
+		}
+		if (batch.length() > 0) {
+			send(SEQUENCE.incrementAndGet(), batch);
+		}
+		SENT_KEYS.addAndGet(keys.size());
+	}
+
+	/**
+	 * Repeat the sequence number of the last datagram, so a lost datagram is noticed even if no more keys are sent.
+	 */
+	private static void heartbeat() {
+		send(SEQUENCE.get(), new JSONArray());
+	}
+
+	/**
+	 * Send a datagram to all the peers.
+	 * @param sequence	The sequence number of the datagram.
+	 * @param keys	The changed keys, empty for a heartbeat.
+	 */
+	private static void send(long sequence, JSONArray keys) {
+		DatagramSocket current = socket;
+		if (current == null) {
+			return;
+		}
+
+		JSONObject json = new JSONObject();
+		json.put("node", NODE);
+		json.put("seq", sequence);
+		json.put("keys", keys);
+		byte[] bytes = json.toString().getBytes(StandardCharsets.UTF_8);
+
+		for (InetSocketAddress peer : peers) {
+			try {
+				current.send(new DatagramPacket(bytes, bytes.length, peer));
+			} catch (IOException e) {
+				// the peer will see the gap in the sequence
+				FAILURES.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Receive the datagrams of the other instances, until the socket is closed.
+	 */
+	private static void receive() {
+		byte[] buffer = new byte[65536];
+		while (true) {
+			DatagramSocket current = socket;
+			if (current == null) {
+				return;
+			}
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			try {
+				current.receive(packet);
+			} catch (IOException e) {
+				if (!current.isClosed()) {
+					e.printStackTrace();
+				}
+				continue;
+			}
+
+			try {
+				apply(new JSONObject(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8)));
+			} catch (JSONException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Remove the keys of a datagram from the caches, or empty the caches if a datagram was missed.
+	 * @param json	The datagram.
+	 */
+	private static void apply(JSONObject json) {
+		String node = json.getString("node");
+		if (NODE.equals(node)) {
+			// this instance is in the list of the peers too
+			return;
+		}
+		long sequence = json.getLong("seq");
+		JSONArray keys = json.getJSONArray("keys");
+		RECEIVED_MESSAGES.incrementAndGet();
+
+		Long last = RECEIVED.get(node);
+		// the first datagram of an instance, or the next one: the number before it, or the same for a heartbeat
+		long expected = keys.length() > 0 ? sequence - 1 : sequence;
+		if (last == null ? expected > 0 : expected > last) {
+			// some datagrams were lost, or sent before this instance started: anything could have changed
+			GAPS.incrementAndGet();
+			for (Listener listener : LISTENERS.values()) {
+				listener.invalidateAll();
+			}
+		}
+		RECEIVED.merge(node, sequence, Math::max);
+
+		for (int i = 0; i < keys.length(); i++) {
+			String key = keys.getString(i);
+			int slash = key.indexOf('/');
+			if (slash < 0) {
+				continue;
+			}
+			for (Listener listener : LISTENERS.values()) {
+				listener.invalidate(key.substring(0, slash), key.substring(slash + 1));
+			}
+		}
+		RECEIVED_KEYS.addAndGet(keys.length());
+	}
+
+	/**
+	 * Get the state of the bus.
+	 * @return	A JSONObject with the number of keys and datagrams sent and received, the gaps seen, and the peers.
+	 */
+	public static JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("enabled", socket != null);
+		json.put("node", NODE);
+		json.put("port", PORT);
+		json.put("peers", peers.toString());
+		json.put("sequence", SEQUENCE.get());
+		json.put("sentkeys", SENT_KEYS.get());
+		json.put("pending", PENDING.size());
+		json.put("receivedmessages", RECEIVED_MESSAGES.get());
+		json.put("receivedkeys", RECEIVED_KEYS.get());
+		json.put("gaps", GAPS.get());
+		json.put("sendfailures", FAILURES.get());
+		json.put("subscribers", LISTENERS.keySet().toString());
+
+		return json;
+	}
+
+	/**
+	 * A cache subscribed to the changes of the other instances.
+	 */
+	public interface Listener {
+
+		/**
+		 * Remove a document changed by another instance.
+		 * @param type	The type of the document, like "product".
+		 * @param id	The id of the document.
+		 */
+		void invalidate(String type, String id);
+
+		/**
+		 * Remove everything, a change may have been missed.
+		 */
+		void invalidateAll();
+	}
+}
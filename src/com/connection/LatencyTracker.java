@@ -0,0 +1,57 @@
+/**
+ * This class keeps the latencies of the last Responses, and calculates a percentile of them.
+ * The percentile is calculated again after every 128 Responses, not at every Request.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.util.Arrays;
+
+public class LatencyTracker {
+
+	private static final int SAMPLES = 1024;
+	private static final int RECALCULATE = 128;
+
+	private final double percentile;
+
+	// guarded by this
+	private final long[] latencies = new long[SAMPLES];
+	private int count;
+	private int next;
+
+	private volatile long value;
+
+	/**
+	 * Constructor of the class.
+	 * @param percentile	The percentile calculated, between 0 and 1, for example 0.95.
+	 */
+	public LatencyTracker(double percentile) {
+		this.percentile = percentile;
+	}
+
+	/**
+	 * Add the latency of a Response.
+	 * @param elapsed	The latency, in nanoseconds.
+	 */
+	public synchronized void record(long elapsed) {
+		latencies[next] = elapsed;
+		next = (next + 1) % SAMPLES;
+		count++;
+
+		if (count % RECALCULATE == 0) {
+			long[] sorted = Arrays.copyOf(latencies, Math.min(count, SAMPLES));
+			Arrays.sort(sorted);
+			value = sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+		}
+	}
+
+	/**
+	 * Get the percentile of the latencies.
+	 * @return	The latency in nanoseconds, or 0 if there are not enough Responses yet.
+	 */
+	public long get() {
+		return value;
+	}
+}
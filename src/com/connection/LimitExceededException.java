@@ -0,0 +1,21 @@
+/**
+ * This exception is thrown when a Request to the Elasticsearch DB is rejected,
+ * because the number of Requests waiting for the DB reached the limit.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+public class LimitExceededException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor of the class.
+	 * @param message	The description of the limit.
+	 */
+	public LimitExceededException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,496 @@
+/**
+ * This class executes the Requests to the Elasticsearch DB, without blocking the calling thread.
+ * The Response completes a CompletableFuture through an ActionListener, and the code waiting for
+ * the future runs on the thread pool of the bulkhead of the Request, or on virtual threads ("async.mode=virtual"),
+ * not on the network threads of the client.
+ * If the node of the client is unreachable, the Request is sent once more to the next fastest node.
+ * The number of Requests waiting for the DB is limited, a Request over the limit is rejected at once.
+ * The reads can be sent again after a transient failure, or to a second node if they are slow.
+ * If too many Requests fail, the circuit breaker stops sending Requests for a while.
+ * The deadline of the Request limits the time of every call, and is carried over to the code waiting for the Response.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.NoShardAvailableActionException;
+import org.elasticsearch.action.UnavailableShardsException;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.support.replication.ReplicationRequestBuilder;
+import org.elasticsearch.action.support.single.instance.InstanceShardOperationRequestBuilder;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.transport.ConnectTransportException;
+import org.elasticsearch.transport.NodeDisconnectedException;
+import org.elasticsearch.transport.ReceiveTimeoutTransportException;
+import org.json.JSONObject;
+
+public final class RequestExecutor {
+
+	private static final String MODE = ApplicationProperties.getString("async.mode", VirtualThreads.PLATFORM);
+
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("elasticsearch-deadline"));
+
+	private static final ConcurrencyLimiter LIMITER = new ConcurrencyLimiter(
+			ApplicationProperties.getInt("limiter.initial", 20),
+			ApplicationProperties.getInt("limiter.min", 4),
+			ApplicationProperties.getInt("limiter.max", 200),
+			Double.parseDouble(ApplicationProperties.getString("limiter.tolerance", "2.0")),
+			Double.parseDouble(ApplicationProperties.getString("limiter.backoff", "0.9")),
+			Double.parseDouble(ApplicationProperties.getString("limiter.priority.reserve", "0.2")));
+
+	private static final CircuitBreaker BREAKER = new CircuitBreaker(
+			ApplicationProperties.getInt("breaker.window", 20),
+			Double.parseDouble(ApplicationProperties.getString("breaker.failure.rate", "0.5")),
+			ApplicationProperties.getLong("breaker.open.ms", 5000),
+			ApplicationProperties.getInt("breaker.probes", 3));
+
+	private static final int READ_ATTEMPTS = ApplicationProperties.getInt("retry.attempts", 3);
+	private static final long READ_BACKOFF = ApplicationProperties.getLong("retry.backoff.ms", 20);
+	private static final long READ_MAX_BACKOFF = ApplicationProperties.getLong("retry.backoff.max.ms", 500);
+	private static final boolean HEDGING = ApplicationProperties.getBoolean("hedge.enabled", false);
+
+	// latency of the reads, a second read is sent if the first one is slower than this
+	private static final LatencyTracker READ_LATENCY = new LatencyTracker(0.95);
+	private static final AtomicLong RETRIES = new AtomicLong();
+	private static final AtomicLong HEDGES = new AtomicLong();
+
+	private static volatile ClusterNodes clusterNodes;
+
+	private RequestExecutor() {
+	}
+
+	static {
+		if (VirtualThreads.VIRTUAL.equalsIgnoreCase(MODE) && ApplicationProperties.getBoolean("async.virtual.trace.pinned", false)) {
+			VirtualThreads.tracePinnedThreads();
+		}
+	}
+
+	/**
+	 * Get the threads the futures are completed on.
+	 * @return	"virtual" if every Response gets a virtual thread, "platform" if a fixed thread pool is used.
+	 */
+	public static String getMode() {
+		return VirtualThreads.VIRTUAL.equalsIgnoreCase(MODE) && VirtualThreads.isSupported() ? VirtualThreads.VIRTUAL : VirtualThreads.PLATFORM;
+	}
+
+	/**
+	 * Get the limiter of the Requests sent at the same time.
+	 * @return	The limiter.
+	 */
+	public static ConcurrencyLimiter getLimiter() {
+		return LIMITER;
+	}
+
+	/**
+	 * Get the circuit breaker of the DB.
+	 * @return	The circuit breaker.
+	 */
+	public static CircuitBreaker getBreaker() {
+		return BREAKER;
+	}
+
+	/**
+	 * Get the statistics of the reads.
+	 * @return	A JSONObject with the number of reads sent again, and the latency after a second read is sent.
+	 */
+	public static JSONObject getReadStats() {
+		JSONObject json = new JSONObject();
+		json.put("retries", RETRIES.get());
+		json.put("hedging", HEDGING);
+		json.put("hedges", HEDGES.get());
+		json.put("p95ms", READ_LATENCY.get() / 1000000.0);
+
+		return json;
+	}
+
+	static void setClusterNodes(ClusterNodes nodes) {
+		clusterNodes = nodes;
+	}
+
+	/**
+	 * Stop the threads completing the futures, when the application is stopped.
+	 */
+	static void shutdown() {
+		Bulkhead.shutdownAll();
+		TIMER.shutdown();
+	}
+
+	/**
+	 * Execute a Request without waiting for the Response.
+	 * If the current thread has a deadline, the Request gets the remaining time as its timeout,
+	 * and the future fails with DeadlineExceededException when the time runs out.
+	 * If too many Requests of the bulkhead of the current thread, or of the whole application wait for the DB,
+	 * the future fails at once with LimitExceededException. If the circuit breaker is open, it fails at once
+	 * with CircuitOpenException.
+	 * @param client	The client of the node the Request is sent to.
+	 * @param request	Creates the Request with the client it gets.
+	 * @return	A future completed with the Response.
+	 */
+	public static <Response extends ActionResponse> CompletableFuture<Response> executeAsync(TransportClient client,
+			Function<TransportClient, ? extends ActionRequestBuilder<?, Response, ?>> request) {
+		CompletableFuture<Response> future = new CompletableFuture<>();
+		Deadline deadline = Deadline.current();
+		Bulkhead bulkhead = Bulkhead.current();
+
+		if (deadline != null) {
+			// fail fast, without sending the Request
+			if (deadline.isExpired()) {
+				future.completeExceptionally(deadline.exceeded());
+				return future;
+			}
+			ScheduledFuture<?> timer = TIMER.schedule(() -> callback(deadline, bulkhead, () -> future.completeExceptionally(deadline.exceeded())),
+					deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+			future.whenComplete((response, e) -> timer.cancel(false));
+		}
+
+		if (!BREAKER.allowRequest()) {
+			future.completeExceptionally(new CircuitOpenException("The DB is unavailable, only the catalog can be read."));
+			return future;
+		}
+		if (!bulkhead.tryAcquire()) {
+			BREAKER.cancel();
+			future.completeExceptionally(new LimitExceededException("Too many " + bulkhead.getName() + " Requests are waiting for the DB."));
+			return future;
+		}
+		if (!LIMITER.tryAcquire(bulkhead.hasPriority())) {
+			bulkhead.release();
+			BREAKER.cancel();
+			future.completeExceptionally(new LimitExceededException("Too many Requests are waiting for the DB."));
+			return future;
+		}
+		// the places are given back when the DB answers, not when the deadline fails the future:
+		// the Request is still running on the DB until then, and its latency is counted in full
+		long start = System.nanoTime();
+
+		send(client, request, deadline, new ActionListener<Response>() {
+			@Override
+			public void onResponse(Response response) {
+				finish(bulkhead, start, null);
+				callback(deadline, bulkhead, () -> future.complete(response));
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				ClusterNodes nodes = clusterNodes;
+				TransportClient next = (nodes == null || !notSent(e) || future.isDone()) ? null : nodes.failover(client);
+				if (next == null) {
+					finish(bulkhead, start, e);
+					callback(deadline, bulkhead, () -> future.completeExceptionally(e));
+				} else {
+					send(next, request, deadline, completing(future, deadline, bulkhead, start));
+				}
+			}
+		});
+
+		return future;
+	}
+
+	/**
+	 * Execute a read that can be sent several times without changing the data, like a get by id.
+	 * If the read fails with a transient failure, it's sent again after an exponential backoff with random jitter,
+	 * while the deadline allows it. If hedging is enabled, and the read is slower than the 95th percentile of the reads,
+	 * a second read is sent to the next fastest node, and the first Response is used.
+	 * Never use it for writes, a write sent again may be executed twice.
+	 * @param client	The client of the node the read is sent to.
+	 * @param request	Creates the read with the client it gets.
+	 * @return	A future completed with the Response.
+	 */
+	public static <Response extends ActionResponse> CompletableFuture<Response> readAsync(TransportClient client,
+			Function<TransportClient, ? extends ActionRequestBuilder<?, Response, ?>> request) {
+		CompletableFuture<Response> future = new CompletableFuture<>();
+		read(client, request, future, 1, Deadline.current(), Bulkhead.current());
+		return future;
+	}
+
+	/**
+	 * Send a read, and send it again after a backoff if it failed.
+	 * @param client	The client of the node the read is sent to.
+	 * @param request	Creates the read with the client it gets.
+	 * @param future	Completed with the Response, or the last failure.
+	 * @param attempt	The number of the attempt, starting with 1.
+	 * @param deadline	The deadline of the Request, or null if it has none.
+	 * @param bulkhead	The bulkhead of the Request.
+	 */
+	private static <Response extends ActionResponse> void read(TransportClient client,
+			Function<TransportClient, ? extends ActionRequestBuilder<?, Response, ?>> request,
+			CompletableFuture<Response> future, int attempt, Deadline deadline, Bulkhead bulkhead) {
+		hedged(client, request, deadline, bulkhead).whenComplete((response, e) -> {
+			if (e == null) {
+				future.complete(response);
+				return;
+			}
+
+			Throwable cause = Futures.unwrap(e);
+			// full jitter: a random time between 0 and the exponential backoff
+			long backoff = ThreadLocalRandom.current().nextLong(Math.min(READ_MAX_BACKOFF, READ_BACKOFF << (attempt - 1)) + 1);
+			if (attempt >= READ_ATTEMPTS || !isTransient(cause) || (deadline != null && deadline.remainingMillis() <= backoff)) {
+				future.completeExceptionally(cause);
+				return;
+			}
+
+			RETRIES.incrementAndGet();
+			TIMER.schedule(() -> callback(deadline, bulkhead, () -> read(other(client), request, future, attempt + 1, deadline, bulkhead)),
+					backoff, TimeUnit.MILLISECONDS);
+		});
+	}
+
+	/**
+	 * Send a read, and if hedging is enabled and the read is slow, send it to another node too.
+	 * @param client	The client of the node the read is sent to.
+	 * @param request	Creates the read with the client it gets.
+	 * @param deadline	The deadline of the Request, or null if it has none.
+	 * @param bulkhead	The bulkhead of the Request.
+	 * @return	A future completed with the first Response, or with the failure if all the reads failed.
+	 */
+	private static <Response extends ActionResponse> CompletableFuture<Response> hedged(TransportClient client,
+			Function<TransportClient, ? extends ActionRequestBuilder<?, Response, ?>> request, Deadline deadline, Bulkhead bulkhead) {
+		long delay = READ_LATENCY.get();
+		if (!HEDGING || delay == 0) {
+			return timed(executeAsync(client, request));
+		}
+
+		CompletableFuture<Response> future = new CompletableFuture<>();
+		// number of reads not answered yet, the future fails only when all of them failed
+		AtomicInteger pending = new AtomicInteger(1);
+		BiConsumer<Response, Throwable> first = (response, e) -> {
+			if (e == null) {
+				future.complete(response);
+			} else if (pending.decrementAndGet() == 0) {
+				future.completeExceptionally(e);
+			}
+		};
+
+		timed(executeAsync(client, request)).whenComplete(first);
+
+		ScheduledFuture<?> timer = TIMER.schedule(() -> callback(deadline, bulkhead, () -> {
+			if (!future.isDone() && pending.incrementAndGet() > 1) {
+				HEDGES.incrementAndGet();
+				timed(executeAsync(other(client), request)).whenComplete(first);
+			}
+		}), delay, TimeUnit.NANOSECONDS);
+		future.whenComplete((response, e) -> timer.cancel(false));
+
+		return future;
+	}
+
+	/**
+	 * Measure the latency of the successful reads.
+	 * @param future	The future of the read.
+	 * @return	The same future.
+	 */
+	private static <Response> CompletableFuture<Response> timed(CompletableFuture<Response> future) {
+		long start = System.nanoTime();
+		future.whenComplete((response, e) -> {
+			if (e == null) {
+				READ_LATENCY.record(System.nanoTime() - start);
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Get the client of another node, to send a read again.
+	 * @param client	The client the read was sent with.
+	 * @return	The client of the fastest other node, or the same client.
+	 */
+	private static TransportClient other(TransportClient client) {
+		ClusterNodes nodes = clusterNodes;
+		return nodes == null ? client : nodes.other(client);
+	}
+
+	/**
+	 * Check if a read failed because of a temporary problem, and it can succeed if it's sent again.
+	 * The Requests rejected by the limits of the application, or out of time, are not sent again.
+	 * @param e	The exception of the read.
+	 * @return	true if the read can be sent again.
+	 */
+	private static boolean isTransient(Throwable e) {
+		Throwable cause = ExceptionsHelper.unwrapCause(e);
+		return cause instanceof ConnectTransportException
+				|| cause instanceof NoNodeAvailableException
+				|| cause instanceof ReceiveTimeoutTransportException
+				|| cause instanceof EsRejectedExecutionException
+				|| cause instanceof NoShardAvailableActionException
+				|| cause instanceof UnavailableShardsException;
+	}
+
+	/**
+	 * Send a Request, a failure before sending is also reported to the listener.
+	 * @param client	The client of the node the Request is sent to.
+	 * @param request	Creates the Request with the client it gets.
+	 * @param deadline	The deadline of the Request, or null if it has none.
+	 * @param listener	Gets the Response or the failure.
+	 */
+	private static <Response extends ActionResponse> void send(TransportClient client,
+			Function<TransportClient, ? extends ActionRequestBuilder<?, Response, ?>> request, Deadline deadline, ActionListener<Response> listener) {
+		try {
+			withTimeout(request.apply(client), deadline).execute(listener);
+		} catch (RuntimeException e) {
+			listener.onFailure(e);
+		}
+	}
+
+	/**
+	 * Give the remaining time of the deadline to the Request, so the DB stops working on it too.
+	 * The Requests without a timeout (get) are limited only by the timer of the future.
+	 * @param builder	The Request.
+	 * @param deadline	The deadline, or null if the Request has none.
+	 * @return	The same Request.
+	 */
+	private static <Builder extends ActionRequestBuilder<?, ?, ?>> Builder withTimeout(Builder builder, Deadline deadline) {
+		if (deadline == null) {
+			return builder;
+		}
+
+		TimeValue timeout = TimeValue.timeValueMillis(Math.max(1, deadline.remainingMillis()));
+		if (builder instanceof SearchRequestBuilder) {
+			((SearchRequestBuilder) builder).setTimeout(timeout);
+		} else if (builder instanceof ReplicationRequestBuilder) {
+			((ReplicationRequestBuilder<?, ?, ?>) builder).setTimeout(timeout);
+		} else if (builder instanceof InstanceShardOperationRequestBuilder) {
+			((InstanceShardOperationRequestBuilder<?, ?, ?>) builder).setTimeout(timeout);
+		}
+		return builder;
+	}
+
+	/**
+	 * Create a listener that gives back the places of the Request, and completes the future with the Response, or with the failure.
+	 * @param future	The future.
+	 * @param deadline	The deadline of the Request, or null if it has none.
+	 * @param bulkhead	The bulkhead of the Request.
+	 * @param start	The time the Request was sent first, from System.nanoTime().
+	 * @return	The listener.
+	 */
+	private static <Response> ActionListener<Response> completing(CompletableFuture<Response> future, Deadline deadline, Bulkhead bulkhead, long start) {
+		return new ActionListener<Response>() {
+			@Override
+			public void onResponse(Response response) {
+				finish(bulkhead, start, null);
+				callback(deadline, bulkhead, () -> future.complete(response));
+			}
+
+			@Override
+			public void onFailure(Throwable e) {
+				finish(bulkhead, start, e);
+				callback(deadline, bulkhead, () -> future.completeExceptionally(e));
+			}
+		};
+	}
+
+	/**
+	 * Give back the places of a Request in the bulkhead and the limiter when the DB answered, and count its result.
+	 * @param bulkhead	The bulkhead of the Request.
+	 * @param start	The time the Request was sent first, from System.nanoTime().
+	 * @param e	The failure of the Request, or null if it was successful.
+	 */
+	private static void finish(Bulkhead bulkhead, long start, Throwable e) {
+		bulkhead.release();
+		LIMITER.release(System.nanoTime() - start, overloaded(e));
+		BREAKER.record(e != null && unavailable(e));
+	}
+
+	/**
+	 * Complete a future on the threads of the bulkhead, with the deadline and the bulkhead of the Request set,
+	 * so the next calls of the Request made by the code waiting for the future share the same deadline and bulkhead.
+	 * @param deadline	The deadline of the Request, or null if it has none.
+	 * @param bulkhead	The bulkhead of the Request.
+	 * @param task	Completes the future.
+	 */
+	private static void callback(Deadline deadline, Bulkhead bulkhead, Runnable task) {
+		bulkhead.execute(() -> runWith(deadline, bulkhead, task));
+	}
+
+	/**
+	 * Run code on the current thread with the deadline and the bulkhead of a Request set,
+	 * used when a future shared by several Requests is completed for one of them.
+	 * @param deadline	The deadline of the Request, or null if it has none.
+	 * @param bulkhead	The bulkhead of the Request.
+	 * @param task	The code.
+	 */
+	public static void runWith(Deadline deadline, Bulkhead bulkhead, Runnable task) {
+		Deadline previousDeadline = Deadline.current();
+		Bulkhead previousBulkhead = Bulkhead.current();
+		Deadline.set(deadline);
+		Bulkhead.set(bulkhead);
+		try {
+			task.run();
+		} finally {
+			Deadline.set(previousDeadline);
+			Bulkhead.set(previousBulkhead);
+		}
+	}
+
+	/**
+	 * Continue the current Request on the threads of its bulkhead when a future is completed,
+	 * used for a future completed by a thread that must not run the code of the Requests, like the writer of a log.
+	 * @param future	The future.
+	 * @return	A future completed with the same result, on the threads of the bulkhead, with the deadline of the Request set.
+	 */
+	public static <T> CompletableFuture<T> resumeAsync(CompletableFuture<T> future) {
+		Deadline deadline = Deadline.current();
+		Bulkhead bulkhead = Bulkhead.current();
+		CompletableFuture<T> resumed = new CompletableFuture<>();
+		future.whenComplete((result, e) -> callback(deadline, bulkhead, () -> {
+			if (e != null) {
+				resumed.completeExceptionally(e);
+			} else {
+				resumed.complete(result);
+			}
+		}));
+		return resumed;
+	}
+
+	/**
+	 * Check if the Request failed because the DB can't keep up with the Requests.
+	 * @param e	The exception of the Request, or null if it was successful.
+	 * @return	true if the DB rejected the Request, or it timed out.
+	 */
+	private static boolean overloaded(Throwable e) {
+		if (e == null) {
+			return false;
+		}
+		Throwable cause = ExceptionsHelper.unwrapCause(Futures.unwrap(e));
+		return cause instanceof EsRejectedExecutionException
+				|| cause instanceof ReceiveTimeoutTransportException;
+	}
+
+	/**
+	 * Check if the Request failed because the DB is unavailable, the failures counted by the circuit breaker.
+	 * The Requests out of the time of the caller are not counted, a short deadline doesn't mean the DB is down.
+	 * @param e	The exception of the Request.
+	 * @return	true if the node or the shards are unreachable, or the DB rejected or timed out the Request.
+	 */
+	private static boolean unavailable(Throwable e) {
+		return isTransient(Futures.unwrap(e));
+	}
+
+	/**
+	 * Check if the Request failed because the node is unreachable, and surely did not reach it,
+	 * so it is safe to send it again. A node disconnected during the Request may have executed it.
+	 * @param e	The exception of the Request.
+	 * @return	true if the Request was not sent.
+	 */
+	private static boolean notSent(Throwable e) {
+		return e instanceof NoNodeAvailableException
+				|| (e instanceof ConnectTransportException && !(e instanceof NodeDisconnectedException));
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * This class creates the executor that runs the code waiting for the Responses of the Elasticsearch DB.
+ * In "platform" mode it's a fixed thread pool, in "virtual" mode every task gets its own virtual thread,
+ * so the blocking code of the Requests (sending the emails, waiting for a future) doesn't hold a pool thread.
+ * The virtual threads are created through reflection, because the application is compiled for Java 8,
+ * on a JVM without virtual threads the platform mode is used.
+ *
+ * @author sandor.naghi
+ */
+
+package com.connection;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+public final class VirtualThreads {
+
+	private static final Logger LOGGER = Logger.getLogger(VirtualThreads.class.getName());
+
+	public static final String PLATFORM = "platform";
+	public static final String VIRTUAL = "virtual";
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * Check if the JVM can create virtual threads.
+	 * @return	true if the virtual threads are supported.
+	 */
+	public static boolean isSupported() {
+		try {
+			Thread.class.getMethod("ofVirtual");
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Create the executor of the given mode.
+	 * @param mode	"virtual" or "platform".
+	 * @param name	The name of the threads.
+	 * @param threads	The number of threads in platform mode.
+	 * @return	The executor, a fixed thread pool if the virtual threads are not supported.
+	 */
+	public static ExecutorService newExecutor(String mode, String name, int threads) {
+		if (VIRTUAL.equalsIgnoreCase(mode)) {
+			if (isSupported()) {
+				return newVirtualThreadPerTaskExecutor(name);
+			}
+			LOGGER.warning("Virtual threads are not supported by this JVM, using " + threads + " platform threads.");
+		}
+		return Executors.newFixedThreadPool(threads, new DaemonThreadFactory(name));
+	}
+
+	/**
+	 * Print the stack trace of a virtual thread blocking inside a synchronized section,
+	 * when it pins its carrier thread. Must be called before the first virtual thread is created.
+	 */
+	public static void tracePinnedThreads() {
+		if (System.getProperty("jdk.tracePinnedThreads") == null) {
+			System.setProperty("jdk.tracePinnedThreads", "short");
+		}
+	}
+
+	/**
+	 * Create an executor starting a new virtual thread for every task, with Thread.ofVirtual().name(name, 1).factory().
+	 * @param name	The name of the threads, they are named "name-1", "name-2"...
+	 * @return	The executor.
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor(String name) {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			builder = Class.forName("java.lang.Thread$Builder$OfVirtual").getMethod("name", String.class, long.class)
+					.invoke(builder, name + "-", 1L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+			Method executor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+			return (ExecutorService) executor.invoke(null, factory);
+		} catch (ReflectiveOperationException e) {
+			throw new IllegalStateException("Can't create the virtual threads.", e);
+		}
+	}
+}
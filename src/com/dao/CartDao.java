@@ -1,36 +1,33 @@
 /**
  * This class inserts, updates or deletes products from the DB.
- * 
+ * The methods don't wait for the DB, they return a CompletableFuture completed with the result.
+ *
  * @author sandor.naghi
  */
 
 package com.dao;
 
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
-
-import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang3.RandomStringUtils;
-import org.apache.commons.lang3.math.NumberUtils;
-import org.elasticsearch.action.get.GetResponse;
-import org.elasticsearch.action.index.IndexResponse;
-import org.elasticsearch.action.update.UpdateRequest;
-import org.elasticsearch.client.transport.TransportClient;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
 import com.beans.Cart;
+import com.beans.CartLine;
 import com.beans.Order;
 import com.beans.Product;
 import com.encrypt.MessageCreator;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.gson.Gson;
+import com.repository.Copies;
+import com.repository.Repositories;
+import com.repository.UnitOfWork;
 
 public class CartDao {
 
@@ -38,333 +35,232 @@ public class CartDao {
 	private MessageCreator mc = new MessageCreator();
 
 	/**
-	 * Insert the Cart in DB.
-	 * @param transportClient	The connection to the DataBase.
-	 * @param cart	Cart that will be inserted in DB.
-	 * @return	The Cart that is inserted.
-	 */
-	private Cart createCart(TransportClient client, Cart cart) {
-		
-		IndexResponse response = client.prepareIndex("shoppingcart", "cart", cart.getUserid())
-				 .setSource(new Gson().toJson(cart))
-			     .get();
-		
-		// check if the response is the same as the userid
-		if (cart.getUserid().equals(response.getId())) {
-			return cart;
-		}
-		
-		return null;
-	}
-	
-	/**
-	 * Check if a Client has, and read the data from the DB.
-	 * @param transportClient	The connection to the DataBase.
-	 * @param userid	The users id.
-	 * @return	The Cart if exists, or null if not exists.
+	 * Show the products from the Cart, based on the Clients id.
+	 * The products of the Cart are read with a single Request, the products that don't exist any more are left out.
+	 * @param userid	The Client id.
+	 * @return	A JSONArray object with all the information from the Cart.
 	 */
-	private Cart readCart(TransportClient client, String userid) {
-		Cart cart = null;
-		
-		GetResponse response = client.prepareGet("shoppingcart", "cart", userid).get();
+	public CompletableFuture<JSONArray> getClientProductsAsync(String userid) {
 
-		// reading the object from the response
-		if (response.isExists()) {
-			ObjectMapper mapper = new ObjectMapper();
-			try {
-				cart = mapper.readValue(response.getSourceAsString(), Cart.class);
-			} catch (IOException e) {
-				e.printStackTrace();
+		return readCartAsync(userid).thenCompose(cart -> {
+			// if the cart for the client is empty return an empty array;
+			if (cart == null) {
+				return CompletableFuture.completedFuture(new JSONArray());
 			}
-		}
-		
-		return cart;
+
+			return productDao.readProductsByIdsAsync(productIds(cart.getLines())).thenApply(products -> {
+				JSONArray jsonArray = new JSONArray();
+
+				// create a json object, and add totalquantity, and totalcost
+				JSONObject jsonObject = new JSONObject();
+				jsonObject.put("totalquantity", cart.getTotalquantity());
+				jsonObject.put("totalcost", cart.getTotalcost());
+
+				jsonArray.put(0, jsonObject);
+				putProducts(jsonArray, cart.getLines(), products);
+
+				return jsonArray;
+			});
+		});
 	}
-	
+
 	/**
-	 * Update the Cart.
-	 * @param transportClient	The connection to the DataBase.
-	 * @param cart	Cart that will be updated.
+	 * Read the Cart of a Client, the Requests reading the same Cart at the same time share one read,
+	 * a Request reading the Cart again gets it from memory.
+	 * @param userid	The Client id.
+	 * @return	The Cart, or null if the Client has none.
 	 */
-	private void updateCart(TransportClient client, Cart cart) {
-
-		UpdateRequest updateRequest = new UpdateRequest("shoppingcart", "cart", cart.getUserid());
-				
-		try {
-			updateRequest.doc(jsonBuilder().startObject()
-					.field("totalquantity", cart.getTotalquantity())
-					.field("totalcost", cart.getTotalcost())
-					.field("items", cart.getItems())
-					.endObject());
-			client.update(updateRequest).get();
-		} catch (IOException | InterruptedException | ExecutionException e) {
-			e.printStackTrace();
-		}
-		
+	private CompletableFuture<Cart> readCartAsync(String userid) {
+		return UnitOfWork.read("cart", userid, () -> SharedReads.CARTS.get(userid, () -> Repositories.carts().findByUserid(userid)), Copies::copy);
 	}
-	
+
 	/**
-	 * Delete a Cart from DB.
-	 * @param transportClient	The connection to the DataBase.
-	 * @param cart	Cart that will be deleted.
+	 * Get the product ids from the lines of a Cart or an Order.
+	 * @param lines	The lines.
+	 * @return	The product ids.
 	 */
-	private void deleteCart(TransportClient client, Cart cart) {
-
-		client.prepareDelete("shoppingcart", "cart", cart.getUserid()).get();
-		
+	static List<String> productIds(Collection<CartLine> lines) {
+		List<String> ids = new ArrayList<>(lines.size());
+		for (CartLine line : lines) {
+			ids.add(line.getProductid());
+		}
+		return ids;
 	}
-	
+
 	/**
-	 * Show the products from the Cart, based on the Clients id.
-	 * @param transportClient	The connection to the DataBase.
-	 * @param userid	The Client id.
-	 * @return	A JSONArray object with all the information from the Cart.
+	 * Add a json object for every product of the lines to the array, with the product and the quantity.
+	 * The products that don't exist any more are left out.
+	 * @param jsonArray	The array, the products are added after its first element.
+	 * @param lines	The lines of a Cart or an Order.
+	 * @param products	The products of the lines, by id.
 	 */
-	public JSONArray getClientProducts(TransportClient transportClient, String userid) {
-		
-		Cart cart = readCart(transportClient, userid);
-		// if the cart for the client is empty return null;
-		
-		JSONArray jsonArray = new JSONArray();
-		
-		if (cart == null) {
-			return jsonArray;
-		}
-		
-		// create a json object, and add totalquantity, and totalcost
-		JSONObject jsonObject = new JSONObject();
-		jsonObject.put("totalquantity", cart.getTotalquantity());
-		jsonObject.put("totalcost", cart.getTotalcost());
-		
-		jsonArray.put(0, jsonObject);
-		
-		// this is not nice at all.....
-		
+	static void putProducts(JSONArray jsonArray, Collection<CartLine> lines, Map<String, Product> products) {
 		//create a json Object with the product and the quantity
-		JSONObject json = null;
 		int index = 1;
-		for (String productIdOrQuantity : cart.getItems()) {
-			if (!NumberUtils.isDigits(productIdOrQuantity)) {
-				Product product  = productDao.readProductById(transportClient, productIdOrQuantity);
-				json = new JSONObject(product);
-			} else {
-				json.put("quantity", new Integer(productIdOrQuantity));
+		for (CartLine line : lines) {
+			Product product = products.get(line.getProductid());
+			if (product != null) {
+				JSONObject json = new JSONObject(product);
+				json.put("quantity", line.getQuantity());
 				jsonArray.put(index, json);
 				index++;
 			}
 		}
-		return jsonArray;
 	}
-	
+
+	/**
+	 * Get the price of one Product of a line, the price it was put in the Cart for.
+	 * @param line	The line.
+	 * @param product	The Product of the line, its price is used if the line has no price (stored before the lines had prices).
+	 * @return	The price.
+	 */
+	static long unitPrice(CartLine line, Product product) {
+		return line.getPrice() > 0 ? line.getPrice() : product.getPrice();
+	}
+
 	/**
-	 * Add a Product to a Cart. Check if the Client has a Cart, if not creates it, and then add the Products.
-	 * @param transportClient	The connection to the DataBase.
+	 * Add a Product to a Cart, the Cart is created if the Client has none.
+	 * The Product is read from the DB, not from the caches, and the products are taken from the stock first,
+	 * in one step on the DB, so two Clients can't take the same products; they are put back if the Cart can't be changed.
+	 * The Cart is changed after the operations on the Cart sent before by the Client, in one step on the DB,
+	 * or together with the changes sent at the same time.
 	 * @param userid	The Clients id.
 	 * @param productid	The Products id.
 	 * @param quantity	The number of products added to Cart.
 	 * @return	Success or failed, depending on the values of the product.
 	 */
-	public String addProductToCart(TransportClient transportClient, String userid, String productid, int quantity) {
-		String result = null;
-		
-		// if product not exists return fail
-		Product product = productDao.readProductById(transportClient, productid);
-		if (product == null) {
-			result = mc.setMessage("Failed", "Inexistent product id.");
-			return result;
-		}
-		
-		Cart cart = readCart(transportClient, userid);
-		if (cart == null) {
-			// if user don't have Cart create one with the existing data
-			result = insertProductToCart(transportClient, userid, product, quantity);
-			
-			product.setInstock(product.getInstock() - quantity);
-			JSONObject json = new JSONObject(product);
-			
-			productDao.updateProduct(transportClient, product, json);
-		} else {
-			// else check if enough products are available
+	public CompletableFuture<String> addProductToCartAsync(String userid, String productid, int quantity) {
+
+		return productDao.readCurrentProductAsync(productid).thenCompose(product -> {
+			// if product not exists return fail
+			if (product == null) {
+				return CompletableFuture.completedFuture(mc.setMessage("Failed", "Inexistent product id."));
+			}
+			// check if enough products are available
 			if (quantity > product.getInstock()) {
-				result  = mc.setMessage("Failed", "Not enough product in stock.");
-			} else {
-				result = updateClientCart(transportClient, cart, product, quantity);
-				
-				product.setInstock(product.getInstock() - quantity);
-				JSONObject json = new JSONObject(product);
-				
-				productDao.updateProduct(transportClient, product, json);
+				return CompletableFuture.completedFuture(mc.setMessage("Failed", "Not enough product in stock."));
 			}
-		}
-		return result;
-	}
-	
-	/**
-	 * Update the Clients Cart.
-	 * @param transportClient	The connection to the DataBase.
-	 * @param cart	The Cart of the Client, that will be updated.
-	 * @param product	The product that will be added.
-	 * @param quantity	The number of products.
-	 * @return Success or Fail.
-	 */
-	private String updateClientCart(TransportClient transportClient, Cart cart, Product product, int quantity) {
-		String result = null;
-		
-		// calculating the totalquantity and totalcost, after adding the new product
-		int totalquantity = cart.getTotalquantity() + quantity;
-		long totalcost = cart.getTotalcost() + (product.getPrice() * quantity);
-		
-		List<String> list = cart.getItems();
-		
-		if (list.contains(product.getId())) {
-			// if the List of items contains the product, updating the number of products
-			int index = list.indexOf(product.getId()) + 1;
-			
-			int newQuantity = Integer.parseInt(list.get(index)) + quantity;
 
-			list.remove(index);
-			list.add(index, String.valueOf(newQuantity));
-		} else {
-			// else just adding the product, and the qunatity
-			list.add(product.getId());
-			list.add(String.valueOf(quantity));
-		}
-		
-		// set the cart new totalquantity, totalcost, and product id's with quantity
-		cart.setTotalquantity(totalquantity);
-		cart.setTotalcost(totalcost);
-		cart.setItems(list);
-		// update the Cart in DB
-		updateCart(transportClient, cart);
-		
-		result = mc.setMessage("Success", "Product in cart updated.");
-		return result;
+			return productDao.changeStockAsync(productid, -quantity).thenCompose(taken -> {
+				// taken by another Client meanwhile
+				if (taken == null) {
+					return CompletableFuture.completedFuture(mc.setMessage("Failed", "Not enough product in stock."));
+				}
+
+				// the whole line gets the current price of the product
+				CartLine change = new CartLine(productid, quantity, product.getPrice());
+				CompletableFuture<String> result = new CompletableFuture<>();
+				UnitOfWork.write("cart", userid, () -> CartMailbox.change(userid, change)).whenComplete((cart, e) -> {
+					if (e == null) {
+						// the Cart has only these products if it was created now
+						result.complete(cart.getTotalquantity() == quantity
+								? mc.setMessage("Success", "Product added to Cart.")
+								: mc.setMessage("Success", "Product in cart updated."));
+						return;
+					}
+					// the products go back to the stock
+					productDao.changeStockAsync(productid, quantity).whenComplete((restored, restoreFailure) -> result.completeExceptionally(e));
+				});
+				return result;
+			});
+		});
 	}
-	
+
 	/**
-	 * Create a new Cart for a Client if don't have one, and adding the products to it.
-	 * @param transportClient	The connection to the DataBase.
+	 * Remove a product, or products from the Cart.
+	 * The Cart is changed like when products are added, it is read only to tell why the products can't be removed.
+	 * The products removed go back to the stock (they were taken when added), in one step on the DB,
+	 * without writing the other fields of the Product.
 	 * @param userid	Id of Client.
-	 * @param product	Product that will be added to the Cart.
+	 * @param productid	Id of Product.
 	 * @param quantity	Number of Products.
 	 * @return	Success or Fail.
 	 */
-	private String insertProductToCart(TransportClient transportClient, String userid, Product product, int quantity) {
-		String result = null;
-		
-		// create List of product id, and qunatity
-		List<String> list = new ArrayList<>();
-		list.add(product.getId());
-		list.add(String.valueOf(quantity));
-		
-		// calculate totalcost
-		long totalCost = product.getPrice() * quantity;
-		
-		// create the new Cart
-		Cart cart = new Cart(quantity, totalCost, list);
-		cart.setUserid(userid);
-		
-		// if method returns the cart, then insertion is ok, return success
-		if (createCart(transportClient, cart) != null) {
-			result = mc.setMessage("Success", "Product added to Cart.");
-			return result;
-		}
-		
-		result = mc.setMessage("Failed", "Internal error...");
-		return result;
+	public CompletableFuture<String> removeProductFromCartAsync(String userid, String productid, int quantity) {
+
+		return productDao.readCurrentProductAsync(productid).thenCompose(product -> {
+			if (product == null) {
+				return CompletableFuture.completedFuture(mc.setMessage("Failed", "Inexistent product id."));
+			}
+
+			// the products are removed for the price they were put in the cart
+			CartLine change = new CartLine(productid, -quantity, product.getPrice());
+			return UnitOfWork.write("cart", userid, () -> CartMailbox.change(userid, change)).thenCompose(cart -> {
+				if (cart == null) {
+					return readCartAsync(userid).thenApply(current -> removeFailure(current, productid));
+				}
+
+				return productDao.changeStockAsync(productid, quantity)
+						.thenApply(ignored -> mc.setMessage("Success", "Product in cart updated."));
+			});
+		});
 	}
-	
+
 	/**
-	 * Remove a product, or products from the Cart.
-	 * @param transportClient	The connection to the DataBase.
-	 * @param userid	Id of Client.
+	 * Tell why products can't be removed from a Cart.
+	 * @param cart	The Cart of the Client, or null if the Client has none.
 	 * @param productid	Id of Product.
-	 * @param quantity	Number of Products.
-	 * @return	Success or Fail.
+	 * @return	The failure message.
 	 */
-	public String removeProductFromCart(TransportClient transportClient, String userid, String productid, int quantity) {
-		String result = null;
-		
-		// check if product exists
-		Product product = productDao.readProductById(transportClient, productid);
-		if (product == null) {
-			result = mc.setMessage("Failed", "Inexistent product id.");
-		}
-		// checks if cart exists, if yes, making some ugly calculation....
-		Cart cart = readCart(transportClient, userid);
+	private String removeFailure(Cart cart, String productid) {
 		if (cart == null) {
-			result = mc.setMessage("Failed.", "Client Cart empty.");
-		} else {
-			List<String> list = cart.getItems();
-			if (!list.contains(productid)) {
-				result = mc.setMessage("Failed", "User don't have this Product.");
-				return result;
-			} else {
-				int index = list.indexOf(product.getId()) + 1;
-				
-				int newQuantity = Integer.parseInt(list.get(index)) - quantity;
-				
-				if (newQuantity < 0) {
-					result = mc.setMessage("Failed", "Not enough quantity to remove.");
-					return result;
-				} else if (newQuantity == 0) {
-					list.remove(index);
-					list.remove(index - 1);
-				} else {
-					list.remove(index);
-					list.add(index, String.valueOf(newQuantity));
-				}
-				int totalQuantity = cart.getTotalquantity() - quantity;
-				long totalCost = cart.getTotalcost() - (product.getPrice() * quantity);
-				
-				product.setInstock(product.getInstock() - quantity);
-				JSONObject json = new JSONObject(product);
-				
-				productDao.updateProduct(transportClient, product, json);
-				
-				cart.setTotalquantity(totalQuantity);
-				cart.setTotalcost(totalCost);
-				cart.setItems(list);
-				
-				updateCart(transportClient, cart);
-				
-				result = mc.setMessage("Success", "Product in cart updated.");
-			}
+			return mc.setMessage("Failed.", "Client Cart empty.");
+		}
+		if (cart.line(productid) == null) {
+			return mc.setMessage("Failed", "User don't have this Product.");
 		}
-		return result;
+		return mc.setMessage("Failed", "Not enough quantity to remove.");
 	}
-	
+
 	/**
 	 * Checkout Cart, creating an Order.
-	 * @param transportClient	The connection to the DataBase.
+	 * The Cart is deleted first, with the version it was read with: products added meanwhile make it read again,
+	 * and a second checkout of the same Cart finds no Cart. If the Order can't be created, the Cart is put back.
+	 * The Cart is deleted after the operations on the Cart sent before by the Client, and after its last change
+	 * is written to the DB, if the Carts are written later.
 	 * @param userid	Id of Client.
 	 * @return	Success or Fail.
 	 */
-	public String checkoutCart(TransportClient transportClient,String userid) {
-		String result = null;
-		
+	public CompletableFuture<String> checkoutCartAsync(String userid) {
+
 		// check if cart exists...
-		Cart cart = readCart(transportClient, userid);
-		if (cart == null) {
-			result = mc.setMessage("Failed", "Inexistent userid, or user has empty Cart.");
-			return result;
-		} else {
+		return CartMailbox.run(userid, () -> Repositories.carts().flush(userid).thenCompose(flushed -> ConflictRetry.CARTS.run(() -> readCartAsync(userid).thenCompose(cart -> {
+			if (cart == null) {
+				return CompletableFuture.completedFuture((Cart) null);
+			}
+			return UnitOfWork.write("cart", userid, () -> Repositories.carts().delete(userid, cart.getVersion())).thenApply(ignored -> cart);
+		})))).thenCompose(cart -> {
+			if (cart == null) {
+				return CompletableFuture.completedFuture(mc.setMessage("Failed", "Inexistent userid, or user has empty Cart."));
+			}
+
 			// create random order number
 			int orderNumber = Integer.parseInt(RandomStringUtils.random(5, "0123456789"));
-			
+
 			DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
 			Date date = new Date();
-			
+
 			// create Order and insert it to DB..
-			Order order = new Order(cart.getUserid(), cart.getItems(), cart.getTotalquantity(), cart.getTotalcost(), orderNumber, dateFormat.format(date), false, false);
-			
+			Order order = new Order(cart.getUserid(), cart.getLines(), cart.getTotalquantity(), cart.getTotalcost(), orderNumber, dateFormat.format(date), false, false);
+
 			OrderDao orderDao = new OrderDao();
-			String id = orderDao.createOrder(transportClient, order);
-			
-			result = mc.setMessage("Success", "Id: " + id);
-			
-			deleteCart(transportClient, cart);		
-		}
-		return result;
+			CompletableFuture<String> result = new CompletableFuture<>();
+			orderDao.createOrderAsync(order).whenComplete((id, e) -> {
+				if (e == null && id != null) {
+					result.complete(mc.setMessage("Success", "Id: " + id));
+					return;
+				}
+				// the Client gets the Cart back, to check out again
+				cart.setVersion(0);
+				UnitOfWork.write("cart", userid, () -> Repositories.carts().create(cart)).whenComplete((created, restoreFailure) -> {
+					if (e != null) {
+						result.completeExceptionally(e);
+					} else {
+						result.complete(mc.setMessage("Failed", "Internal error..."));
+					}
+				});
+			});
+			return result;
+		});
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,276 @@
+/**
+ * This class runs the operations on the Cart of a Client one after the other, in the order they arrived,
+ * like the calls sent at once by a double click or by several tabs of the browser of a shopper.
+ * Every Client with operations waiting has a mailbox, removed when it's empty; the operations of different Clients run
+ * at the same time, and no thread waits for a mailbox: the next operation starts when the one before is completed.
+ * The products added and removed while an operation runs are merged: the Cart is read once, they are all made
+ * on it (each gets its own result), and it's written once, with the version read ("cart.mailbox.batch" at most).
+ * A single change is made by the storage in one step, without reading the Cart.
+ *
+ * @author sandor.naghi
+ */
+
+package com.dao;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+
+import com.beans.Cart;
+import com.beans.CartLine;
+import com.connection.ApplicationProperties;
+import com.connection.Bulkhead;
+import com.connection.Deadline;
+import com.connection.RequestExecutor;
+import com.repository.Copies;
+import com.repository.Repositories;
+
+public final class CartMailbox {
+
+	private static final int BATCH = ApplicationProperties.getInt("cart.mailbox.batch", 16);
+
+	private static final Map<String, CartMailbox> MAILBOXES = new ConcurrentHashMap<>();
+
+	private static final AtomicLong OPERATIONS = new AtomicLong();
+	private static final AtomicLong WRITES = new AtomicLong();
+	private static final AtomicLong MERGED = new AtomicLong();
+	private static final AtomicLong QUEUED = new AtomicLong();
+
+	// changed only in the compute() of the map, for the key of the mailbox
+	private final Queue<Operation> operations = new ArrayDeque<>();
+	private boolean running;
+
+	private CartMailbox() {
+	}
+
+	/**
+	 * Add Products to the Cart of a Client, or remove them, after the operations of the Client sent before.
+	 * @param userid	The id of the Client.
+	 * @param change	The id of the Product, the number of Products added (negative to remove), and the current price.
+	 * @return	The Cart after the change, or null if the Products are not removed: the Client has no Cart, or less of the Product.
+	 */
+	public static CompletableFuture<Cart> change(String userid, CartLine change) {
+		return submit(userid, new Operation(change, null));
+	}
+
+	/**
+	 * Run an operation on the Cart of a Client, after the operations of the Client sent before, not merged with others.
+	 * @param userid	The id of the Client.
+	 * @param task	The operation.
+	 * @return	The result of the operation.
+	 */
+	public static <T> CompletableFuture<T> run(String userid, Supplier<CompletableFuture<T>> task) {
+		return submit(userid, new Operation(null, task));
+	}
+
+	/**
+	 * Put an operation in the mailbox of the Client, and start running the mailbox if it's not running.
+	 * @param userid	The id of the Client.
+	 * @param operation	The operation.
+	 * @return	The result of the operation.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> CompletableFuture<T> submit(String userid, Operation operation) {
+		OPERATIONS.incrementAndGet();
+		boolean[] start = new boolean[1];
+		MAILBOXES.compute(userid, (key, mailbox) -> {
+			if (mailbox == null) {
+				mailbox = new CartMailbox();
+			}
+			mailbox.operations.add(operation);
+			start[0] = !mailbox.running;
+			mailbox.running = true;
+			return mailbox;
+		});
+
+		if (start[0]) {
+			drain(userid);
+		} else {
+			QUEUED.incrementAndGet();
+		}
+		return (CompletableFuture<T>) operation.result;
+	}
+
+	/**
+	 * Run the operations of a Client, until the mailbox is empty.
+	 * The operations completed at once (by a storage in memory) are run in a loop, not by nested calls.
+	 * @param userid	The id of the Client.
+	 */
+	private static void drain(String userid) {
+		while (true) {
+			List<Operation> batch = take(userid);
+			if (batch == null) {
+				return;
+			}
+
+			CompletableFuture<Void> done = new CompletableFuture<>();
+			Operation longest = longestDeadline(batch);
+			RequestExecutor.runWith(longest.deadline, longest.bulkhead, () -> execute(userid, batch, done));
+			if (!done.isDone()) {
+				done.whenComplete((ignored, e) -> drain(userid));
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Take the next operations of a Client: a task alone, or the changes coming one after the other.
+	 * @param userid	The id of the Client.
+	 * @return	The operations, or null if the mailbox is empty (it's removed).
+	 */
+	private static List<Operation> take(String userid) {
+		List<Operation> batch = new ArrayList<>();
+		MAILBOXES.compute(userid, (key, mailbox) -> {
+			Operation next;
+			while (batch.size() < BATCH && (next = mailbox.operations.peek()) != null) {
+				if (next.task != null && !batch.isEmpty()) {
+					break;
+				}
+				batch.add(mailbox.operations.poll());
+				if (next.task != null) {
+					break;
+				}
+			}
+			return batch.isEmpty() ? null : mailbox;
+		});
+		return batch.isEmpty() ? null : batch;
+	}
+
+	/**
+	 * Find the operation with the most time left, the operations of a batch are sent to the DB with its deadline.
+	 * @param batch	The operations.
+	 * @return	The operation without a deadline, or with the latest one.
+	 */
+	private static Operation longestDeadline(List<Operation> batch) {
+		Operation longest = batch.get(0);
+		for (Operation operation : batch) {
+			if (longest.deadline == null) {
+				break;
+			}
+			if (operation.deadline == null || operation.deadline.remainingMillis() > longest.deadline.remainingMillis()) {
+				longest = operation;
+			}
+		}
+		return longest;
+	}
+
+	/**
+	 * Run a batch of operations, and complete their results.
+	 * @param userid	The id of the Client.
+	 * @param batch	The operations.
+	 * @param done	Completed when the results of the operations are completed.
+	 */
+	private static void execute(String userid, List<Operation> batch, CompletableFuture<Void> done) {
+		Operation first = batch.get(0);
+		CompletableFuture<?> written;
+		try {
+			if (first.task != null) {
+				written = first.task.get().whenComplete((result, e) -> first.complete(result, e));
+			} else if (batch.size() == 1) {
+				WRITES.incrementAndGet();
+				written = Repositories.carts().change(userid, first.change).whenComplete((cart, e) -> first.complete(cart, e));
+			} else {
+				WRITES.incrementAndGet();
+				MERGED.addAndGet(batch.size());
+				written = ConflictRetry.CARTS.run(() -> merge(userid, batch)).whenComplete((carts, e) -> {
+					for (int i = 0; i < batch.size(); i++) {
+						batch.get(i).complete(e == null ? carts[i] : null, e);
+					}
+				});
+			}
+		} catch (RuntimeException e) {
+			for (Operation operation : batch) {
+				operation.complete(null, e);
+			}
+			done.complete(null);
+			return;
+		}
+		written.whenComplete((result, e) -> done.complete(null));
+	}
+
+	/**
+	 * Read the Cart, make the changes of a batch on it, and write it with the version read.
+	 * @param userid	The id of the Client.
+	 * @param batch	The changes.
+	 * @return	The Cart after every change, null for the products that are not removed.
+	 */
+	private static CompletableFuture<Cart[]> merge(String userid, List<Operation> batch) {
+		return Repositories.carts().findByUserid(userid).thenCompose(stored -> {
+			Cart cart = stored;
+			if (cart == null) {
+				cart = new Cart();
+				cart.setUserid(userid);
+			}
+
+			Cart[] carts = new Cart[batch.size()];
+			boolean changed = false;
+			for (int i = 0; i < batch.size(); i++) {
+				if (cart.change(batch.get(i).change)) {
+					carts[i] = Copies.copy(cart);
+					changed = true;
+				}
+			}
+
+			if (!changed) {
+				return CompletableFuture.completedFuture(carts);
+			}
+			return Repositories.carts().save(cart).thenApply(ignored -> carts);
+		});
+	}
+
+	/**
+	 * Get the number of operations, the writes of the Carts, the changes merged, and the mailboxes with operations.
+	 * @return	A JSONObject with the counters.
+	 */
+	public static JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("batch", BATCH);
+		json.put("operations", OPERATIONS.get());
+		json.put("queued", QUEUED.get());
+		json.put("writes", WRITES.get());
+		json.put("merged", MERGED.get());
+		json.put("mailboxes", MAILBOXES.size());
+
+		return json;
+	}
+
+	/**
+	 * An operation waiting in a mailbox, with the deadline and the bulkhead of the Request that sent it.
+	 */
+	private static final class Operation {
+
+		private final CartLine change;
+		private final Supplier<? extends CompletableFuture<?>> task;
+		private final CompletableFuture<Object> result = new CompletableFuture<>();
+		private final Deadline deadline = Deadline.current();
+		private final Bulkhead bulkhead = Bulkhead.current();
+
+		private Operation(CartLine change, Supplier<? extends CompletableFuture<?>> task) {
+			this.change = change;
+			this.task = task;
+		}
+
+		/**
+		 * Complete the result, with the deadline and the bulkhead of the Request set.
+		 * @param value	The result.
+		 * @param e	The failure, or null.
+		 */
+		private void complete(Object value, Throwable e) {
+			RequestExecutor.runWith(deadline, bulkhead, () -> {
+				if (e != null) {
+					result.completeExceptionally(e);
+				} else {
+					result.complete(value);
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,83 @@
+/**
+ * This class keeps the last Products read from the Elasticsearch DB, the last known good catalog.
+ * While the circuit breaker of the DB is open, the catalog is read from here.
+ *
+ * @author sandor.naghi
+ */
+
+package com.dao;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import com.beans.Product;
+import com.connection.CircuitOpenException;
+import com.connection.Futures;
+
+public final class CatalogFallback {
+
+	private static final Map<String, Product> PRODUCTS = new ConcurrentHashMap<>();
+
+	private static volatile List<String> productList;
+
+	private CatalogFallback() {
+	}
+
+	/**
+	 * Keep the last list of Products read from the DB.
+	 * @param list	The list of Products.
+	 */
+	static void setProductList(List<String> list) {
+		productList = list;
+	}
+
+	/**
+	 * Get the last list of Products read from the DB.
+	 * @return	The list, or null if it was never read.
+	 */
+	static List<String> getProductList() {
+		return productList;
+	}
+
+	/**
+	 * Keep the last state of a Product read from the DB.
+	 * @param id	The id of the Product.
+	 * @param product	The Product, or null if it doesn't exist any more.
+	 */
+	static void setProduct(String id, Product product) {
+		if (product == null) {
+			PRODUCTS.remove(id);
+		} else {
+			PRODUCTS.put(id, product);
+		}
+	}
+
+	/**
+	 * Get the last state of a Product read from the DB.
+	 * @param id	The id of the Product.
+	 * @return	The Product, or null if it was never read.
+	 */
+	static Product getProduct(String id) {
+		return PRODUCTS.get(id);
+	}
+
+	/**
+	 * If the future fails because the circuit breaker is open, complete it with the last known data instead.
+	 * @param future	The future of the read from the DB.
+	 * @param lastKnown	Gives the last known data, or null if there is none.
+	 * @return	A future with the result of the read, or with the last known data.
+	 */
+	static <T> CompletableFuture<T> orLastKnown(CompletableFuture<T> future, Supplier<T> lastKnown) {
+		return future.exceptionally(e -> {
+			T value = Futures.unwrap(e) instanceof CircuitOpenException ? lastKnown.get() : null;
+			if (value == null) {
+				throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+			}
+			return value;
+		});
+	}
+}
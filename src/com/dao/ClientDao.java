@@ -1,5 +1,6 @@
 /**
- * This class is used to make Client verifications, inserts, and queries in the Elasticsearch DB.
+ * This class is used to make Client verifications, inserts, and queries in the storage of the application.
+ * The methods don't wait for the DB, they return a CompletableFuture completed with the result.
  * 
  * @author sandor.naghi
  */
@@ -7,27 +8,20 @@
 package com.dao;
 
 
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
-
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.elasticsearch.action.get.GetResponse;
-import org.elasticsearch.action.index.IndexResponse;
-import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.update.UpdateRequest;
-import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.SearchHit;
-
 import com.beans.Client;
+import com.connection.Futures;
+import com.connection.InvalidationBus;
 import com.encrypt.EncryptPassword;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.gson.Gson;
+import com.encrypt.PrincipalCache;
+import com.repository.Copies;
+import com.repository.Repositories;
+import com.repository.UnitOfWork;
 import com.service.MailService;
 
 public class ClientDao {
@@ -61,129 +55,76 @@ public class ClientDao {
 	
 	/**
 	 * Insert the Clients data in the DB.
-	 * @param transportClient	The connection to the DataBase.
 	 * @param client	Client need to be inserted.
 	 * @return	The clients id if the insertion is success, null if it heas'nt.
 	 */
-	public String createClient(TransportClient transportClient, Client client){
+	public CompletableFuture<String> createClientAsync(Client client){
 		// create a hash(md5) for the password, that will be saved in DB
 		EncryptPassword encrypt = new EncryptPassword();
 		client.setPassword(encrypt.encryptpasswordMD5(client.getPassword()));
 		
-		String id = null;
-		
-		IndexResponse response = transportClient.prepareIndex("shoppingcart", "client")
-				.setSource(new Gson().toJson(client))
-				.get();
-		
-		id = response.getId();
-			
-		return id;
+		return Repositories.clients().create(client);
+	}
+	
+	/**
+	 * Get the client from the DB identified by his id, waiting for the DB.
+	 * Used only where the caller can't be asynchronous.
+	 * @param id	The id of the client.
+	 * @return	The client if it exists, or null if it does'nt.
+	 */
+	public Client readClient(String id) {
+		return Futures.await(readClientAsync(id));
 	}
 	
 	/**
 	 * Get the client from the DB identified by his id.
-	 * @param transportClient	The connection to the DataBase.
+	 * The Requests reading the same client at the same time share one read, a Request reading the client again gets it from memory.
 	 * @param id	The id of the client.
 	 * @return	The client if it exists, or null if it does'nt.
 	 */
-	public Client readClient(TransportClient transportClient, String id) {
-		
-		Client client = null;
-		
-		GetResponse response = transportClient.prepareGet("shoppingcart", "client", id).get();
-		
-		if (!response.isExists()) {			// if the user with the id don't exists, return null
-			return null;
-		} else {
-			ObjectMapper mapper = new ObjectMapper();
-			try {
-				client = mapper.readValue(response.getSourceAsString(), Client.class);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-		if (client != null) {
-			client.setId(id);
-		}
-		
-		return client;
+	public CompletableFuture<Client> readClientAsync(String id) {
+		return UnitOfWork.read("client", id, () -> SharedReads.CLIENTS.get(id, () -> Repositories.clients().findById(id)), Copies::copy);
 	}
 	
 	/**
 	 * Activate or disable a Client.
-	 * @param transportClient	The connection to the DataBase.
 	 * @param client	The Client needed to activate, or disabled.
 	 * @param isactive	true if the Client is activated, or false if disabled.
 	 */
-	public void clientActivation(TransportClient transportClient, Client client, boolean isactive) {
-
-		UpdateRequest updateRequest = new UpdateRequest("shoppingcart", "client", client.getId());
-		
-		try {
-			updateRequest.doc(jsonBuilder().startObject().field("isactive", isactive).endObject());
-			transportClient.update(updateRequest).get();
-		} catch (IOException | InterruptedException | ExecutionException e) {
-			e.printStackTrace();
-		}
-
+	public CompletableFuture<Void> clientActivationAsync(Client client, boolean isactive) {
+		// the tokens of a disabled Client are refused right away, not after the cache expires
+		PrincipalCache.invalidate(client.getId());
+		return UnitOfWork.write("client", client.getId(), () -> Repositories.clients().setActive(client.getId(), isactive))
+				.whenComplete((result, e) -> {
+					PrincipalCache.invalidate(client.getId());
+					InvalidationBus.publish("client", client.getId());
+				});
 	}
 	
 	/**
 	 * Reset the password of the Client in DB.
-	 * @param transportClient	The connection to the DataBase.
 	 * @param client	Client that needs resetting the password.
 	 */
-	public void resetPassword(TransportClient transportClient, Client client) {
+	public CompletableFuture<Void> resetPasswordAsync(Client client) {
 
 		EncryptPassword encrypt = new EncryptPassword();
 		client.setPassword(encrypt.encryptpasswordMD5(client.getPassword()));				// encrypt the password
 		
-		UpdateRequest updateRequest = new UpdateRequest("shoppingcart", "client", client.getId());
-		
-		try {
-			updateRequest.doc(jsonBuilder().startObject().field("password", client.getPassword()).endObject());
-			transportClient.update(updateRequest).get();
-		} catch (IOException | InterruptedException | ExecutionException e) {
-			e.printStackTrace();
-		}
-		
-		
+		PrincipalCache.invalidate(client.getId());
+		return UnitOfWork.write("client", client.getId(), () -> Repositories.clients().setPassword(client.getId(), client.getPassword()))
+				.whenComplete((result, e) -> {
+					PrincipalCache.invalidate(client.getId());
+					InvalidationBus.publish("client", client.getId());
+				});
 	}
 	
 	/**
 	 * Check if a Client exists in the DB or not.
-	 * @param transportClient	The connection to the DataBase.
 	 * @param newClient	The Client that is checked.
 	 * @return	true if the Client already exists, or false if it does'nt.
 	 */
-	public boolean clientExists(TransportClient transportClient, Client newClient) {
-
-		Client client = null;
-
-		SearchResponse response = transportClient.prepareSearch("shoppingcart")
-				.setTypes("client")
-				.setQuery(QueryBuilders.termQuery("username", newClient.getUsername()))
-				.execute().actionGet();
-		
-		SearchHit[] hit = response.getHits().getHits();
-
-		if (hit.length != 0) {
-			String s = hit[0].getSourceAsString();
-		
-			ObjectMapper mapper = new ObjectMapper();
-			try {
-				client = mapper.readValue(s, Client.class);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-		
-		if (client != null) {
-			return true;
-		}
-		
-		return false;
+	public CompletableFuture<Boolean> clientExistsAsync(Client newClient) {
+		return Repositories.clients().findByUsername(newClient.getUsername()).thenApply(client -> client != null);
 	}
 
 	/**
@@ -217,33 +158,19 @@ public class ClientDao {
 	
 	/**
 	 * Get a list of all Clients in the application, active or not.
-	 * @param transportClient	The connection to the DataBase.
 	 * @return	The list of Clients.
 	 */
-	public List<String> getUsersList(TransportClient transportClient) {
-		List<String> list = new ArrayList<>();
-		
-		SearchResponse response = transportClient.prepareSearch("shoppingcart")
-				.setTypes("client")
-				.setQuery(QueryBuilders.matchAllQuery())
-				.execute().actionGet();
+	public CompletableFuture<List<String>> getUsersListAsync() {
 		
-		SearchHit[] hits = response.getHits().getHits();
-		if (hits.length != 0) {
-			for (SearchHit hit : hits) {
-				ObjectMapper mapper = new ObjectMapper();
-				Client client = null;
-				try {
-					client = mapper.readValue(hit.getSourceAsString(), Client.class);
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-				client.setId(hit.getId());
+		return Repositories.clients().findAll().thenApply(clients -> {
+			List<String> list = new ArrayList<>();
+			
+			for (Client client : clients) {
 				String userInfo = "{\"username\":\"" + client.getUsername() + "\",\n\"email\":\"" + client.getEmail() + "\",\n\"id\":\"" + client.getId() + "\",\n\"isactive\":\"" + client.isIsactive() + "\"}";
 				list.add(userInfo);
 			}
-		}
 			
-		return list;
+			return list;
+		});
 	}
 }
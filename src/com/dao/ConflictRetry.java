@@ -0,0 +1,109 @@
+/**
+ * This class runs the read-change-write of a Cart or an Order again, when the document was changed by someone else
+ * between the read and the write (the write has the version read, and fails with VersionConflictException):
+ * the document is read again, and the change is made again on the new version, "conflict.retries" times at most.
+ * The conflicts are counted by the type of the document, they show the Carts and Orders changed by several Requests at once.
+ *
+ * @author sandor.naghi
+ */
+
+package com.dao;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import org.json.JSONObject;
+
+import com.connection.ApplicationProperties;
+import com.connection.Futures;
+import com.repository.VersionConflictException;
+
+public final class ConflictRetry {
+
+	private static final int RETRIES = ApplicationProperties.getInt("conflict.retries", 5);
+
+	static final ConflictRetry CARTS = new ConflictRetry();
+	static final ConflictRetry ORDERS = new ConflictRetry();
+
+	private final AtomicLong updates = new AtomicLong();
+	private final AtomicLong conflicts = new AtomicLong();
+	private final AtomicLong retries = new AtomicLong();
+	private final AtomicLong exhausted = new AtomicLong();
+
+	private ConflictRetry() {
+	}
+
+	/**
+	 * Run a read-change-write, and run it again after a conflict.
+	 * @param attempt	Reads the document, changes it, and writes it with the version it was read with.
+	 * @return	The result of the attempt written without conflict, or fails with VersionConflictException
+	 * 			if the document was changed by someone else at every attempt.
+	 */
+	<T> CompletableFuture<T> run(Supplier<CompletableFuture<T>> attempt) {
+		updates.incrementAndGet();
+		CompletableFuture<T> result = new CompletableFuture<>();
+		attempt(attempt, 0, result);
+		return result;
+	}
+
+	/**
+	 * Run an attempt, and the next one if it had a conflict.
+	 * @param attempt	Reads the document, changes it, and writes it.
+	 * @param retry	The number of attempts made before.
+	 * @param result	Completed with the result of the last attempt.
+	 */
+	private <T> void attempt(Supplier<CompletableFuture<T>> attempt, int retry, CompletableFuture<T> result) {
+		CompletableFuture<T> future;
+		try {
+			future = attempt.get();
+		} catch (RuntimeException e) {
+			result.completeExceptionally(e);
+			return;
+		}
+
+		future.whenComplete((value, e) -> {
+			if (e == null) {
+				result.complete(value);
+			} else if (!(Futures.unwrap(e) instanceof VersionConflictException)) {
+				result.completeExceptionally(e);
+			} else {
+				conflicts.incrementAndGet();
+				if (retry < RETRIES) {
+					retries.incrementAndGet();
+					attempt(attempt, retry + 1, result);
+				} else {
+					exhausted.incrementAndGet();
+					result.completeExceptionally(Futures.unwrap(e));
+				}
+			}
+		});
+	}
+
+	/**
+	 * Get the number of read-change-writes, the conflicts, the attempts made again, and the updates given up.
+	 * @return	A JSONObject with the counters.
+	 */
+	public JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("updates", updates.get());
+		json.put("conflicts", conflicts.get());
+		json.put("retries", retries.get());
+		json.put("exhausted", exhausted.get());
+
+		return json;
+	}
+
+	/**
+	 * Get the counters of the Carts and the Orders.
+	 * @return	A JSONObject with the counters by the type of the document.
+	 */
+	public static JSONObject getAllStats() {
+		JSONObject json = new JSONObject();
+		json.put("maxretries", RETRIES);
+		json.put("carts", CARTS.getStats());
+		json.put("orders", ORDERS.getStats());
+
+		return json;
+	}
+}
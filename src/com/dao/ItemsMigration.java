@@ -0,0 +1,113 @@
+/**
+ * This class rewrites the Carts and the Orders stored before the lines, with the items list
+ * (the ids of the Products followed by the quantities), with the lines of the Products.
+ * They are read well in both forms, so the application serves them while they are rewritten in the background:
+ * "migration.items.batch" Carts and Orders in every round, a round every "migration.items.interval.ms" milliseconds,
+ * until a round finds nothing to rewrite. A Cart changed by a Client meanwhile is written with the lines by the change.
+ *
+ * @author sandor.naghi
+ */
+
+package com.dao;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import com.connection.ApplicationProperties;
+import com.connection.Bulkhead;
+import com.connection.DaemonThreadFactory;
+import com.repository.Repositories;
+
+public final class ItemsMigration {
+
+	private static final boolean ENABLED = ApplicationProperties.getBoolean("migration.items", true);
+	private static final int BATCH = ApplicationProperties.getInt("migration.items.batch", 500);
+	private static final long INTERVAL = ApplicationProperties.getLong("migration.items.interval.ms", 1000);
+
+	private static final AtomicLong ROUNDS = new AtomicLong();
+	private static final AtomicLong CARTS = new AtomicLong();
+	private static final AtomicLong ORDERS = new AtomicLong();
+	private static final AtomicLong FAILURES = new AtomicLong();
+
+	private static volatile ScheduledExecutorService migrator;
+	private static volatile boolean finished;
+
+	private ItemsMigration() {
+	}
+
+	/**
+	 * Start rewriting the Carts and the Orders. Called when the storage of the application is created.
+	 */
+	public static synchronized void start() {
+		if (!ENABLED || migrator != null) {
+			return;
+		}
+		finished = false;
+		migrator = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("items-migration"));
+		migrator.execute(ItemsMigration::migrate);
+	}
+
+	/**
+	 * Stop the migration, when the application is stopped. The next start continues it.
+	 */
+	public static synchronized void stop() {
+		if (migrator != null) {
+			migrator.shutdownNow();
+			migrator = null;
+		}
+	}
+
+	/**
+	 * Rewrite a batch of Carts and Orders, and schedule the next round if anything was rewritten.
+	 */
+	private static void migrate() {
+		CompletableFuture<Integer> migrated;
+		try {
+			// the migration is background work, it must not take the places of the shoppers
+			migrated = Bulkhead.get(Bulkhead.ADMIN).call(() -> Repositories.carts().migrateItems(BATCH)
+					.thenCombine(Repositories.orders().migrateItems(BATCH), (carts, orders) -> {
+						CARTS.addAndGet(carts);
+						ORDERS.addAndGet(orders);
+						return carts + orders;
+					}));
+		} catch (RuntimeException e) {
+			migrated = new CompletableFuture<>();
+			migrated.completeExceptionally(e);
+		}
+
+		migrated.whenComplete((count, e) -> {
+			ROUNDS.incrementAndGet();
+			if (e != null) {
+				FAILURES.incrementAndGet();
+			} else if (count == 0) {
+				finished = true;
+				return;
+			}
+			ScheduledExecutorService executor = migrator;
+			if (executor != null && !executor.isShutdown()) {
+				executor.schedule(ItemsMigration::migrate, INTERVAL, TimeUnit.MILLISECONDS);
+			}
+		});
+	}
+
+	/**
+	 * Get the state of the migration.
+	 * @return	A JSONObject with the number of Carts and Orders rewritten, the rounds, and the rounds failed.
+	 */
+	public static JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("enabled", ENABLED);
+		json.put("finished", finished);
+		json.put("rounds", ROUNDS.get());
+		json.put("carts", CARTS.get());
+		json.put("orders", ORDERS.get());
+		json.put("failures", FAILURES.get());
+
+		return json;
+	}
+}
@@ -68,64 +68,39 @@
 
 /**
  *  This class is used to make Client login.
+ *  The method doesn't wait for the DB, it returns a CompletableFuture completed with the result.
  *  
  *  @author sandor.naghi
  */
 
 package com.dao;
 
-import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.SearchHit;
-
-import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.concurrent.CompletableFuture;
 
 import com.beans.Client;
 import com.encrypt.EncryptPassword;
+import com.repository.Repositories;
 
 public class LoginDao {
 
 	/**
 	 * Get the user from the DB based upon the username, and password.
-	 * @param transportClient	Connection to the DB.
 	 * @param username	Username of the Client.
 	 * @param pass		Password of the Client.
 	 * @return	The Client object if it exists, or null if not.
 	 */
 	
-	public Client getClientWithUsername(TransportClient transportClient, String username, String pass) {
-		Client client = null;
-		
+	public CompletableFuture<Client> getClientWithUsernameAsync(String username, String pass) {
 		EncryptPassword encrypt = new EncryptPassword();
 		
 		String password = encrypt.encryptpasswordMD5(pass);
 		
-		try {
-			SearchResponse response = transportClient.prepareSearch("shoppingcart")
-					.setTypes("client")
-					.setQuery(QueryBuilders.termQuery("username", username))
-					.execute().actionGet();
-			
-			
-			SearchHit[] hit = response.getHits().getHits();
-			if (hit.length != 0) {
-				String s = hit[0].getSourceAsString();
-				
-				ObjectMapper mapper = new ObjectMapper();
-				client = mapper.readValue(s, Client.class);
-				client.setId(hit[0].getId());
-				
-				if (!password.equals(client.getPassword())) {
-					return null;
-				}
+		return Repositories.clients().findByUsername(username).thenApply(client -> {
+			if (client != null && !password.equals(client.getPassword())) {
+				return null;
 			}
-			
-		} catch (Exception e) {
-			e.printStackTrace();
-			}
-		
-		return client;
+			return client;
+		});
 	}
 	
 }
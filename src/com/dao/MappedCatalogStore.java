@@ -0,0 +1,485 @@
+/**
+ * This class keeps the Products of a very large catalog outside of the heap: the Products are written one after
+ * the other, in a compact binary layout, in a file mapped into the memory, and the index from the id of a Product
+ * to the place of its record is a hash table in a direct buffer. Millions of Products cost the heap only this object,
+ * and the operating system keeps the used pages of the file in the memory.
+ * Finding a Product, and reading its stock or its price, allocate nothing: a record is only decoded when it's asked for.
+ * The serialized details of the Products are kept in the records too, with their entity tags, and the serialized
+ * items of the list of the Products, so the list is streamed from the file without decoding the Products.
+ * The store is never changed once it's built, the ProductCatalog keeps the Products changed since over it.
+ *
+ * The record of a Product:
+ * [id length: 2 bytes][id: 2 bytes per char][instock: 4 bytes][price: 8 bytes]
+ * [productname][description][imageURL][details][list item], each as [length: 4 bytes, -1 for null][UTF-8 bytes]
+ * [entity tag length: 1 byte][entity tag: ASCII bytes]
+ * A record never crosses the end of a segment of the file (a segment is mapped by one buffer), the rest of the segment
+ * is filled with zeros, read as an empty id.
+ *
+ * @author sandor.naghi
+ */
+
+package com.dao;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import com.beans.Product;
+
+public final class MappedCatalogStore {
+
+	private static final int SEGMENT_BITS = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+	private static final long SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+	// the index of so many Products is 1 GB
+	private static final int MAX_PRODUCTS = 1 << 26;
+
+	// a slot of the index: the high bits of the hash of the id, and the offset of the record + 1 (0 is an empty slot)
+	private static final int OFFSET_BITS = 40;
+	private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+
+	private final File file;
+	private final MappedByteBuffer[] segments;
+	private final long fileSize;
+
+	private final ByteBuffer index;
+	private final int mask;
+	private final int size;
+
+	private MappedCatalogStore(File file, long fileSize, long[] records, int size) throws IOException {
+		this.file = file;
+		this.fileSize = fileSize;
+		this.size = size;
+
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			segments = new MappedByteBuffer[(int) ((fileSize + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+			for (int i = 0; i < segments.length; i++) {
+				long start = (long) i << SEGMENT_BITS;
+				segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, fileSize - start));
+			}
+		}
+
+		// at most half of the slots are used, so a lookup finds an empty slot soon
+		int capacity = 2;
+		while (capacity < size * 2L) {
+			capacity <<= 1;
+		}
+		mask = capacity - 1;
+		index = ByteBuffer.allocateDirect(capacity * 8).order(ByteOrder.nativeOrder());
+		for (int i = 0; i < size; i++) {
+			long record = records[i];
+			int hash = hash(segment(record), position(record));
+			int slot = hash & mask;
+			while (index.getLong(slot * 8) != 0) {
+				slot = (slot + 1) & mask;
+			}
+			index.putLong(slot * 8, tag(hash) | (record + 1));
+		}
+	}
+
+	/**
+	 * Find the record of a Product, without allocating anything.
+	 * @param id	The id of the Product.
+	 * @return	The offset of the record, or -1 if the Product is not in the store.
+	 */
+	public long find(String id) {
+		int hash = hash(id);
+		long tag = tag(hash);
+		int slot = hash & mask;
+		while (true) {
+			long value = index.getLong(slot * 8);
+			if (value == 0) {
+				return -1;
+			}
+			// the record is only read if the bits of the hash kept in the slot match, a page of the file less to touch
+			long record = (value & OFFSET_MASK) - 1;
+			if ((value & ~OFFSET_MASK) == tag && idEquals(segment(record), position(record), id)) {
+				return record;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	public int getInstock(long record) {
+		ByteBuffer segment = segment(record);
+		return segment.getInt(fieldsStart(segment, position(record)));
+	}
+
+	public long getPrice(long record) {
+		ByteBuffer segment = segment(record);
+		return segment.getLong(fieldsStart(segment, position(record)) + 4);
+	}
+
+	/**
+	 * Decode the Product of a record.
+	 * @param record	The offset of the record, found by find().
+	 * @return	A new Product, with its id.
+	 */
+	public Product read(long record) {
+		ByteBuffer segment = segment(record);
+		int position = fieldsStart(segment, position(record));
+
+		Product product = new Product();
+		product.setId(getId(record));
+		product.setInstock(segment.getInt(position));
+		product.setPrice(segment.getLong(position + 4));
+		position += 12;
+		product.setProductname(readString(segment, position));
+		position = skip(segment, position);
+		product.setDescription(readString(segment, position));
+		position = skip(segment, position);
+		product.setImageURL(readString(segment, position));
+
+		return product;
+	}
+
+	/**
+	 * Get the serialized details of the Product of a record.
+	 * @param record	The offset of the record, found by find().
+	 * @return	The Response, with the entity tag calculated when the store was built.
+	 */
+	public RenderedResponse getDetails(long record) {
+		ByteBuffer segment = segment(record);
+		int position = fieldsStart(segment, position(record)) + 12;
+		position = skip(segment, skip(segment, skip(segment, position)));
+
+		byte[] details = readBytes(segment, position + 4, segment.getInt(position));
+		position = skip(segment, skip(segment, position));
+		byte[] etag = readBytes(segment, position + 1, segment.get(position) & 0xff);
+
+		return new RenderedResponse(details, new String(etag, StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Get the id of the Product of a record.
+	 * @param record	The offset of the record, found by find() or forEachRecord().
+	 * @return	The id.
+	 */
+	public String getId(long record) {
+		ByteBuffer segment = segment(record);
+		int position = position(record);
+		int idLength = segment.getShort(position) & 0xffff;
+		char[] id = new char[idLength];
+		for (int i = 0; i < idLength; i++) {
+			id[i] = segment.getChar(position + 2 + i * 2);
+		}
+		return new String(id);
+	}
+
+	/**
+	 * Get the serialized item of the Product of a record in the list of the Products.
+	 * @param record	The offset of the record, found by find() or forEachRecord().
+	 * @return	The UTF-8 bytes of the json.
+	 */
+	public byte[] getListItem(long record) {
+		ByteBuffer segment = segment(record);
+		int position = fieldsStart(segment, position(record)) + 12;
+		position = skip(segment, skip(segment, skip(segment, skip(segment, position))));
+		return readBytes(segment, position + 4, segment.getInt(position));
+	}
+
+	/**
+	 * Decode all the Products, in the order they were added to the store.
+	 * @param action	Gets every Product.
+	 */
+	public void forEach(Consumer<Product> action) {
+		forEachRecord(record -> action.accept(read(record)));
+	}
+
+	/**
+	 * Go through all the records, in the order the Products were added to the store, without decoding them.
+	 * @param action	Gets the offset of every record.
+	 */
+	public void forEachRecord(LongConsumer action) {
+		for (int i = 0; i < segments.length; i++) {
+			ByteBuffer segment = segments[i];
+			int position = 0;
+			while (position + 2 <= segment.limit()) {
+				int idLength = segment.getShort(position) & 0xffff;
+				if (idLength == 0) {
+					// the end of the records of the segment
+					break;
+				}
+				action.accept(((long) i << SEGMENT_BITS) + position);
+				position = recordEnd(segment, position);
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the size of the mapped file.
+	 * @return	The number of bytes of the records.
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * Get the size of the index, outside of the heap.
+	 * @return	The number of bytes of the hash table.
+	 */
+	public long getIndexSize() {
+		return index.capacity();
+	}
+
+	/**
+	 * Delete the file of the store. The mapped memory is freed when the store is garbage collected,
+	 * so the readers still using the store can finish.
+	 */
+	public void close() {
+		if (!file.delete()) {
+			// a mapped file can't be deleted on every system
+			file.deleteOnExit();
+		}
+	}
+
+	private static long tag(int hash) {
+		return (long) (hash >>> 8) << OFFSET_BITS;
+	}
+
+	private ByteBuffer segment(long record) {
+		return segments[(int) (record >>> SEGMENT_BITS)];
+	}
+
+	private static int position(long record) {
+		return (int) (record & SEGMENT_MASK);
+	}
+
+	/**
+	 * Get the position of the stock in a record, after the id.
+	 */
+	private static int fieldsStart(ByteBuffer segment, int position) {
+		return position + 2 + (segment.getShort(position) & 0xffff) * 2;
+	}
+
+	/**
+	 * Get the position after a field with a length.
+	 */
+	private static int skip(ByteBuffer segment, int position) {
+		return position + 4 + Math.max(0, segment.getInt(position));
+	}
+
+	private static int recordEnd(ByteBuffer segment, int position) {
+		position = fieldsStart(segment, position) + 12;
+		position = skip(segment, skip(segment, skip(segment, skip(segment, skip(segment, position)))));
+		return position + 1 + (segment.get(position) & 0xff);
+	}
+
+	private static String readString(ByteBuffer segment, int position) {
+		int length = segment.getInt(position);
+		return length < 0 ? null : new String(readBytes(segment, position + 4, length), StandardCharsets.UTF_8);
+	}
+
+	private static byte[] readBytes(ByteBuffer segment, int position, int length) {
+		byte[] bytes = new byte[length];
+		// the buffer is shared by the readers, its position must not be moved
+		ByteBuffer view = segment.duplicate();
+		view.position(position);
+		view.get(bytes);
+		return bytes;
+	}
+
+	private static boolean idEquals(ByteBuffer segment, int position, String id) {
+		int length = segment.getShort(position) & 0xffff;
+		if (length != id.length()) {
+			return false;
+		}
+		// 4 chars at a time, every access of the buffer is checked
+		int i = 0;
+		for (; i + 4 <= length; i += 4) {
+			long chars = (long) id.charAt(i) << 48 | (long) id.charAt(i + 1) << 32 | (long) id.charAt(i + 2) << 16 | id.charAt(i + 3);
+			if (segment.getLong(position + 2 + i * 2) != chars) {
+				return false;
+			}
+		}
+		for (; i < length; i++) {
+			if (segment.getChar(position + 2 + i * 2) != id.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Hash the chars of an id (FNV-1a), the same from a String and from a record.
+	 */
+	private static int hash(String id) {
+		int hash = 0x811c9dc5;
+		for (int i = 0; i < id.length(); i++) {
+			hash = (hash ^ id.charAt(i)) * 0x01000193;
+		}
+		return mix(hash);
+	}
+
+	private static int hash(ByteBuffer segment, int position) {
+		int length = segment.getShort(position) & 0xffff;
+		int hash = 0x811c9dc5;
+		for (int i = 0; i < length; i++) {
+			hash = (hash ^ segment.getChar(position + 2 + i * 2)) * 0x01000193;
+		}
+		return mix(hash);
+	}
+
+	/**
+	 * Mix the bits of the hash (the finalizer of MurmurHash3), the ids differing only in their last chars
+	 * would fill neighbouring slots of the table.
+	 */
+	private static int mix(int hash) {
+		hash ^= hash >>> 16;
+		hash *= 0x85ebca6b;
+		hash ^= hash >>> 13;
+		hash *= 0xc2b2ae35;
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * This class writes the records of a new store into its file. The Products are added page by page,
+	 * one page after the other, then the store is built from the file.
+	 */
+	public static final class Builder {
+
+		private final File file;
+		private final DataOutputStream out;
+
+		private long position;
+		private long[] records = new long[1024];
+		private int size;
+
+		/**
+		 * Constructor of the class.
+		 * @param directory	The directory of the file of the store.
+		 * @throws IOException	If the file can't be created.
+		 */
+		public Builder(File directory) throws IOException {
+			file = File.createTempFile("catalog-", ".store", directory);
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		}
+
+		/**
+		 * Add the Products of a page to the store.
+		 * @param products	The Products, with their ids.
+		 */
+		public void addAll(List<Product> products) {
+			for (Product product : products) {
+				add(product);
+			}
+		}
+
+		/**
+		 * Add a Product to the store.
+		 * @param product	The Product, with its id.
+		 */
+		public void add(Product product) {
+			String id = product.getId();
+			if (id == null || id.isEmpty() || id.length() > 0xffff) {
+				throw new IllegalArgumentException("Invalid id of Product: " + id);
+			}
+			if (size == MAX_PRODUCTS) {
+				throw new IllegalStateException("Too many Products for one store: " + size);
+			}
+			byte[] name = bytes(product.getProductname());
+			byte[] description = bytes(product.getDescription());
+			byte[] imageURL = bytes(product.getImageURL());
+			byte[] details = ProductDao.toDetails(product).toString().getBytes(StandardCharsets.UTF_8);
+			byte[] etag = RenderedResponse.digest(details).getBytes(StandardCharsets.US_ASCII);
+			byte[] listItem = ProductDao.toListItem(product).toString().getBytes(StandardCharsets.UTF_8);
+
+			long length = 2 + id.length() * 2 + 12 + 20 + length(name) + length(description) + length(imageURL)
+					+ details.length + listItem.length + 1 + etag.length;
+			if (length > SEGMENT_SIZE) {
+				throw new IllegalArgumentException("Too large Product: " + id);
+			}
+			if (position + SEGMENT_SIZE >= OFFSET_MASK) {
+				throw new IllegalStateException("Too large store: " + position);
+			}
+
+			try {
+				// a record doesn't cross the end of a segment
+				long left = SEGMENT_SIZE - (position & SEGMENT_MASK);
+				if (length > left) {
+					for (long i = 0; i < left; i++) {
+						out.write(0);
+					}
+					position += left;
+				}
+
+				out.writeShort(id.length());
+				out.writeChars(id);
+				out.writeInt(product.getInstock());
+				out.writeLong(product.getPrice());
+				write(name);
+				write(description);
+				write(imageURL);
+				write(details);
+				write(listItem);
+				out.writeByte(etag.length);
+				out.write(etag);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+
+			if (size == records.length) {
+				records = Arrays.copyOf(records, size * 2);
+			}
+			records[size++] = position;
+			position += length;
+		}
+
+		/**
+		 * Map the file written, and index the records.
+		 * @return	The new store.
+		 * @throws IOException	If the file can't be written or mapped.
+		 */
+		public MappedCatalogStore build() throws IOException {
+			out.close();
+			return new MappedCatalogStore(file, position, records, size);
+		}
+
+		/**
+		 * Delete the file, if the store is not built.
+		 */
+		public void discard() {
+			try {
+				out.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			file.delete();
+		}
+
+		private void write(byte[] bytes) throws IOException {
+			if (bytes == null) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			}
+		}
+
+		private static byte[] bytes(String value) {
+			return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+		}
+
+		private static int length(byte[] bytes) {
+			return bytes == null ? 0 : bytes.length;
+		}
+	}
+}
@@ -0,0 +1,715 @@
+/**
+ * This class keeps the whole catalog in the memory of the application, in a snapshot that is never changed:
+ * a refresh makes a new snapshot, swapped in at once, so the readers always see a whole catalog.
+ * The catalog is loaded when the application starts, and then the Products changed since the last refresh
+ * are read every "catalog.refresh.ms" milliseconds (with an overlap of "catalog.overlap.ms", for the clocks of the
+ * instances of the application). The deleted Products are seen by the full reload, every "catalog.full.refresh.ms"
+ * milliseconds, at once if they are deleted through this instance, or by the next refresh if the invalidation bus
+ * tells them. The list and the details of the Products are served from the snapshot, serialized once for every version
+ * of a Product. The list has no stock, so the stock taken by the Carts doesn't change the list, or its entity tag.
+ * With "catalog.store=mapped", for a very large catalog, the full reload writes the Products into a MappedCatalogStore
+ * outside of the heap (in "catalog.store.dir"), read from the DB page by page, and the snapshot keeps on the heap
+ * only the Products changed or deleted since the store was built. The list is not kept on the heap then, it's streamed
+ * from the store with every Response, with an entity tag made of the versions of the list.
+ * The Products changed or deleted through this instance are kept in a small map in front of the snapshot, so a write
+ * doesn't copy the snapshot; the refresh reads them from the DB into the next snapshot, and they are dropped from the map.
+ * The Products changed by other instances, told by the invalidation bus, are read by the next refresh with one Request
+ * for all of them, with the Products changed since the last refresh: a Product not found is taken out of the snapshot.
+ * When the bus missed a change, only a deletion can be missed (the refresh reads every Product changed), so the whole
+ * catalog is read by the next refresh, but not sooner than "catalog.gap.refresh.ms" milliseconds after the last full reload.
+ *
+ * @author sandor.naghi
+ */
+
+package com.dao;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.json.JSONObject;
+
+import com.beans.Product;
+import com.connection.ApplicationProperties;
+import com.connection.Bulkhead;
+import com.connection.DaemonThreadFactory;
+import com.connection.InvalidationBus;
+import com.repository.Copies;
+import com.repository.Repositories;
+
+public final class ProductCatalog {
+
+	private static final boolean ENABLED = ApplicationProperties.getBoolean("catalog.snapshot", true);
+	private static final long REFRESH = ApplicationProperties.getLong("catalog.refresh.ms", 1000);
+	private static final long FULL_REFRESH = ApplicationProperties.getLong("catalog.full.refresh.ms", 300000);
+	private static final long OVERLAP = ApplicationProperties.getLong("catalog.overlap.ms", 5000);
+	private static final long GAP_REFRESH = ApplicationProperties.getLong("catalog.gap.refresh.ms", 60000);
+	private static final boolean MAPPED = "mapped".equals(ApplicationProperties.getString("catalog.store", "heap"));
+	private static final File DIRECTORY = new File(ApplicationProperties.getString("catalog.store.dir",
+			System.getProperty("java.io.tmpdir")));
+
+	private static final AtomicReference<Snapshot> SNAPSHOT = new AtomicReference<>();
+
+	// the Products changed through this instance since the refresh started last, a deleted Product has an entry without Product
+	private static final Map<String, Entry> CHANGES = new ConcurrentHashMap<>();
+	// counts the changes of the list made through this instance, not the changes of the stock or of the description
+	private static final AtomicLong CHANGE_COUNT = new AtomicLong();
+	// the entity tags of the streamed lists of another run of the application are never the same
+	private static final String RUN = UUID.randomUUID().toString();
+	// the Products changed by other instances since the refresh started last
+	private static final Set<String> REMOTE_CHANGES = ConcurrentHashMap.newKeySet();
+
+	private static final AtomicLong REFRESHES = new AtomicLong();
+	private static final AtomicLong FULL_REFRESHES = new AtomicLong();
+	private static final AtomicLong FAILURES = new AtomicLong();
+	private static final AtomicLong REMOTE_READS = new AtomicLong();
+	private static final AtomicLong GAPS = new AtomicLong();
+
+	private static volatile ScheduledExecutorService refresher;
+
+	// the time the data of the snapshot was read at, the next refresh reads the changes since this time
+	private static volatile long refreshedAt;
+	private static volatile long lastFullRefresh;
+	private static volatile long lastRefreshMillis;
+	// the invalidation bus missed a change since the last full reload started
+	private static volatile boolean gap;
+
+	static {
+		InvalidationBus.subscribe("catalog", new InvalidationBus.Listener() {
+
+			@Override
+			public void invalidate(String type, String id) {
+				if ("product".equals(type) && SNAPSHOT.get() != null) {
+					REMOTE_CHANGES.add(id);
+				}
+			}
+
+			@Override
+			public void invalidateAll() {
+				GAPS.incrementAndGet();
+				gap = true;
+			}
+		});
+	}
+
+	private ProductCatalog() {
+	}
+
+	/**
+	 * Load the catalog, and start refreshing it. Called when the storage of the application is created.
+	 */
+	public static synchronized void start() {
+		if (!ENABLED || refresher != null) {
+			return;
+		}
+		refresher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("catalog-refresh"));
+		refresher.execute(ProductCatalog::refresh);
+	}
+
+	/**
+	 * Stop refreshing the catalog, when the application is stopped.
+	 */
+	public static synchronized void stop() {
+		if (refresher != null) {
+			refresher.shutdownNow();
+			refresher = null;
+		}
+		Snapshot current = SNAPSHOT.getAndSet(null);
+		if (current != null && current.store != null) {
+			current.store.close();
+		}
+		CHANGES.clear();
+		REMOTE_CHANGES.clear();
+	}
+
+	/**
+	 * Get the snapshot of the catalog.
+	 * @return	The snapshot, or null if the catalog is not loaded yet.
+	 */
+	static Snapshot get() {
+		return SNAPSHOT.get();
+	}
+
+	/**
+	 * Read the changes of the catalog, or the whole catalog, and schedule the next refresh.
+	 */
+	private static void refresh() {
+		long started = System.currentTimeMillis();
+		Snapshot current = SNAPSHOT.get();
+		boolean missed = gap;
+		// with the mapped store a full reload rewrites the whole file, a bus missing datagrams doesn't run it at every refresh
+		boolean full = current == null || started - lastFullRefresh >= FULL_REFRESH || missed && started - lastFullRefresh >= GAP_REFRESH;
+		if (full) {
+			gap = false;
+		}
+		// the changes made before the read are in the data read
+		Map<String, Entry> changes = new HashMap<>(CHANGES);
+		Set<String> remote = new HashSet<>(REMOTE_CHANGES);
+		REMOTE_CHANGES.removeAll(remote);
+
+		CompletableFuture<Void> refreshed;
+		try {
+			// the refresh is background work, it must not take the places of the shoppers
+			refreshed = Bulkhead.get(Bulkhead.ADMIN).call(() -> full
+					? (MAPPED ? loadStore(started) : Repositories.products().findAll().thenAccept(products -> load(products, started)))
+					: readChanges(changes, remote, started));
+		} catch (RuntimeException e) {
+			refreshed = new CompletableFuture<>();
+			refreshed.completeExceptionally(e);
+		}
+
+		refreshed.whenComplete((result, e) -> {
+			if (e != null) {
+				FAILURES.incrementAndGet();
+				// read again by the next refresh
+				REMOTE_CHANGES.addAll(remote);
+				if (full && missed) {
+					gap = true;
+				}
+			} else {
+				forget(changes);
+			}
+			lastRefreshMillis = System.currentTimeMillis() - started;
+			ScheduledExecutorService executor = refresher;
+			if (executor != null && !executor.isShutdown()) {
+				executor.schedule(ProductCatalog::refresh, REFRESH, TimeUnit.MILLISECONDS);
+			}
+		});
+	}
+
+	/**
+	 * Read the Products changed since the last refresh, and the Products changed by other instances, and merge them.
+	 * @param changes	The changes made through this instance before the Products are read.
+	 * @param remote	The ids of the Products changed by other instances, told by the invalidation bus.
+	 * @param started	The time the Products are read at.
+	 * @return	The future of the merge.
+	 */
+	private static CompletableFuture<Void> readChanges(Map<String, Entry> changes, Set<String> remote, long started) {
+		CompletableFuture<List<Product>> updated = Repositories.products().findUpdatedSince(refreshedAt - OVERLAP);
+		if (remote.isEmpty()) {
+			return updated.thenAccept(products -> merge(products, changes, started));
+		}
+
+		REMOTE_READS.addAndGet(remote.size());
+		return updated.thenCombine(Repositories.products().findByIds(remote), (products, found) -> {
+			List<Product> read = new ArrayList<>(products);
+			read.addAll(found.values());
+			// a Product not found was deleted by another instance
+			Map<String, Entry> merged = new HashMap<>(changes);
+			for (String id : remote) {
+				if (!found.containsKey(id)) {
+					merged.put(id, new Entry(null));
+				}
+			}
+			merge(read, merged, started);
+			return null;
+		});
+	}
+
+	/**
+	 * Swap in a snapshot of the whole catalog.
+	 * @param products	All the Products.
+	 * @param started	The time the Products were read at.
+	 */
+	private static void load(List<Product> products, long started) {
+		Map<String, Entry> entries = new LinkedHashMap<>();
+		for (Product product : products) {
+			entries.put(product.getId(), new Entry(product));
+		}
+		swap(null, entries, started);
+	}
+
+	/**
+	 * Write the whole catalog into a new store outside of the heap, page by page, and swap in a snapshot of the store.
+	 * @param started	The time the Products are read at.
+	 * @return	The future of the load.
+	 */
+	private static CompletableFuture<Void> loadStore(long started) {
+		MappedCatalogStore.Builder builder;
+		try {
+			builder = new MappedCatalogStore.Builder(DIRECTORY);
+		} catch (IOException e) {
+			CompletableFuture<Void> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+
+		return Repositories.products().scanAll(builder::addAll)
+				.thenApply(read -> {
+					try {
+						return builder.build();
+					} catch (IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				})
+				.whenComplete((store, e) -> {
+					if (e != null) {
+						builder.discard();
+					}
+				})
+				.thenAccept(store -> swap(store, new LinkedHashMap<>(), started));
+	}
+
+	/**
+	 * Swap in a snapshot of the whole catalog, read by a full refresh.
+	 * @param store	The store of the Products, or null if they are all on the heap.
+	 * @param entries	The Products on the heap.
+	 * @param started	The time the Products were read at.
+	 */
+	private static void swap(MappedCatalogStore store, Map<String, Entry> entries, long started) {
+		Snapshot previous = SNAPSHOT.getAndUpdate(current -> new Snapshot(store, entries, new HashSet<>(),
+				current == null ? 1 : current.version + 1, current == null ? 1 : current.listVersion + 1));
+		if (previous != null && previous.store != null) {
+			previous.store.close();
+		}
+
+		refreshedAt = started;
+		lastFullRefresh = started;
+		REFRESHES.incrementAndGet();
+		FULL_REFRESHES.incrementAndGet();
+	}
+
+	/**
+	 * Swap in a snapshot with the changed Products, if a Product really changed.
+	 * @param products	The Products changed since the last refresh.
+	 * @param changes	The changes made through this instance before the Products were read, and the Products deleted
+	 * 					by other instances: the deleted Products are taken out of the snapshot (the DB doesn't return them).
+	 * @param started	The time the Products were read at.
+	 */
+	private static void merge(List<Product> products, Map<String, Entry> changes, long started) {
+		SNAPSHOT.updateAndGet(current -> {
+			Map<String, Entry> entries = null;
+			Set<String> removed = current.removed;
+			boolean listChanged = false;
+			for (Product product : products) {
+				Product known = current.getProduct(product.getId());
+				if (known == null || !known.equals(product)) {
+					if (entries == null) {
+						entries = new LinkedHashMap<>(current.entries);
+						removed = new HashSet<>(current.removed);
+					}
+					listChanged |= !sameListItem(known, product);
+					entries.put(product.getId(), new Entry(product));
+					removed.remove(product.getId());
+				}
+			}
+			for (Map.Entry<String, Entry> change : changes.entrySet()) {
+				String id = change.getKey();
+				if (change.getValue().product == null && current.contains(id)) {
+					if (entries == null) {
+						entries = new LinkedHashMap<>(current.entries);
+						removed = new HashSet<>(current.removed);
+					}
+					listChanged = true;
+					entries.remove(id);
+					if (current.store != null && current.store.find(id) >= 0) {
+						removed.add(id);
+					}
+				}
+			}
+			if (entries == null) {
+				return current;
+			}
+			Snapshot next = new Snapshot(current.store, entries, removed, current.version + 1,
+					listChanged ? current.listVersion + 1 : current.listVersion);
+			// only the stock or the descriptions changed, the list serialized already is the same
+			if (!listChanged && current.store == null) {
+				next.list = current.list;
+			}
+			return next;
+		});
+
+		refreshedAt = started;
+		REFRESHES.incrementAndGet();
+	}
+
+	/**
+	 * Put a Product changed through this instance in front of the snapshot, so it's seen before the next refresh.
+	 * @param product	The Product, with its id.
+	 */
+	static void put(Product product) {
+		Snapshot current = SNAPSHOT.get();
+		if (current == null) {
+			return;
+		}
+		Entry previous = CHANGES.put(product.getId(), new Entry(Copies.copy(product)));
+		if (!sameListItem(previous != null ? previous.product : current.getProduct(product.getId()), product)) {
+			CHANGE_COUNT.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Hide a Product deleted through this instance, until the next refresh takes it out of the snapshot.
+	 * @param id	The id of the Product.
+	 */
+	static void remove(String id) {
+		Snapshot current = SNAPSHOT.get();
+		if (current == null) {
+			return;
+		}
+		Entry previous = CHANGES.put(id, new Entry(null));
+		if ((previous != null ? previous.product : current.getProduct(id)) != null) {
+			CHANGE_COUNT.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Drop the changes read by a refresh, the ones changed again since stay.
+	 * @param changes	The changes made before the refresh read the Products.
+	 */
+	private static void forget(Map<String, Entry> changes) {
+		Snapshot current = SNAPSHOT.get();
+		for (Map.Entry<String, Entry> change : changes.entrySet()) {
+			// the list shows the snapshot again, it changes only if the snapshot doesn't have the change
+			if (CHANGES.remove(change.getKey(), change.getValue())
+					&& (current == null || !sameListItem(change.getValue().product, current.getProduct(change.getKey())))) {
+				CHANGE_COUNT.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * Check if two states of a Product have the same item in the list of the Products.
+	 * @param product	A state of the Product, or null if it doesn't exist.
+	 * @param other	The other state of the Product, or null if it doesn't exist.
+	 * @return	true if both have the same item, or both don't exist.
+	 */
+	private static boolean sameListItem(Product product, Product other) {
+		if (product == null || other == null) {
+			return product == other;
+		}
+		return ProductDao.toListItem(product).toString().equals(ProductDao.toListItem(other).toString());
+	}
+
+	/**
+	 * Get the state of the catalog.
+	 * @return	A JSONObject with the number of Products, the version of the snapshot, the time since the data
+	 * of the snapshot was read (staleness), the number of refreshes, and the size of the store outside of the heap.
+	 */
+	public static JSONObject getStats() {
+		Snapshot snapshot = SNAPSHOT.get();
+
+		JSONObject json = new JSONObject();
+		json.put("enabled", ENABLED);
+		json.put("loaded", snapshot != null);
+		json.put("store", MAPPED ? "mapped" : "heap");
+		json.put("products", snapshot == null ? 0 : snapshot.size());
+		json.put("heapproducts", snapshot == null ? 0 : snapshot.entries.size());
+		json.put("changes", CHANGES.size());
+		json.put("storebytes", snapshot == null || snapshot.store == null ? 0 : snapshot.store.getFileSize());
+		json.put("indexbytes", snapshot == null || snapshot.store == null ? 0 : snapshot.store.getIndexSize());
+		json.put("version", snapshot == null ? 0 : snapshot.version);
+		json.put("stalenessms", snapshot == null ? -1 : System.currentTimeMillis() - refreshedAt);
+		json.put("lastrefreshms", lastRefreshMillis);
+		json.put("refreshes", REFRESHES.get());
+		json.put("fullrefreshes", FULL_REFRESHES.get());
+		json.put("failures", FAILURES.get());
+		json.put("remotereads", REMOTE_READS.get());
+		json.put("gaps", GAPS.get());
+
+		return json;
+	}
+
+	/**
+	 * A version of the whole catalog, never changed, read with the changes made through this instance in front of it.
+	 */
+	static final class Snapshot {
+
+		// null if all the Products are on the heap
+		private final MappedCatalogStore store;
+		// all the Products, or the Products changed since the store was built
+		private final Map<String, Entry> entries;
+		// the Products of the store deleted since it was built
+		private final Set<String> removed;
+		private final long version;
+		// changed only when the items of the list change, not by the stock
+		private final long listVersion;
+		// the number of Products, without the changes in front of the snapshot
+		private final int size;
+
+		// serialized at the first read after a change
+		private volatile RenderedList list;
+
+		private Snapshot(MappedCatalogStore store, Map<String, Entry> entries, Set<String> removed, long version, long listVersion) {
+			this.store = store;
+			this.entries = Collections.unmodifiableMap(entries);
+			this.removed = Collections.unmodifiableSet(removed);
+			this.version = version;
+			this.listVersion = listVersion;
+
+			int count = entries.size();
+			if (store != null) {
+				count += store.size() - removed.size();
+				for (String id : entries.keySet()) {
+					if (store.find(id) >= 0 && !removed.contains(id)) {
+						count--;
+					}
+				}
+			}
+			this.size = count;
+		}
+
+		/**
+		 * Check if a Product is in the snapshot, without the changes in front of it.
+		 * @param id	The id of the Product.
+		 * @return	true if the Product is in the snapshot.
+		 */
+		private boolean contains(String id) {
+			return entries.containsKey(id) || store != null && !removed.contains(id) && store.find(id) >= 0;
+		}
+
+		/**
+		 * Get the number of Products, with the changes made through this instance.
+		 * @return	The number of Products.
+		 */
+		private int size() {
+			int count = size;
+			for (Map.Entry<String, Entry> change : CHANGES.entrySet()) {
+				boolean known = contains(change.getKey());
+				if (change.getValue().product == null && known) {
+					count--;
+				} else if (change.getValue().product != null && !known) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+		/**
+		 * Get a Product of the snapshot, decoded from the store if it's not on the heap, without the changes in front of it.
+		 * @param id	The id of the Product.
+		 * @return	The Product, it must not be changed, or null if the Product is not in the snapshot.
+		 */
+		private Product getProduct(String id) {
+			Entry entry = entries.get(id);
+			if (entry != null) {
+				return entry.product;
+			}
+			if (store == null || removed.contains(id)) {
+				return null;
+			}
+			long record = store.find(id);
+			return record < 0 ? null : store.read(record);
+		}
+
+		/**
+		 * Get the serialized details of a Product.
+		 * @param id	The id of the Product.
+		 * @return	The Response, or null if the Product is not in the snapshot, or it's deleted.
+		 */
+		RenderedResponse getDetails(String id) {
+			Entry entry = CHANGES.get(id);
+			if (entry == null) {
+				entry = entries.get(id);
+			}
+			if (entry == null) {
+				if (store == null || removed.contains(id)) {
+					return null;
+				}
+				long record = store.find(id);
+				return record < 0 ? null : store.getDetails(record);
+			}
+			return entry.getDetails();
+		}
+
+		/**
+		 * Get the serialized list of the Products.
+		 * @return	The Response, or null if the catalog is empty.
+		 */
+		RenderedResponse getList() {
+			// the changes counted before the list is made, a change made meanwhile makes it again at the next read
+			long changeCount = CHANGE_COUNT.get();
+			RenderedList rendered = list;
+			if (rendered != null && rendered.changeCount == changeCount) {
+				return rendered.response;
+			}
+
+			RenderedResponse response = null;
+			if (size() > 0) {
+				if (store == null) {
+					response = new RenderedResponse(renderList());
+				} else {
+					// the list of a large catalog doesn't fit on the heap
+					response = new RenderedResponse(this::writeList, RUN + "-" + listVersion + "-" + changeCount);
+				}
+			}
+			list = new RenderedList(response, changeCount);
+			return response;
+		}
+
+		/**
+		 * Serialize the list of the Products on the heap, with the changes made through this instance.
+		 * @return	The json of the list.
+		 */
+		private String renderList() {
+			List<String> items = new ArrayList<>(entries.size());
+			for (Entry entry : entries.values()) {
+				Entry change = CHANGES.get(entry.product.getId());
+				if (change == null) {
+					items.add(entry.getListItem());
+				} else if (change.product != null) {
+					items.add(change.getListItem());
+				}
+			}
+			// the Products created through this instance since the refresh
+			for (Map.Entry<String, Entry> change : CHANGES.entrySet()) {
+				if (change.getValue().product != null && !contains(change.getKey())) {
+					items.add(change.getValue().getListItem());
+				}
+			}
+			return items.toString();
+		}
+
+		/**
+		 * Write the list of the Products of the store, with the changes made through this instance, while it's sent.
+		 * The items are written like the list on the heap, from the store in their order, then the Products not in the store.
+		 * @param stream	The stream of the Response.
+		 * @throws IOException	If the stream can't be written.
+		 */
+		private void writeList(OutputStream stream) throws IOException {
+			ListWriter out = new ListWriter(new BufferedOutputStream(stream, 1 << 16));
+			try {
+				store.forEachRecord(record -> {
+					// the id is only read when some Products are changed
+					if (entries.isEmpty() && removed.isEmpty() && CHANGES.isEmpty()) {
+						out.write(store.getListItem(record));
+						return;
+					}
+					String id = store.getId(record);
+					if (removed.contains(id)) {
+						return;
+					}
+					Entry entry = CHANGES.get(id);
+					if (entry == null) {
+						entry = entries.get(id);
+					}
+					if (entry == null) {
+						out.write(store.getListItem(record));
+					} else if (entry.product != null) {
+						out.write(entry.getListItem().getBytes(StandardCharsets.UTF_8));
+					}
+				});
+				for (Entry entry : entries.values()) {
+					Entry change = CHANGES.get(entry.product.getId());
+					if (store.find(entry.product.getId()) < 0 && (change == null || change.product != null)) {
+						out.write((change == null ? entry : change).getListItem().getBytes(StandardCharsets.UTF_8));
+					}
+				}
+				for (Map.Entry<String, Entry> change : CHANGES.entrySet()) {
+					if (change.getValue().product != null && !contains(change.getKey())) {
+						out.write(change.getValue().getListItem().getBytes(StandardCharsets.UTF_8));
+					}
+				}
+			} catch (UncheckedIOException e) {
+				throw e.getCause();
+			}
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the items of a list, like the String of a List: "[item, item]".
+	 */
+	private static final class ListWriter {
+
+		private static final byte[] SEPARATOR = ", ".getBytes(StandardCharsets.UTF_8);
+
+		private final OutputStream out;
+		private boolean first = true;
+
+		private ListWriter(OutputStream out) {
+			this.out = out;
+		}
+
+		private void write(byte[] item) {
+			try {
+				out.write(first ? new byte[] {'['} : SEPARATOR);
+				out.write(item);
+				first = false;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		private void close() throws IOException {
+			out.write(first ? new byte[] {'[', ']'} : new byte[] {']'});
+			out.flush();
+		}
+	}
+
+	/**
+	 * The serialized list of a snapshot, with the number of changes it was made with.
+	 */
+	private static final class RenderedList {
+
+		private final RenderedResponse response;
+		private final long changeCount;
+
+		private RenderedList(RenderedResponse response, long changeCount) {
+			this.response = response;
+			this.changeCount = changeCount;
+		}
+	}
+
+	/**
+	 * A Product of the snapshot, with its serialized details, or a Product deleted if it has no Product.
+	 */
+	private static final class Entry {
+
+		private final Product product;
+		private volatile RenderedResponse details;
+		private volatile String listItem;
+
+		private Entry(Product product) {
+			this.product = product;
+		}
+
+		/**
+		 * Get the serialized item of the Product in the list, made at the first read.
+		 * @return	The json, the Product must not be deleted.
+		 */
+		private String getListItem() {
+			String rendered = listItem;
+			if (rendered == null) {
+				rendered = ProductDao.toListItem(product).toString();
+				listItem = rendered;
+			}
+			return rendered;
+		}
+
+		/**
+		 * Get the serialized details of the Product, made at the first read.
+		 * @return	The Response, or null if the Product is deleted.
+		 */
+		private RenderedResponse getDetails() {
+			if (product == null) {
+				return null;
+			}
+			RenderedResponse rendered = details;
+			if (rendered == null) {
+				rendered = new RenderedResponse(ProductDao.toDetails(product).toString());
+				details = rendered;
+			}
+			return rendered;
+		}
+	}
+}
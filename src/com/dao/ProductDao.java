@@ -1,200 +1,317 @@
 /**
- *  This class is used to make Product verifications, inserts, and queries in the Elasticsearch DB.
- *  
+ *  This class is used to make Product verifications, inserts, and queries in the storage of the application.
+ *  The methods don't wait for the storage, they return a CompletableFuture completed with the result.
+ *
  *  @author sandor.naghi
  */
 
 package com.dao;
 
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
-
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
-
-import org.elasticsearch.action.delete.DeleteResponse;
-import org.elasticsearch.action.get.GetResponse;
-import org.elasticsearch.action.index.IndexResponse;
-import org.elasticsearch.action.search.SearchResponse;
-import org.elasticsearch.action.update.UpdateRequest;
-import org.elasticsearch.client.transport.TransportClient;
-import org.elasticsearch.index.query.QueryBuilders;
-import org.elasticsearch.search.SearchHit;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.beans.Product;
+import com.connection.InvalidationBus;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.gson.Gson;
+import com.repository.Copies;
+import com.repository.Repositories;
+import com.repository.UnitOfWork;
 
 
 public class ProductDao {
-	
+
 	/**
 	 * Insert a new product in the DB.
-	 * @param transportClient	The connection to the DataBase.
 	 * @param input	The data of the new Product.
 	 * @return	The id of the new inserted Product, or null if the insertion was not successful.
 	 */
-	public String createProduct(TransportClient transportClient, String input){
+	public CompletableFuture<String> createProductAsync(String input){
 		Product product = null;
-		String id = null;
-		
+
 		try {
 			ObjectMapper mapper = new ObjectMapper();
 			product = mapper.readValue(input, Product.class);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		if (product != null && !productExists(transportClient, product)) {
-		
-			IndexResponse response = transportClient.prepareIndex("shoppingcart", "product")
-			        .setSource(new Gson().toJson(product))
-			        .get();
-				
-			id = response.getId();
-					
+		if (product == null) {
+			return CompletableFuture.completedFuture(null);
 		}
-		
-		return id;
+
+		Product newProduct = product;
+		return productExistsAsync(newProduct).thenCompose(exists -> {
+			if (exists) {
+				return CompletableFuture.completedFuture(null);
+			}
+			return Repositories.products().create(newProduct)
+					.whenComplete((id, e) -> {
+						ProductResponseCache.invalidate(null);
+						if (id != null) {
+							newProduct.setId(id);
+							ProductCatalog.put(newProduct);
+							InvalidationBus.publish("product", id);
+						}
+					});
+		});
 	}
-	
+
 	/**
 	 * Get a product from DB, identified by the id.
-	 * @param transportClient	The connection to the DataBase.
+	 * The Requests reading the same Product at the same time share one read, a Request reading the Product again gets it from memory.
+	 * If the DB is unavailable, the last state of the Product read is returned.
 	 * @param id	The id of the Product.
-	 * @return	The product, if exists, or null if not. 
+	 * @return	The product, if exists, or null if not.
 	 */
-	public Product readProductById(TransportClient transportClient, String id) {
+	public CompletableFuture<Product> readProductByIdAsync(String id) {
 
-		Product product = null;
-						
-		GetResponse response = transportClient.prepareGet("shoppingcart", "product", id).get();
-			
-		if (response.isExists()) {
-			ObjectMapper mapper = new ObjectMapper();
-			try {
-				product = mapper.readValue(response.getSourceAsString(), Product.class);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-			product.setId(id);
-		}
+		CompletableFuture<Product> future = UnitOfWork.read("product", id, () -> SharedReads.PRODUCTS.get(id, () -> Repositories.products().findById(id)), Copies::copy)
+				.thenApply(product -> {
+					CatalogFallback.setProduct(id, product);
+					return product;
+				});
+
+		return CatalogFallback.orLastKnown(future, () -> CatalogFallback.getProduct(id));
+	}
+
+	/**
+	 * Get a product from DB, not from the caches, like before its stock is changed.
+	 * @param id	The id of the Product.
+	 * @return	The product, if exists, or null if not.
+	 */
+	public CompletableFuture<Product> readCurrentProductAsync(String id) {
 
-		return product;
+		return Repositories.products().findCurrent(id)
+				.thenApply(product -> {
+					CatalogFallback.setProduct(id, product);
+					return product;
+				});
 	}
-	
+
+	/**
+	 * Get several products from DB at once, with a single Request, like the products of a Cart or of the Orders.
+	 * If the DB is unavailable, the last state of the Products read is returned.
+	 * @param ids	The ids of the Products, can contain the same id more times.
+	 * @return	The Products by id, the Products that don't exist are missing from the map.
+	 */
+	public CompletableFuture<Map<String, Product>> readProductsByIdsAsync(Collection<String> ids) {
+
+		CompletableFuture<Map<String, Product>> future = Repositories.products().findByIds(ids)
+				.thenApply(products -> {
+					for (Product product : products.values()) {
+						CatalogFallback.setProduct(product.getId(), product);
+					}
+					return products;
+				});
+
+		return CatalogFallback.orLastKnown(future, () -> {
+			Map<String, Product> products = new HashMap<>();
+			for (String id : ids) {
+				Product product = CatalogFallback.getProduct(id);
+				if (product != null) {
+					products.put(id, product);
+				}
+			}
+			return products.isEmpty() ? null : products;
+		});
+	}
+
 	/**
 	 * Update a product, the price, the number in the stock, or the description.
-	 * @param transportClient	The connection to the DataBase.
 	 * @param product	The Product need to be updated.
 	 * @param json	A Json object with the information that updates the Product.
 	 */
-	public void updateProduct(TransportClient transportClient, Product product, JSONObject json) {
+	public CompletableFuture<Void> updateProductAsync(Product product, JSONObject json) {
 
-		UpdateRequest updateRequest = new UpdateRequest("shoppingcart", "product", product.getId());
-		
+		Product values = null;
 		try {
-			updateRequest.doc(jsonBuilder().startObject().field("productname", json.get("productname"))
-					.field("instock", json.get("instock"))
-					.field("price", json.get("price"))
-					.field("description", json.get("description"))
-					.field("imageURL", json.get("imageURL"))
-					.endObject());
-			
-			transportClient.update(updateRequest).get();
-		} catch (JSONException | IOException | InterruptedException | ExecutionException e) {
-			// TODO Auto-generated catch block
+			values = new Product(String.valueOf(json.get("productname")),
+					String.valueOf(json.get("description")),
+					json.getInt("instock"),
+					json.getLong("price"),
+					String.valueOf(json.get("imageURL")));
+			values.setId(product.getId());
+		} catch (JSONException e) {
 			e.printStackTrace();
+			return CompletableFuture.completedFuture(null);
 		}
+
+		Product updated = values;
+		ProductResponseCache.invalidate(updated.getId());
+		return UnitOfWork.write("product", updated.getId(), () -> Repositories.products().update(updated))
+				.whenComplete((result, e) -> {
+					ProductResponseCache.invalidate(updated.getId());
+					if (e == null) {
+						ProductCatalog.put(updated);
+					}
+					InvalidationBus.publish("product", updated.getId());
+				});
 	}
-	
+
+	/**
+	 * Put products back in the stock, or take them from it, without writing the other fields of the Product:
+	 * the stock changed by other Requests or other instances meanwhile is kept.
+	 * @param id	The id of the Product.
+	 * @param quantity	The number of products put back, negative to take them.
+	 * @return	The Product after the change, or null if it doesn't exist, or not enough products are in stock.
+	 */
+	public CompletableFuture<Product> changeStockAsync(String id, int quantity) {
+
+		// the list has no stock, it stays
+		ProductResponseCache.invalidateDetails(id);
+		return UnitOfWork.write("product", id, () -> Repositories.products().changeStock(id, quantity))
+				.whenComplete((product, e) -> {
+					ProductResponseCache.invalidateDetails(id);
+					if (product != null) {
+						ProductCatalog.put(product);
+					}
+					InvalidationBus.publish("product", id);
+				});
+	}
+
 	/**
 	 * Delete a Product from the DB.
-	 * @param transportClient	The connection to the DataBase.
 	 * @param id	The id of the Product.
 	 * @return	true if the deletion was successful, or false if not.
 	 */
-	public boolean deleteProduct(TransportClient transportClient, String id) {
-		Product product = readProductById(transportClient, id);
-		
-		if (product != null) {
-		
-			DeleteResponse response = transportClient.prepareDelete("shoppingcart", "product", id).get();
-			
-			if (!response.getId().equals(id)) {			// to be shore that product is deleted
-				return false;
+	public CompletableFuture<Boolean> deleteProductAsync(String id) {
+		return readProductByIdAsync(id).thenCompose(product -> {
+			if (product == null) {
+				return CompletableFuture.completedFuture(false);
 			}
-			return true;
-		}
-		return false;
+
+			ProductResponseCache.invalidate(id);
+			return UnitOfWork.write("product", id, () -> Repositories.products().delete(id))
+					.whenComplete((result, e) -> {
+						ProductResponseCache.invalidate(id);
+						if (e == null) {
+							ProductCatalog.remove(id);
+						}
+						InvalidationBus.publish("product", id);
+					});
+		});
 	}
-	
+
 	/**
 	 * Get a List of all the products from the DB.
-	 * @param transportClient	The connection to the DataBase.
+	 * If the DB is unavailable, the last list read is returned.
 	 * @return	The list of products existing in DB, or null if it's empty.
 	 */
-	public List<String> getProductList(TransportClient transportClient) {
-
-		List<String> list = new ArrayList<>();
-
-		SearchResponse response = transportClient.prepareSearch("shoppingcart")
-				.setTypes("product")
-				.setQuery(QueryBuilders.matchAllQuery())
-				.execute().actionGet();
-		
-		SearchHit[] hits = response.getHits().getHits();
-		if (hits.length != 0) {
-			for (SearchHit hit : hits) {
-				
-				JSONObject json = new JSONObject(hit.getSourceAsString());
-				json.remove("description");
-				
-				list.add(json.toString());
+	public CompletableFuture<List<String>> getProductListAsync() {
+
+		CompletableFuture<List<String>> future = Repositories.products().findAll()
+				.thenApply(products -> {
+					List<String> list = new ArrayList<>();
+
+					for (Product product : products) {
+						list.add(toListItem(product).toString());
+					}
+					CatalogFallback.setProductList(list);
+					return list;
+				});
+
+		return CatalogFallback.orLastKnown(future, CatalogFallback::getProductList);
+	}
+
+	/**
+	 * Get the serialized details of a Product, the json of the Product without its id.
+	 * The details are served from the snapshot of the catalog, or serialized once and kept until the Product is changed.
+	 * @param id	The id of the Product.
+	 * @return	The Response, or null if the Product doesn't exist.
+	 */
+	public CompletableFuture<RenderedResponse> readProductDetailsAsync(String id) {
+		ProductCatalog.Snapshot snapshot = ProductCatalog.get();
+		RenderedResponse details = snapshot == null ? null : snapshot.getDetails(id);
+		if (details != null) {
+			return CompletableFuture.completedFuture(details);
+		}
+
+		// the catalog is not loaded, or the Product was created by another instance after the last refresh
+		RenderedResponse cached = ProductResponseCache.getDetails(id);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+
+		long version = ProductResponseCache.getVersion();
+		return readProductByIdAsync(id).thenApply(product -> {
+			if (product == null) {
+				return null;
 			}
+			RenderedResponse response = new RenderedResponse(toDetails(product).toString());
+			ProductResponseCache.setDetails(id, response, version);
+			return response;
+		});
+	}
+
+	/**
+	 * Get the serialized list of all the products.
+	 * The list is served from the snapshot of the catalog, or serialized once and kept until a Product is created, changed or deleted.
+	 * @return	The Response, or null if there are no products.
+	 */
+	public CompletableFuture<RenderedResponse> getProductListResponseAsync() {
+		ProductCatalog.Snapshot snapshot = ProductCatalog.get();
+		if (snapshot != null) {
+			return CompletableFuture.completedFuture(snapshot.getList());
+		}
+
+		RenderedResponse cached = ProductResponseCache.getList();
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
 		}
-		
-		return list;
+
+		long version = ProductResponseCache.getVersion();
+		return getProductListAsync().thenApply(list -> {
+			if (list.isEmpty()) {
+				return null;
+			}
+			RenderedResponse response = new RenderedResponse(list.toString());
+			ProductResponseCache.setList(response, version);
+			return response;
+		});
 	}
-	
+
 	/**
 	 * Check if a Product exists in the DB.
-	 * @param transportClient	The connection to the DataBase.
 	 * @param newProduct	The product needed to be checked.
 	 * @return	true if exists, false if not.
 	 */
-	public boolean productExists(TransportClient transportClient, Product newProduct) {
+	public CompletableFuture<Boolean> productExistsAsync(Product newProduct) {
 
-		Product product = null;
-				
-		SearchResponse response = transportClient.prepareSearch("shoppingcart")
-				.setTypes("product")
-				.setQuery(QueryBuilders.termQuery("productname", newProduct.getProductname()))
-				.execute().actionGet();
-		
-		SearchHit[] hit = response.getHits().getHits();
-
-		if (hit.length != 0) {
-			String s = hit[0].getSourceAsString();
-		
-			ObjectMapper mapper = new ObjectMapper();
-			try {
-				product = mapper.readValue(s, Product.class);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
-			
-		
-		if (product == null) {
-			return false;
-		}
+		return Repositories.products().findByName(newProduct.getProductname())
+				.thenApply(product -> product != null);
+	}
 
-		return true;
+	/**
+	 * Create the json of the details of a Product, without its id.
+	 * @param product	The Product.
+	 * @return	The json.
+	 */
+	public static JSONObject toDetails(Product product) {
+		JSONObject json = new JSONObject(product);
+		json.remove("id");
+		return json;
 	}
-	
+
+	/**
+	 * Create the json of a Product in the list of the Products, without its id, description and stock:
+	 * the stock changes with every Cart, the list is only changed when a Product is created, edited or deleted.
+	 * @param product	The Product.
+	 * @return	The json.
+	 */
+	public static JSONObject toListItem(Product product) {
+		JSONObject json = toDetails(product);
+		json.remove("description");
+		json.remove("instock");
+		return json;
+	}
+
 	/**
 	 * Verify if the data from the Request, for product, is valid.
 	 * @param input	The data from the Request.
@@ -204,7 +321,7 @@ public class ProductDao {
 		if (input.equals("")){
 			return false;
 		}
-		
+
 		JSONObject json = null;
 		try {
 			json = new JSONObject(input);
@@ -214,7 +331,7 @@ public class ProductDao {
 		} catch (JSONException e) {
 			return false;
 		}
-		
+
 		return true;
 	}
 }
@@ -0,0 +1,97 @@
+/**
+ * This class keeps the serialized Responses of the catalog: the details of the Products, and the list of the Products.
+ * The Response of a Product is removed when the Product is created, updated (also the stock changed by a Cart)
+ * or deleted through the application, with the list, except for a change of the stock: the list has no stock. The changes made by other instances of the application
+ * are seen after "product.cache.ttl.ms" milliseconds, like the cache of the Products, or at once with the invalidation bus.
+ *
+ * @author sandor.naghi
+ */
+
+package com.dao;
+
+import org.json.JSONObject;
+
+import com.connection.ApplicationProperties;
+import com.connection.InvalidationBus;
+import com.repository.BoundedCache;
+
+public final class ProductResponseCache {
+
+	private static final String LIST = "list";
+	private static final String DETAILS = "details/";
+
+	private static final BoundedCache<String, RenderedResponse> RESPONSES = new BoundedCache<>(
+			ApplicationProperties.getInt("product.cache.size", 10000) + 1,
+			ApplicationProperties.getLong("product.cache.ttl.ms", 60000));
+
+	static {
+		InvalidationBus.subscribe("productresponses", new InvalidationBus.Listener() {
+
+			@Override
+			public void invalidate(String type, String id) {
+				if ("product".equals(type)) {
+					ProductResponseCache.invalidate(id);
+				}
+			}
+
+			@Override
+			public void invalidateAll() {
+				RESPONSES.invalidateAll();
+			}
+		});
+	}
+
+	private ProductResponseCache() {
+	}
+
+	/**
+	 * Get the version of the cache, read it before reading the Products from the DB.
+	 * @return	The version.
+	 */
+	static long getVersion() {
+		return RESPONSES.getVersion();
+	}
+
+	static RenderedResponse getDetails(String id) {
+		return RESPONSES.get(DETAILS + id);
+	}
+
+	static void setDetails(String id, RenderedResponse response, long readVersion) {
+		RESPONSES.put(DETAILS + id, response, readVersion);
+	}
+
+	static RenderedResponse getList() {
+		return RESPONSES.get(LIST);
+	}
+
+	static void setList(RenderedResponse response, long readVersion) {
+		RESPONSES.put(LIST, response, readVersion);
+	}
+
+	/**
+	 * Remove the Responses showing a Product, when the Product is changed.
+	 * @param id	The id of the Product, or null if it's a new Product, only in the list.
+	 */
+	static void invalidate(String id) {
+		if (id != null) {
+			RESPONSES.invalidate(DETAILS + id);
+		}
+		RESPONSES.invalidate(LIST);
+	}
+
+	/**
+	 * Remove the Response of the details of a Product, when only its stock is changed.
+	 * @param id	The id of the Product.
+	 */
+	static void invalidateDetails(String id) {
+		RESPONSES.invalidate(DETAILS + id);
+	}
+
+	/**
+	 * Get the state of the cache.
+	 * @return	A JSONObject with the hits, the misses and the evictions of the cache.
+	 */
+	public static JSONObject getStats() {
+		return RESPONSES.getStats();
+	}
+}
@@ -0,0 +1,114 @@
+/**
+ * This class is a Response of the catalog, serialized once and sent many times: the UTF-8 bytes of the json,
+ * and the strong entity tag of the bytes, so the browser asking with the tag it has gets "304 Not Modified".
+ * A Response too large to keep on the heap, like the list of a catalog kept outside of the heap, is streamed:
+ * it's written while it's sent, and its entity tag is given by the version of the data it's written from.
+ *
+ * @author sandor.naghi
+ */
+
+package com.dao;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+public class RenderedResponse {
+
+	private final byte[] bytes;
+	private final Body body;
+	private final String etag;
+
+	/**
+	 * Constructor of the class.
+	 * @param json	The json sent in the Response.
+	 */
+	public RenderedResponse(String json) {
+		this.bytes = json.getBytes(StandardCharsets.UTF_8);
+		this.body = null;
+		this.etag = digest(bytes);
+	}
+
+	/**
+	 * Constructor of the class, for a Response serialized before, like the details kept in the mapped catalog.
+	 * @param bytes	The UTF-8 bytes of the json.
+	 * @param etag	The entity tag of the bytes.
+	 */
+	RenderedResponse(byte[] bytes, String etag) {
+		this.bytes = bytes;
+		this.body = null;
+		this.etag = etag;
+	}
+
+	/**
+	 * Constructor of the class, for a streamed Response.
+	 * @param body	Writes the json, every time the Response is sent.
+	 * @param etag	The entity tag, it must change whenever the json written changes.
+	 */
+	RenderedResponse(Body body, String etag) {
+		this.bytes = null;
+		this.body = body;
+		this.etag = etag;
+	}
+
+	/**
+	 * Calculate the entity tag of the bytes, it changes whenever the bytes change.
+	 * @param bytes	The bytes of the Response.
+	 * @return	The hexadecimal SHA-1 digest of the bytes.
+	 */
+	static String digest(byte[] bytes) {
+		MessageDigest md = null;
+		try {
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			e.printStackTrace();
+			return Integer.toHexString(Arrays.hashCode(bytes));
+		}
+
+		StringBuilder hex = new StringBuilder();
+		for (byte b : md.digest(bytes)) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Get the bytes of the Response, they must not be changed.
+	 * @return	The UTF-8 bytes of the json, or null if the Response is streamed.
+	 */
+	public byte[] getBytes() {
+		return bytes;
+	}
+
+	public boolean isStreamed() {
+		return body != null;
+	}
+
+	/**
+	 * Write the json of the Response.
+	 * @param out	The stream of the Response.
+	 * @throws IOException	If the stream can't be written.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		if (body == null) {
+			out.write(bytes);
+		} else {
+			body.writeTo(out);
+		}
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * Writes the json of a streamed Response.
+	 */
+	interface Body {
+
+		void writeTo(OutputStream out) throws IOException;
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * This class keeps the reads of the Products, the Clients and the Carts running at the moment,
+ * so the Requests reading the same document at the same time share one read from the storage,
+ * like the users of a promotion opening the same Product, or the checks of the token of a Client.
+ *
+ * @author sandor.naghi
+ */
+
+package com.dao;
+
+import org.json.JSONObject;
+
+import com.beans.Cart;
+import com.beans.Client;
+import com.beans.Product;
+import com.repository.Copies;
+import com.repository.SingleFlight;
+
+public final class SharedReads {
+
+	static final SingleFlight<String, Product> PRODUCTS = new SingleFlight<>(Copies::copy);
+	static final SingleFlight<String, Client> CLIENTS = new SingleFlight<>(Copies::copy);
+	static final SingleFlight<String, Cart> CARTS = new SingleFlight<>(Copies::copy);
+
+	private SharedReads() {
+	}
+
+	/**
+	 * Get the number of reads, and the reads that waited for another read of the same document.
+	 * @return	A JSONObject with the counters of the Products, the Clients and the Carts.
+	 */
+	public static JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("products", PRODUCTS.getStats());
+		json.put("clients", CLIENTS.getStats());
+		json.put("carts", CARTS.getStats());
+
+		return json;
+	}
+}
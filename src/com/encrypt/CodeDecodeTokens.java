@@ -9,14 +9,15 @@ package com.encrypt;
 
 import java.security.Key;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
 
 import javax.crypto.spec.SecretKeySpec;
 import javax.xml.bind.DatatypeConverter;
 
-import org.elasticsearch.client.transport.TransportClient;
 
-import com.beans.Client;
+import com.connection.Futures;
 import com.dao.ClientDao;
+import com.encrypt.PrincipalCache.Principal;
 
 import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.JwtBuilder;
@@ -83,43 +84,68 @@ public class CodeDecodeTokens {
 		return claims;
 	}
 	
+	/**
+	 * Checking if the user has administrator rights, waiting for the DB.
+	 * Used only where the caller can't be asynchronous, like the validation of the parameters.
+	 * @param token	JavaWebToken that verify the user.
+	 * @return	true if the user has administrator rights, false if has not.
+	 */
+	public boolean userIsAdmin(String token) {
+		return Futures.await(userIsAdminAsync(token));
+	}
+	
 	/**
 	 * Checking if the user has administrator rights.
-	 * @param transportClient	The connection to the DataBase.
 	 * @param token	JavaWebToken that verify the user.
 	 * @return	true if the user has administrator rights, false if has not.
 	 */
-	public boolean userIsAdmin(TransportClient transClient, String token) {
+	public CompletableFuture<Boolean> userIsAdminAsync(String token) {
 		Claims claims = decodeToken(token);
-		Client admin = null;
 		
-		if (claims != null) {
-			admin = clientDao.readClient(transClient, claims.getId());
-			if (admin.isIsadmin() && admin.getUsername().equals(claims.getSubject()) && admin.getPassword().equals(claims.getIssuer())) {
-				return true;
-			}
+		if (claims == null) {
+			return CompletableFuture.completedFuture(false);
 		}
 		
-		return false;
+		return readPrincipalAsync(claims.getId()).thenApply(admin ->
+				admin != null && admin.admin && admin.username.equals(claims.getSubject()) && admin.password.equals(claims.getIssuer()));
 	}
 	
 	/**
 	 * Checks if the Client has the rights for respective operations.
-	 * @param transportClient	The connection to the DataBase.
 	 * @param token	JavaWebToken that identify's the Client.
 	 * @return	true if the Client has rights for the operation, false if not.
 	 */
-	public boolean clientHasRights(TransportClient transportClient, String token, String userid) {
+	public CompletableFuture<Boolean> clientHasRightsAsync(String token, String userid) {
 		Claims claims = decodeToken(token);
-		Client client = null;
 		
-		if (claims != null) {
-			client = clientDao.readClient(transportClient, claims.getId());
-			if (client.getUsername().equals(claims.getSubject()) && client.getPassword().equals(claims.getIssuer()) && client.isIsactive() && claims.getId().equals(userid)) {
-				return true;
-			}
+		if (claims == null) {
+			return CompletableFuture.completedFuture(false);
 		}
-		return false;
+		
+		return readPrincipalAsync(claims.getId()).thenApply(client ->
+				client != null && client.username.equals(claims.getSubject()) && client.password.equals(claims.getIssuer()) && client.active && claims.getId().equals(userid));
+	}
+	
+	/**
+	 * Get the data of the Client needed to check the token, from the cache, or from the DB if it's not in the cache.
+	 * @param id	The id of the Client, from the token.
+	 * @return	The data of the Client, or null if the Client doesn't exist.
+	 */
+	private CompletableFuture<Principal> readPrincipalAsync(String id) {
+		Principal cached = PrincipalCache.get(id);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(cached);
+		}
+		
+		long version = PrincipalCache.getVersion();
+		return clientDao.readClientAsync(id).thenApply(client -> {
+			if (client == null) {
+				return null;
+			}
+			Principal principal = new Principal(id, client);
+			PrincipalCache.put(principal, version);
+			return principal;
+		});
 	}
 	
 	public String clientIsValid(String token) {
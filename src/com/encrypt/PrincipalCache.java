@@ -0,0 +1,112 @@
+/**
+ * This class keeps the data of the Clients needed to check their tokens: the username, the hash of the password,
+ * and if the Client is active or an administrator. The tokens of the Requests are checked without reading the Client from the DB.
+ * A Client is removed from the cache as soon as it's activated, disabled or its password is reset,
+ * the changes made by other instances of the application are seen after "principal.cache.ttl.ms" milliseconds,
+ * or at once with the invalidation bus.
+ *
+ * @author sandor.naghi
+ */
+
+package com.encrypt;
+
+import org.json.JSONObject;
+
+import com.beans.Client;
+import com.connection.ApplicationProperties;
+import com.connection.InvalidationBus;
+import com.repository.BoundedCache;
+
+public final class PrincipalCache {
+
+	private static final BoundedCache<String, Principal> PRINCIPALS = new BoundedCache<>(
+			ApplicationProperties.getInt("principal.cache.size", 10000),
+			ApplicationProperties.getLong("principal.cache.ttl.ms", 300000));
+
+	static {
+		InvalidationBus.subscribe("principals", new InvalidationBus.Listener() {
+
+			@Override
+			public void invalidate(String type, String id) {
+				if ("client".equals(type)) {
+					PRINCIPALS.invalidate(id);
+				}
+			}
+
+			@Override
+			public void invalidateAll() {
+				PRINCIPALS.invalidateAll();
+			}
+		});
+	}
+
+	private PrincipalCache() {
+	}
+
+	/**
+	 * Get the data of a Client.
+	 * @param id	The id of the Client.
+	 * @return	The data, or null if it's not in the cache.
+	 */
+	static Principal get(String id) {
+		return PRINCIPALS.get(id);
+	}
+
+	/**
+	 * Get the version of the cache, read it before reading the Client from the DB.
+	 * @return	The version.
+	 */
+	static long getVersion() {
+		return PRINCIPALS.getVersion();
+	}
+
+	/**
+	 * Keep the data of a Client read from the DB, if the Client was not changed since it was read.
+	 * @param principal	The data of the Client.
+	 * @param readVersion	The version of the cache before the Client was read.
+	 */
+	static void put(Principal principal, long readVersion) {
+		PRINCIPALS.put(principal.id, principal, readVersion);
+	}
+
+	/**
+	 * Remove a Client from the cache, when it's activated, disabled, or its password is changed.
+	 * @param id	The id of the Client.
+	 */
+	public static void invalidate(String id) {
+		PRINCIPALS.invalidate(id);
+	}
+
+	/**
+	 * Get the state of the cache.
+	 * @return	A JSONObject with the hits, the misses and the evictions of the cache.
+	 */
+	public static JSONObject getStats() {
+		return PRINCIPALS.getStats();
+	}
+
+	/**
+	 * The data of a Client checked with the token.
+	 */
+	static final class Principal {
+
+		final String id;
+		final String username;
+		final String password;
+		final boolean active;
+		final boolean admin;
+
+		/**
+		 * Constructor of the class.
+		 * @param id	The id of the Client.
+		 * @param client	The Client read from the DB.
+		 */
+		Principal(String id, Client client) {
+			this.id = id;
+			this.username = client.getUsername();
+			this.password = client.getPassword();
+			this.active = client.isIsactive();
+			this.admin = client.isIsadmin();
+		}
+	}
+}
@@ -0,0 +1,269 @@
+/**
+ * This class gathers the Products read by id by all the Requests running at the same time, and reads them
+ * from the storage with a single Request: the first read starts a batch, the batch is sent when it has
+ * maxBatch ids, or when the wait time is over. Every read gets its own Product from the result.
+ * The reads of different bulkheads are not mixed, the batch is sent in the bulkhead of its Requests,
+ * with the latest deadline of its Requests, and every Request is completed with its own deadline and bulkhead.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.json.JSONObject;
+
+import com.beans.Product;
+import com.connection.Bulkhead;
+import com.connection.DaemonThreadFactory;
+import com.connection.Deadline;
+import com.connection.Histogram;
+import com.connection.RequestExecutor;
+
+public class BatchingProductRepository implements ProductRepository {
+
+	private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("product-batch"));
+
+	private final ProductRepository repository;
+	private final int maxBatch;
+	private final long waitMicros;
+
+	// guarded by this
+	private final Map<Bulkhead, Batch> pending = new HashMap<>();
+
+	private final Histogram batchSizes = new Histogram(1, 2, 4, 8, 16, 32, 64, 128, 256);
+	private final Histogram waitTimes = new Histogram(100, 250, 500, 1000, 2000, 5000, 10000);
+	private final AtomicLong reads = new AtomicLong();
+	private final AtomicLong batches = new AtomicLong();
+
+	/**
+	 * Constructor of the class.
+	 * @param repository	The storage of the Products.
+	 * @param maxBatch	The number of reads a batch is sent with, without waiting more.
+	 * @param waitMicros	The time a batch waits for more reads, in microseconds.
+	 */
+	public BatchingProductRepository(ProductRepository repository, int maxBatch, long waitMicros) {
+		this.repository = repository;
+		this.maxBatch = maxBatch;
+		this.waitMicros = waitMicros;
+	}
+
+	@Override
+	public CompletableFuture<String> create(Product product) {
+		return repository.create(product);
+	}
+
+	@Override
+	public CompletableFuture<Product> findById(String id) {
+		Read read = new Read(id, Deadline.current(), Bulkhead.current());
+		if (read.deadline != null && read.deadline.isExpired()) {
+			read.future.completeExceptionally(read.deadline.exceeded());
+			return read.future;
+		}
+		reads.incrementAndGet();
+
+		Batch full = null;
+		synchronized (this) {
+			Batch batch = pending.get(read.bulkhead);
+			if (batch == null) {
+				batch = new Batch(read.bulkhead);
+				pending.put(read.bulkhead, batch);
+				Batch scheduled = batch;
+				batch.timer = TIMER.schedule(() -> flush(scheduled), waitMicros, TimeUnit.MICROSECONDS);
+			}
+			batch.reads.add(read);
+			if (batch.reads.size() >= maxBatch) {
+				pending.remove(read.bulkhead);
+				full = batch;
+			}
+		}
+
+		if (full != null) {
+			full.timer.cancel(false);
+			send(full);
+		}
+		return read.future;
+	}
+
+	@Override
+	public CompletableFuture<Product> findCurrent(String id) {
+		// read before a change, not worth the wait of a batch
+		return repository.findCurrent(id);
+	}
+
+	@Override
+	public CompletableFuture<Map<String, Product>> findByIds(Collection<String> ids) {
+		return repository.findByIds(ids);
+	}
+
+	@Override
+	public CompletableFuture<Product> findByName(String productname) {
+		return repository.findByName(productname);
+	}
+
+	@Override
+	public CompletableFuture<List<Product>> findAll() {
+		return repository.findAll();
+	}
+
+	@Override
+	public CompletableFuture<Long> scanAll(Consumer<List<Product>> pages) {
+		return repository.scanAll(pages);
+	}
+
+	@Override
+	public CompletableFuture<List<Product>> findUpdatedSince(long since) {
+		return repository.findUpdatedSince(since);
+	}
+
+	@Override
+	public CompletableFuture<Void> update(Product product) {
+		return repository.update(product);
+	}
+
+	@Override
+	public CompletableFuture<Product> changeStock(String id, int quantity) {
+		return repository.changeStock(id, quantity);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> delete(String id) {
+		return repository.delete(id);
+	}
+
+	/**
+	 * Send the batch when its wait time is over, if it was not sent because it was full.
+	 * @param batch	The batch.
+	 */
+	private void flush(Batch batch) {
+		synchronized (this) {
+			if (pending.get(batch.bulkhead) != batch) {
+				return;
+			}
+			pending.remove(batch.bulkhead);
+		}
+		send(batch);
+	}
+
+	/**
+	 * Read the Products of a batch with one Request, and complete every read with its Product.
+	 * @param batch	The batch.
+	 */
+	private void send(Batch batch) {
+		long now = System.nanoTime();
+		Set<String> ids = new LinkedHashSet<>();
+		Deadline latest = null;
+		boolean unlimited = false;
+		for (Read read : batch.reads) {
+			ids.add(read.id);
+			waitTimes.record(TimeUnit.NANOSECONDS.toMicros(now - read.created));
+			if (read.deadline == null) {
+				unlimited = true;
+			} else if (latest == null || read.deadline.remainingMillis() > latest.remainingMillis()) {
+				latest = read.deadline;
+			}
+		}
+		batchSizes.record(batch.reads.size());
+		batches.incrementAndGet();
+
+		CompletableFuture<Map<String, Product>> products = new CompletableFuture<>();
+		RequestExecutor.runWith(unlimited ? null : latest, batch.bulkhead, () -> {
+			try {
+				repository.findByIds(ids).whenComplete((result, e) -> {
+					if (e != null) {
+						products.completeExceptionally(e);
+					} else {
+						products.complete(result);
+					}
+				});
+			} catch (RuntimeException e) {
+				products.completeExceptionally(e);
+			}
+		});
+
+		products.whenComplete((result, e) -> {
+			for (Read read : batch.reads) {
+				read.complete(result, e);
+			}
+		});
+	}
+
+	/**
+	 * Get the state of the batches.
+	 * @return	A JSONObject with the number of reads and batches, the size of the batches, and the time the reads waited, in microseconds.
+	 */
+	public JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("reads", reads.get());
+		json.put("batches", batches.get());
+		json.put("batchsize", batchSizes.getStats());
+		json.put("waitmicros", waitTimes.getStats());
+
+		return json;
+	}
+
+	/**
+	 * A read of a Product, waiting in a batch.
+	 */
+	private static class Read {
+
+		private final String id;
+		private final Deadline deadline;
+		private final Bulkhead bulkhead;
+		private final long created = System.nanoTime();
+		private final CompletableFuture<Product> future = new CompletableFuture<>();
+
+		private Read(String id, Deadline deadline, Bulkhead bulkhead) {
+			this.id = id;
+			this.deadline = deadline;
+			this.bulkhead = bulkhead;
+		}
+
+		/**
+		 * Complete the read with the deadline and the bulkhead of its Request on the current thread,
+		 * so the next calls of the Request to the DB use them.
+		 * @param products	The Products of the batch, by id.
+		 * @param e	The failure of the batch, or null.
+		 */
+		private void complete(Map<String, Product> products, Throwable e) {
+			RequestExecutor.runWith(deadline, bulkhead, () -> {
+				if (e != null) {
+					future.completeExceptionally(e);
+				} else if (deadline != null && deadline.isExpired()) {
+					future.completeExceptionally(deadline.exceeded());
+				} else {
+					// the reads of the same id share the Product of the batch, every read gets a copy
+					future.complete(Copies.copy(products.get(id)));
+				}
+			});
+		}
+	}
+
+	/**
+	 * The reads of a bulkhead gathered in a batch.
+	 */
+	private static class Batch {
+
+		private final Bulkhead bulkhead;
+		private final List<Read> reads = new ArrayList<>();
+		private ScheduledFuture<?> timer;
+
+		private Batch(Bulkhead bulkhead) {
+			this.bulkhead = bulkhead;
+		}
+	}
+}
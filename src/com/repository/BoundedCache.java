@@ -0,0 +1,222 @@
+/**
+ * This class is a cache of a limited size in the memory of the application.
+ * When the cache is full, the entry read the longest time ago is evicted (least recently used),
+ * and an entry expires after the time to live, so the changes made by other instances of the application are seen.
+ * The entries are split in segments by the hash of the key, each segment with its own lock and its own least recently used order,
+ * so the Requests reading different keys don't wait for each other.
+ * Every invalidation of a key is stamped with the next value of a clock of the cache, a value read from the storage
+ * before the invalidation of its key is not put in the cache, so an update running at the same time with a read
+ * can't be overwritten by the old value. The stamps are kept by slots of the hash of the key, not for each key:
+ * a read of another key of the same slot is not put in the cache either, it's read again from the storage next time.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+public class BoundedCache<K, V> {
+
+	private static final int MAX_SEGMENTS = 16;
+	private static final int MIN_SEGMENT_SIZE = 64;
+	private static final int SLOTS = 256;
+
+	private final int maxSize;
+	private final long ttlNanos;
+	private final Segment<K, V>[] segments;
+	private final int segmentBits;
+
+	private final AtomicLong clock = new AtomicLong();
+	private volatile long allInvalidated;
+
+	/**
+	 * Constructor of the class.
+	 * @param maxSize	The number of entries kept at most.
+	 * @param ttlMillis	The time an entry is kept, in milliseconds.
+	 */
+	@SuppressWarnings("unchecked")
+	public BoundedCache(int maxSize, long ttlMillis) {
+		this.maxSize = maxSize;
+		this.ttlNanos = ttlMillis * 1000000L;
+
+		// a small cache is not split, the least recently used entry is evicted from the whole cache
+		int count = 1;
+		int bits = 0;
+		while (count < MAX_SEGMENTS && maxSize / (count * 2) >= MIN_SEGMENT_SIZE) {
+			count *= 2;
+			bits++;
+		}
+		this.segmentBits = bits;
+		this.segments = new Segment[count];
+		for (int i = 0; i < count; i++) {
+			segments[i] = new Segment<>(maxSize / count + (i < maxSize % count ? 1 : 0));
+		}
+	}
+
+	/**
+	 * Get a value from the cache.
+	 * @param key	The key of the value.
+	 * @return	The value, or null if it's not in the cache or expired.
+	 */
+	public V get(K key) {
+		int hash = hash(key);
+		Segment<K, V> segment = segments[hash & (segments.length - 1)];
+		synchronized (segment) {
+			Entry<V> entry = segment.entries.get(key);
+			if (entry == null) {
+				segment.misses++;
+				return null;
+			}
+			if (System.nanoTime() - entry.created > ttlNanos) {
+				segment.entries.remove(key);
+				segment.expirations++;
+				segment.misses++;
+				return null;
+			}
+			segment.hits++;
+			return entry.value;
+		}
+	}
+
+	/**
+	 * Get the version of the cache, read it before reading values from the storage.
+	 * @return	The version.
+	 */
+	public long getVersion() {
+		return clock.get();
+	}
+
+	/**
+	 * Put a value in the cache, if its key was not invalidated since the value was read.
+	 * @param key	The key of the value.
+	 * @param value	The value.
+	 * @param readVersion	The version of the cache before the value was read from the storage.
+	 */
+	public void put(K key, V value, long readVersion) {
+		if (readVersion < allInvalidated) {
+			return;
+		}
+		int hash = hash(key);
+		Segment<K, V> segment = segments[hash & (segments.length - 1)];
+		synchronized (segment) {
+			if (readVersion < segment.invalidated[slot(hash)]) {
+				return;
+			}
+			segment.entries.put(key, new Entry<>(value, System.nanoTime()));
+
+			if (segment.entries.size() > segment.maxSize) {
+				Iterator<Map.Entry<K, Entry<V>>> eldest = segment.entries.entrySet().iterator();
+				eldest.next();
+				eldest.remove();
+				segment.evictions++;
+			}
+		}
+	}
+
+	/**
+	 * Remove a value from the cache, when it's changed or deleted.
+	 * @param key	The key of the value.
+	 */
+	public void invalidate(K key) {
+		int hash = hash(key);
+		Segment<K, V> segment = segments[hash & (segments.length - 1)];
+		synchronized (segment) {
+			segment.entries.remove(key);
+			segment.invalidated[slot(hash)] = clock.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Remove all the values from the cache.
+	 */
+	public void invalidateAll() {
+		allInvalidated = clock.incrementAndGet();
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				segment.entries.clear();
+			}
+		}
+	}
+
+	/**
+	 * Get the state of the cache.
+	 * @return	A JSONObject with the size of the cache, the hits, the misses, and the entries evicted and expired.
+	 */
+	public JSONObject getStats() {
+		int size = 0;
+		long hits = 0;
+		long misses = 0;
+		long evictions = 0;
+		long expirations = 0;
+		for (Segment<K, V> segment : segments) {
+			synchronized (segment) {
+				size += segment.entries.size();
+				hits += segment.hits;
+				misses += segment.misses;
+				evictions += segment.evictions;
+				expirations += segment.expirations;
+			}
+		}
+
+		JSONObject json = new JSONObject();
+		json.put("size", size);
+		json.put("maxsize", maxSize);
+		json.put("segments", segments.length);
+		json.put("hits", hits);
+		json.put("misses", misses);
+		json.put("hitrate", hits + misses == 0 ? 0 : (double) hits / (hits + misses));
+		json.put("evictions", evictions);
+		json.put("expirations", expirations);
+
+		return json;
+	}
+
+	private static int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	private int slot(int hash) {
+		// the bits choosing the segment are the same for all the keys of the segment
+		return (hash >>> segmentBits) & (SLOTS - 1);
+	}
+
+	/**
+	 * A part of the cache, with its entries in the order they were read, and the stamps of the last invalidations of its slots.
+	 * Guarded by itself.
+	 */
+	private static class Segment<K, V> {
+
+		private final int maxSize;
+		private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+		private final long[] invalidated = new long[SLOTS];
+		private long hits;
+		private long misses;
+		private long evictions;
+		private long expirations;
+
+		private Segment(int maxSize) {
+			this.maxSize = maxSize;
+		}
+	}
+
+	/**
+	 * A value of the cache, with the time it was put in the cache.
+	 */
+	private static class Entry<V> {
+
+		private final V value;
+		private final long created;
+
+		private Entry(V value, long created) {
+			this.value = value;
+			this.created = created;
+		}
+	}
+}
@@ -0,0 +1,174 @@
+/**
+ * This class keeps the Products read by id in a cache in front of another storage of the Products,
+ * so the Products of the carts and the orders are read without a Request to the DB.
+ * The Product is removed from the cache when it's updated or deleted through the application,
+ * the changes made by other instances of the application are seen after the time to live of the cache,
+ * or at once with the invalidation bus (the cache created last is subscribed).
+ * Every read returns a copy, so changing the Product read doesn't change the cached Product.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import static com.repository.Copies.copy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import org.json.JSONObject;
+
+import com.beans.Product;
+import com.connection.InvalidationBus;
+
+public class CachingProductRepository implements ProductRepository {
+
+	private final ProductRepository repository;
+	private final BoundedCache<String, Product> cache;
+
+	/**
+	 * Constructor of the class.
+	 * @param repository	The storage of the Products.
+	 * @param maxSize	The number of Products kept at most.
+	 * @param ttlMillis	The time a Product is kept, in milliseconds.
+	 */
+	public CachingProductRepository(ProductRepository repository, int maxSize, long ttlMillis) {
+		this.repository = repository;
+		this.cache = new BoundedCache<>(maxSize, ttlMillis);
+
+		InvalidationBus.subscribe("productcache", new InvalidationBus.Listener() {
+
+			@Override
+			public void invalidate(String type, String id) {
+				if ("product".equals(type)) {
+					cache.invalidate(id);
+				}
+			}
+
+			@Override
+			public void invalidateAll() {
+				cache.invalidateAll();
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<String> create(Product product) {
+		return repository.create(product);
+	}
+
+	@Override
+	public CompletableFuture<Product> findById(String id) {
+		Product cached = cache.get(id);
+		if (cached != null) {
+			return CompletableFuture.completedFuture(copy(cached));
+		}
+
+		long version = cache.getVersion();
+		return repository.findById(id).thenApply(product -> {
+			if (product != null) {
+				cache.put(id, copy(product), version);
+			}
+			return product;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Product> findCurrent(String id) {
+		long version = cache.getVersion();
+		return repository.findCurrent(id).thenApply(product -> {
+			if (product != null) {
+				cache.put(id, copy(product), version);
+			}
+			return product;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Map<String, Product>> findByIds(Collection<String> ids) {
+		Map<String, Product> found = new HashMap<>();
+		List<String> missing = new ArrayList<>();
+		for (String id : new LinkedHashSet<>(ids)) {
+			Product cached = cache.get(id);
+			if (cached != null) {
+				found.put(id, copy(cached));
+			} else {
+				missing.add(id);
+			}
+		}
+		if (missing.isEmpty()) {
+			return CompletableFuture.completedFuture(found);
+		}
+
+		// only the Products not in the cache are read from the storage
+		long version = cache.getVersion();
+		return repository.findByIds(missing).thenApply(products -> {
+			for (Map.Entry<String, Product> entry : products.entrySet()) {
+				cache.put(entry.getKey(), copy(entry.getValue()), version);
+			}
+			found.putAll(products);
+			return found;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Product> findByName(String productname) {
+		return repository.findByName(productname);
+	}
+
+	@Override
+	public CompletableFuture<List<Product>> findAll() {
+		// the list of the catalog fills the cache, the details and the carts read it after
+		long version = cache.getVersion();
+		return repository.findAll().thenApply(products -> {
+			for (Product product : products) {
+				cache.put(product.getId(), copy(product), version);
+			}
+			return products;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Long> scanAll(Consumer<List<Product>> pages) {
+		// the whole catalog read page by page doesn't go through the cache, it would evict the Products read by the shoppers
+		return repository.scanAll(pages);
+	}
+
+	@Override
+	public CompletableFuture<List<Product>> findUpdatedSince(long since) {
+		return repository.findUpdatedSince(since);
+	}
+
+	@Override
+	public CompletableFuture<Void> update(Product product) {
+		String id = product.getId();
+		cache.invalidate(id);
+		return repository.update(product).whenComplete((result, e) -> cache.invalidate(id));
+	}
+
+	@Override
+	public CompletableFuture<Product> changeStock(String id, int quantity) {
+		cache.invalidate(id);
+		return repository.changeStock(id, quantity).whenComplete((product, e) -> cache.invalidate(id));
+	}
+
+	@Override
+	public CompletableFuture<Boolean> delete(String id) {
+		cache.invalidate(id);
+		return repository.delete(id).whenComplete((result, e) -> cache.invalidate(id));
+	}
+
+	/**
+	 * Get the state of the cache.
+	 * @return	A JSONObject with the hits, the misses and the evictions of the cache.
+	 */
+	public JSONObject getStats() {
+		return cache.getStats();
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * This interface is the storage of the Carts, every Client has at most one Cart, identified by the id of the Client.
+ * The methods don't wait for the storage, they return a CompletableFuture completed with the result.
+ * A Cart read has the version of the stored document, the writes with a version fail with VersionConflictException
+ * if the Cart was changed since it was read.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.beans.Cart;
+import com.beans.CartLine;
+
+public interface CartRepository {
+
+	/**
+	 * Insert a new Cart.
+	 * @param cart	The Cart, with the id of the Client.
+	 * @return	true if the Cart is inserted.
+	 */
+	CompletableFuture<Boolean> create(Cart cart);
+
+	/**
+	 * Read the Cart of a Client.
+	 * @param userid	The id of the Client.
+	 * @return	The Cart with its version, or null if the Client has no Cart.
+	 */
+	CompletableFuture<Cart> findByUserid(String userid);
+
+	/**
+	 * Update the total quantity, the total cost and the lines of a Cart, if it was not changed since it was read.
+	 * @param cart	The Cart, with the id of the Client, and the version it was read with (0 to write any version).
+	 */
+	CompletableFuture<Void> update(Cart cart);
+
+	/**
+	 * Write a whole Cart, if it was not changed since it was read.
+	 * @param cart	The Cart, with the id of the Client, and the version it was read with: with version 0 it's written only
+	 * 				if the Client has no Cart.
+	 */
+	CompletableFuture<Void> save(Cart cart);
+
+	/**
+	 * Add Products to the Cart of a Client, or remove them, in one step on the storage (see Cart.change()):
+	 * the changes of the Requests running at the same time are all kept. A Client without a Cart gets a new one
+	 * with the Products added.
+	 * @param userid	The id of the Client.
+	 * @param change	The id of the Product, the number of Products added (negative to remove), and the current price.
+	 * @return	The Cart after the change with its version, or null if the Products are not removed: the Client has no Cart, or less of the Product.
+	 */
+	CompletableFuture<Cart> change(String userid, CartLine change);
+
+	/**
+	 * Delete the Cart of a Client, if it was not changed since it was read.
+	 * @param userid	The id of the Client.
+	 * @param version	The version the Cart was read with (0 to delete any version), a Cart deleted meanwhile is a conflict too.
+	 */
+	CompletableFuture<Void> delete(String userid, long version);
+
+	/**
+	 * Write the Carts of several Clients, and delete the Carts of others, at once.
+	 * The version of every Cart is the version of the change, a change older than the stored Cart is left out,
+	 * so the Carts written by several writers at the same time keep the newest change.
+	 * @param saved	The Carts written.
+	 * @param deleted	The Carts deleted, with the id of the Client and the version.
+	 * @return	The ids of the Clients whose change was left out, a newer Cart is stored.
+	 */
+	CompletableFuture<List<String>> writeAll(Collection<Cart> saved, Collection<Cart> deleted);
+
+	/**
+	 * Write the Cart of a Client to the storage now, if the storage writes the Carts later.
+	 * @param userid	The id of the Client.
+	 */
+	CompletableFuture<Void> flush(String userid);
+
+	/**
+	 * Rewrite some of the Carts stored with the items list of the earlier versions, with the lines.
+	 * A Cart changed since it was read is left alone, the change has written the lines.
+	 * @param max	The number of Carts rewritten at most.
+	 * @return	The number of Carts rewritten or changed meanwhile, 0 if there is nothing left to rewrite.
+	 */
+	CompletableFuture<Integer> migrateItems(int max);
+}
@@ -0,0 +1,57 @@
+/**
+ * This interface is the storage of the Clients.
+ * The methods don't wait for the storage, they return a CompletableFuture completed with the result.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.beans.Client;
+
+public interface ClientRepository {
+
+	/**
+	 * Insert a new Client.
+	 * @param client	The Client, with the encrypted password.
+	 * @return	The id of the new Client.
+	 */
+	CompletableFuture<String> create(Client client);
+
+	/**
+	 * Read a Client.
+	 * @param id	The id of the Client.
+	 * @return	The Client with its id, or null if it doesn't exist.
+	 */
+	CompletableFuture<Client> findById(String id);
+
+	/**
+	 * Read the Client with the given username.
+	 * @param username	The username of the Client.
+	 * @return	The Client with its id, or null if it doesn't exist.
+	 */
+	CompletableFuture<Client> findByUsername(String username);
+
+	/**
+	 * Read all the Clients.
+	 * @return	The list of Clients, with their id.
+	 */
+	CompletableFuture<List<Client>> findAll();
+
+	/**
+	 * Activate or disable a Client.
+	 * @param id	The id of the Client.
+	 * @param isactive	true if the Client is activated, false if disabled.
+	 */
+	CompletableFuture<Void> setActive(String id, boolean isactive);
+
+	/**
+	 * Change the password of a Client.
+	 * @param id	The id of the Client.
+	 * @param password	The encrypted password.
+	 */
+	CompletableFuture<Void> setPassword(String id, String password);
+}
@@ -0,0 +1,83 @@
+/**
+ * This class copies the Beans kept by the storages in memory, or shared by several Requests,
+ * so a Request changing the Bean it read doesn't change the Bean of the others.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import com.beans.Address;
+import com.beans.Cart;
+import com.beans.Client;
+import com.beans.Order;
+import com.beans.Product;
+
+public final class Copies {
+
+	private Copies() {
+	}
+
+	/**
+	 * Copy a Product.
+	 * @param product	The Product, can be null.
+	 * @return	The copy, or null.
+	 */
+	public static Product copy(Product product) {
+		if (product == null) {
+			return null;
+		}
+		Product copy = new Product(product.getProductname(), product.getDescription(), product.getInstock(), product.getPrice(), product.getImageURL());
+		copy.setId(product.getId());
+		return copy;
+	}
+
+	/**
+	 * Copy a Cart, with its lines (a line is never changed, it's shared by the copies).
+	 * @param cart	The Cart, can be null.
+	 * @return	The copy, or null.
+	 */
+	public static Cart copy(Cart cart) {
+		if (cart == null) {
+			return null;
+		}
+		Cart copy = new Cart(cart.getTotalquantity(), cart.getTotalcost(), cart.getLines());
+		copy.setUserid(cart.getUserid());
+		copy.setVersion(cart.getVersion());
+		return copy;
+	}
+
+	/**
+	 * Copy a Client, with its Address.
+	 * @param client	The Client, can be null.
+	 * @return	The copy, or null.
+	 */
+	public static Client copy(Client client) {
+		if (client == null) {
+			return null;
+		}
+		Address address = client.getAddress();
+		if (address != null) {
+			address = new Address(address.getStreet(), address.getTown(), address.getCounty(), address.getZip());
+		}
+		Client copy = new Client(client.getEmail(), client.getUsername(), client.getPassword(), client.getName(),
+				client.isIsactive(), client.isIsadmin(), client.getActivationcode(), address);
+		copy.setId(client.getId());
+		return copy;
+	}
+
+	/**
+	 * Copy an Order, with its lines (a line is never changed, it's shared by the copies).
+	 * @param order	The Order, can be null.
+	 * @return	The copy, or null.
+	 */
+	public static Order copy(Order order) {
+		if (order == null) {
+			return null;
+		}
+		Order copy = new Order(order.getUserid(), order.getLines(), order.getTotalquantity(),
+				order.getTotalcost(), order.getOrdernumber(), order.getDate(), order.isConfirmed(), order.isCompleted());
+		copy.setVersion(order.getVersion());
+		return copy;
+	}
+}
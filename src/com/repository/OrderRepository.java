@@ -0,0 +1,60 @@
+/**
+ * This interface is the storage of the Orders.
+ * The methods don't wait for the storage, they return a CompletableFuture completed with the result.
+ * An Order read has the version of the stored document, the writes with a version fail with VersionConflictException
+ * if the Order was changed since it was read.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.beans.Order;
+
+public interface OrderRepository {
+
+	/**
+	 * Insert a new Order.
+	 * @param order	The Order.
+	 * @return	The id of the new Order.
+	 */
+	CompletableFuture<String> create(Order order);
+
+	/**
+	 * Read an Order.
+	 * @param id	The id of the Order.
+	 * @return	The Order with its version, or null if it doesn't exist.
+	 */
+	CompletableFuture<Order> findById(String id);
+
+	/**
+	 * Read the Orders of a Client.
+	 * @param userid	The id of the Client.
+	 * @return	The list of Orders.
+	 */
+	CompletableFuture<List<Order>> findByUserid(String userid);
+
+	/**
+	 * Read all the Orders.
+	 * @return	The list of Orders.
+	 */
+	CompletableFuture<List<Order>> findAll();
+
+	/**
+	 * Replace an Order with a new version, if it was not changed since it was read.
+	 * @param id	The id of the Order.
+	 * @param order	The new version of the Order, with the version it was read with (0 to replace any version).
+	 */
+	CompletableFuture<Void> replace(String id, Order order);
+
+	/**
+	 * Rewrite some of the Orders stored with the items list of the earlier versions, with the lines.
+	 * An Order changed since it was read is left alone, the change has written the lines.
+	 * @param max	The number of Orders rewritten at most.
+	 * @return	The number of Orders rewritten or changed meanwhile, 0 if there is nothing left to rewrite.
+	 */
+	CompletableFuture<Integer> migrateItems(int max);
+}
@@ -0,0 +1,96 @@
+/**
+ * This interface is the storage of the Products.
+ * The methods don't wait for the storage, they return a CompletableFuture completed with the result.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+import com.beans.Product;
+
+public interface ProductRepository {
+
+	/**
+	 * Insert a new Product.
+	 * @param product	The Product.
+	 * @return	The id of the new Product.
+	 */
+	CompletableFuture<String> create(Product product);
+
+	/**
+	 * Read a Product.
+	 * @param id	The id of the Product.
+	 * @return	The Product with its id, or null if it doesn't exist.
+	 */
+	CompletableFuture<Product> findById(String id);
+
+	/**
+	 * Read a Product from the storage itself, not from a cache in front of it, like before its stock is changed.
+	 * @param id	The id of the Product.
+	 * @return	The Product with its id, or null if it doesn't exist.
+	 */
+	CompletableFuture<Product> findCurrent(String id);
+
+	/**
+	 * Read several Products at once, with one Request to the storage.
+	 * @param ids	The ids of the Products.
+	 * @return	The Products by id, the Products that don't exist are missing from the map.
+	 */
+	CompletableFuture<Map<String, Product>> findByIds(Collection<String> ids);
+
+	/**
+	 * Read the Product with the given name.
+	 * @param productname	The name of the Product.
+	 * @return	The Product, or null if it doesn't exist.
+	 */
+	CompletableFuture<Product> findByName(String productname);
+
+	/**
+	 * Read all the Products, however many they are.
+	 * @return	The list of Products.
+	 */
+	CompletableFuture<List<Product>> findAll();
+
+	/**
+	 * Read all the Products page by page, without keeping them all in the memory, like for a very large catalog.
+	 * @param pages	Gets the Products of every page, one page after the other.
+	 * @return	The number of Products read.
+	 */
+	CompletableFuture<Long> scanAll(Consumer<List<Product>> pages);
+
+	/**
+	 * Read the Products created or updated since a time, the deleted Products are not returned.
+	 * @param since	The time, in milliseconds since the epoch.
+	 * @return	The list of Products changed at or after the time.
+	 */
+	CompletableFuture<List<Product>> findUpdatedSince(long since);
+
+	/**
+	 * Update the name, the stock, the price, the description and the image of a Product.
+	 * @param product	The Product, with its id.
+	 */
+	CompletableFuture<Void> update(Product product);
+
+	/**
+	 * Put Products back in the stock, or take them from it, in one step on the storage: the changes of the Requests
+	 * and of the instances of the application running at the same time are all kept, the other fields are left alone.
+	 * @param id	The id of the Product.
+	 * @param quantity	The number of Products put back, negative to take them.
+	 * @return	The Product after the change, or null if it doesn't exist, or has less in stock than the Products taken.
+	 */
+	CompletableFuture<Product> changeStock(String id, int quantity);
+
+	/**
+	 * Delete a Product.
+	 * @param id	The id of the Product.
+	 * @return	true if the Product is deleted.
+	 */
+	CompletableFuture<Boolean> delete(String id);
+}
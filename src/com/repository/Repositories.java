@@ -0,0 +1,52 @@
+/**
+ * This class gives the repositories of the storage backend chosen when the application starts,
+ * Elasticsearch ("storage.backend=elasticsearch") or memory ("storage.backend=memory").
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+public final class Repositories {
+
+	private static volatile Storage storage;
+
+	private Repositories() {
+	}
+
+	/**
+	 * Set the storage backend of the application.
+	 * @param backend	The storage backend.
+	 */
+	public static void setStorage(Storage backend) {
+		storage = backend;
+	}
+
+	/**
+	 * Get the storage backend of the application.
+	 * @return	The storage backend.
+	 */
+	public static Storage getStorage() {
+		Storage backend = storage;
+		if (backend == null) {
+			throw new IllegalStateException("The storage of the application is not created.");
+		}
+		return backend;
+	}
+
+	public static ProductRepository products() {
+		return getStorage().products();
+	}
+
+	public static CartRepository carts() {
+		return getStorage().carts();
+	}
+
+	public static OrderRepository orders() {
+		return getStorage().orders();
+	}
+
+	public static ClientRepository clients() {
+		return getStorage().clients();
+	}
+}
@@ -0,0 +1,102 @@
+/**
+ * This class lets the Requests reading the same key at the same time share one read from the storage:
+ * the first Request reads, the others wait for its result. Every Request gets its own copy of the result,
+ * completed with its own deadline and bulkhead. The reads of different bulkheads are not shared,
+ * so a slow admin Request can't hold back a shopper.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import org.json.JSONObject;
+
+import com.connection.Bulkhead;
+import com.connection.Deadline;
+import com.connection.RequestExecutor;
+
+public class SingleFlight<K, V> {
+
+	private final ConcurrentHashMap<List<Object>, CompletableFuture<V>> inflight = new ConcurrentHashMap<>();
+	private final UnaryOperator<V> copy;
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Constructor of the class.
+	 * @param copy	Copies the result for every Request.
+	 */
+	public SingleFlight(UnaryOperator<V> copy) {
+		this.copy = copy;
+	}
+
+	/**
+	 * Read a key, or wait for the read of the same key already running.
+	 * @param key	The key.
+	 * @param read	Reads the key from the storage, called only if no read of the key is running.
+	 * @return	A future completed with a copy of the result.
+	 */
+	public CompletableFuture<V> get(K key, Supplier<CompletableFuture<V>> read) {
+		calls.incrementAndGet();
+		Deadline deadline = Deadline.current();
+		Bulkhead bulkhead = Bulkhead.current();
+
+		List<Object> flight = Arrays.asList(bulkhead.getName(), key);
+		CompletableFuture<V> started = new CompletableFuture<>();
+		CompletableFuture<V> shared = inflight.putIfAbsent(flight, started);
+
+		if (shared == null) {
+			shared = started;
+			CompletableFuture<V> result;
+			try {
+				result = read.get();
+			} catch (RuntimeException e) {
+				result = new CompletableFuture<>();
+				result.completeExceptionally(e);
+			}
+			result.whenComplete((value, e) -> {
+				// a Request arriving after this reads again, it can't get a result older than its arrival
+				inflight.remove(flight, started);
+				if (e != null) {
+					started.completeExceptionally(e);
+				} else {
+					started.complete(value);
+				}
+			});
+		} else {
+			coalesced.incrementAndGet();
+		}
+
+		CompletableFuture<V> future = new CompletableFuture<>();
+		shared.whenComplete((value, e) -> RequestExecutor.runWith(deadline, bulkhead, () -> {
+			if (e != null) {
+				future.completeExceptionally(e);
+			} else {
+				future.complete(value == null ? null : copy.apply(value));
+			}
+		}));
+		return future;
+	}
+
+	/**
+	 * Get the number of reads, and the reads that waited for another read.
+	 * @return	A JSONObject with the counters.
+	 */
+	public JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("calls", calls.get());
+		json.put("coalesced", coalesced.get());
+		json.put("inflight", inflight.size());
+
+		return json;
+	}
+}
@@ -0,0 +1,37 @@
+/**
+ * This interface is a storage backend of the application, it gives the repositories of the data.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import org.json.JSONObject;
+
+public interface Storage {
+
+	/**
+	 * Get the name of the backend, shown in the statistics of the connection.
+	 * @return	The name.
+	 */
+	String getName();
+
+	/**
+	 * Get the state of the backend, like the caches in front of the storage.
+	 * @return	A JSONObject with the statistics.
+	 */
+	JSONObject getStats();
+
+	/**
+	 * Write the data kept by the backend to be written later, when the application is stopped.
+	 */
+	void close();
+
+	ProductRepository products();
+
+	CartRepository carts();
+
+	OrderRepository orders();
+
+	ClientRepository clients();
+}
@@ -0,0 +1,117 @@
+/**
+ * This class keeps the documents read by one Request, so the Request reading the same document again,
+ * like the Product of a Cart read before and after the update of the Cart, gets it without a call to the storage.
+ * The documents are kept as long as the Request (the unit of work is attached to the deadline of the Request,
+ * and detached when the Response is sent), and a document is removed when the Request changes it. Every read gets its own copy of the document.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+import com.connection.Deadline;
+
+public final class UnitOfWork {
+
+	private static final AtomicLong TOTAL_AVOIDED = new AtomicLong();
+
+	private final Map<String, CompletableFuture<Object>> documents = new ConcurrentHashMap<>();
+	private final AtomicInteger avoided = new AtomicInteger();
+
+	/**
+	 * Read a document, from the documents already read by the Request, or from the storage.
+	 * If the current thread has no Request, the document is read from the storage.
+	 * @param type	The type of the document.
+	 * @param id	The id of the document.
+	 * @param read	Reads the document from the storage.
+	 * @param copy	Copies the document for every read.
+	 * @return	A future completed with a copy of the document, or null if it doesn't exist.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> CompletableFuture<T> read(String type, String id, Supplier<CompletableFuture<T>> read, UnaryOperator<T> copy) {
+		Deadline deadline = Deadline.current();
+		if (deadline == null) {
+			return read.get();
+		}
+		UnitOfWork unit = deadline.attachment(UnitOfWork.class, UnitOfWork::new);
+
+		String key = type + "/" + id;
+		CompletableFuture<Object> started = new CompletableFuture<>();
+		CompletableFuture<Object> known = unit.documents.putIfAbsent(key, started);
+		if (known != null) {
+			unit.avoided.incrementAndGet();
+			TOTAL_AVOIDED.incrementAndGet();
+			return known.thenApply(document -> document == null ? null : copy.apply((T) document));
+		}
+
+		CompletableFuture<T> result;
+		try {
+			result = read.get();
+		} catch (RuntimeException e) {
+			result = new CompletableFuture<>();
+			result.completeExceptionally(e);
+		}
+		result.whenComplete((document, e) -> {
+			if (e != null) {
+				// the failed read is not kept, the Request can try again
+				unit.documents.remove(key, started);
+				started.completeExceptionally(e);
+			} else {
+				started.complete(document);
+			}
+		});
+		return started.thenApply(document -> document == null ? null : copy.apply((T) document));
+	}
+
+	/**
+	 * Change a document, the next read of the Request reads it from the storage.
+	 * @param type	The type of the document.
+	 * @param id	The id of the document.
+	 * @param write	Changes the document in the storage.
+	 * @return	The future of the change.
+	 */
+	public static <T> CompletableFuture<T> write(String type, String id, Supplier<CompletableFuture<T>> write) {
+		invalidate(type, id);
+		// the future is completed with the deadline of the Request set, the document read meanwhile is removed too
+		return write.get().whenComplete((result, e) -> invalidate(type, id));
+	}
+
+	/**
+	 * Remove a document changed by the Request, the next read of the Request reads it from the storage.
+	 * @param type	The type of the document.
+	 * @param id	The id of the document.
+	 */
+	public static void invalidate(String type, String id) {
+		Deadline deadline = Deadline.current();
+		UnitOfWork unit = deadline == null ? null : deadline.getAttachment(UnitOfWork.class);
+		if (unit != null) {
+			unit.documents.remove(type + "/" + id);
+		}
+	}
+
+	/**
+	 * End the unit of work of a Request when its Response is sent, the documents read by the Request are released.
+	 * @param deadline	The deadline of the Request.
+	 * @return	The number of reads of the Request served without a call to the storage, 0 if the Request has read nothing.
+	 */
+	public static int end(Deadline deadline) {
+		UnitOfWork unit = deadline.detach(UnitOfWork.class);
+		return unit == null ? 0 : unit.avoided.get();
+	}
+
+	/**
+	 * Get the number of reads of all the Requests served without a call to the storage.
+	 * @return	The number of reads.
+	 */
+	public static long getTotalAvoided() {
+		return TOTAL_AVOIDED.get();
+	}
+}
@@ -0,0 +1,23 @@
+/**
+ * This exception is thrown when a document is written with the version it was read with,
+ * but it was changed (or deleted) by someone else since, like the VersionConflictEngineException of the Elasticsearch DB.
+ * The writer reads the document again, and makes its change again.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+public class VersionConflictException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Constructor of the class.
+	 * @param type	The type of the document.
+	 * @param id	The id of the document.
+	 */
+	public VersionConflictException(String type, String id) {
+		super("[" + type + "][" + id + "]: changed by someone else, try again.");
+	}
+}
@@ -0,0 +1,315 @@
+/**
+ * This class is a log of records on the local disk, every record is on the disk before its write is completed.
+ * The records are written by one thread: the records appended while the disk is synced are written together
+ * and synced once, so a burst of writes costs a few syncs. The log is kept in segment files ("prefix-number.wal"):
+ * a rotation starts a new segment, and the segments before it are deleted when their records are not needed any more.
+ * A record is one line of text, the last line of a segment may be cut by a crash, it was never completed.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONObject;
+
+import com.connection.DaemonThreadFactory;
+
+public final class WriteAheadLog {
+
+	private static final Logger LOGGER = Logger.getLogger(WriteAheadLog.class.getName());
+
+	private final File directory;
+	private final String prefix;
+	private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+
+	private final AtomicLong records = new AtomicLong();
+	private final AtomicLong bytes = new AtomicLong();
+	private final AtomicLong syncs = new AtomicLong();
+
+	// used only by the writer thread
+	private FileChannel channel;
+	private long segment;
+
+	// the segments before the current one, not deleted yet
+	private final List<File> closed = new ArrayList<>();
+
+	private final Thread writer;
+
+	/**
+	 * Constructor of the class, the segments found in the directory are kept until they are deleted.
+	 * @param directory	The directory of the segments.
+	 * @param prefix	The beginning of the names of the segments.
+	 * @throws UncheckedIOException	If the first segment can't be created.
+	 */
+	public WriteAheadLog(File directory, String prefix) {
+		this.directory = directory;
+		this.prefix = prefix;
+		directory.mkdirs();
+
+		for (File file : segments()) {
+			closed.add(file);
+			segment = Math.max(segment, number(file));
+		}
+		open();
+
+		writer = new DaemonThreadFactory(prefix + "-log").newThread(this::write);
+		writer.start();
+	}
+
+	/**
+	 * Read the records of the segments found when the log was opened, in the order they were written.
+	 * @return	The records.
+	 */
+	public List<String> recover() {
+		List<String> lines = new ArrayList<>();
+		List<File> files;
+		synchronized (closed) {
+			files = new ArrayList<>(closed);
+		}
+		for (File file : files) {
+			try (BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file.toPath()), StandardCharsets.UTF_8))) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					if (!line.isEmpty()) {
+						lines.add(line);
+					}
+				}
+			} catch (IOException e) {
+				LOGGER.log(Level.SEVERE, "The segment of the log can't be read: " + file, e);
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Append a record.
+	 * @param record	The record, a line without line breaks.
+	 * @return	A future completed when the record is on the disk.
+	 */
+	public CompletableFuture<Void> append(String record) {
+		Entry entry = new Entry((record + "\n").getBytes(StandardCharsets.UTF_8));
+		queue.add(entry);
+		return entry.written;
+	}
+
+	/**
+	 * Start a new segment, the records appended after the rotation go to the new segment.
+	 * @return	A future completed with the segments before the new one, not deleted yet.
+	 */
+	public CompletableFuture<List<File>> rotate() {
+		Entry entry = new Entry(null);
+		queue.add(entry);
+		return entry.rotated;
+	}
+
+	/**
+	 * Delete segments, their records are not needed any more.
+	 * @param files	The segments, returned by a rotation.
+	 */
+	public void delete(List<File> files) {
+		synchronized (closed) {
+			closed.removeAll(files);
+		}
+		for (File file : files) {
+			if (!file.delete() && file.exists()) {
+				LOGGER.warning("The segment of the log can't be deleted: " + file);
+			}
+		}
+	}
+
+	/**
+	 * Stop the writer, after the records appended before are written.
+	 */
+	public void close() {
+		writer.interrupt();
+		try {
+			writer.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Get the number of records, bytes, syncs, and segments.
+	 * @return	A JSONObject with the counters.
+	 */
+	public JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("directory", directory.getPath());
+		json.put("records", records.get());
+		json.put("bytes", bytes.get());
+		json.put("syncs", syncs.get());
+		synchronized (closed) {
+			json.put("segments", closed.size() + 1);
+		}
+
+		return json;
+	}
+
+	/**
+	 * Write the records appended, until the writer is interrupted and everything appended is written.
+	 */
+	private void write() {
+		List<Entry> batch = new ArrayList<>();
+		boolean stopping = false;
+		while (true) {
+			try {
+				if (stopping) {
+					if (queue.isEmpty()) {
+						break;
+					}
+				} else {
+					batch.add(queue.take());
+				}
+			} catch (InterruptedException e) {
+				stopping = true;
+			}
+			queue.drainTo(batch);
+
+			List<Entry> records = new ArrayList<>();
+			for (Entry entry : batch) {
+				if (entry.bytes != null) {
+					records.add(entry);
+				} else {
+					sync(records);
+					records.clear();
+					entry.rotated.complete(next());
+				}
+			}
+			sync(records);
+			batch.clear();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "The segment of the log can't be closed.", e);
+		}
+	}
+
+	/**
+	 * Write records to the current segment with one sync, and complete their writes.
+	 * @param entries	The records.
+	 */
+	private void sync(List<Entry> entries) {
+		if (entries.isEmpty()) {
+			return;
+		}
+		try {
+			ByteBuffer[] buffers = new ByteBuffer[entries.size()];
+			long length = 0;
+			for (int i = 0; i < buffers.length; i++) {
+				buffers[i] = ByteBuffer.wrap(entries.get(i).bytes);
+				length += buffers[i].remaining();
+			}
+			long written = 0;
+			while (written < length) {
+				written += channel.write(buffers);
+			}
+			channel.force(false);
+
+			syncs.incrementAndGet();
+			records.addAndGet(entries.size());
+			bytes.addAndGet(length);
+			for (Entry entry : entries) {
+				entry.written.complete(null);
+			}
+		} catch (IOException e) {
+			LOGGER.log(Level.SEVERE, "The records can't be written to the log.", e);
+			for (Entry entry : entries) {
+				entry.written.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * Close the current segment, and open the next one.
+	 * @return	The segments before the new one, not deleted yet.
+	 */
+	private List<File> next() {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOGGER.log(Level.WARNING, "The segment of the log can't be closed.", e);
+		}
+		synchronized (closed) {
+			closed.add(file(segment));
+		}
+		open();
+		synchronized (closed) {
+			return new ArrayList<>(closed);
+		}
+	}
+
+	/**
+	 * Open the next segment.
+	 */
+	private void open() {
+		segment++;
+		try {
+			channel = FileChannel.open(file(segment).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Get the segments in the directory, in the order they were written.
+	 * @return	The segment files.
+	 */
+	private List<File> segments() {
+		File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix + "-") && name.endsWith(".wal"));
+		if (files == null) {
+			return new ArrayList<>();
+		}
+		Arrays.sort(files, Comparator.comparingLong(WriteAheadLog.this::number));
+		return new ArrayList<>(Arrays.asList(files));
+	}
+
+	private File file(long number) {
+		return new File(directory, prefix + "-" + number + ".wal");
+	}
+
+	private long number(File file) {
+		String name = file.getName();
+		try {
+			return Long.parseLong(name.substring(prefix.length() + 1, name.length() - 4));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * A record waiting to be written, or a rotation if it has no bytes.
+	 */
+	private static final class Entry {
+
+		private final byte[] bytes;
+		private final CompletableFuture<Void> written = new CompletableFuture<>();
+		private final CompletableFuture<List<File>> rotated = new CompletableFuture<>();
+
+		private Entry(byte[] bytes) {
+			this.bytes = bytes;
+		}
+	}
+}
@@ -0,0 +1,570 @@
+/**
+ * This class keeps the Carts in memory in front of another storage of the Carts, and writes them to the storage later:
+ * the Carts changed are written every "cart.writebehind.flush.ms" milliseconds with one bulk Request, so a Cart changed
+ * many times between two flushes is written once. Every change is in the write-ahead log on the local disk
+ * before it's completed, and the log is read when the application starts, so the changes not written yet are not lost.
+ * A Cart is read from the storage the first time, and dropped from memory when it's not used for a flush interval.
+ * The Carts are only in the memory of this instance: every Client must be served by the same instance (sticky sessions),
+ * the other instances read the Carts from the storage, one flush interval behind. The application doesn't enforce it,
+ * the load balancer must send the Requests of a Client to one instance: when two instances change the same Cart,
+ * the storage keeps the newest change, the other one is dropped (counted as a conflict and logged), and its instance
+ * reads the Cart again from the storage.
+ * The version of a change is taken from the clock (microseconds, always growing), and the storage keeps the Cart
+ * with the highest version, so a Cart written again from the log after a restart doesn't overwrite a newer one.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository;
+
+import static com.repository.Copies.copy;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Logger;
+
+import org.json.JSONObject;
+
+import com.beans.Cart;
+import com.beans.CartLine;
+import com.connection.Bulkhead;
+import com.connection.DaemonThreadFactory;
+import com.connection.RequestExecutor;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class WriteBehindCartRepository implements CartRepository {
+
+	private static final Logger LOGGER = Logger.getLogger(WriteBehindCartRepository.class.getName());
+
+	private final CartRepository repository;
+	private final WriteAheadLog log;
+	private final long flushMillis;
+	private final ObjectMapper mapper = new ObjectMapper();
+	private final ScheduledExecutorService flusher;
+
+	// guarded by this
+	private final Map<String, Entry> entries = new HashMap<>();
+	private long clock;
+	private CompletableFuture<Void> flushing = CompletableFuture.completedFuture(null);
+
+	private final AtomicLong loads = new AtomicLong();
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong flushes = new AtomicLong();
+	private final AtomicLong flushed = new AtomicLong();
+	private final AtomicLong failures = new AtomicLong();
+	private final AtomicLong conflicts = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong recovered = new AtomicLong();
+	private final AtomicLong corrupt = new AtomicLong();
+
+	/**
+	 * Constructor of the class, the changes found in the log are loaded, and written with the first flush.
+	 * @param repository	The storage of the Carts.
+	 * @param directory	The directory of the log.
+	 * @param flushMillis	The time between two flushes, in milliseconds.
+	 */
+	public WriteBehindCartRepository(CartRepository repository, File directory, long flushMillis) {
+		this.repository = repository;
+		this.flushMillis = flushMillis;
+		this.log = new WriteAheadLog(directory, "cart");
+		recover();
+
+		flusher = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("cart-flush"));
+		flusher.schedule(this::flushAll, flushMillis, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> create(Cart cart) {
+		// like an index with an id, an existing Cart is replaced
+		return apply(cart.getUserid(), entry -> {
+			entry.set(copy(cart), next(entry.version));
+			return true;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Cart> findByUserid(String userid) {
+		return load(userid).thenApply(ignored -> {
+			synchronized (this) {
+				Entry entry = entries.get(userid);
+				return entry == null ? null : entry.read();
+			}
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> update(Cart cart) {
+		return apply(cart.getUserid(), entry -> {
+			if (entry.cart == null) {
+				throw new NoSuchElementException("[cart][" + cart.getUserid() + "]: document missing");
+			}
+			if (cart.getVersion() > 0 && cart.getVersion() != entry.version) {
+				throw new VersionConflictException("cart", cart.getUserid());
+			}
+			entry.set(copy(cart), next(entry.version));
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> save(Cart cart) {
+		return apply(cart.getUserid(), entry -> {
+			if (cart.getVersion() != (entry.cart == null ? 0 : entry.version)) {
+				throw new VersionConflictException("cart", cart.getUserid());
+			}
+			entry.set(copy(cart), next(entry.version));
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Cart> change(String userid, CartLine change) {
+		return apply(userid, entry -> {
+			if (entry.cart == null && change.getQuantity() <= 0) {
+				return null;
+			}
+			Cart cart = entry.cart == null ? new Cart() : copy(entry.cart);
+			cart.setUserid(userid);
+			if (!cart.change(change)) {
+				return null;
+			}
+			entry.set(cart, next(entry.version));
+			return entry.read();
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> delete(String userid, long version) {
+		return apply(userid, entry -> {
+			if (entry.cart == null) {
+				if (version > 0) {
+					throw new VersionConflictException("cart", userid);
+				}
+				return null;
+			}
+			if (version > 0 && version != entry.version) {
+				throw new VersionConflictException("cart", userid);
+			}
+			// the deletion is kept until it's written, so the Cart is not read again from the storage
+			entry.set(null, next(entry.version));
+			return null;
+		});
+	}
+
+	@Override
+	public CompletableFuture<List<String>> writeAll(Collection<Cart> saved, Collection<Cart> deleted) {
+		List<CompletableFuture<String>> written = new ArrayList<>();
+		for (Cart cart : saved) {
+			written.add(apply(cart.getUserid(), entry -> {
+				if (cart.getVersion() > entry.version) {
+					entry.set(copy(cart), cart.getVersion());
+					return null;
+				}
+				return cart.getUserid();
+			}));
+		}
+		for (Cart cart : deleted) {
+			written.add(apply(cart.getUserid(), entry -> {
+				if (cart.getVersion() > entry.version) {
+					entry.set(null, cart.getVersion());
+					return null;
+				}
+				return cart.getUserid();
+			}));
+		}
+		return CompletableFuture.allOf(written.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+			List<String> left = new ArrayList<>();
+			for (CompletableFuture<String> write : written) {
+				String userid = write.join();
+				if (userid != null) {
+					left.add(userid);
+				}
+			}
+			return left;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> flush(String userid) {
+		Cart cart;
+		long version;
+		synchronized (this) {
+			Entry entry = entries.get(userid);
+			if (entry == null || !entry.dirty) {
+				return CompletableFuture.completedFuture(null);
+			}
+			// it stays changed until it's written, the flush running at the same time doesn't delete its log
+			cart = entry.cart == null ? null : copy(entry.cart);
+			version = entry.version;
+		}
+
+		Cart deleted = new Cart();
+		deleted.setUserid(userid);
+		deleted.setVersion(version);
+		if (cart != null) {
+			cart.setVersion(version);
+		}
+		flushes.incrementAndGet();
+		return repository.writeAll(cart == null ? Collections.emptyList() : Collections.singletonList(cart),
+				cart == null ? Collections.singletonList(deleted) : Collections.emptyList()).whenComplete((left, e) -> {
+					if (e != null) {
+						failures.incrementAndGet();
+					} else {
+						flushed.incrementAndGet();
+						written(userid, version);
+						conflicts(left, Collections.singletonMap(userid, version));
+					}
+				}).thenApply(left -> null);
+	}
+
+	@Override
+	public CompletableFuture<Integer> migrateItems(int max) {
+		// the Carts in memory are written with the lines, the storage rewrites the others
+		return repository.migrateItems(max);
+	}
+
+	/**
+	 * Write every Cart changed, wait for the writes, and close the log. Called when the application is stopped,
+	 * the changes not written (the storage is not available) are written from the log at the next start.
+	 */
+	public void close() {
+		flusher.shutdownNow();
+		try {
+			CompletableFuture<Void> running;
+			synchronized (this) {
+				running = flushing;
+			}
+			running.get(10, TimeUnit.SECONDS);
+			flushAll().get(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException e) {
+			e.printStackTrace();
+		}
+		log.close();
+	}
+
+	/**
+	 * Get the number of Carts in memory, the changes, the flushes, and the state of the log.
+	 * @return	A JSONObject with the counters.
+	 */
+	public JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("flushms", flushMillis);
+		synchronized (this) {
+			int dirty = 0;
+			for (Entry entry : entries.values()) {
+				if (entry.dirty) {
+					dirty++;
+				}
+			}
+			json.put("carts", entries.size());
+			json.put("dirty", dirty);
+		}
+		json.put("loads", loads.get());
+		json.put("writes", writes.get());
+		json.put("flushes", flushes.get());
+		json.put("flushed", flushed.get());
+		json.put("failures", failures.get());
+		json.put("conflicts", conflicts.get());
+		json.put("evictions", evictions.get());
+		json.put("recovered", recovered.get());
+		json.put("corrupt", corrupt.get());
+		json.put("log", log.getStats());
+
+		return json;
+	}
+
+	/**
+	 * Change the Cart of a Client in memory, write the change to the log, and complete when it's on the disk.
+	 * @param userid	The id of the Client.
+	 * @param change	Changes the entry of the Client, and returns the result, or throws the failure of the change.
+	 * @return	The result of the change.
+	 */
+	private <T> CompletableFuture<T> apply(String userid, Function<Entry, T> change) {
+		return load(userid).thenCompose(ignored -> {
+			T result;
+			CompletableFuture<Void> logged;
+			synchronized (this) {
+				Entry entry = entries.get(userid);
+				if (entry == null) {
+					// dropped from memory since it was loaded
+					return apply(userid, change);
+				}
+				long version = entry.version;
+				try {
+					result = change.apply(entry);
+				} catch (RuntimeException e) {
+					CompletableFuture<T> failed = new CompletableFuture<>();
+					failed.completeExceptionally(e);
+					return failed;
+				}
+				entry.touched = true;
+				if (entry.version == version) {
+					return CompletableFuture.completedFuture(result);
+				}
+				entry.dirty = true;
+				writes.incrementAndGet();
+				// appended in the order of the versions, the writer of the log keeps the order
+				logged = log.append(record(userid, entry));
+			}
+			return RequestExecutor.resumeAsync(logged).thenApply(written -> result);
+		});
+	}
+
+	/**
+	 * Read the Cart of a Client from the storage, if it's not in memory.
+	 * @param userid	The id of the Client.
+	 * @return	A future completed when the Cart is in memory.
+	 */
+	private CompletableFuture<Void> load(String userid) {
+		synchronized (this) {
+			Entry entry = entries.get(userid);
+			if (entry != null) {
+				entry.touched = true;
+				return CompletableFuture.completedFuture(null);
+			}
+		}
+
+		loads.incrementAndGet();
+		return repository.findByUserid(userid).thenApply(cart -> {
+			synchronized (this) {
+				// a change made meanwhile is newer than the Cart read
+				Entry entry = entries.computeIfAbsent(userid, key -> new Entry());
+				if (!entry.dirty && cart != null && cart.getVersion() > entry.version) {
+					entry.set(cart, cart.getVersion());
+				}
+				entry.touched = true;
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Get the version of the next change: the current time in microseconds, higher than every version before.
+	 * @param previous	The version of the Cart changed.
+	 * @return	The version.
+	 */
+	private long next(long previous) {
+		clock = Math.max(Math.max(clock, previous) + 1, System.currentTimeMillis() * 1000);
+		return clock;
+	}
+
+	/**
+	 * Write the Carts changed since the last flush with one Request, and schedule the next flush.
+	 * The log is continued in a new segment first, the segments before are deleted when the Carts are written.
+	 * @return	A future completed when the Carts are written, or the write failed (they are written at the next flush).
+	 */
+	private CompletableFuture<Void> flushAll() {
+		CompletableFuture<Void> flush;
+		try {
+			flush = write(log.rotate().join());
+		} catch (RuntimeException e) {
+			flush = new CompletableFuture<>();
+			flush.completeExceptionally(e);
+		}
+
+		synchronized (this) {
+			flushing = flush;
+		}
+		flush.whenComplete((ignored, e) -> {
+			if (!flusher.isShutdown()) {
+				flusher.schedule(this::flushAll, flushMillis, TimeUnit.MILLISECONDS);
+			}
+		});
+		return flush;
+	}
+
+	/**
+	 * Write the Carts changed with one Request, and delete the segments of the log when they are written.
+	 * @param segments	The segments of the log before the current one, with the changes of the Carts.
+	 * @return	A future completed when the Carts are written, or the write failed.
+	 */
+	private CompletableFuture<Void> write(List<File> segments) {
+		List<Cart> saved = new ArrayList<>();
+		List<Cart> deleted = new ArrayList<>();
+		Map<String, Long> versions = new HashMap<>();
+		synchronized (this) {
+			Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, Entry> mapEntry = iterator.next();
+				Entry entry = mapEntry.getValue();
+				if (entry.dirty) {
+					Cart cart = entry.cart == null ? new Cart() : copy(entry.cart);
+					cart.setUserid(mapEntry.getKey());
+					cart.setVersion(entry.version);
+					(entry.cart == null ? deleted : saved).add(cart);
+					versions.put(mapEntry.getKey(), entry.version);
+					entry.dirty = false;
+				} else if (!entry.touched) {
+					iterator.remove();
+					evictions.incrementAndGet();
+				}
+				entry.touched = false;
+			}
+		}
+		if (versions.isEmpty()) {
+			log.delete(segments);
+			return CompletableFuture.completedFuture(null);
+		}
+
+		flushes.incrementAndGet();
+		CompletableFuture<List<String>> written;
+		try {
+			// the flush is background work, it must not take the places of the shoppers
+			written = Bulkhead.get(Bulkhead.ADMIN).call(() -> repository.writeAll(saved, deleted));
+		} catch (RuntimeException e) {
+			written = new CompletableFuture<>();
+			written.completeExceptionally(e);
+		}
+		return written.handle((left, e) -> {
+			if (e != null) {
+				e.printStackTrace();
+				failures.incrementAndGet();
+				redirty(versions);
+			} else {
+				flushed.addAndGet(versions.size());
+				conflicts(left, versions);
+				log.delete(segments);
+			}
+			return null;
+		});
+	}
+
+	/**
+	 * Mark the Carts of a failed flush changed again, unless they were changed since.
+	 * @param versions	The versions written, by the id of the Client.
+	 */
+	private synchronized void redirty(Map<String, Long> versions) {
+		for (Map.Entry<String, Long> version : versions.entrySet()) {
+			Entry entry = entries.get(version.getKey());
+			if (entry != null && entry.version == version.getValue()) {
+				entry.dirty = true;
+			}
+		}
+	}
+
+	/**
+	 * Mark the Cart of a Client written, unless it was changed since.
+	 * @param userid	The id of the Client.
+	 * @param version	The version written.
+	 */
+	private synchronized void written(String userid, long version) {
+		Entry entry = entries.get(userid);
+		if (entry != null && entry.version == version) {
+			entry.dirty = false;
+		}
+	}
+
+	/**
+	 * Drop the changes the storage left out, because a newer Cart is stored: another instance changed the Cart,
+	 * the Client was not always served by this one. A Cart not changed since it was written is read again from the storage,
+	 * a Cart changed since is written with the next flush, with a newer version.
+	 * @param userids	The ids of the Clients whose change was left out.
+	 * @param versions	The versions written, by the id of the Client.
+	 */
+	private void conflicts(List<String> userids, Map<String, Long> versions) {
+		List<String> reloaded = new ArrayList<>();
+		synchronized (this) {
+			for (String userid : userids) {
+				conflicts.incrementAndGet();
+				LOGGER.warning("The change of the Cart of " + userid + " is dropped, a newer Cart is stored by another instance.");
+				Entry entry = entries.get(userid);
+				if (entry != null && !entry.dirty && versions.get(userid) != null && entry.version == versions.get(userid)) {
+					entries.remove(userid);
+					reloaded.add(userid);
+				}
+			}
+		}
+		for (String userid : reloaded) {
+			load(userid);
+		}
+	}
+
+	/**
+	 * Load the changes found in the log, the last record of a segment cut by a crash is left out (counted as corrupt).
+	 */
+	private synchronized void recover() {
+		for (String line : log.recover()) {
+			try {
+				JsonNode record = mapper.readTree(line);
+				String userid = record.get("userid").asText();
+				long version = record.get("version").asLong();
+				JsonNode source = record.get("cart");
+				Cart cart = source == null || source.isNull() ? null : mapper.treeToValue(source, Cart.class);
+
+				Entry entry = entries.computeIfAbsent(userid, key -> new Entry());
+				if (version > entry.version) {
+					entry.set(cart, version);
+					entry.dirty = true;
+				}
+				clock = Math.max(clock, version);
+				recovered.incrementAndGet();
+			} catch (IOException | RuntimeException e) {
+				corrupt.incrementAndGet();
+				LOGGER.warning("Record of the Cart log left out, it can't be read: " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Create the record of the log of a change.
+	 * @param userid	The id of the Client.
+	 * @param entry	The Cart after the change.
+	 * @return	The record, a line of JSON.
+	 */
+	private String record(String userid, Entry entry) {
+		ObjectNode record = mapper.createObjectNode();
+		record.put("userid", userid);
+		record.put("version", entry.version);
+		if (entry.cart == null) {
+			record.putNull("cart");
+		} else {
+			record.set("cart", mapper.valueToTree(entry.cart));
+		}
+		return record.toString();
+	}
+
+	/**
+	 * The Cart of a Client in memory, or its deletion not written yet.
+	 */
+	private static final class Entry {
+
+		private Cart cart;
+		private long version;
+		// changed since the last flush
+		private boolean dirty;
+		// used since the last flush
+		private boolean touched;
+
+		private void set(Cart cart, long version) {
+			if (cart != null) {
+				cart.setVersion(version);
+			}
+			this.cart = cart;
+			this.version = version;
+		}
+
+		private Cart read() {
+			return cart == null ? null : copy(cart);
+		}
+	}
+}
@@ -0,0 +1,336 @@
+/**
+ * This class stores the Carts in the "cart" type of the "shoppingcart" index of the Elasticsearch DB,
+ * the id of the document is the id of the Client.
+ * The products of a Cart are stored in the "lines" array, the Carts stored before the lines have the "items" list,
+ * they are read as lines and rewritten with the lines by migrateItems().
+ * Products are added to a Cart and removed by an inline Groovy script on the DB, in one Request, so the nodes need
+ * "script.engine.groovy.inline.update: true" in their elasticsearch.yml. A Cart changed by another Request between
+ * the read and the write of the script is changed again, "cart.update.retries" times at most.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository.elasticsearch;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.delete.DeleteRequestBuilder;
+import org.elasticsearch.action.index.IndexRequest.OpType;
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.update.UpdateRequestBuilder;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.engine.DocumentMissingException;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptService.ScriptType;
+import org.elasticsearch.search.SearchHit;
+
+import com.beans.Cart;
+import com.beans.CartLine;
+import com.connection.ApplicationProperties;
+import com.connection.Futures;
+import com.connection.RequestExecutor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.repository.CartRepository;
+
+public class ElasticsearchCartRepository implements CartRepository {
+
+	private static final int RETRIES = ApplicationProperties.getInt("cart.update.retries", 3);
+
+	// Cart.change() on the source of the Cart, the Carts stored with the items get the lines first
+	private static final String CHANGE_SCRIPT = "def cart = ctx._source;\n"
+			+ "if (cart.lines == null) { cart.lines = []; }\n"
+			+ "if (cart.items != null) {\n"
+			+ "  for (int i = 0; i + 1 < cart.items.size(); i += 2) {\n"
+			+ "    cart.lines.add([productid: cart.items[i], quantity: cart.items[i + 1] as int, price: 0]);\n"
+			+ "  }\n"
+			+ "  cart.items = null;\n"
+			+ "}\n"
+			+ "def line = null;\n"
+			+ "for (l in cart.lines) { if (l.productid == productid) { line = l; } }\n"
+			+ "def unitPrice = line == null || line.price <= 0 ? price : line.price;\n"
+			+ "if (quantity > 0) {\n"
+			+ "  if (line == null) { line = [productid: productid, quantity: 0, price: price]; cart.lines.add(line); }\n"
+			+ "  cart.totalcost += (line.quantity + quantity) * price - line.quantity * unitPrice;\n"
+			+ "  cart.totalquantity += quantity;\n"
+			+ "  line.quantity += quantity;\n"
+			+ "  line.price = price;\n"
+			+ "} else if (line == null || line.quantity < -quantity) {\n"
+			+ "  ctx.op = 'none';\n"
+			+ "} else {\n"
+			+ "  line.quantity += quantity;\n"
+			+ "  if (line.quantity == 0) { cart.lines.remove(line); }\n"
+			+ "  cart.totalcost += quantity * unitPrice;\n"
+			+ "  cart.totalquantity += quantity;\n"
+			+ "}\n";
+
+	private final Supplier<TransportClient> clients;
+
+	/**
+	 * Constructor of the class.
+	 * @param clients	Gives the client of the node the Requests are sent to.
+	 */
+	public ElasticsearchCartRepository(Supplier<TransportClient> clients) {
+		this.clients = clients;
+	}
+
+	@Override
+	public CompletableFuture<Boolean> create(Cart cart) {
+
+		String source = null;
+		try {
+			source = new ObjectMapper().writeValueAsString(cart);
+		} catch (JsonProcessingException e) {
+			e.printStackTrace();
+			return CompletableFuture.completedFuture(false);
+		}
+
+		String json = source;
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareIndex("shoppingcart", "cart", cart.getUserid())
+				 .setSource(json))
+				// check if the response is the same as the userid
+				.thenApply(response -> cart.getUserid().equals(response.getId()));
+	}
+
+	@Override
+	public CompletableFuture<Cart> findByUserid(String userid) {
+
+		return RequestExecutor.readAsync(clients.get(), c -> c.prepareGet("shoppingcart", "cart", userid))
+				.thenApply(response -> {
+					Cart cart = null;
+
+					// reading the object from the response
+					if (response.isExists()) {
+						ObjectMapper mapper = new ObjectMapper();
+						try {
+							cart = mapper.readValue(response.getSourceAsString(), Cart.class);
+							cart.setVersion(response.getVersion());
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+					return cart;
+				});
+	}
+
+	@Override
+	public CompletableFuture<Void> update(Cart cart) {
+
+		XContentBuilder doc = null;
+		try {
+			doc = jsonBuilder().startObject()
+					.field("totalquantity", cart.getTotalquantity())
+					.field("totalcost", cart.getTotalcost());
+			doc.startArray("lines");
+			for (CartLine line : cart.getLines()) {
+				doc.startObject()
+						.field("productid", line.getProductid())
+						.field("quantity", line.getQuantity())
+						.field("price", line.getPrice())
+						.endObject();
+			}
+			// the items of a Cart stored before the lines are replaced by the lines
+			doc.endArray()
+					.nullField("items")
+					.endObject();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return CompletableFuture.completedFuture(null);
+		}
+
+		XContentBuilder source = doc;
+		return VersionConflicts.translate(RequestExecutor.executeAsync(clients.get(), c -> {
+			UpdateRequestBuilder request = c.prepareUpdate("shoppingcart", "cart", cart.getUserid()).setDoc(source);
+			return cart.getVersion() > 0 ? request.setVersion(cart.getVersion()) : request;
+		}), "cart", cart.getUserid()).thenApply(response -> null);
+	}
+
+	@Override
+	public CompletableFuture<Void> save(Cart cart) {
+
+		String source = null;
+		try {
+			source = new ObjectMapper().writeValueAsString(cart);
+		} catch (JsonProcessingException e) {
+			e.printStackTrace();
+			return CompletableFuture.completedFuture(null);
+		}
+
+		String json = source;
+		return VersionConflicts.translate(RequestExecutor.executeAsync(clients.get(), c -> {
+			IndexRequestBuilder request = c.prepareIndex("shoppingcart", "cart", cart.getUserid()).setSource(json);
+			// a new Cart is created only if another Request has not created one meanwhile
+			return cart.getVersion() > 0 ? request.setVersion(cart.getVersion()) : request.setOpType(OpType.CREATE);
+		}), "cart", cart.getUserid()).thenApply(response -> null);
+	}
+
+	@Override
+	public CompletableFuture<Cart> change(String userid, CartLine change) {
+
+		Map<String, Object> params = new HashMap<>();
+		params.put("productid", change.getProductid());
+		params.put("quantity", change.getQuantity());
+		params.put("price", change.getPrice());
+
+		// the Cart of a Client without a Cart, when Products are added
+		String upsert = null;
+		if (change.getQuantity() > 0) {
+			Cart cart = new Cart(change.getQuantity(), change.getQuantity() * change.getPrice(), Collections.singletonList(change));
+			cart.setUserid(userid);
+			try {
+				upsert = new ObjectMapper().writeValueAsString(cart);
+			} catch (JsonProcessingException e) {
+				e.printStackTrace();
+				return CompletableFuture.completedFuture(null);
+			}
+		}
+
+		String source = upsert;
+		CompletableFuture<Cart> result = new CompletableFuture<>();
+		RequestExecutor.executeAsync(clients.get(), c -> {
+			UpdateRequestBuilder request = c.prepareUpdate("shoppingcart", "cart", userid)
+					.setScript(new Script(CHANGE_SCRIPT, ScriptType.INLINE, "groovy", params))
+					.setRetryOnConflict(RETRIES)
+					.setFields("_source");
+			return source == null ? request : request.setUpsert(source);
+		}).whenComplete((response, e) -> {
+			if (e != null) {
+				if (ExceptionsHelper.unwrapCause(Futures.unwrap(e)) instanceof DocumentMissingException) {
+					// Products removed from the Cart of a Client without a Cart
+					result.complete(null);
+				} else {
+					result.completeExceptionally(e);
+				}
+			} else if (response.getShardInfo().getTotal() == 0) {
+				// the script left the Cart alone, a Request changing nothing is not sent to the shards
+				result.complete(null);
+			} else {
+				try {
+					Cart cart = new ObjectMapper().readValue(response.getGetResult().sourceAsString(), Cart.class);
+					cart.setVersion(response.getVersion());
+					result.complete(cart);
+				} catch (IOException ioe) {
+					result.completeExceptionally(ioe);
+				}
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public CompletableFuture<Void> delete(String userid, long version) {
+
+		return VersionConflicts.translate(RequestExecutor.executeAsync(clients.get(), c -> {
+			DeleteRequestBuilder request = c.prepareDelete("shoppingcart", "cart", userid);
+			return version > 0 ? request.setVersion(version) : request;
+		}), "cart", userid).thenApply(response -> null);
+	}
+
+	@Override
+	public CompletableFuture<List<String>> writeAll(Collection<Cart> saved, Collection<Cart> deleted) {
+		if (saved.isEmpty() && deleted.isEmpty()) {
+			return CompletableFuture.completedFuture(Collections.emptyList());
+		}
+
+		ObjectMapper mapper = new ObjectMapper();
+		Map<Cart, String> sources = new HashMap<>();
+		try {
+			for (Cart cart : saved) {
+				sources.put(cart, mapper.writeValueAsString(cart));
+			}
+		} catch (JsonProcessingException e) {
+			e.printStackTrace();
+			CompletableFuture<List<String>> failed = new CompletableFuture<>();
+			failed.completeExceptionally(e);
+			return failed;
+		}
+
+		// the versions are external: a document is written only if its version is higher than the stored one
+		return RequestExecutor.executeAsync(clients.get(), c -> {
+			BulkRequestBuilder bulk = c.prepareBulk();
+			for (Cart cart : saved) {
+				bulk.add(c.prepareIndex("shoppingcart", "cart", cart.getUserid()).setSource(sources.get(cart))
+						.setVersion(cart.getVersion()).setVersionType(VersionType.EXTERNAL));
+			}
+			for (Cart cart : deleted) {
+				bulk.add(c.prepareDelete("shoppingcart", "cart", cart.getUserid())
+						.setVersion(cart.getVersion()).setVersionType(VersionType.EXTERNAL));
+			}
+			return bulk;
+		}).thenApply(response -> {
+			List<String> conflicts = new ArrayList<>();
+			for (BulkItemResponse item : response.getItems()) {
+				if (!item.isFailed()) {
+					continue;
+				}
+				// a conflict means a newer change of the Cart is stored already, written by another instance
+				if (!(ExceptionsHelper.unwrapCause(item.getFailure().getCause()) instanceof VersionConflictEngineException)) {
+					throw new IllegalStateException(item.getFailureMessage());
+				}
+				conflicts.add(item.getId());
+			}
+			return conflicts;
+		});
+	}
+
+	@Override
+	public CompletableFuture<Void> flush(String userid) {
+		// every write is sent at once
+		return CompletableFuture.completedFuture(null);
+	}
+
+	@Override
+	public CompletableFuture<Integer> migrateItems(int max) {
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareSearch("shoppingcart")
+				.setTypes("cart")
+				.setQuery(QueryBuilders.existsQuery("items"))
+				.setVersion(true)
+				.setSize(max))
+				.thenCompose(response -> {
+					ObjectMapper mapper = new ObjectMapper();
+					List<CompletableFuture<?>> writes = new ArrayList<>();
+					int migrated = 0;
+
+					for (SearchHit hit : response.getHits().getHits()) {
+						String source = null;
+						try {
+							Cart cart = mapper.readValue(hit.getSourceAsString(), Cart.class);
+							source = mapper.writeValueAsString(cart);
+						} catch (IOException e) {
+							e.printStackTrace();
+							continue;
+						}
+
+						// written only if the Cart was not changed since it was read, a conflict is left alone
+						String json = source;
+						writes.add(RequestExecutor.executeAsync(clients.get(), c -> c.prepareIndex("shoppingcart", "cart", hit.getId())
+								.setSource(json)
+								.setVersion(hit.getVersion()))
+								.handle((written, e) -> null));
+						migrated++;
+					}
+
+					// a document that can't be read is not counted, it would be found again by every round
+					int count = migrated;
+					return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> count);
+				});
+	}
+}
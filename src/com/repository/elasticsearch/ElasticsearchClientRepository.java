@@ -0,0 +1,159 @@
+/**
+ * This class stores the Clients in the "client" type of the "shoppingcart" index of the Elasticsearch DB.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository.elasticsearch;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+
+import com.beans.Client;
+import com.connection.RequestExecutor;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.repository.ClientRepository;
+
+public class ElasticsearchClientRepository implements ClientRepository {
+
+	private final Supplier<TransportClient> clients;
+
+	/**
+	 * Constructor of the class.
+	 * @param clients	Gives the client of the node the Requests are sent to.
+	 */
+	public ElasticsearchClientRepository(Supplier<TransportClient> clients) {
+		this.clients = clients;
+	}
+
+	@Override
+	public CompletableFuture<String> create(Client client) {
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareIndex("shoppingcart", "client")
+				.setSource(new Gson().toJson(client)))
+				.thenApply(response -> response.getId());
+	}
+
+	@Override
+	public CompletableFuture<Client> findById(String id) {
+
+		return RequestExecutor.readAsync(clients.get(), c -> c.prepareGet("shoppingcart", "client", id))
+				.thenApply(response -> {
+					Client client = null;
+					
+					if (!response.isExists()) {			// if the user with the id don't exists, return null
+						return null;
+					} else {
+						ObjectMapper mapper = new ObjectMapper();
+						try {
+							client = mapper.readValue(response.getSourceAsString(), Client.class);
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+					if (client != null) {
+						client.setId(id);
+					}
+					
+					return client;
+				});
+	}
+
+	@Override
+	public CompletableFuture<Client> findByUsername(String username) {
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareSearch("shoppingcart")
+				.setTypes("client")
+				.setQuery(QueryBuilders.termQuery("username", username)))
+				.thenApply(response -> {
+					Client client = null;
+					
+					SearchHit[] hit = response.getHits().getHits();
+					if (hit.length != 0) {
+						ObjectMapper mapper = new ObjectMapper();
+						try {
+							client = mapper.readValue(hit[0].getSourceAsString(), Client.class);
+							client.setId(hit[0].getId());
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+					
+					return client;
+				});
+	}
+
+	@Override
+	public CompletableFuture<List<Client>> findAll() {
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareSearch("shoppingcart")
+				.setTypes("client")
+				.setQuery(QueryBuilders.matchAllQuery()))
+				.thenApply(response -> {
+					List<Client> list = new ArrayList<>();
+					
+					ObjectMapper mapper = new ObjectMapper();
+					for (SearchHit hit : response.getHits().getHits()) {
+						try {
+							Client client = mapper.readValue(hit.getSourceAsString(), Client.class);
+							client.setId(hit.getId());
+							list.add(client);
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+					
+					return list;
+				});
+	}
+
+	@Override
+	public CompletableFuture<Void> setActive(String id, boolean isactive) {
+
+		XContentBuilder doc = null;
+		try {
+			doc = jsonBuilder().startObject().field("isactive", isactive).endObject();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return CompletableFuture.completedFuture(null);
+		}
+
+		return update(id, doc);
+	}
+
+	@Override
+	public CompletableFuture<Void> setPassword(String id, String password) {
+
+		XContentBuilder doc = null;
+		try {
+			doc = jsonBuilder().startObject().field("password", password).endObject();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return CompletableFuture.completedFuture(null);
+		}
+
+		return update(id, doc);
+	}
+
+	/**
+	 * Update some fields of a Client.
+	 * @param id	The id of the Client.
+	 * @param source	The new values of the fields.
+	 */
+	private CompletableFuture<Void> update(String id, XContentBuilder source) {
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareUpdate("shoppingcart", "client", id).setDoc(source))
+				.thenApply(response -> null);
+	}
+}
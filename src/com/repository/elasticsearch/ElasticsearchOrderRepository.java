@@ -0,0 +1,177 @@
+/**
+ * This class stores the Orders in the "order" type of the "shoppingcart" index of the Elasticsearch DB.
+ * The products of an Order are stored in the "lines" array, the Orders stored before the lines have the "items" list,
+ * they are read as lines and rewritten with the lines by migrateItems().
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository.elasticsearch;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.elasticsearch.action.index.IndexRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+
+import com.beans.Order;
+import com.connection.RequestExecutor;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.repository.OrderRepository;
+
+public class ElasticsearchOrderRepository implements OrderRepository {
+
+	private final Supplier<TransportClient> clients;
+
+	/**
+	 * Constructor of the class.
+	 * @param clients	Gives the client of the node the Requests are sent to.
+	 */
+	public ElasticsearchOrderRepository(Supplier<TransportClient> clients) {
+		this.clients = clients;
+	}
+
+	@Override
+	public CompletableFuture<String> create(Order order) {
+
+		String source = null;
+		try {
+			source = new ObjectMapper().writeValueAsString(order);
+		} catch (JsonProcessingException e) {
+			e.printStackTrace();
+			return CompletableFuture.completedFuture(null);
+		}
+
+		String json = source;
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareIndex("shoppingcart", "order")
+				 .setSource(json))
+				.thenApply(response -> response.getId());
+	}
+
+	@Override
+	public CompletableFuture<Order> findById(String id) {
+
+		return RequestExecutor.readAsync(clients.get(), c -> c.prepareGet("shoppingcart", "order", id))
+				.thenApply(response -> {
+					Order order = null;
+
+					if (response.isExists()) {
+						ObjectMapper mapper = new ObjectMapper();
+
+						try {
+							order = mapper.readValue(response.getSourceAsString(), Order.class);
+							order.setVersion(response.getVersion());
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+					return order;
+				});
+	}
+
+	@Override
+	public CompletableFuture<List<Order>> findByUserid(String userid) {
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareSearch("shoppingcart")
+				.setTypes("order")
+				.setQuery(QueryBuilders.termQuery("userid", userid))
+				.setVersion(true))
+				.thenApply(response -> readOrders(response));
+	}
+
+	@Override
+	public CompletableFuture<List<Order>> findAll() {
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareSearch("shoppingcart")
+				.setTypes("order")
+				.setQuery(QueryBuilders.matchAllQuery())
+				.setVersion(true))
+				.thenApply(response -> readOrders(response));
+	}
+
+	@Override
+	public CompletableFuture<Void> replace(String id, Order order) {
+
+		String source = null;
+		try {
+			source = new ObjectMapper().writeValueAsString(order);
+		} catch (JsonProcessingException e) {
+			e.printStackTrace();
+			return CompletableFuture.completedFuture(null);
+		}
+
+		// the index replaces the whole document, only if it still has the version the Order was read with
+		String json = source;
+		return VersionConflicts.translate(RequestExecutor.executeAsync(clients.get(), c -> {
+			IndexRequestBuilder request = c.prepareIndex("shoppingcart", "order", id).setSource(json);
+			return order.getVersion() > 0 ? request.setVersion(order.getVersion()) : request;
+		}), "order", id).thenApply(response -> null);
+	}
+
+	@Override
+	public CompletableFuture<Integer> migrateItems(int max) {
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareSearch("shoppingcart")
+				.setTypes("order")
+				.setQuery(QueryBuilders.existsQuery("items"))
+				.setVersion(true)
+				.setSize(max))
+				.thenCompose(response -> {
+					ObjectMapper mapper = new ObjectMapper();
+					List<CompletableFuture<?>> writes = new ArrayList<>();
+					int migrated = 0;
+
+					for (SearchHit hit : response.getHits().getHits()) {
+						String source = null;
+						try {
+							Order order = mapper.readValue(hit.getSourceAsString(), Order.class);
+							source = mapper.writeValueAsString(order);
+						} catch (IOException e) {
+							e.printStackTrace();
+							continue;
+						}
+
+						// written only if the Order was not changed since it was read, a conflict is left alone
+						String json = source;
+						writes.add(RequestExecutor.executeAsync(clients.get(), c -> c.prepareIndex("shoppingcart", "order", hit.getId())
+								.setSource(json)
+								.setVersion(hit.getVersion()))
+								.handle((written, e) -> null));
+						migrated++;
+					}
+
+					// a document that can't be read is not counted, it would be found again by every round
+					int count = migrated;
+					return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> count);
+				});
+	}
+
+	/**
+	 * Read the Orders from the hits of a search.
+	 * @param response	The Response of the search.
+	 * @return	List of Orders.
+	 */
+	private List<Order> readOrders(SearchResponse response) {
+		List<Order> orders = new ArrayList<>();
+
+		for (SearchHit hit : response.getHits().getHits()) {
+			ObjectMapper mapper = new ObjectMapper();
+			Order order;
+			try {
+				order = mapper.readValue(hit.getSourceAsString(), Order.class);
+				order.setVersion(hit.getVersion());
+				orders.add(order);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		return orders;
+	}
+}
@@ -0,0 +1,294 @@
+/**
+ * This class stores the Products in the "product" type of the "shoppingcart" index of the Elasticsearch DB.
+ * Every document keeps the time of its last change in the "updated" field, so the changed Products can be found.
+ * The lists are read page by page with a scroll, a search alone returns only the first 10 Products.
+ * The stock is changed by a script on the DB, without reading the Product first.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository.elasticsearch;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.index.engine.DocumentMissingException;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptService.ScriptType;
+import org.elasticsearch.search.SearchHit;
+
+import com.beans.Product;
+import com.connection.ApplicationProperties;
+import com.connection.Futures;
+import com.connection.RequestExecutor;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.repository.ProductRepository;
+
+public class ElasticsearchProductRepository implements ProductRepository {
+
+	private static final int SCROLL_SIZE = 500;
+	private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueSeconds(30);
+	private static final int RETRIES = ApplicationProperties.getInt("product.stock.retries", 3);
+
+	// the documents keep the time of the last change too, it's not part of the Product
+	private static final ObjectMapper SOURCES = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+	// the stock never goes under 0, the Products taken from a smaller stock leave the Product alone
+	private static final String STOCK_SCRIPT = "if (ctx._source.instock + quantity < 0) {\n"
+			+ "  ctx.op = 'none';\n"
+			+ "} else {\n"
+			+ "  ctx._source.instock += quantity;\n"
+			+ "  ctx._source.updated = updated;\n"
+			+ "}\n";
+
+	private final Supplier<TransportClient> clients;
+
+	/**
+	 * Constructor of the class.
+	 * @param clients	Gives the client of the node the Requests are sent to.
+	 */
+	public ElasticsearchProductRepository(Supplier<TransportClient> clients) {
+		this.clients = clients;
+	}
+
+	@Override
+	public CompletableFuture<String> create(Product product) {
+		JsonObject json = new Gson().toJsonTree(product).getAsJsonObject();
+		json.addProperty("updated", System.currentTimeMillis());
+		String source = json.toString();
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareIndex("shoppingcart", "product")
+		        .setSource(source))
+				.thenApply(response -> response.getId());
+	}
+
+	@Override
+	public CompletableFuture<Product> findById(String id) {
+
+		return RequestExecutor.readAsync(clients.get(), c -> c.prepareGet("shoppingcart", "product", id))
+				.thenApply(response -> {
+					Product product = null;
+
+					if (response.isExists()) {
+						try {
+							product = SOURCES.readValue(response.getSourceAsString(), Product.class);
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+						product.setId(id);
+					}
+					return product;
+				});
+	}
+
+	@Override
+	public CompletableFuture<Product> findCurrent(String id) {
+		// nothing is cached here
+		return findById(id);
+	}
+
+	@Override
+	public CompletableFuture<Map<String, Product>> findByIds(Collection<String> ids) {
+		if (ids.isEmpty()) {
+			return CompletableFuture.completedFuture(new HashMap<>());
+		}
+
+		return RequestExecutor.readAsync(clients.get(), c -> c.prepareMultiGet().add("shoppingcart", "product", ids))
+				.thenApply(response -> {
+					Map<String, Product> products = new HashMap<>();
+
+					for (MultiGetItemResponse item : response) {
+						// a failed item is handled like a missing Product, the caller decides what to show
+						if (item.isFailed() || !item.getResponse().isExists()) {
+							continue;
+						}
+						try {
+							Product product = SOURCES.readValue(item.getResponse().getSourceAsString(), Product.class);
+							product.setId(item.getId());
+							products.put(item.getId(), product);
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+					return products;
+				});
+	}
+
+	@Override
+	public CompletableFuture<Product> findByName(String productname) {
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareSearch("shoppingcart")
+				.setTypes("product")
+				.setQuery(QueryBuilders.termQuery("productname", productname)))
+				.thenApply(response -> {
+					Product product = null;
+
+					SearchHit[] hit = response.getHits().getHits();
+
+					if (hit.length != 0) {
+						try {
+							product = SOURCES.readValue(hit[0].getSourceAsString(), Product.class);
+							product.setId(hit[0].getId());
+						} catch (IOException e) {
+							e.printStackTrace();
+						}
+					}
+
+					return product;
+				});
+	}
+
+	@Override
+	public CompletableFuture<List<Product>> findAll() {
+		List<Product> list = new ArrayList<>();
+		return scroll(QueryBuilders.matchAllQuery(), list::addAll).thenApply(read -> list);
+	}
+
+	@Override
+	public CompletableFuture<Long> scanAll(Consumer<List<Product>> pages) {
+		return scroll(QueryBuilders.matchAllQuery(), pages);
+	}
+
+	@Override
+	public CompletableFuture<List<Product>> findUpdatedSince(long since) {
+		List<Product> list = new ArrayList<>();
+		return scroll(QueryBuilders.rangeQuery("updated").gte(since), list::addAll).thenApply(read -> list);
+	}
+
+	/**
+	 * Read all the Products matching a query, page by page.
+	 * @param query	The query.
+	 * @param pages	Gets the Products of every page, one page after the other.
+	 * @return	The number of Products read.
+	 */
+	private CompletableFuture<Long> scroll(QueryBuilder query, Consumer<List<Product>> pages) {
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareSearch("shoppingcart")
+				.setTypes("product")
+				.setQuery(query)
+				.setSize(SCROLL_SIZE)
+				.setScroll(SCROLL_KEEP_ALIVE))
+				.thenCompose(response -> nextPage(response, pages, 0));
+	}
+
+	/**
+	 * Pass the Products of a page on, and read the next page, until a page is empty.
+	 * @param response	The Response with the page.
+	 * @param pages	Gets the Products of the page.
+	 * @param read	The number of hits of the pages read before.
+	 * @return	The number of Products read.
+	 */
+	private CompletableFuture<Long> nextPage(SearchResponse response, Consumer<List<Product>> pages, long read) {
+		SearchHit[] hits = response.getHits().getHits();
+
+		List<Product> page = new ArrayList<>(hits.length);
+		for (SearchHit hit : hits) {
+			try {
+				Product product = SOURCES.readValue(hit.getSourceAsString(), Product.class);
+				product.setId(hit.getId());
+				page.add(product);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		if (!page.isEmpty()) {
+			pages.accept(page);
+		}
+
+		long total = read + hits.length;
+		String scrollId = response.getScrollId();
+		if (hits.length == 0 || total >= response.getHits().getTotalHits()) {
+			// free the scroll on the DB, the result doesn't wait for it
+			RequestExecutor.executeAsync(clients.get(), c -> c.prepareClearScroll().addScrollId(scrollId));
+			return CompletableFuture.completedFuture(total);
+		}
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareSearchScroll(scrollId).setScroll(SCROLL_KEEP_ALIVE))
+				.thenCompose(next -> nextPage(next, pages, total));
+	}
+
+	@Override
+	public CompletableFuture<Void> update(Product product) {
+
+		XContentBuilder doc = null;
+		try {
+			doc = jsonBuilder().startObject().field("productname", product.getProductname())
+					.field("updated", System.currentTimeMillis())
+					.field("instock", product.getInstock())
+					.field("price", product.getPrice())
+					.field("description", product.getDescription())
+					.field("imageURL", product.getImageURL())
+					.endObject();
+		} catch (IOException e) {
+			e.printStackTrace();
+			return CompletableFuture.completedFuture(null);
+		}
+
+		XContentBuilder source = doc;
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareUpdate("shoppingcart", "product", product.getId()).setDoc(source))
+				.thenApply(response -> null);
+	}
+
+	@Override
+	public CompletableFuture<Product> changeStock(String id, int quantity) {
+
+		Map<String, Object> params = new HashMap<>();
+		params.put("quantity", quantity);
+		params.put("updated", System.currentTimeMillis());
+
+		CompletableFuture<Product> result = new CompletableFuture<>();
+		RequestExecutor.executeAsync(clients.get(), c -> c.prepareUpdate("shoppingcart", "product", id)
+				.setScript(new Script(STOCK_SCRIPT, ScriptType.INLINE, "groovy", params))
+				.setRetryOnConflict(RETRIES)
+				.setFields("_source"))
+				.whenComplete((response, e) -> {
+					if (e != null) {
+						if (ExceptionsHelper.unwrapCause(Futures.unwrap(e)) instanceof DocumentMissingException) {
+							result.complete(null);
+						} else {
+							result.completeExceptionally(e);
+						}
+					} else if (response.getShardInfo().getTotal() == 0) {
+						// the script left the Product alone, not enough in stock
+						result.complete(null);
+					} else {
+						try {
+							Product product = SOURCES.readValue(response.getGetResult().sourceAsString(), Product.class);
+							product.setId(id);
+							result.complete(product);
+						} catch (IOException ioe) {
+							result.completeExceptionally(ioe);
+						}
+					}
+				});
+		return result;
+	}
+
+	@Override
+	public CompletableFuture<Boolean> delete(String id) {
+
+		return RequestExecutor.executeAsync(clients.get(), c -> c.prepareDelete("shoppingcart", "product", id))
+				// to be shore that product is deleted
+				.thenApply(response -> response.isFound() && response.getId().equals(id));
+	}
+}
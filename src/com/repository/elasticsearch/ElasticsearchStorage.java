@@ -0,0 +1,121 @@
+/**
+ * This class is the Elasticsearch storage backend, the data is kept in the "shoppingcart" index.
+ * The Products read by id are kept in a cache of "product.cache.size" Products, for "product.cache.ttl.ms" milliseconds,
+ * a size of 0 turns the cache off. The Products missing from the cache are read in batches of "product.batch.size"
+ * ids, gathered for "product.batch.wait.us" microseconds from all the Requests, a size of 1 turns the batches off.
+ * With "cart.writebehind" the Carts are kept in memory, and written every "cart.writebehind.flush.ms" milliseconds,
+ * with a log of the changes in "cart.writebehind.dir".
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository.elasticsearch;
+
+import java.io.File;
+import java.util.function.Supplier;
+
+import org.elasticsearch.client.transport.TransportClient;
+import org.json.JSONObject;
+
+import com.connection.ApplicationProperties;
+import com.repository.BatchingProductRepository;
+import com.repository.CachingProductRepository;
+import com.repository.CartRepository;
+import com.repository.ClientRepository;
+import com.repository.OrderRepository;
+import com.repository.ProductRepository;
+import com.repository.Storage;
+import com.repository.WriteBehindCartRepository;
+
+public class ElasticsearchStorage implements Storage {
+
+	private final ProductRepository products;
+	private final CartRepository carts;
+	private final OrderRepository orders;
+	private final ClientRepository clients;
+	private final BatchingProductRepository batching;
+	private final WriteBehindCartRepository writeBehind;
+
+	/**
+	 * Constructor of the class.
+	 * @param transportClients	Gives the client of the node every Request is sent to.
+	 */
+	public ElasticsearchStorage(Supplier<TransportClient> transportClients) {
+		ProductRepository products = new ElasticsearchProductRepository(transportClients);
+		int batchSize = ApplicationProperties.getInt("product.batch.size", 100);
+		if (batchSize > 1) {
+			batching = new BatchingProductRepository(products, batchSize, ApplicationProperties.getLong("product.batch.wait.us", 1000));
+			products = batching;
+		} else {
+			batching = null;
+		}
+		int cacheSize = ApplicationProperties.getInt("product.cache.size", 10000);
+		if (cacheSize > 0) {
+			products = new CachingProductRepository(products, cacheSize, ApplicationProperties.getLong("product.cache.ttl.ms", 60000));
+		}
+		this.products = products;
+		CartRepository carts = new ElasticsearchCartRepository(transportClients);
+		if (ApplicationProperties.getBoolean("cart.writebehind", false)) {
+			// the log keeps the changes not yet in the DB, a temporary directory can be emptied by a restart of the host
+			String directory = ApplicationProperties.getString("cart.writebehind.dir", "");
+			if (directory.isEmpty()) {
+				throw new IllegalStateException("cart.writebehind.dir must be set to a persistent directory when cart.writebehind is enabled.");
+			}
+			writeBehind = new WriteBehindCartRepository(carts, new File(directory),
+					ApplicationProperties.getLong("cart.writebehind.flush.ms", 200));
+			carts = writeBehind;
+		} else {
+			writeBehind = null;
+		}
+		this.carts = carts;
+		this.orders = new ElasticsearchOrderRepository(transportClients);
+		this.clients = new ElasticsearchClientRepository(transportClients);
+	}
+
+	@Override
+	public String getName() {
+		return "elasticsearch";
+	}
+
+	@Override
+	public JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		if (products instanceof CachingProductRepository) {
+			json.put("productcache", ((CachingProductRepository) products).getStats());
+		}
+		if (batching != null) {
+			json.put("productbatch", batching.getStats());
+		}
+		if (writeBehind != null) {
+			json.put("writebehind", writeBehind.getStats());
+		}
+		return json;
+	}
+
+	@Override
+	public void close() {
+		if (writeBehind != null) {
+			writeBehind.close();
+		}
+	}
+
+	@Override
+	public ProductRepository products() {
+		return products;
+	}
+
+	@Override
+	public CartRepository carts() {
+		return carts;
+	}
+
+	@Override
+	public OrderRepository orders() {
+		return orders;
+	}
+
+	@Override
+	public ClientRepository clients() {
+		return clients;
+	}
+}
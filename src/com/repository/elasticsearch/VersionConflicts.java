@@ -0,0 +1,46 @@
+/**
+ * This class turns the VersionConflictEngineException of the Elasticsearch DB (and the DocumentAlreadyExistsException
+ * of a document created by someone else meanwhile) into the VersionConflictException of the storages,
+ * so the DAOs see the same conflict with every storage.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository.elasticsearch;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.index.engine.DocumentAlreadyExistsException;
+import org.elasticsearch.index.engine.VersionConflictEngineException;
+
+import com.connection.Futures;
+import com.repository.VersionConflictException;
+
+final class VersionConflicts {
+
+	private VersionConflicts() {
+	}
+
+	/**
+	 * Translate the version conflict of a write.
+	 * @param write	The future of the write.
+	 * @param type	The type of the document.
+	 * @param id	The id of the document.
+	 * @return	A future completed like the write, failed with VersionConflictException if the write had a conflict.
+	 */
+	static <T> CompletableFuture<T> translate(CompletableFuture<T> write, String type, String id) {
+		CompletableFuture<T> result = new CompletableFuture<>();
+		write.whenComplete((value, e) -> {
+			Throwable cause = e == null ? null : ExceptionsHelper.unwrapCause(Futures.unwrap(e));
+			if (e == null) {
+				result.complete(value);
+			} else if (cause instanceof VersionConflictEngineException || cause instanceof DocumentAlreadyExistsException) {
+				result.completeExceptionally(new VersionConflictException(type, id));
+			} else {
+				result.completeExceptionally(e);
+			}
+		});
+		return result;
+	}
+}
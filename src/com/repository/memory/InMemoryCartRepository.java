@@ -0,0 +1,159 @@
+/**
+ * This class keeps the Carts in memory, by the id of the Client. Every read returns a copy.
+ * Every write of a Cart gives it the next version, like the documents of the Elasticsearch DB.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository.memory;
+
+import static com.repository.Copies.copy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.beans.Cart;
+import com.beans.CartLine;
+import com.repository.CartRepository;
+import com.repository.VersionConflictException;
+
+public class InMemoryCartRepository implements CartRepository {
+
+	private final Map<String, Cart> carts = new ConcurrentHashMap<>();
+
+	@Override
+	public CompletableFuture<Boolean> create(Cart cart) {
+		// like an index with an id, an existing Cart is replaced
+		carts.compute(cart.getUserid(), (userid, stored) -> versioned(cart, stored));
+		return CompletableFuture.completedFuture(true);
+	}
+
+	@Override
+	public CompletableFuture<Cart> findByUserid(String userid) {
+		return CompletableFuture.completedFuture(copy(carts.get(userid)));
+	}
+
+	@Override
+	public CompletableFuture<Void> update(Cart cart) {
+		boolean[] conflict = new boolean[1];
+		Cart updated = carts.computeIfPresent(cart.getUserid(), (userid, stored) -> {
+			if (cart.getVersion() > 0 && cart.getVersion() != stored.getVersion()) {
+				conflict[0] = true;
+				return stored;
+			}
+			return versioned(cart, stored);
+		});
+		if (updated == null) {
+			return Missing.failed("cart", cart.getUserid());
+		}
+		return conflict[0] ? conflict(cart.getUserid()) : CompletableFuture.completedFuture(null);
+	}
+
+	@Override
+	public CompletableFuture<Void> save(Cart cart) {
+		boolean[] conflict = new boolean[1];
+		carts.compute(cart.getUserid(), (userid, stored) -> {
+			if (cart.getVersion() != (stored == null ? 0 : stored.getVersion())) {
+				conflict[0] = true;
+				return stored;
+			}
+			return versioned(cart, stored);
+		});
+		return conflict[0] ? conflict(cart.getUserid()) : CompletableFuture.completedFuture(null);
+	}
+
+	@Override
+	public CompletableFuture<Cart> change(String userid, CartLine change) {
+		Cart[] changed = new Cart[1];
+		carts.compute(userid, (id, stored) -> {
+			if (stored == null && change.getQuantity() <= 0) {
+				return null;
+			}
+			Cart cart = stored == null ? new Cart() : copy(stored);
+			cart.setUserid(userid);
+			if (!cart.change(change)) {
+				return stored;
+			}
+			cart = versioned(cart, stored);
+			changed[0] = copy(cart);
+			return cart;
+		});
+		return CompletableFuture.completedFuture(changed[0]);
+	}
+
+	@Override
+	public CompletableFuture<Void> delete(String userid, long version) {
+		if (version <= 0) {
+			carts.remove(userid);
+			return CompletableFuture.completedFuture(null);
+		}
+		boolean[] deleted = new boolean[1];
+		carts.computeIfPresent(userid, (id, stored) -> {
+			deleted[0] = stored.getVersion() == version;
+			return deleted[0] ? null : stored;
+		});
+		return deleted[0] ? CompletableFuture.completedFuture(null) : conflict(userid);
+	}
+
+	@Override
+	public CompletableFuture<List<String>> writeAll(Collection<Cart> saved, Collection<Cart> deleted) {
+		List<String> conflicts = new ArrayList<>();
+		for (Cart cart : saved) {
+			carts.compute(cart.getUserid(), (userid, stored) -> {
+				if (stored != null && stored.getVersion() >= cart.getVersion()) {
+					conflicts.add(userid);
+					return stored;
+				}
+				return copy(cart);
+			});
+		}
+		for (Cart cart : deleted) {
+			carts.computeIfPresent(cart.getUserid(), (userid, stored) -> {
+				if (stored.getVersion() >= cart.getVersion()) {
+					conflicts.add(userid);
+					return stored;
+				}
+				return null;
+			});
+		}
+		return CompletableFuture.completedFuture(conflicts);
+	}
+
+	@Override
+	public CompletableFuture<Void> flush(String userid) {
+		return CompletableFuture.completedFuture(null);
+	}
+
+	/**
+	 * Copy a Cart written to the storage, with the next version.
+	 * @param cart	The Cart written.
+	 * @param stored	The Cart it replaces, or null.
+	 * @return	The copy kept by the storage.
+	 */
+	private static Cart versioned(Cart cart, Cart stored) {
+		Cart copy = copy(cart);
+		copy.setVersion(stored == null ? 1 : stored.getVersion() + 1);
+		return copy;
+	}
+
+	/**
+	 * Create the failure of a write with an old version.
+	 * @param userid	The id of the Client.
+	 * @return	A future failed with VersionConflictException.
+	 */
+	private static <T> CompletableFuture<T> conflict(String userid) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		future.completeExceptionally(new VersionConflictException("cart", userid));
+		return future;
+	}
+
+	@Override
+	public CompletableFuture<Integer> migrateItems(int max) {
+		// the Carts are kept as objects, they never have the items
+		return CompletableFuture.completedFuture(0);
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * This class keeps the Clients in memory. Every read returns a copy.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository.memory;
+
+import static com.repository.Copies.copy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.beans.Client;
+import com.repository.ClientRepository;
+
+public class InMemoryClientRepository implements ClientRepository {
+
+	private final Map<String, Client> clients = new ConcurrentHashMap<>();
+
+	@Override
+	public CompletableFuture<String> create(Client client) {
+		String id = UUID.randomUUID().toString();
+		Client stored = copy(client);
+		stored.setId(id);
+		clients.put(id, stored);
+
+		return CompletableFuture.completedFuture(id);
+	}
+
+	@Override
+	public CompletableFuture<Client> findById(String id) {
+		return CompletableFuture.completedFuture(copy(clients.get(id)));
+	}
+
+	@Override
+	public CompletableFuture<Client> findByUsername(String username) {
+		for (Client client : clients.values()) {
+			if (client.getUsername() != null && client.getUsername().equals(username)) {
+				return CompletableFuture.completedFuture(copy(client));
+			}
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+
+	@Override
+	public CompletableFuture<List<Client>> findAll() {
+		List<Client> list = new ArrayList<>();
+		for (Client client : clients.values()) {
+			list.add(copy(client));
+		}
+		return CompletableFuture.completedFuture(list);
+	}
+
+	@Override
+	public CompletableFuture<Void> setActive(String id, boolean isactive) {
+		Client updated = clients.computeIfPresent(id, (key, stored) -> {
+			Client copy = copy(stored);
+			copy.setIsactive(isactive);
+			return copy;
+		});
+		return updated == null ? Missing.failed("client", id) : CompletableFuture.completedFuture(null);
+	}
+
+	@Override
+	public CompletableFuture<Void> setPassword(String id, String password) {
+		Client updated = clients.computeIfPresent(id, (key, stored) -> {
+			Client copy = copy(stored);
+			copy.setPassword(password);
+			return copy;
+		});
+		return updated == null ? Missing.failed("client", id) : CompletableFuture.completedFuture(null);
+	}
+}
@@ -0,0 +1,88 @@
+/**
+ * This class keeps the Orders in memory. Every read returns a copy.
+ * Every write of an Order gives it the next version, like the documents of the Elasticsearch DB.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository.memory;
+
+import static com.repository.Copies.copy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.beans.Order;
+import com.repository.OrderRepository;
+import com.repository.VersionConflictException;
+
+public class InMemoryOrderRepository implements OrderRepository {
+
+	private final Map<String, Order> orders = new ConcurrentHashMap<>();
+
+	@Override
+	public CompletableFuture<String> create(Order order) {
+		String id = UUID.randomUUID().toString();
+		Order copy = copy(order);
+		copy.setVersion(1);
+		orders.put(id, copy);
+
+		return CompletableFuture.completedFuture(id);
+	}
+
+	@Override
+	public CompletableFuture<Order> findById(String id) {
+		return CompletableFuture.completedFuture(copy(orders.get(id)));
+	}
+
+	@Override
+	public CompletableFuture<List<Order>> findByUserid(String userid) {
+		List<Order> list = new ArrayList<>();
+		for (Order order : orders.values()) {
+			if (userid.equals(order.getUserid())) {
+				list.add(copy(order));
+			}
+		}
+		return CompletableFuture.completedFuture(list);
+	}
+
+	@Override
+	public CompletableFuture<List<Order>> findAll() {
+		List<Order> list = new ArrayList<>();
+		for (Order order : orders.values()) {
+			list.add(copy(order));
+		}
+		return CompletableFuture.completedFuture(list);
+	}
+
+	@Override
+	public CompletableFuture<Void> replace(String id, Order order) {
+		boolean[] conflict = new boolean[1];
+		orders.compute(id, (key, stored) -> {
+			long version = stored == null ? 0 : stored.getVersion();
+			if (order.getVersion() > 0 && order.getVersion() != version) {
+				conflict[0] = true;
+				return stored;
+			}
+			Order copy = copy(order);
+			copy.setVersion(version + 1);
+			return copy;
+		});
+		if (conflict[0]) {
+			CompletableFuture<Void> future = new CompletableFuture<>();
+			future.completeExceptionally(new VersionConflictException("order", id));
+			return future;
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+
+	@Override
+	public CompletableFuture<Integer> migrateItems(int max) {
+		// the Orders are kept as objects, they never have the items
+		return CompletableFuture.completedFuture(0);
+	}
+}
@@ -0,0 +1,142 @@
+/**
+ * This class keeps the Products in memory. Every read returns a copy, like a read from the DB,
+ * so changing the Product read doesn't change the stored Product.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository.memory;
+
+import static com.repository.Copies.copy;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.beans.Product;
+import com.repository.ProductRepository;
+
+public class InMemoryProductRepository implements ProductRepository {
+
+	private final Map<String, Product> products = new ConcurrentHashMap<>();
+	private final Map<String, Long> changed = new ConcurrentHashMap<>();
+
+	@Override
+	public CompletableFuture<String> create(Product product) {
+		String id = UUID.randomUUID().toString();
+		Product stored = copy(product);
+		stored.setId(id);
+		products.put(id, stored);
+		changed.put(id, System.currentTimeMillis());
+
+		return CompletableFuture.completedFuture(id);
+	}
+
+	@Override
+	public CompletableFuture<Product> findById(String id) {
+		return CompletableFuture.completedFuture(copy(products.get(id)));
+	}
+
+	@Override
+	public CompletableFuture<Product> findCurrent(String id) {
+		return findById(id);
+	}
+
+	@Override
+	public CompletableFuture<Map<String, Product>> findByIds(Collection<String> ids) {
+		Map<String, Product> found = new HashMap<>();
+		for (String id : ids) {
+			Product product = products.get(id);
+			if (product != null) {
+				found.put(id, copy(product));
+			}
+		}
+		return CompletableFuture.completedFuture(found);
+	}
+
+	@Override
+	public CompletableFuture<Product> findByName(String productname) {
+		for (Product product : products.values()) {
+			if (product.getProductname() != null && product.getProductname().equals(productname)) {
+				return CompletableFuture.completedFuture(copy(product));
+			}
+		}
+		return CompletableFuture.completedFuture(null);
+	}
+
+	@Override
+	public CompletableFuture<List<Product>> findAll() {
+		List<Product> list = new ArrayList<>();
+		for (Product product : products.values()) {
+			list.add(copy(product));
+		}
+		return CompletableFuture.completedFuture(list);
+	}
+
+	@Override
+	public CompletableFuture<Long> scanAll(Consumer<List<Product>> pages) {
+		return findAll().thenApply(list -> {
+			pages.accept(list);
+			return (long) list.size();
+		});
+	}
+
+	@Override
+	public CompletableFuture<List<Product>> findUpdatedSince(long since) {
+		List<Product> list = new ArrayList<>();
+		for (Product product : products.values()) {
+			Long time = changed.get(product.getId());
+			if (time != null && time >= since) {
+				list.add(copy(product));
+			}
+		}
+		return CompletableFuture.completedFuture(list);
+	}
+
+	@Override
+	public CompletableFuture<Void> update(Product product) {
+		Product updated = products.computeIfPresent(product.getId(), (id, stored) -> {
+			Product copy = copy(product);
+			copy.setId(id);
+			changed.put(id, System.currentTimeMillis());
+			return copy;
+		});
+		return updated == null ? Missing.failed("product", product.getId()) : CompletableFuture.completedFuture(null);
+	}
+
+	@Override
+	public CompletableFuture<Product> changeStock(String id, int quantity) {
+		Product[] result = new Product[1];
+		products.computeIfPresent(id, (key, stored) -> {
+			if (stored.getInstock() + quantity < 0) {
+				return stored;
+			}
+			Product copy = copy(stored);
+			copy.setInstock(stored.getInstock() + quantity);
+			changed.put(key, System.currentTimeMillis());
+			result[0] = copy(copy);
+			return copy;
+		});
+		return CompletableFuture.completedFuture(result[0]);
+	}
+
+	@Override
+	public CompletableFuture<Boolean> delete(String id) {
+		changed.remove(id);
+		return CompletableFuture.completedFuture(products.remove(id) != null);
+	}
+
+	/**
+	 * Get the number of Products stored.
+	 * @return	The number of Products.
+	 */
+	int size() {
+		return products.size();
+	}
+}
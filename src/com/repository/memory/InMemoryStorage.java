@@ -0,0 +1,61 @@
+/**
+ * This class is the memory storage backend. The data is kept in concurrent maps, and lost when the application stops.
+ * Used by the small deployments without Elasticsearch, and to measure the application without the DB.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository.memory;
+
+import org.json.JSONObject;
+
+import com.repository.CartRepository;
+import com.repository.ClientRepository;
+import com.repository.OrderRepository;
+import com.repository.ProductRepository;
+import com.repository.Storage;
+
+public class InMemoryStorage implements Storage {
+
+	private final InMemoryProductRepository products = new InMemoryProductRepository();
+	private final CartRepository carts = new InMemoryCartRepository();
+	private final OrderRepository orders = new InMemoryOrderRepository();
+	private final ClientRepository clients = new InMemoryClientRepository();
+
+	@Override
+	public String getName() {
+		return "memory";
+	}
+
+	@Override
+	public JSONObject getStats() {
+		JSONObject json = new JSONObject();
+		json.put("products", products.size());
+		return json;
+	}
+
+	@Override
+	public void close() {
+		// nothing is written later
+	}
+
+	@Override
+	public ProductRepository products() {
+		return products;
+	}
+
+	@Override
+	public CartRepository carts() {
+		return carts;
+	}
+
+	@Override
+	public OrderRepository orders() {
+		return orders;
+	}
+
+	@Override
+	public ClientRepository clients() {
+		return clients;
+	}
+}
@@ -0,0 +1,29 @@
+/**
+ * This class creates the failure of an update of a document that doesn't exist,
+ * like the DocumentMissingException of the Elasticsearch DB.
+ *
+ * @author sandor.naghi
+ */
+
+package com.repository.memory;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.CompletableFuture;
+
+final class Missing {
+
+	private Missing() {
+	}
+
+	/**
+	 * Create a failed future.
+	 * @param type	The type of the document.
+	 * @param id	The id of the document.
+	 * @return	A future failed with NoSuchElementException.
+	 */
+	static <T> CompletableFuture<T> failed(String type, String id) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		future.completeExceptionally(new NoSuchElementException("[" + type + "][" + id + "]: document missing"));
+		return future;
+	}
+}
@@ -0,0 +1,101 @@
+/**
+ * This class resumes the suspended Requests of the application, when the result is ready.
+ * If the deadline of the Request passes first, the Request is resumed with a "Gateway Timeout" Response.
+ * If the Request was rejected because too many Requests wait for the DB, the Response is "Service Unavailable",
+ * telling the Client when to try again. It's the same if the circuit breaker of the DB is open.
+ * A Cart or an Order changed by someone else at every attempt of the change is a "Conflict".
+ *
+ * @author sandor.naghi
+ */
+
+package com.service;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import com.connection.ApplicationProperties;
+import com.connection.CircuitOpenException;
+import com.connection.Deadline;
+import com.connection.DeadlineExceededException;
+import com.connection.Futures;
+import com.connection.LimitExceededException;
+import com.connection.RequestExecutor;
+import com.encrypt.MessageCreator;
+import com.repository.VersionConflictException;
+
+public final class AsyncResponses {
+
+	private static final MessageCreator MC = new MessageCreator();
+
+	private static final int RETRY_AFTER = ApplicationProperties.getInt("limiter.retry.after", 1);
+
+	private AsyncResponses() {
+	}
+
+	/**
+	 * Send the result of the future as the Response, when the future is completed.
+	 * If the future failed, the cause of the failure is sent to the container.
+	 * @param asyncResponse	The suspended Response.
+	 * @param future	The future of the result, the entity of the Response or the whole Response.
+	 */
+	public static void resume(AsyncResponse asyncResponse, CompletableFuture<?> future) {
+		Deadline deadline = Deadline.current();
+		if (deadline != null) {
+			asyncResponse.setTimeoutHandler(response -> response.resume(deadlineExceeded(deadline.exceeded())));
+			asyncResponse.setTimeout(Math.max(1, deadline.remainingMillis()), TimeUnit.MILLISECONDS);
+		}
+
+		future.whenComplete((result, throwable) -> {
+			if (throwable == null) {
+				asyncResponse.resume(result);
+			} else {
+				Throwable cause = Futures.unwrap(throwable);
+				if (cause instanceof DeadlineExceededException) {
+					asyncResponse.resume(deadlineExceeded((DeadlineExceededException) cause));
+				} else if (cause instanceof LimitExceededException) {
+					asyncResponse.resume(unavailable(cause.getMessage(), TimeUnit.SECONDS.toMillis(RETRY_AFTER)));
+				} else if (cause instanceof CircuitOpenException) {
+					asyncResponse.resume(unavailable(cause.getMessage(), RequestExecutor.getBreaker().getRemainingOpenMillis()));
+				} else if (cause instanceof VersionConflictException) {
+					asyncResponse.resume(Response.status(Response.Status.CONFLICT)
+							.type(MediaType.APPLICATION_JSON)
+							.entity(MC.setMessage("Failed", cause.getMessage()))
+							.build());
+				} else {
+					asyncResponse.resume(cause);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Create the Response of a Request that ran out of time.
+	 * @param e	The exception with the description of the deadline.
+	 * @return	A "Gateway Timeout" Response with the message.
+	 */
+	private static Response deadlineExceeded(DeadlineExceededException e) {
+		return Response.status(Response.Status.GATEWAY_TIMEOUT)
+				.type(MediaType.APPLICATION_JSON)
+				.entity(MC.setMessage("Failed", e.getMessage()))
+				.build();
+	}
+
+	/**
+	 * Create the Response of a Request rejected by the limiter, or by the circuit breaker.
+	 * @param message	The description of the rejection.
+	 * @param retryAfter	The time the Client should wait before trying again, in milliseconds.
+	 * @return	A "Service Unavailable" Response with the message, and the seconds to wait before trying again.
+	 */
+	static Response unavailable(String message, long retryAfter) {
+		return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+				.header(HttpHeaders.RETRY_AFTER, Math.max(1, (retryAfter + 999) / 1000))
+				.type(MediaType.APPLICATION_JSON)
+				.entity(MC.setMessage("Failed", message))
+				.build();
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * This class sets the bulkhead of every Request, before the method of the endpoint is called.
+ * The bulkhead is given by the ThreadPool annotation of the method or of the class, or it's the shopper bulkhead.
+ * The bulkhead is removed from the thread by RequestThreadFilter.
+ *
+ * @author sandor.naghi
+ */
+
+package com.service;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+
+import com.annotations.ThreadPool;
+import com.connection.Bulkhead;
+
+@Provider
+public class BulkheadFilter implements ContainerRequestFilter {
+
+	@Context
+	private ResourceInfo resourceInfo;
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		Method method = resourceInfo.getResourceMethod();
+		ThreadPool threadPool = method == null ? null : method.getAnnotation(ThreadPool.class);
+		if (threadPool == null && resourceInfo.getResourceClass() != null) {
+			threadPool = resourceInfo.getResourceClass().getAnnotation(ThreadPool.class);
+		}
+
+		// the thread of the container is reused, RequestThreadFilter removes the bulkhead after the Request is dispatched
+		Bulkhead.set(Bulkhead.get(threadPool == null ? Bulkhead.SHOPPER : threadPool.value()));
+	}
+}
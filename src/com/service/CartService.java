@@ -2,13 +2,15 @@
  * This class is used to communicate with the front end of the application, through json objects.
  * Create, read, update and delete a Cart.
  * The Path of the class is "/cart", and produces JSON objects.
+ * The Requests are suspended while waiting for the DB, and resumed when the result is ready.
  * 
  * @author sandor.naghi
  */
 
 package com.service;
 
-import javax.inject.Inject;
+import java.util.concurrent.CompletableFuture;
+
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
@@ -17,13 +19,17 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 
-import org.elasticsearch.client.transport.TransportClient;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.annotations.NotEmpty;
+import com.annotations.ThreadPool;
+import com.annotations.TimeLimit;
+import com.connection.Bulkhead;
 import com.dao.CartDao;
 import com.encrypt.CodeDecodeTokens;
 import com.encrypt.MessageCreator;
@@ -36,35 +42,32 @@ public class CartService {
 	private MessageCreator mc = new MessageCreator();
 	private CodeDecodeTokens cdt = new CodeDecodeTokens();
 	
-	@Inject
-	private TransportClient transportClient;
 	
 	/**
 	 * Display all of the Products the Client has in his Cart.
 	 * @param userid	Id of user.
 	 * @param token		JavaWebToken to identify the Client.
-	 * @return			A String with all of Products.
+	 * @param asyncResponse	A String with all of Products.
 	 */
 	@GET
 	@Path("/{userid}")
-	public String getClientProducts(@PathParam("userid") String userid, @HeaderParam("token") @NotEmpty String token) {
-		String result = null;
+	public void getClientProducts(@PathParam("userid") String userid, @HeaderParam("token") @NotEmpty String token, @Suspended AsyncResponse asyncResponse) {
 		
 		// identify the user, check if have rights to  make the call
-		boolean hasRights = cdt.clientHasRights(transportClient, token, userid);
-		if (hasRights) {
-			
-			result = cartDao.getClientProducts(transportClient, userid).toString();
-
-			if (result.equals("[]")) {			// if it's an empty array..
-				result = mc.setMessage("Failed", "No items in the cart.");
+		CompletableFuture<String> result = cdt.clientHasRightsAsync(token, userid).thenCompose(hasRights -> {
+			if (!hasRights) {
+				return CompletableFuture.completedFuture(mc.setMessage("Failed", "Not identified user"));
 			}
 			
-			return result;
-		} else {
-			result = mc.setMessage("Failed", "Not identified user");
-			return result;
-		}
+			return cartDao.getClientProductsAsync(userid).thenApply(jsonArray -> {
+				if (jsonArray.length() == 0) {			// if it's an empty array..
+					return mc.setMessage("Failed", "No items in the cart.");
+				}
+				return jsonArray.toString();
+			});
+		});
+		
+		AsyncResponses.resume(asyncResponse, result);
 	}
 	
 	/**
@@ -73,13 +76,12 @@ public class CartService {
 	 * @param productid	Id of Product.
 	 * @param token		JavaWebToken to identify the Client.
 	 * @param input		Number of products added.
-	 * @return			Success or fail.
+	 * @param asyncResponse	Success or fail.
 	 */
 	@POST
 	@Path("/{userid}/additem/{productid}")
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String addProductToCart(@PathParam("userid") String userid, @PathParam("productid") String productid, @HeaderParam("token") @NotEmpty String token, @NotEmpty String input) {
-		String result = null;
+	public void addProductToCart(@PathParam("userid") String userid, @PathParam("productid") String productid, @HeaderParam("token") @NotEmpty String token, @NotEmpty String input, @Suspended AsyncResponse asyncResponse) {
 		
 		int quantity = 0;
 		try {
@@ -87,23 +89,24 @@ public class CartService {
 			JSONObject jsonObject = new JSONObject(input);
 			quantity = jsonObject.getInt("quantity");
 			if (quantity <= 0 ) {
-				result = mc.setMessage("Failed", "Can't add 0 or negative number.");
-				return result;
+				asyncResponse.resume(mc.setMessage("Failed", "Can't add 0 or negative number."));
+				return;
 			}
 		} catch (JSONException e){
-			result = mc.setMessage("Failed", "Inserted data invalid.");
-			return result;
+			asyncResponse.resume(mc.setMessage("Failed", "Inserted data invalid."));
+			return;
 		}
 		
 		// check if Client have rights to add a product to cart
-		boolean hasRights = cdt.clientHasRights(transportClient, token, userid);
-		if (hasRights) {
-			result = cartDao.addProductToCart(transportClient, userid, productid, quantity);
-			return result;
-		} else {
-			result = mc.setMessage("Failed", "Not identified user, or not active.");
-			return result;
-		}
+		int addQuantity = quantity;
+		CompletableFuture<String> result = cdt.clientHasRightsAsync(token, userid).thenCompose(hasRights -> {
+			if (hasRights) {
+				return cartDao.addProductToCartAsync(userid, productid, addQuantity);
+			}
+			return CompletableFuture.completedFuture(mc.setMessage("Failed", "Not identified user, or not active."));
+		});
+		
+		AsyncResponses.resume(asyncResponse, result);
 	}
 	
 	/**
@@ -112,13 +115,12 @@ public class CartService {
 	 * @param productid	Id of Product.
 	 * @param token		JavaWebToken to identify the client.
 	 * @param input		Number of products removed. 
-	 * @return			Success or fail.
+	 * @param asyncResponse	Success or fail.
 	 */
 	@DELETE
 	@Path("/{userid}/removeitem/{productid}")
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String removeProductFromCart(@PathParam("userid") String userid, @PathParam("productid") String productid, @HeaderParam("token") @NotEmpty String token, @NotEmpty String input) {
-		String result = null;
+	public void removeProductFromCart(@PathParam("userid") String userid, @PathParam("productid") String productid, @HeaderParam("token") @NotEmpty String token, @NotEmpty String input, @Suspended AsyncResponse asyncResponse) {
 		
 		int quantity = 0;
 		try {
@@ -126,44 +128,46 @@ public class CartService {
 			JSONObject jsonObject = new JSONObject(input);
 			quantity = jsonObject.getInt("quantity");
 			if (quantity <= 0) {
-				result = mc.setMessage("Failed", "Can't remove 0 or negative number.");
-				return result;
+				asyncResponse.resume(mc.setMessage("Failed", "Can't remove 0 or negative number."));
+				return;
 			}
 		} catch (JSONException e){
-			result = mc.setMessage("Failed", "Inserted data invalid.");
-			return result;
+			asyncResponse.resume(mc.setMessage("Failed", "Inserted data invalid."));
+			return;
 		}
 		
 		// check if user have rights
-		boolean hasRights = cdt.clientHasRights(transportClient, token, userid);
-		if (hasRights) {
-			result = cartDao.removeProductFromCart(transportClient, userid, productid, quantity);
-			return result;
-		} else {
-			result = mc.setMessage("Failed", "Not identified user");
-			return result;
-		}
+		int removeQuantity = quantity;
+		CompletableFuture<String> result = cdt.clientHasRightsAsync(token, userid).thenCompose(hasRights -> {
+			if (hasRights) {
+				return cartDao.removeProductFromCartAsync(userid, productid, removeQuantity);
+			}
+			return CompletableFuture.completedFuture(mc.setMessage("Failed", "Not identified user"));
+		});
+		
+		AsyncResponses.resume(asyncResponse, result);
 	}
 	
 	/**
 	 * Create an Order from the Cart.
 	 * @param userid	Id of Client.
 	 * @param token		JavaWebToken to identify the Client.
-	 * @return			Success or fail.
+	 * @param asyncResponse	Success or fail.
 	 */
 	@GET
 	@Path("/{userid}/checkout")
-	public String checkoutCart(@PathParam("userid") String userid, @HeaderParam("token") @NotEmpty String token) {
-		String result = null;
+	@ThreadPool(Bulkhead.CHECKOUT)
+	@TimeLimit(name = "cart.checkout", millis = 1000)
+	public void checkoutCart(@PathParam("userid") String userid, @HeaderParam("token") @NotEmpty String token, @Suspended AsyncResponse asyncResponse) {
 		
 		// if client have the rights, return success, else return fail
-		boolean hasRights = cdt.clientHasRights(transportClient, token, userid);
-		if (hasRights) {
-			result = cartDao.checkoutCart(transportClient, userid);
-		} else {
-			result = mc.setMessage("Failed", "Not identified user");
-		}
+		CompletableFuture<String> result = cdt.clientHasRightsAsync(token, userid).thenCompose(hasRights -> {
+			if (hasRights) {
+				return cartDao.checkoutCartAsync(userid);
+			}
+			return CompletableFuture.completedFuture(mc.setMessage("Failed", "Not identified user"));
+		});
 		
-		return result;
+		AsyncResponses.resume(asyncResponse, result);
 	}
 }
@@ -0,0 +1,42 @@
+/**
+ * This class rejects the Requests at once while the circuit breaker of the DB is open,
+ * except the catalog reads, which are served from the last data read from the DB.
+ *
+ * @author sandor.naghi
+ */
+
+package com.service;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+
+import com.annotations.Degradable;
+import com.connection.CircuitBreaker;
+import com.connection.RequestExecutor;
+
+@Provider
+public class CircuitBreakerFilter implements ContainerRequestFilter {
+
+	@Context
+	private ResourceInfo resourceInfo;
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		CircuitBreaker breaker = RequestExecutor.getBreaker();
+		if (!breaker.isOpen()) {
+			return;
+		}
+
+		Method method = resourceInfo.getResourceMethod();
+		if (method == null || !method.isAnnotationPresent(Degradable.class)) {
+			requestContext.abortWith(AsyncResponses.unavailable("The DB is unavailable, only the catalog can be read.",
+					breaker.getRemainingOpenMillis()));
+		}
+	}
+}
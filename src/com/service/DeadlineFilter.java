@@ -0,0 +1,46 @@
+/**
+ * This class sets the deadline of every Request, before the method of the endpoint is called.
+ * The time is given by the TimeLimit annotation of the method, or by the "deadline.default" property.
+ * The deadline is removed from the thread by RequestThreadFilter.
+ *
+ * @author sandor.naghi
+ */
+
+package com.service;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+
+import com.annotations.TimeLimit;
+import com.connection.ApplicationProperties;
+import com.connection.Deadline;
+
+@Provider
+public class DeadlineFilter implements ContainerRequestFilter {
+
+	@Context
+	private ResourceInfo resourceInfo;
+
+	@Override
+	public void filter(ContainerRequestContext requestContext) throws IOException {
+		Method method = resourceInfo.getResourceMethod();
+		TimeLimit timeLimit = method == null ? null : method.getAnnotation(TimeLimit.class);
+
+		// the thread of the container is reused, RequestThreadFilter removes the deadline after the Request is dispatched
+		Deadline deadline;
+		if (timeLimit == null) {
+			deadline = Deadline.after(requestContext.getUriInfo().getPath(), ApplicationProperties.getLong("deadline.default", 2000));
+		} else {
+			deadline = Deadline.after(timeLimit.name(), ApplicationProperties.getLong("deadline." + timeLimit.name(), timeLimit.millis()));
+		}
+		Deadline.set(deadline);
+		// the Response can be sent from another thread, the filters of the Response find the deadline here
+		requestContext.setProperty(Deadline.class.getName(), deadline);
+	}
+}
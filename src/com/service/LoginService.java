@@ -7,19 +7,20 @@
  */
 package com.service;
 
-import javax.inject.Inject;
+import java.util.concurrent.CompletableFuture;
+
 import javax.ws.rs.Consumes;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 
-import org.elasticsearch.client.transport.TransportClient;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.annotations.NotEmpty;
-import com.beans.Client;
 import com.dao.LoginDao;
 import com.encrypt.CodeDecodeTokens;
 import com.encrypt.MessageCreator;
@@ -30,19 +31,16 @@ public class LoginService {
 	private LoginDao loginDao = new LoginDao();
 	private MessageCreator mc = new MessageCreator();
 	
-	@Inject
-	private TransportClient transportClient;
 	
 	/**
 	 * Identifying the Client, based upon username and password.
 	 * @param input	Data from the front end, with username and password.
-	 * @return	Message of Success or Failure.
+	 * @param asyncResponse	Message of Success or Failure.
 	 */
 	@POST
 	@Consumes(MediaType.APPLICATION_JSON)
 	@Produces(MediaType.APPLICATION_JSON)
-	public String login(@NotEmpty String input) {
-		String result = null;
+	public void login(@NotEmpty String input, @Suspended AsyncResponse asyncResponse) {
 		
 		// Creating a JSon object, from which retrieve the login information.
 		JSONObject jsonRequest = null;
@@ -53,24 +51,24 @@ public class LoginService {
 			username = jsonRequest.getString("username");
 			password = jsonRequest.getString("password");
 		} catch (JSONException e) {
-			result = mc.setMessage("Failed", "Invalid data.");
-			return result;
+			asyncResponse.resume(mc.setMessage("Failed", "Invalid data."));
+			return;
 		}
 		
 		// Identifying the Client.
-		Client client = loginDao.getClientWithUsername(transportClient, username, password);
-		
-		if (client != null && client.isIsactive()) {
+		CompletableFuture<String> result = loginDao.getClientWithUsernameAsync(username, password).thenApply(client -> {
+			if (client != null && client.isIsactive()) {
+				
+				// generate the token from the userid, username, and password
+				CodeDecodeTokens cdt = new CodeDecodeTokens();
+				String token = cdt.generateToken(client.getId(), client.getUsername(), client.getPassword());
+				
+				return mc.setMessage("Success", token);
+			}
 			
-			// generate the token from the userid, username, and password
-			CodeDecodeTokens cdt = new CodeDecodeTokens();
-			String token = cdt.generateToken(client.getId(), client.getUsername(), client.getPassword());
-			
-			result = mc.setMessage("Success", token);
-			return result;
-		}
+			return mc.setMessage("Failed", "Bad username, password, or user inactive.");
+		});
 		
-		result = mc.setMessage("Failed", "Bad username, password, or user inactive.");
-		return result;
+		AsyncResponses.resume(asyncResponse, result);
 	}
 }
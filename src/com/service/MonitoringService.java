@@ -0,0 +1,127 @@
+/**
+ * This class is used to show the state of the application, through json objects.
+ * Only user with administrator rights can see it.
+ * The Path of the class is "/monitor", and produces json objects.
+ *
+ * @author sandor.naghi
+ */
+
+package com.service;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+
+import org.json.JSONObject;
+
+import com.annotations.NotEmptyAdmin;
+import com.annotations.ThreadPool;
+import com.connection.Bulkhead;
+import com.connection.CreateCloseConnection;
+import com.connection.InvalidationBus;
+import com.dao.CartMailbox;
+import com.dao.ConflictRetry;
+import com.dao.ItemsMigration;
+import com.dao.ProductCatalog;
+import com.dao.ProductResponseCache;
+import com.dao.SharedReads;
+import com.encrypt.PrincipalCache;
+import com.repository.UnitOfWork;
+
+@Path("/monitor")
+@Produces(MediaType.APPLICATION_JSON)
+@ThreadPool(Bulkhead.ADMIN)
+public class MonitoringService {
+
+	@Inject
+	private CreateCloseConnection connection;
+
+	/**
+	 * Display the nodes the application is connected to, and the thread pools of the client.
+	 * @param token	JavaWebToken to identify the administrator.
+	 * @return	The statistics of the connection.
+	 */
+	@GET
+	@Path("/connection")
+	public String getConnectionStats(@HeaderParam("token") @NotEmptyAdmin String token) {
+		return connection.getStats().toString();
+	}
+
+	/**
+	 * Display how many reads of the Products, the Clients and the Carts were shared by several Requests,
+	 * the cache of the Clients checked with the tokens, the reads served from the documents already read by the same Request,
+	 * and the cache of the serialized Responses of the catalog.
+	 * @param token	JavaWebToken to identify the administrator.
+	 * @return	The counters of the reads.
+	 */
+	@GET
+	@Path("/reads")
+	public String getSharedReadStats(@HeaderParam("token") @NotEmptyAdmin String token) {
+		JSONObject json = SharedReads.getStats();
+		json.put("principalcache", PrincipalCache.getStats());
+		json.put("unitofworkavoided", UnitOfWork.getTotalAvoided());
+		json.put("productresponses", ProductResponseCache.getStats());
+
+		return json.toString();
+	}
+
+	/**
+	 * Display the snapshot of the catalog: the number of Products, the version, and how old the data is.
+	 * @param token	JavaWebToken to identify the administrator.
+	 * @return	The state of the catalog.
+	 */
+	@GET
+	@Path("/catalog")
+	public String getCatalogStats(@HeaderParam("token") @NotEmptyAdmin String token) {
+		return ProductCatalog.getStats().toString();
+	}
+
+	/**
+	 * Display the invalidation bus between the instances: the keys sent and received, and the datagrams missed.
+	 * @param token	JavaWebToken to identify the administrator.
+	 * @return	The state of the bus.
+	 */
+	@GET
+	@Path("/invalidation")
+	public String getInvalidationStats(@HeaderParam("token") @NotEmptyAdmin String token) {
+		return InvalidationBus.getStats().toString();
+	}
+
+	/**
+	 * Display the contention on the Carts and the Orders: the changes written with the version read,
+	 * the conflicts with the changes of others, the changes made again, and the changes given up.
+	 * @param token	JavaWebToken to identify the administrator.
+	 * @return	The counters of the conflicts.
+	 */
+	@GET
+	@Path("/conflicts")
+	public String getConflictStats(@HeaderParam("token") @NotEmptyAdmin String token) {
+		return ConflictRetry.getAllStats().toString();
+	}
+
+	/**
+	 * Display the operations on the Carts run one after the other for every Client: the operations,
+	 * the ones that waited for another operation of the Client, the writes, and the changes merged into one write.
+	 * @param token	JavaWebToken to identify the administrator.
+	 * @return	The counters of the mailboxes.
+	 */
+	@GET
+	@Path("/carts")
+	public String getCartStats(@HeaderParam("token") @NotEmptyAdmin String token) {
+		return CartMailbox.getStats().toString();
+	}
+
+	/**
+	 * Display the migration of the Carts and Orders stored with the items list to the lines.
+	 * @param token	JavaWebToken to identify the administrator.
+	 * @return	The state of the migration.
+	 */
+	@GET
+	@Path("/migration")
+	public String getMigrationStats(@HeaderParam("token") @NotEmptyAdmin String token) {
+		return ItemsMigration.getStats().toString();
+	}
+}
@@ -6,7 +6,8 @@
 
 package com.service;
 
-import javax.inject.Inject;
+import java.util.concurrent.CompletableFuture;
+
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
@@ -14,13 +15,15 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 
-import org.elasticsearch.client.transport.TransportClient;
 
 import com.annotations.NotEmpty;
 import com.annotations.NotEmptyAdmin;
-import com.beans.Order;
+import com.annotations.ThreadPool;
+import com.connection.Bulkhead;
 import com.dao.OrderDao;
 import com.encrypt.CodeDecodeTokens;
 import com.encrypt.MessageCreator;
@@ -33,59 +36,56 @@ public class OrderService {
 	private CodeDecodeTokens cdt = new CodeDecodeTokens();
 	private OrderDao orderDao = new OrderDao();
 	
-	@Inject
-	private TransportClient transportClient;
 	
 	/**
 	 * Display information about the order. If logged in as a Client, display your order, 
 	 * 		if logged in as an admin, display all of the orders.
 	 * @param token	JavaWebToken to identify if it's a client or the admin.
-	 * @return	Success or fail.
+	 * @param asyncResponse	Success or fail.
 	 */
 	@GET
 	@Path("/list")
-	public String getOrders(@HeaderParam("token") @NotEmpty String token) {
-		String result = null;
+	public void getOrders(@HeaderParam("token") @NotEmpty String token, @Suspended AsyncResponse asyncResponse) {
 		
 		// check if user is admin or client
-		boolean isAdmin = cdt.userIsAdmin(transportClient, token);
-		if (isAdmin) {
-			result = orderDao.getAllOrders(transportClient).toString();
-		} else {
+		CompletableFuture<String> result = cdt.userIsAdminAsync(token).thenCompose(isAdmin -> {
+			if (isAdmin) {
+				// the report of all the orders is heavy, it must not use the places of the shoppers
+				return Bulkhead.get(Bulkhead.ADMIN).call(() -> orderDao.getAllOrdersAsync());
+			}
+			
 			String userid = cdt.clientIsValid(token);
 			if (userid != null) {
-				result = orderDao.displayOrders(transportClient, userid);
-			} else {
-				result = mc.setMessage("Failed", "Invalid token.");
+				return orderDao.displayOrdersAsync(userid);
 			}
-		}
-		return result;
+			return CompletableFuture.completedFuture(mc.setMessage("Failed", "Invalid token."));
+		});
+		
+		AsyncResponses.resume(asyncResponse, result);
 	}
 
 	/**
 	 * Display the details of the Order.
 	 * @param orderid	id of Order.
 	 * @param token		JavaWebToken to identify the Client.
-	 * @return			Fail if the token is not valid, or details if the client is valid.
+	 * @param asyncResponse	Fail if the token is not valid, or details if the client is valid.
 	 */
 	@GET
 	@Path("/{orderid}/details")
-	public String getOrderDetails(@PathParam("orderid") String orderid, @HeaderParam("token") @NotEmpty String token) {
-		String result = null;
+	public void getOrderDetails(@PathParam("orderid") String orderid, @HeaderParam("token") @NotEmpty String token, @Suspended AsyncResponse asyncResponse) {
 		
 		String userid = cdt.clientIsValid(token);
 		// validate user and order id...
-		Order order = orderDao.getOrderById(transportClient, orderid);
-		if (order == null) {
-			result = mc.setMessage("Failed", "Inexistent orderid.");
-			return result;
-		} else if (userid == null || !userid.equals(order.getUserid())) {
-			result = mc.setMessage("Failed", "Token not valid.");
-			return result;
-		} else {
-			result = orderDao.displayOrderDetail(transportClient, order);
-		}
-		return result;
+		CompletableFuture<String> result = orderDao.getOrderByIdAsync(orderid).thenCompose(order -> {
+			if (order == null) {
+				return CompletableFuture.completedFuture(mc.setMessage("Failed", "Inexistent orderid."));
+			} else if (userid == null || !userid.equals(order.getUserid())) {
+				return CompletableFuture.completedFuture(mc.setMessage("Failed", "Token not valid."));
+			}
+			return orderDao.displayOrderDetailAsync(order);
+		});
+		
+		AsyncResponses.resume(asyncResponse, result);
 	}
 
 	/**
@@ -93,65 +93,57 @@ public class OrderService {
 	 * @param orderid	Id of Order.
 	 * @param token		JavaWebToken to identify the admin.
 	 * @param input		Id of the Product, and the quantity in a json.
-	 * @return			Success or fail.
+	 * @param asyncResponse	Success or fail.
 	 */
 	@POST
 	@Path("/{orderid}/update")
+	@ThreadPool(Bulkhead.ADMIN)
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String updateOrder(@PathParam("orderid") String orderid, @HeaderParam("token") @NotEmptyAdmin String token, @NotEmpty String input) {
-		String result = null;
+	public void updateOrder(@PathParam("orderid") String orderid, @HeaderParam("token") @NotEmptyAdmin String token, @NotEmpty String input, @Suspended AsyncResponse asyncResponse) {
 		
-		result = orderDao.updateOrder(transportClient, orderid, input);
-
-		return result;
+		AsyncResponses.resume(asyncResponse, orderDao.updateOrderAsync(orderid, input));
 	}
 
 	/**
 	 * Confirm an order. Only the admin can do it.
 	 * @param orderid	Id of Order.
 	 * @param token		JavaWebToken to identify the admin.
-	 * @return			Success or fail.
+	 * @param asyncResponse	Success or fail.
 	 */
 	@POST
 	@Path("/{orderid}/confirm")
-	public String confirmOrder(@PathParam("orderid") String orderid, @HeaderParam("token") @NotEmptyAdmin String token) {
-		String result = null;
+	@ThreadPool(Bulkhead.ADMIN)
+	public void confirmOrder(@PathParam("orderid") String orderid, @HeaderParam("token") @NotEmptyAdmin String token, @Suspended AsyncResponse asyncResponse) {
 		
-		result = orderDao.confirmRejectOrder(transportClient, orderid, true);
-
-		return result;
+		AsyncResponses.resume(asyncResponse, orderDao.confirmRejectOrderAsync(orderid, true));
 	}
 	
 	/**
 	 * Reject an Order. Only  the admin can do it.
 	 * @param orderid	Id of Order.
 	 * @param token		JavaWebToken to identify the admin.
-	 * @return			Success or fail.
+	 * @param asyncResponse	Success or fail.
 	 */
 	@POST
 	@Path("/{orderid}/reject")
-	public String rejectOrder(@PathParam("orderid") String orderid, @HeaderParam("token") @NotEmptyAdmin String token) {
-		String result = null;
+	@ThreadPool(Bulkhead.ADMIN)
+	public void rejectOrder(@PathParam("orderid") String orderid, @HeaderParam("token") @NotEmptyAdmin String token, @Suspended AsyncResponse asyncResponse) {
 		
-		result = orderDao.confirmRejectOrder(transportClient, orderid, false);
-
-		return result;
+		AsyncResponses.resume(asyncResponse, orderDao.confirmRejectOrderAsync(orderid, false));
 	}
 
 	/**
 	 * Complete an order. Only the admin can do it.
 	 * @param orderid	Id of the Order
 	 * @param token		JavaWebToken to identify the admin.
-	 * @return			Success or fail.
+	 * @param asyncResponse	Success or fail.
 	 */
 	@POST
 	@Path("/{orderid}/completed")
-	public String completedOrder(@PathParam("orderid") String orderid, @HeaderParam("token") @NotEmptyAdmin String token) {
-		String result = null;
+	@ThreadPool(Bulkhead.ADMIN)
+	public void completedOrder(@PathParam("orderid") String orderid, @HeaderParam("token") @NotEmptyAdmin String token, @Suspended AsyncResponse asyncResponse) {
 		
-		result = orderDao.completeOrder(transportClient, orderid);
-
-		return result;
+		AsyncResponses.resume(asyncResponse, orderDao.completeOrderAsync(orderid));
 	}
 	
 }
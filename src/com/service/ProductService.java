@@ -8,9 +8,8 @@
 
 package com.service;
 
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
-import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
@@ -19,16 +18,25 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
-import org.elasticsearch.client.transport.TransportClient;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import com.annotations.Degradable;
 import com.annotations.NotEmpty;
 import com.annotations.NotEmptyAdmin;
-import com.beans.Product;
+import com.annotations.ThreadPool;
+import com.annotations.TimeLimit;
+import com.connection.Bulkhead;
 import com.dao.ProductDao;
+import com.dao.RenderedResponse;
 import com.encrypt.MessageCreator;
 
 //import com.cdi.MyServlet;
@@ -40,46 +48,72 @@ public class ProductService {
 	private ProductDao productDao = new ProductDao();
 	private MessageCreator mc = new MessageCreator();
 
-	@Inject
-	private TransportClient transportClient;
 	
 	/**
-	 * Get a list of all the Products available.
-	 * @return	A List of all the Products available for the Clients.
+	 * Get a list of all the Products available, without their description and stock (sent with the details).
+	 * The list is sent with an entity tag, if the Client has the same list the Response is "304 Not Modified", without a body.
+	 * @param ifNoneMatch	The entity tag of the list the Client has, or null.
+	 * @param asyncResponse	A List of all the Products available for the Clients.
 	 */
 	@GET
 	@Path("/list")
-	public String getAllProduts() {
-		List<String> list = productDao.getProductList(transportClient);
-		
-		if (list.isEmpty()) {
-			String result = mc.setMessage("Failed", "No products.");
-			return result;
-		}
+	@Degradable
+	@TimeLimit(name = "product.list", millis = 200)
+	public void getAllProduts(@HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch, @Suspended AsyncResponse asyncResponse) {
+		CompletableFuture<Object> result = productDao.getProductListResponseAsync().thenApply(list -> {
+			if (list == null) {
+				return mc.setMessage("Failed", "No products.");
+			}
+			
+			return toResponse(list, ifNoneMatch);
+		});
 		
-		return list.toString();
+		AsyncResponses.resume(asyncResponse, result);
 	}
 	
 	/**
 	 * Get a description of a Product.
+	 * The description is sent with an entity tag, if the Client has the same description the Response is "304 Not Modified", without a body.
 	 * @param id	The id of the Product.
-	 * @return	Information about the Product.
+	 * @param ifNoneMatch	The entity tag of the description the Client has, or null.
+	 * @param asyncResponse	Information about the Product.
 	 */
 	@GET
 	@Path("/{id}/details")
-	public String getProductByID(@PathParam("id") String id) {
-		Product product = productDao.readProductById(transportClient, id);
-		String result = null;
+	@Degradable
+	public void getProductByID(@PathParam("id") String id, @HeaderParam(HttpHeaders.IF_NONE_MATCH) String ifNoneMatch, @Suspended AsyncResponse asyncResponse) {
+		CompletableFuture<Object> result = productDao.readProductDetailsAsync(id).thenApply(product -> {
+			if (product == null) {
+				return mc.setMessage("Failed", "Inexistent product id.");
+			}
+			
+			return toResponse(product, ifNoneMatch);
+		});
 		
-		if (product == null) {
-			result = mc.setMessage("Failed", "Inexistent product id.");
-			return result;
+		AsyncResponses.resume(asyncResponse, result);
+	}
+	
+	/**
+	 * Create the Response of a serialized json, or "304 Not Modified" if the Client has the same json.
+	 * @param rendered	The serialized json, with its entity tag.
+	 * @param ifNoneMatch	The value of the If-None-Match header, the entity tags the Client has, or null.
+	 * @return	The Response.
+	 */
+	private Response toResponse(RenderedResponse rendered, String ifNoneMatch) {
+		EntityTag etag = new EntityTag(rendered.getEtag());
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				String value = tag.trim();
+				if (value.startsWith("W/")) {
+					value = value.substring(2);
+				}
+				if (value.equals("*") || value.equals("\"" + etag.getValue() + "\"")) {
+					return Response.notModified(etag).build();
+				}
+			}
 		}
-		JSONObject json = new JSONObject(product);
-		json.remove("id");
-		
-		result = json.toString();
-		return result;
+		Object entity = rendered.isStreamed() ? (StreamingOutput) rendered::writeTo : rendered.getBytes();
+		return Response.ok(entity, MediaType.APPLICATION_JSON_TYPE.withCharset("UTF-8")).tag(etag).build();
 	}
 	
 	/**
@@ -87,86 +121,83 @@ public class ProductService {
 	 * @param id	The id of the Product.
 	 * @param input	The new data for the Product.
 	 * @param token	JavaWebToken, to identify the administrator.
-	 * @return	Message of Success or Failure.
+	 * @param asyncResponse	Message of Success or Failure.
 	 */
 	@POST
 	@Path("/{id}/edit")
+	@ThreadPool(Bulkhead.ADMIN)
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String editProduct(@PathParam("id") String id, @NotEmpty String input, @HeaderParam("token") @NotEmptyAdmin String token) {
-		String result = null;
+	public void editProduct(@PathParam("id") String id, @NotEmpty String input, @HeaderParam("token") @NotEmptyAdmin String token, @Suspended AsyncResponse asyncResponse) {
 		
 		// Get the Product by the id.
-		Product product = productDao.readProductById(transportClient, id);
-		if (product == null) {
-			result = mc.setMessage("Failed", "Inexistent id.");
-			return result;
-		} else {
+		CompletableFuture<String> result = productDao.readProductByIdAsync(id).thenCompose(product -> {
+			if (product == null) {
+				return CompletableFuture.completedFuture(mc.setMessage("Failed", "Inexistent id."));
+			}
 			product.setId(id);
 			
 			JSONObject json = null;
 			try {
 				json = new JSONObject(input);
 				json.put("imageURL", product.getImageURL());
-				productDao.updateProduct(transportClient, product, json);
-				result = mc.setMessage("Success", "Product updated.");
-				return result;
 			} catch (JSONException e) {
-				result = mc.setMessage("Failed", "Invalid data.");
-				return result;
+				return CompletableFuture.completedFuture(mc.setMessage("Failed", "Invalid data."));
 			}
-		}
+			return productDao.updateProductAsync(product, json)
+					.thenApply(ignored -> mc.setMessage("Success", "Product updated."));
+		});
 		
+		AsyncResponses.resume(asyncResponse, result);
 	}
 	
 	/**
 	 * Create a new Product, only user with administrator rights can do it.
 	 * @param input	The data of the new Product. 
 	 * @param token	JavaWebToken for identifying the administrator.
-	 * @return	Message of Success or Failure.
+	 * @param asyncResponse	Message of Success or Failure.
 	 */
 	@POST
 	@Path("/create")
+	@ThreadPool(Bulkhead.ADMIN)
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String createProduct(@NotEmpty String input, @HeaderParam("token") @NotEmptyAdmin String token) {
-		String result = null;
+	public void createProduct(@NotEmpty String input, @HeaderParam("token") @NotEmptyAdmin String token, @Suspended AsyncResponse asyncResponse) {
 		
 		// Verify if data provided is valid.
 		boolean productDataExists = productDao.productDataExists(input);
 		if (!productDataExists) {
-			result = mc.setMessage("Failed", "Not correct data.");
-			return result;
+			asyncResponse.resume(mc.setMessage("Failed", "Not correct data."));
+			return;
 		}
 		
-		String id = productDao.createProduct(transportClient, input);
-		if (id != null) {
-			result = "{\"Status\":\"Success\",\"Id\":\"" + id + "\"}";
-			return result;
-		} else {
-			result = mc.setMessage("Failed", "Product already exists");
-			return result;
-		}
+		CompletableFuture<String> result = productDao.createProductAsync(input).thenApply(id -> {
+			if (id != null) {
+				return "{\"Status\":\"Success\",\"Id\":\"" + id + "\"}";
+			}
+			return mc.setMessage("Failed", "Product already exists");
+		});
 		
+		AsyncResponses.resume(asyncResponse, result);
 	}
 	
 	/**
 	 * Delete a Product from the Application, only user with administrator rights can do it.
 	 * @param id	The product id.
 	 * @param token	JavaWebToken for identifying the administrator.
-	 * @return Message of Success or Failure.
+	 * @param asyncResponse	Message of Success or Failure.
 	 */
 	@DELETE
 	@Path("/{id}/delete")
-	public String deleteProduct(@PathParam("id") String id, @HeaderParam("token") @NotEmptyAdmin String token) {
-		String result = null;
+	@ThreadPool(Bulkhead.ADMIN)
+	public void deleteProduct(@PathParam("id") String id, @HeaderParam("token") @NotEmptyAdmin String token, @Suspended AsyncResponse asyncResponse) {
 		
 		// Delete the product based upon the id.
-		boolean deleted = productDao.deleteProduct(transportClient, id);
-		if (deleted) {
-			result = mc.setMessage("Success", "Product deleted.");
-			return result;
-		} else {
-			result = mc.setMessage("Failed", "Product doesn't exist.");
-			return result;
-		}
+		CompletableFuture<String> result = productDao.deleteProductAsync(id).thenApply(deleted -> {
+			if (deleted) {
+				return mc.setMessage("Success", "Product deleted.");
+			}
+			return mc.setMessage("Failed", "Product doesn't exist.");
+		});
+		
+		AsyncResponses.resume(asyncResponse, result);
 	}
 }
@@ -0,0 +1,47 @@
+/**
+ * This class removes the deadline and the bulkhead of the Request from the thread of the container, after the Request is dispatched.
+ * The thread is reused by the next Requests, and a Request that completes its Response later, on the threads of
+ * its bulkhead, returns here right after the method of the endpoint: without this, the thread would keep
+ * the deadline, and everything attached to it, until the thread gets the next Request, and a call to the DB
+ * made on the thread outside of a Request would count against the bulkhead of the last Request.
+ *
+ * @author sandor.naghi
+ */
+
+package com.service;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.annotation.WebFilter;
+
+import com.connection.Bulkhead;
+import com.connection.Deadline;
+
+@WebFilter(urlPatterns = "/*", asyncSupported = true)
+public class RequestThreadFilter implements Filter {
+
+	@Override
+	public void init(FilterConfig filterConfig) throws ServletException {
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain) throws IOException, ServletException {
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			// set by DeadlineFilter and BulkheadFilter
+			Deadline.set(null);
+			Bulkhead.set(null);
+		}
+	}
+
+	@Override
+	public void destroy() {
+	}
+}
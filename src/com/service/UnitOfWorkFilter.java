@@ -0,0 +1,34 @@
+/**
+ * This class adds the number of reads of the Request served from memory, without a call to the DB,
+ * to the "X-Reads-Avoided" header of the Response, and ends the unit of work of the Request, releasing the documents it read.
+ *
+ * @author sandor.naghi
+ */
+
+package com.service;
+
+import java.io.IOException;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.ext.Provider;
+
+import com.connection.Deadline;
+import com.repository.UnitOfWork;
+
+@Provider
+public class UnitOfWorkFilter implements ContainerResponseFilter {
+
+	@Override
+	public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+		Object deadline = requestContext.getProperty(Deadline.class.getName());
+		if (deadline instanceof Deadline) {
+			// the deadline can outlive the Request, in the timers and the futures still running
+			int avoided = UnitOfWork.end((Deadline) deadline);
+			if (avoided > 0) {
+				responseContext.getHeaders().putSingle("X-Reads-Avoided", avoided);
+			}
+		}
+	}
+}
@@ -9,9 +9,8 @@
 package com.service;
 
 import java.io.IOException;
-import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
-import javax.inject.Inject;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.HeaderParam;
@@ -19,15 +18,18 @@ import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 
 import org.apache.commons.lang3.RandomStringUtils;
-import org.elasticsearch.client.transport.TransportClient;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import com.annotations.NotEmpty;
 import com.annotations.NotEmptyAdmin;
+import com.annotations.ThreadPool;
+import com.connection.Bulkhead;
 import com.beans.Client;
 import com.dao.ClientDao;
 import com.encrypt.MessageCreator;
@@ -42,19 +44,16 @@ public class UserAdministrationService {
 	private ClientDao clientDao = new ClientDao();
 	private MessageCreator mc = new MessageCreator();
 	
-	@Inject
-	private TransportClient transportClient;
 	
 	/**
 	 * Registering a Client in the Application. Expects a POST Request, with data.
 	 * @param input	Json object from the front end.
-	 * @return	A Json string object with the success, or the failure of the operation, and a message with description.
+	 * @param asyncResponse	A Json string object with the success, or the failure of the operation, and a message with description.
 	 */
 	@POST
 	@Path("/user/register")
 	@Consumes(MediaType.APPLICATION_JSON)
-	public String register(@NotEmpty String input) {
-		String result = null;
+	public void register(@NotEmpty String input, @Suspended AsyncResponse asyncResponse) {
 		
 		// Creating a random activation code.
 		String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
@@ -69,8 +68,8 @@ public class UserAdministrationService {
 		try {
 			json = new JSONObject(input);
 		} catch (JSONException e) {
-			result = mc.setMessage("Failed", "Invalid data.");
-			return result;
+			asyncResponse.resume(mc.setMessage("Failed", "Invalid data."));
+			return;
 		}
 		
 		json.put("isactive", false);
@@ -89,112 +88,114 @@ public class UserAdministrationService {
 		}
 		
 		// If user already exists return Failed.
-		boolean exists = clientDao.clientExists(transportClient, client);
-		if (exists) {
-			result = mc.setMessage("Failed!", "Username exists.");
-			return result;
-		}
+		Client newClient = client;
+		CompletableFuture<String> result = clientDao.clientExistsAsync(newClient).thenCompose(exists -> {
+			if (exists) {
+				return CompletableFuture.completedFuture(mc.setMessage("Failed!", "Username exists."));
+			}
 
-		// If the data provided is valid the return is Success, else Failed.
-		boolean isValid = clientDao.validateClient(client);
-		if (isValid) {
-			String id = clientDao.createClient(transportClient, client);
-			if (id != null) {
-				client.setId(id);
-				clientDao.sendRegistrationEmail(client);
+			// If the data provided is valid the return is Success, else Failed.
+			boolean isValid = clientDao.validateClient(newClient);
+			if (!isValid) {
+				return CompletableFuture.completedFuture(mc.setMessage("Failed", "Not registered."));
 			}
-			result = "{\"Status\":\"Success\",\n\"Message\":\"Registered.\",\n\"Id\":\"" + id + "\"}";
-			return result;
-		} else {
-			result = mc.setMessage("Failed", "Not registered.");
-			return result;
-		}
+			
+			return clientDao.createClientAsync(newClient).thenApply(id -> {
+				if (id != null) {
+					newClient.setId(id);
+					clientDao.sendRegistrationEmail(newClient);
+				}
+				return "{\"Status\":\"Success\",\n\"Message\":\"Registered.\",\n\"Id\":\"" + id + "\"}";
+			});
+		});
+		
+		AsyncResponses.resume(asyncResponse, result);
 	}
 	
 	/**
 	 * Activating the Client, based upon the activation code. 
 	 * @param id	The id of the Client.
 	 * @param activationcode	The activation code.
-	 * @return	A Json string object with the success, or the failure of the operation, and a message with description.
+	 * @param asyncResponse	A Json string object with the success, or the failure of the operation, and a message with description.
 	 */
 	@GET
 	@Path("user/{userid}/activate/{activationcode}")
-	public String userActivation(@PathParam ("userid") String id, @PathParam("activationcode") String activationcode) {
-		String result = null;
-		Client client = clientDao.readClient(transportClient, id);
-			
-		if ((client != null) && (client.getActivationcode().equals(activationcode))) {
-			client.setIsactive(true);
-			clientDao.clientActivation(transportClient, client, true);
-			result = mc.setMessage("Success", "Activated.");
-		} else {
-			result = mc.setMessage("Failed", "Inexistent Userid, or bad activation code.");
-		}
-		return result;
+	public void userActivation(@PathParam ("userid") String id, @PathParam("activationcode") String activationcode, @Suspended AsyncResponse asyncResponse) {
+		CompletableFuture<String> result = clientDao.readClientAsync(id).thenCompose(client -> {
+			if ((client != null) && (client.getActivationcode().equals(activationcode))) {
+				client.setIsactive(true);
+				return clientDao.clientActivationAsync(client, true)
+						.thenApply(ignored -> mc.setMessage("Success", "Activated."));
+			}
+			return CompletableFuture.completedFuture(mc.setMessage("Failed", "Inexistent Userid, or bad activation code."));
+		});
+		
+		AsyncResponses.resume(asyncResponse, result);
 	}
 	
 	/**
 	 * Disabling the Client, only the user with administrator rights can do it.
 	 * @param id	The id of Client.
 	 * @param token	The JavaWebToken, that identifies the administrator.
-	 * @return	The message, successful or failure.
+	 * @param asyncResponse	The message, successful or failure.
 	 */
 	@POST
 	@Path("/user/disable/{userid}")
-	public String disbleUser(@PathParam("userid") String id, @HeaderParam("token") @NotEmptyAdmin String token) {
-		String result = null;
-		
-		Client client = clientDao.readClient(transportClient, id);
+	@ThreadPool(Bulkhead.ADMIN)
+	public void disbleUser(@PathParam("userid") String id, @HeaderParam("token") @NotEmptyAdmin String token, @Suspended AsyncResponse asyncResponse) {
+		CompletableFuture<String> result = clientDao.readClientAsync(id).thenCompose(client -> {
+			if (client != null) {
+				client.setIsactive(false);
+				return clientDao.clientActivationAsync(client, false)
+						.thenApply(ignored -> mc.setMessage("Success", "Disabled."));
+			}
+			return CompletableFuture.completedFuture(mc.setMessage("Failed", "Inexistent Userid."));
+		});
 		
-		if (client != null) {
-			client.setIsactive(false);
-			clientDao.clientActivation(transportClient, client, false);
-			result = mc.setMessage("Success", "Disabled.");
-			return result;
-		} else {
-			result = mc.setMessage("Failed", "Inexistent Userid.");
-		}
-		return result;
+		AsyncResponses.resume(asyncResponse, result);
 	}
 	
 	/**
 	 * Activating the Client, only the user with administrator rights can do it.
 	 * @param id	The id of the Client.
 	 * @param token	The JavaWebToken, that identifies the administrator.
-	 * @return	The message Success, or Fail.
+	 * @param asyncResponse	The message Success, or Fail.
 	 */
 	@POST
 	@Path("/user/activate/{userid}")
-	public String activateUser(@PathParam("userid") String id, @HeaderParam("token") @NotEmptyAdmin String token) {
-		String result = null;
+	@ThreadPool(Bulkhead.ADMIN)
+	public void activateUser(@PathParam("userid") String id, @HeaderParam("token") @NotEmptyAdmin String token, @Suspended AsyncResponse asyncResponse) {
 		
 		// Identify the Client based upon his id.
-		Client client = clientDao.readClient(transportClient, id);
-		// If exists it's activated.
-		if (client != null) {
-			client.setIsactive(true);
-			clientDao.clientActivation(transportClient, client, true);
-			result = mc.setMessage("Success", "Activated.");
-		} else {
-			result = mc.setMessage("Failed", "Inexistent Userid.");
-		}
-		return result;
+		CompletableFuture<String> result = clientDao.readClientAsync(id).thenCompose(client -> {
+			// If exists it's activated.
+			if (client != null) {
+				client.setIsactive(true);
+				return clientDao.clientActivationAsync(client, true)
+						.thenApply(ignored -> mc.setMessage("Success", "Activated."));
+			}
+			return CompletableFuture.completedFuture(mc.setMessage("Failed", "Inexistent Userid."));
+		});
+		
+		AsyncResponses.resume(asyncResponse, result);
 	}
 	
 	/**
 	 * Reset the password of a Client, only the user with administrator rights can do it.
 	 * @param id	The Clients id.
 	 * @param token	The JavaWebToken that identifies the administrator.
-	 * @return	The message of Success or Failure.
+	 * @param asyncResponse	The message of Success or Failure.
 	 */
 	@POST
 	@Path("/user/resetPassword/{userid}")
-	public String resetPassword(@PathParam("userid") String id, @HeaderParam("token") @NotEmptyAdmin String token) {
-		String result = null;
+	@ThreadPool(Bulkhead.ADMIN)
+	public void resetPassword(@PathParam("userid") String id, @HeaderParam("token") @NotEmptyAdmin String token, @Suspended AsyncResponse asyncResponse) {
 		
 		// Identify the Client based upon the id.
-		Client client = clientDao.readClient(transportClient, id);
-		if (client != null) {
+		CompletableFuture<String> result = clientDao.readClientAsync(id).thenCompose(client -> {
+			if (client == null) {
+				return CompletableFuture.completedFuture(mc.setMessage("Failed", "Inexistent Userid."));
+			}
 			// create random password
 			String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789";
 			String newPassword = RandomStringUtils.random(10, chars);								
@@ -203,33 +204,30 @@ public class UserAdministrationService {
 			clientDao.sendResetPasswordEmail(client.getEmail(), subject);
 			// setting the new password
 			client.setPassword(newPassword);
-			clientDao.resetPassword(transportClient, client);
-			
-			result = mc.setMessage("Success", "Password reset.");
-		} else {
-			result = mc.setMessage("Failed", "Inexistent Userid.");
-		}
-		return result;
+			return clientDao.resetPasswordAsync(client)
+					.thenApply(ignored -> mc.setMessage("Success", "Password reset."));
+		});
+		
+		AsyncResponses.resume(asyncResponse, result);
 	}
 	
 	/**
 	 * Get all Clients from the DB. Only user with administrator rights can do it.
 	 * @param token	JavaWebToken that identifies the administrator user.
-	 * @return	The list of all Clients, or null if it's none.
+	 * @param asyncResponse	The list of all Clients, or null if it's none.
 	 */
 	@GET
 	@Path("/user/userlist")
-	public String getUsers(@HeaderParam("token") @NotEmptyAdmin String token) {
-		String result = null;
-		
-		List<String> list = clientDao.getUsersList(transportClient);
+	@ThreadPool(Bulkhead.ADMIN)
+	public void getUsers(@HeaderParam("token") @NotEmptyAdmin String token, @Suspended AsyncResponse asyncResponse) {
 		
-		if (list.isEmpty()) {
-			result = "{\"Message\":\"No users.\"}";
-			return result;
-		}
-				
-		return list.toString();
+		CompletableFuture<String> result = clientDao.getUsersListAsync().thenApply(list -> {
+			if (list.isEmpty()) {
+				return "{\"Message\":\"No users.\"}";
+			}
+			return list.toString();
+		});
 		
+		AsyncResponses.resume(asyncResponse, result);
 	}
-}
\ No newline at end of file
+}
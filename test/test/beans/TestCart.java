@@ -0,0 +1,110 @@
+package test.beans;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.beans.Cart;
+import com.beans.CartLine;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class TestCart {
+
+	@Test
+	public void addsANewLineAtTheCurrentPrice() {
+		Cart cart = new Cart();
+		assertTrue(cart.change(new CartLine("p1", 2, 100)));
+
+		assertEquals(new CartLine("p1", 2, 100), cart.line("p1"));
+		assertEquals(2, cart.getTotalquantity());
+		assertEquals(200, cart.getTotalcost());
+	}
+
+	@Test
+	public void repricesTheWholeLineWhenProductsAreAdded() {
+		Cart cart = new Cart();
+		cart.change(new CartLine("p1", 2, 100));
+		cart.change(new CartLine("p2", 1, 50));
+		// the price of p1 has changed meanwhile
+		assertTrue(cart.change(new CartLine("p1", 1, 120)));
+
+		assertEquals(new CartLine("p1", 3, 120), cart.line("p1"));
+		assertEquals(4, cart.getTotalquantity());
+		assertEquals(3 * 120 + 50, cart.getTotalcost());
+	}
+
+	@Test
+	public void refundsTheRemovedProductsAtThePriceOfTheLine() {
+		Cart cart = new Cart();
+		cart.change(new CartLine("p1", 3, 100));
+		// the current price is not used for the refund
+		assertTrue(cart.change(new CartLine("p1", -1, 80)));
+
+		assertEquals(new CartLine("p1", 2, 100), cart.line("p1"));
+		assertEquals(2, cart.getTotalquantity());
+		assertEquals(200, cart.getTotalcost());
+
+		assertTrue(cart.change(new CartLine("p1", -2, 80)));
+		assertNull(cart.line("p1"));
+		assertEquals(0, cart.getTotalquantity());
+		assertEquals(0, cart.getTotalcost());
+	}
+
+	@Test
+	public void refundsALineWithoutPriceAtTheCurrentPrice() {
+		// a Cart stored before the lines had prices
+		Cart cart = new Cart(2, 180, CartLine.fromItems(Arrays.asList("p1", "2")));
+		assertTrue(cart.change(new CartLine("p1", -1, 90)));
+
+		assertEquals(new CartLine("p1", 1, 0), cart.line("p1"));
+		assertEquals(1, cart.getTotalquantity());
+		assertEquals(90, cart.getTotalcost());
+	}
+
+	@Test
+	public void doesNotRemoveMoreThanTheCartHas() {
+		Cart cart = new Cart();
+		cart.change(new CartLine("p1", 1, 100));
+
+		assertFalse(cart.change(new CartLine("p1", -2, 100)));
+		assertFalse(cart.change(new CartLine("p2", -1, 100)));
+		assertEquals(new CartLine("p1", 1, 100), cart.line("p1"));
+		assertEquals(1, cart.getTotalquantity());
+		assertEquals(100, cart.getTotalcost());
+	}
+
+	@Test
+	public void readsTheItemsStoredBeforeTheLines() {
+		// an id made of digits
+		List<CartLine> lines = CartLine.fromItems(Arrays.asList("123", "2", "p3", "1"));
+
+		assertEquals(Arrays.asList(new CartLine("123", 2, 0), new CartLine("p3", 1, 0)), lines);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void failsOnAQuantityThatIsNotANumber() {
+		CartLine.fromItems(Arrays.asList("p1", "2", "p2", "x"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void failsOnAnIdWithoutAQuantity() {
+		CartLine.fromItems(Arrays.asList("p1", "2", "p2"));
+	}
+
+	@Test(expected = JsonMappingException.class)
+	public void doesNotReadACartWithMalformedItems() throws Exception {
+		new ObjectMapper().readValue("{\"userid\":\"u1\",\"totalquantity\":3,\"totalcost\":300,\"items\":[\"p1\",\"1\",\"p2\",\"x\"]}", Cart.class);
+	}
+
+	@Test
+	public void readsACartStoredWithItems() throws Exception {
+		Cart cart = new ObjectMapper().readValue("{\"userid\":\"u1\",\"totalquantity\":3,\"totalcost\":300,\"items\":[\"p1\",\"1\",\"p2\",\"2\"]}", Cart.class);
+
+		assertEquals(new CartLine("p1", 1, 0), cart.line("p1"));
+		assertEquals(new CartLine("p2", 2, 0), cart.line("p2"));
+		assertEquals(2, cart.getLines().size());
+	}
+}
@@ -0,0 +1,100 @@
+package test.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.beans.Product;
+import com.dao.MappedCatalogStore;
+
+/**
+ * Compares the heap used by the catalog and the latency of finding a Product, with the Products on the heap
+ * (a map of Product objects, like the snapshot of the catalog) and in the memory-mapped store.
+ * Run with: java -Xmx4g -cp ... test.benchmark.CatalogStoreBenchmark [products] [lookups]
+ */
+public class CatalogStoreBenchmark {
+
+	public static void main(String[] args) throws IOException {
+		int products = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 5000000;
+
+		String[] ids = new String[products];
+		for (int i = 0; i < products; i++) {
+			ids[i] = String.format("AV%018d", i * 7919L);
+		}
+		Random random = new Random(42);
+		String[] keys = new String[lookups];
+		for (int i = 0; i < lookups; i++) {
+			// a copy, like the id read from the path of a Request, not the String kept by the map
+			keys[i] = new String(ids[random.nextInt(products)]);
+		}
+
+		long before = usedHeap();
+		Map<String, Product> heap = new HashMap<>();
+		for (int i = 0; i < products; i++) {
+			heap.put(ids[i], product(ids[i], i));
+		}
+		long heapBytes = usedHeap() - before;
+
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			long sum = 0;
+			for (String key : keys) {
+				sum += heap.get(key).getInstock();
+			}
+			report("heap   lookup", start, lookups, sum);
+		}
+		System.out.println("heap   used by the catalog: " + heapBytes / (1024 * 1024) + " MB");
+		heap = null;
+
+		before = usedHeap();
+		MappedCatalogStore.Builder builder = new MappedCatalogStore.Builder(new File(System.getProperty("java.io.tmpdir")));
+		for (int i = 0; i < products; i++) {
+			builder.add(product(ids[i], i));
+		}
+		MappedCatalogStore store = builder.build();
+		builder = null;
+		long storeBytes = usedHeap() - before;
+
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			long sum = 0;
+			for (String key : keys) {
+				sum += store.getInstock(store.find(key));
+			}
+			report("mapped lookup", start, lookups, sum);
+		}
+		long start = System.nanoTime();
+		long sum = 0;
+		for (String key : keys) {
+			sum += store.read(store.find(key)).getInstock();
+		}
+		report("mapped decode", start, lookups, sum);
+
+		System.out.println("mapped used by the catalog: " + storeBytes / (1024 * 1024) + " MB of heap, "
+				+ store.getFileSize() / (1024 * 1024) + " MB mapped file, " + store.getIndexSize() / (1024 * 1024) + " MB index");
+		store.close();
+	}
+
+	private static Product product(String id, int i) {
+		Product product = new Product("Product " + i, "The description of the product number " + i
+				+ ", long enough to look like the descriptions of a real catalog of a shop.", i % 100, 1000 + i, "http://images/" + i + ".png");
+		product.setId(id);
+		return product;
+	}
+
+	private static void report(String name, long start, int lookups, long sum) {
+		long nanos = System.nanoTime() - start;
+		System.out.println(name + ": " + nanos / lookups + " ns/lookup (" + sum + ")");
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,82 @@
+package test.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.connection.Futures;
+import com.connection.VirtualThreads;
+
+/**
+ * Compares the throughput of the platform and the virtual mode of the executor completing the Responses.
+ * Every simulated Request blocks like the code of a Request does (sending an email): without a lock, inside
+ * a synchronized section, which pins the carrier of a virtual thread, or holding a ReentrantLock, which doesn't.
+ * Every Request has its own lock, so the Requests never wait for each other, only the pinning is measured.
+ * Run with: java -cp ... test.benchmark.ExecutionModeBenchmark [requests] [blockingMillis] [threads]
+ */
+public class ExecutionModeBenchmark {
+
+	private static final String UNLOCKED = "unlocked";
+	private static final String SYNCHRONIZED = "synchronized";
+	private static final String REENTRANT = "reentrant";
+
+	public static void main(String[] args) throws InterruptedException {
+		int requests = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		long blockingMillis = args.length > 1 ? Long.parseLong(args[1]) : 10;
+		int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		if (!VirtualThreads.isSupported()) {
+			System.out.println("Virtual threads are not supported by this JVM, the virtual mode falls back to platform threads.");
+		}
+
+		for (String mode : new String[] {VirtualThreads.PLATFORM, VirtualThreads.VIRTUAL}) {
+			for (String locking : new String[] {UNLOCKED, SYNCHRONIZED, REENTRANT}) {
+				run(mode, requests, blockingMillis, threads, locking);
+			}
+		}
+	}
+
+	private static void run(String mode, int requests, long blockingMillis, int threads, String locking) throws InterruptedException {
+		ExecutorService executor = VirtualThreads.newExecutor(mode, "benchmark", threads);
+
+		long start = System.nanoTime();
+		List<CompletableFuture<Void>> futures = new ArrayList<>(requests);
+		for (int i = 0; i < requests; i++) {
+			// created here, so the lock escapes to the task and the JIT can't remove the locking
+			ReentrantLock lock = new ReentrantLock();
+			futures.add(CompletableFuture.runAsync(() -> block(blockingMillis, locking, lock), executor));
+		}
+		Futures.await(Futures.allAsList(futures));
+		long elapsed = System.nanoTime() - start;
+
+		executor.shutdown();
+		executor.awaitTermination(1, TimeUnit.MINUTES);
+
+		System.out.printf("%-8s %-12s %8d requests %10.0f requests/s%n", mode, locking,
+				requests, requests / (elapsed / 1e9));
+	}
+
+	private static void block(long millis, String locking, ReentrantLock lock) {
+		try {
+			if (SYNCHRONIZED.equals(locking)) {
+				synchronized (lock) {
+					Thread.sleep(millis);
+				}
+			} else if (REENTRANT.equals(locking)) {
+				lock.lock();
+				try {
+					Thread.sleep(millis);
+				} finally {
+					lock.unlock();
+				}
+			} else {
+				Thread.sleep(millis);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
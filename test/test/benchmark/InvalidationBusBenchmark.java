@@ -0,0 +1,60 @@
+package test.benchmark;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.connection.Histogram;
+import com.connection.InvalidationBus;
+
+/**
+ * Measures the time a changed key takes to reach the other instances of the application through the invalidation bus,
+ * and counts the keys lost. Run one JVM per instance on the same host (the keys carry System.nanoTime(),
+ * the same clock for all the JVMs of a Linux host), for example:
+ * java -Dinvalidation.bus=true -Dinvalidation.bus.port=7401 -Dinvalidation.bus.peers=127.0.0.1:7402 -cp ... test.benchmark.InvalidationBusBenchmark
+ * java -Dinvalidation.bus=true -Dinvalidation.bus.port=7402 -Dinvalidation.bus.peers=127.0.0.1:7401 -cp ... test.benchmark.InvalidationBusBenchmark
+ * Arguments: [keys] [keysPerMillisecond] [secondsToWaitForThePeers]
+ */
+public class InvalidationBusBenchmark {
+
+	public static void main(String[] args) throws InterruptedException {
+		int keys = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rate = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int wait = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+		Histogram latency = new Histogram(100, 500, 1000, 5000, 10000, 50000, 100000);
+		AtomicLong received = new AtomicLong();
+		AtomicLong flushes = new AtomicLong();
+		InvalidationBus.subscribe("benchmark", new InvalidationBus.Listener() {
+
+			@Override
+			public void invalidate(String type, String id) {
+				long sent = Long.parseLong(id.substring(id.indexOf('-') + 1));
+				synchronized (latency) {
+					latency.record((System.nanoTime() - sent) / 1000);
+				}
+				received.incrementAndGet();
+			}
+
+			@Override
+			public void invalidateAll() {
+				flushes.incrementAndGet();
+			}
+		});
+		InvalidationBus.start();
+
+		// let the other instances start
+		Thread.sleep(wait * 1000L);
+
+		for (int i = 0; i < keys; i++) {
+			InvalidationBus.publish("product", i + "-" + System.nanoTime());
+			if (i % rate == rate - 1) {
+				Thread.sleep(1);
+			}
+		}
+
+		Thread.sleep(wait * 1000L);
+		System.out.println("received " + received.get() + " keys of the peers, caches emptied " + flushes.get() + " times");
+		System.out.println("latency in microseconds: " + latency.getStats());
+		System.out.println(InvalidationBus.getStats());
+		InvalidationBus.stop();
+	}
+}
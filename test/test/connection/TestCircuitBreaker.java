@@ -0,0 +1,91 @@
+package test.connection;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.connection.CircuitBreaker;
+
+public class TestCircuitBreaker {
+
+	private static String state(CircuitBreaker breaker) {
+		return breaker.getStats().getString("state");
+	}
+
+	private static void send(CircuitBreaker breaker, boolean failed) {
+		assertTrue(breaker.allowRequest());
+		breaker.record(failed);
+	}
+
+	@Test
+	public void opensWhenTooManyOfTheLastRequestsFailed() {
+		CircuitBreaker breaker = new CircuitBreaker(4, 0.5, 60000, 1);
+		send(breaker, true);
+		send(breaker, false);
+		send(breaker, false);
+		assertEquals("CLOSED", state(breaker));
+		// the window is full only now
+		send(breaker, true);
+		assertEquals("OPEN", state(breaker));
+		assertTrue(breaker.isOpen());
+		assertFalse(breaker.allowRequest());
+		assertEquals(1, breaker.getStats().getLong("rejected"));
+		assertTrue(breaker.getRemainingOpenMillis() > 0);
+	}
+
+	@Test
+	public void countsOnlyTheLastRequests() {
+		CircuitBreaker breaker = new CircuitBreaker(4, 0.5, 60000, 1);
+		send(breaker, true);
+		for (int i = 0; i < 6; i++) {
+			send(breaker, false);
+		}
+		// the first failure left the window
+		send(breaker, true);
+		assertEquals("CLOSED", state(breaker));
+	}
+
+	@Test
+	public void closesWhenTheProbesSucceed() throws InterruptedException {
+		CircuitBreaker breaker = openBreaker(2);
+		Thread.sleep(150);
+
+		send(breaker, false);
+		assertEquals("HALF_OPEN", state(breaker));
+		assertTrue(breaker.allowRequest());
+		// only the probes are sent
+		assertFalse(breaker.allowRequest());
+		breaker.record(false);
+		assertEquals("CLOSED", state(breaker));
+		assertTrue(breaker.allowRequest());
+	}
+
+	@Test
+	public void opensAgainWhenAProbeFails() throws InterruptedException {
+		CircuitBreaker breaker = openBreaker(2);
+		Thread.sleep(150);
+
+		send(breaker, true);
+		assertEquals("OPEN", state(breaker));
+		assertFalse(breaker.allowRequest());
+		assertEquals(2, breaker.getStats().getLong("opened"));
+	}
+
+	@Test
+	public void givesBackTheProbeOfARequestNotSent() throws InterruptedException {
+		CircuitBreaker breaker = openBreaker(1);
+		Thread.sleep(150);
+
+		assertTrue(breaker.allowRequest());
+		assertFalse(breaker.allowRequest());
+		breaker.cancel();
+		assertTrue(breaker.allowRequest());
+	}
+
+	private static CircuitBreaker openBreaker(int probes) {
+		CircuitBreaker breaker = new CircuitBreaker(2, 0.5, 100, probes);
+		send(breaker, true);
+		send(breaker, true);
+		assertEquals("OPEN", state(breaker));
+		return breaker;
+	}
+}
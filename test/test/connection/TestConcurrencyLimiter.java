@@ -0,0 +1,95 @@
+package test.connection;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.connection.ConcurrencyLimiter;
+
+public class TestConcurrencyLimiter {
+
+	private static final long MILLI = 1000000L;
+
+	private static int limit(ConcurrencyLimiter limiter) {
+		return limiter.getStats().getInt("limit");
+	}
+
+	@Test
+	public void rejectsOverTheLimitAndKeepsTheReserveForPriority() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100, 2.0, 0.5, 0.2);
+		for (int i = 0; i < 8; i++) {
+			assertTrue(limiter.tryAcquire(false));
+		}
+		assertFalse(limiter.tryAcquire(false));
+		assertTrue(limiter.tryAcquire(true));
+		assertTrue(limiter.tryAcquire(true));
+		assertFalse(limiter.tryAcquire(true));
+		assertEquals(10, limiter.getStats().getInt("inflight"));
+		assertEquals(2, limiter.getStats().getLong("rejected"));
+	}
+
+	@Test
+	public void increasesTheLimitAdditivelyWhileTheLatencyIsSteady() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100, 2.0, 0.5, 0);
+		// the limit grows only while it's used
+		for (int i = 0; i < 9; i++) {
+			limiter.tryAcquire(false);
+		}
+		for (int i = 0; i < 30; i++) {
+			assertTrue(limiter.tryAcquire(false));
+			limiter.release(MILLI, false);
+		}
+		// one place for every limit Responses
+		assertEquals(12, limit(limiter));
+	}
+
+	@Test
+	public void doesNotIncreaseAnUnusedLimit() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100, 2.0, 0.5, 0);
+		for (int i = 0; i < 30; i++) {
+			limiter.tryAcquire(false);
+			limiter.release(MILLI, false);
+		}
+		assertEquals(10, limit(limiter));
+	}
+
+	@Test
+	public void decreasesTheLimitMultiplicativelyOncePerRoundTrip() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100, 2.0, 0.5, 0);
+		limiter.tryAcquire(false);
+		limiter.tryAcquire(false);
+		// a latency of a second: the second Response comes in the same round trip
+		limiter.release(1000 * MILLI, true);
+		limiter.release(1000 * MILLI, true);
+		assertEquals(5, limit(limiter));
+		assertEquals(2, limiter.getStats().getLong("dropped"));
+	}
+
+	@Test
+	public void decreasesTheLimitWhenTheLatencyGrows() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(10, 1, 100, 2.0, 0.5, 0);
+		for (int i = 0; i < 5; i++) {
+			limiter.tryAcquire(false);
+			limiter.release(MILLI, false);
+		}
+		limiter.tryAcquire(false);
+		limiter.release(100 * MILLI, false);
+		assertEquals(5, limit(limiter));
+	}
+
+	@Test
+	public void keepsTheLimitBetweenTheMinimumAndTheMaximum() {
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(4, 3, 5, 2.0, 0.5, 0);
+		limiter.tryAcquire(false);
+		limiter.release(MILLI, true);
+		assertEquals(3, limit(limiter));
+
+		for (int i = 0; i < 2; i++) {
+			limiter.tryAcquire(false);
+		}
+		for (int i = 0; i < 100; i++) {
+			limiter.tryAcquire(false);
+			limiter.release(MILLI, false);
+		}
+		assertEquals(5, limit(limiter));
+	}
+}
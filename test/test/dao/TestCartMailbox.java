@@ -0,0 +1,148 @@
+package test.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.beans.Cart;
+import com.beans.CartLine;
+import com.dao.CartMailbox;
+import com.connection.Futures;
+import com.repository.CartRepository;
+import com.repository.Repositories;
+import com.repository.memory.InMemoryCartRepository;
+import com.repository.memory.InMemoryStorage;
+
+public class TestCartMailbox {
+
+	/**
+	 * A storage in memory, its single changes wait for the gate, like the changes sent to the DB.
+	 */
+	private static class GatedCarts extends InMemoryCartRepository {
+
+		private volatile CompletableFuture<Void> gate = CompletableFuture.completedFuture(null);
+		private final List<CartLine> changes = new ArrayList<>();
+
+		@Override
+		public CompletableFuture<Cart> change(String userid, CartLine change) {
+			synchronized (changes) {
+				changes.add(change);
+			}
+			return gate.thenCompose(ignored -> super.change(userid, change));
+		}
+	}
+
+	private final GatedCarts carts = new GatedCarts();
+
+	@Before
+	public void setStorage() {
+		Repositories.setStorage(new InMemoryStorage() {
+			@Override
+			public CartRepository carts() {
+				return carts;
+			}
+		});
+	}
+
+	@After
+	public void removeStorage() {
+		Repositories.setStorage(null);
+	}
+
+	@Test
+	public void makesASingleChangeInOneStep() {
+		Cart cart = Futures.await(CartMailbox.change("u1", new CartLine("p1", 2, 100)));
+
+		assertEquals(2, cart.getTotalquantity());
+		assertEquals(1, carts.changes.size());
+	}
+
+	@Test
+	public void mergesTheChangesArrivingWhileAChangeRuns() {
+		carts.gate = new CompletableFuture<>();
+		long writes = CartMailbox.getStats().getLong("writes");
+		long merged = CartMailbox.getStats().getLong("merged");
+
+		CompletableFuture<Cart> first = CartMailbox.change("u2", new CartLine("p1", 1, 100));
+		CompletableFuture<Cart> second = CartMailbox.change("u2", new CartLine("p1", 2, 100));
+		CompletableFuture<Cart> third = CartMailbox.change("u2", new CartLine("p2", 1, 50));
+		CompletableFuture<Cart> fourth = CartMailbox.change("u2", new CartLine("p1", -1, 100));
+		// the others wait for the first change
+		assertFalse(second.isDone());
+
+		carts.gate.complete(null);
+
+		// every change gets the Cart after it, in the order they arrived
+		assertEquals(1, Futures.await(first).getTotalquantity());
+		assertEquals(3, Futures.await(second).getTotalquantity());
+		assertEquals(4, Futures.await(third).getTotalquantity());
+		assertEquals(3, Futures.await(fourth).getTotalquantity());
+		assertEquals(250, Futures.await(fourth).getTotalcost());
+
+		// the last three are read and written once, without a single change
+		assertEquals(1, carts.changes.size());
+		assertEquals(writes + 2, CartMailbox.getStats().getLong("writes"));
+		assertEquals(merged + 3, CartMailbox.getStats().getLong("merged"));
+
+		Cart stored = Futures.await(Repositories.carts().findByUserid("u2"));
+		assertEquals(new CartLine("p1", 2, 100), stored.line("p1"));
+		assertEquals(new CartLine("p2", 1, 50), stored.line("p2"));
+	}
+
+	@Test
+	public void aMergedRemovalOfMoreThanTheCartHasFailsAlone() {
+		carts.gate = new CompletableFuture<>();
+
+		CompletableFuture<Cart> first = CartMailbox.change("u3", new CartLine("p1", 1, 100));
+		CompletableFuture<Cart> removal = CartMailbox.change("u3", new CartLine("p1", -5, 100));
+		CompletableFuture<Cart> added = CartMailbox.change("u3", new CartLine("p2", 1, 50));
+		carts.gate.complete(null);
+
+		assertNotNull(Futures.await(first));
+		assertNull(Futures.await(removal));
+		assertEquals(2, Futures.await(added).getTotalquantity());
+	}
+
+	@Test
+	public void runsATaskAfterTheChangesSentBefore() {
+		carts.gate = new CompletableFuture<>();
+		List<String> order = new ArrayList<>();
+
+		CompletableFuture<Cart> first = CartMailbox.change("u4", new CartLine("p1", 1, 100));
+		CompletableFuture<Integer> task = CartMailbox.run("u4", () -> {
+			order.add("task");
+			return Repositories.carts().findByUserid("u4").thenApply(Cart::getTotalquantity);
+		});
+		CompletableFuture<Cart> last = CartMailbox.change("u4", new CartLine("p1", 1, 100));
+		assertTrue(order.isEmpty());
+
+		carts.gate.complete(null);
+
+		// the task sees the change sent before, and not the one sent after it
+		assertEquals(Integer.valueOf(1), Futures.await(task));
+		assertEquals(1, Futures.await(first).getTotalquantity());
+		assertEquals(2, Futures.await(last).getTotalquantity());
+		assertEquals(0, CartMailbox.getStats().getInt("mailboxes"));
+	}
+
+	@Test
+	public void failsTheResultWhenTheStorageFails() {
+		CompletableFuture<Void> down = new CompletableFuture<>();
+		carts.gate = down;
+
+		CompletableFuture<Cart> first = CartMailbox.change("u5", new CartLine("p1", 1, 100));
+		CompletableFuture<Cart> second = CartMailbox.change("u5", new CartLine("p1", 1, 100));
+		// only the first change fails
+		carts.gate = CompletableFuture.completedFuture(null);
+		down.completeExceptionally(new IllegalStateException("down"));
+
+		assertTrue(first.isCompletedExceptionally());
+		// the next operations still run
+		assertEquals(1, Futures.await(second).getTotalquantity());
+	}
+}
@@ -0,0 +1,155 @@
+package test.dao;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import com.beans.Product;
+import com.dao.MappedCatalogStore;
+import com.dao.ProductDao;
+import com.dao.RenderedResponse;
+
+public class TestMappedCatalogStore {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static Product product(String id, int instock, long price) {
+		Product product = new Product("name " + id, "description of " + id, instock, price, "http://images/" + id + ".png");
+		product.setId(id);
+		return product;
+	}
+
+	private MappedCatalogStore build(List<Product> products) throws IOException {
+		MappedCatalogStore.Builder builder = new MappedCatalogStore.Builder(folder.getRoot());
+		builder.addAll(products);
+		return builder.build();
+	}
+
+	@Test
+	public void findsEveryProductByItsId() throws IOException {
+		List<Product> products = new ArrayList<>();
+		for (int i = 0; i < 5000; i++) {
+			products.add(product("AV" + Integer.toHexString(i * 7919), i, 100 + i));
+		}
+		// ids made of digits, and of characters outside of ASCII
+		products.add(product("12345", 1, 10));
+		products.add(product("áéíőű-ß", 2, 20));
+		MappedCatalogStore store = build(products);
+
+		assertEquals(products.size(), store.size());
+		for (Product product : products) {
+			long record = store.find(product.getId());
+			assertTrue(product.getId(), record >= 0);
+			assertEquals(product.getInstock(), store.getInstock(record));
+			assertEquals(product.getPrice(), store.getPrice(record));
+		}
+		store.close();
+	}
+
+	@Test
+	public void doesNotFindTheMissingProducts() throws IOException {
+		MappedCatalogStore store = build(Arrays.asList(product("p1", 1, 10), product("p2", 2, 20)));
+
+		assertEquals(-1, store.find("p3"));
+		assertEquals(-1, store.find("p"));
+		assertEquals(-1, store.find("p10"));
+		assertEquals(-1, store.find(""));
+		store.close();
+	}
+
+	@Test
+	public void anEmptyStoreFindsNothing() throws IOException {
+		MappedCatalogStore store = build(new ArrayList<>());
+
+		assertEquals(0, store.size());
+		assertEquals(-1, store.find("p1"));
+		store.close();
+	}
+
+	@Test
+	public void decodesTheProductOfARecord() throws IOException {
+		Product withoutDescription = product("p2", 0, 20);
+		withoutDescription.setDescription(null);
+		MappedCatalogStore store = build(Arrays.asList(product("p1", 5, 10), withoutDescription));
+
+		Product read = store.read(store.find("p1"));
+		assertEquals("p1", read.getId());
+		assertEquals("name p1", read.getProductname());
+		assertEquals("description of p1", read.getDescription());
+		assertEquals(5, read.getInstock());
+		assertEquals(10, read.getPrice());
+		assertEquals("http://images/p1.png", read.getImageURL());
+
+		assertNull(store.read(store.find("p2")).getDescription());
+		store.close();
+	}
+
+	@Test
+	public void keepsTheDetailsWithTheirEntityTag() throws IOException {
+		Product product = product("p1", 5, 10);
+		MappedCatalogStore store = build(Arrays.asList(product));
+
+		RenderedResponse details = store.getDetails(store.find("p1"));
+		RenderedResponse expected = new RenderedResponse(ProductDao.toDetails(product).toString());
+		assertArrayEquals(expected.getBytes(), details.getBytes());
+		assertEquals(expected.getEtag(), details.getEtag());
+		store.close();
+	}
+
+	@Test
+	public void keepsTheItemsOfTheListWithoutTheStock() throws IOException {
+		Product product = product("p1", 5, 10);
+		MappedCatalogStore store = build(Arrays.asList(product, product("p2", 7, 20)));
+
+		List<String> ids = new ArrayList<>();
+		List<String> items = new ArrayList<>();
+		store.forEachRecord(record -> {
+			ids.add(store.getId(record));
+			items.add(new String(store.getListItem(record), StandardCharsets.UTF_8));
+		});
+		assertEquals(Arrays.asList("p1", "p2"), ids);
+		assertEquals(ProductDao.toListItem(product).toString(), items.get(0));
+		assertFalse(items.get(0).contains("instock"));
+
+		// the details after the item are still found
+		assertEquals(new RenderedResponse(ProductDao.toDetails(product).toString()).getEtag(), store.getDetails(store.find("p1")).getEtag());
+		store.close();
+	}
+
+	@Test
+	public void readsTheProductsInTheOrderTheyWereAdded() throws IOException {
+		List<Product> products = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			products.add(product("p" + i, i, i));
+		}
+		MappedCatalogStore store = build(products);
+
+		List<String> ids = new ArrayList<>();
+		store.forEach(product -> ids.add(product.getId()));
+		assertEquals(100, ids.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals("p" + i, ids.get(i));
+		}
+		store.close();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsAProductWithoutId() throws IOException {
+		MappedCatalogStore.Builder builder = new MappedCatalogStore.Builder(folder.getRoot());
+		try {
+			builder.add(product("", 1, 10));
+		} finally {
+			builder.discard();
+			// the file of the store is deleted
+			assertEquals(0, folder.getRoot().list().length);
+		}
+	}
+}
@@ -0,0 +1,86 @@
+package test.repository;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.repository.BoundedCache;
+
+public class TestBoundedCache {
+
+	@Test
+	public void evictsTheLeastRecentlyUsedEntry() {
+		BoundedCache<String, String> cache = new BoundedCache<>(2, 60000);
+		cache.put("a", "A", cache.getVersion());
+		cache.put("b", "B", cache.getVersion());
+		// "a" is read, so "b" is the least recently used
+		assertEquals("A", cache.get("a"));
+		cache.put("c", "C", cache.getVersion());
+
+		assertEquals("A", cache.get("a"));
+		assertNull(cache.get("b"));
+		assertEquals("C", cache.get("c"));
+		assertEquals(1, cache.getStats().getLong("evictions"));
+		assertEquals(2, cache.getStats().getInt("size"));
+	}
+
+	@Test
+	public void expiresTheEntriesAfterTheTimeToLive() throws InterruptedException {
+		BoundedCache<String, String> cache = new BoundedCache<>(10, 20);
+		cache.put("a", "A", cache.getVersion());
+		assertEquals("A", cache.get("a"));
+
+		Thread.sleep(50);
+		assertNull(cache.get("a"));
+		assertEquals(1, cache.getStats().getLong("expirations"));
+		assertEquals(0, cache.getStats().getInt("size"));
+	}
+
+	@Test
+	public void doesNotPutAValueReadBeforeAnInvalidation() {
+		BoundedCache<String, String> cache = new BoundedCache<>(10, 60000);
+		long version = cache.getVersion();
+		// an update of the value while it's read from the storage
+		cache.invalidate("a");
+		cache.put("a", "old", version);
+		assertNull(cache.get("a"));
+
+		cache.put("a", "new", cache.getVersion());
+		assertEquals("new", cache.get("a"));
+	}
+
+	@Test
+	public void invalidateAllRemovesEveryEntry() {
+		BoundedCache<String, String> cache = new BoundedCache<>(10, 60000);
+		long version = cache.getVersion();
+		cache.put("a", "A", version);
+		cache.put("b", "B", version);
+		cache.invalidateAll();
+
+		assertNull(cache.get("a"));
+		assertNull(cache.get("b"));
+		assertNotEquals(version, cache.getVersion());
+	}
+
+	@Test
+	public void putsAValueWhenAnotherKeyIsInvalidated() {
+		BoundedCache<String, String> cache = new BoundedCache<>(10, 60000);
+		long version = cache.getVersion();
+		// an update of another value while "a" is read from the storage
+		cache.invalidate("b");
+		cache.put("a", "A", version);
+		assertEquals("A", cache.get("a"));
+	}
+
+	@Test
+	public void splitsALargeCacheInSegments() {
+		BoundedCache<Integer, Integer> cache = new BoundedCache<>(1024, 60000);
+		for (int i = 0; i < 2048; i++) {
+			cache.put(i, i, cache.getVersion());
+		}
+
+		assertEquals(16, cache.getStats().getInt("segments"));
+		assertEquals(1024, cache.getStats().getInt("size"));
+		assertEquals(1024, cache.getStats().getLong("evictions"));
+		assertEquals(Integer.valueOf(2047), cache.get(2047));
+	}
+}
@@ -0,0 +1,95 @@
+package test.repository;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+import com.connection.Bulkhead;
+import com.connection.Futures;
+import com.dao.SharedReads;
+import com.repository.SingleFlight;
+
+public class TestSingleFlight {
+
+	private final SingleFlight<String, StringBuilder> flight = new SingleFlight<>(StringBuilder::new);
+	private final AtomicInteger reads = new AtomicInteger();
+
+	@After
+	public void removeBulkhead() {
+		Bulkhead.set(null);
+	}
+
+	private CompletableFuture<StringBuilder> read(CompletableFuture<StringBuilder> storage) {
+		reads.incrementAndGet();
+		return storage;
+	}
+
+	@Test
+	public void sharesTheReadOfTheSameKey() {
+		CompletableFuture<StringBuilder> storage = new CompletableFuture<>();
+		CompletableFuture<StringBuilder> first = flight.get("a", () -> read(storage));
+		CompletableFuture<StringBuilder> second = flight.get("a", () -> read(storage));
+		assertEquals(1, reads.get());
+
+		storage.complete(new StringBuilder("A"));
+		StringBuilder firstValue = Futures.await(first);
+		StringBuilder secondValue = Futures.await(second);
+		assertEquals("A", firstValue.toString());
+		assertEquals("A", secondValue.toString());
+		// every Request gets its own copy
+		assertNotSame(firstValue, secondValue);
+		assertEquals(1, flight.getStats().getLong("coalesced"));
+		assertEquals(0, flight.getStats().getInt("inflight"));
+	}
+
+	@Test
+	public void readsAgainAfterTheReadIsCompleted() {
+		Futures.await(flight.get("a", () -> read(CompletableFuture.completedFuture(new StringBuilder("A")))));
+		Futures.await(flight.get("a", () -> read(CompletableFuture.completedFuture(new StringBuilder("B")))));
+		assertEquals(2, reads.get());
+	}
+
+	@Test
+	public void doesNotShareTheReadsOfDifferentKeysOrBulkheads() {
+		CompletableFuture<StringBuilder> storage = new CompletableFuture<>();
+		flight.get("a", () -> read(storage));
+		flight.get("b", () -> read(storage));
+		Bulkhead.set(Bulkhead.get(Bulkhead.ADMIN));
+		flight.get("a", () -> read(storage));
+		assertEquals(3, reads.get());
+		storage.complete(null);
+	}
+
+	@Test
+	public void failsEveryRequestWaitingAndForgetsTheFailure() {
+		CompletableFuture<StringBuilder> storage = new CompletableFuture<>();
+		CompletableFuture<StringBuilder> first = flight.get("a", () -> read(storage));
+		CompletableFuture<StringBuilder> second = flight.get("a", () -> read(storage));
+		storage.completeExceptionally(new IllegalStateException("down"));
+		assertTrue(first.isCompletedExceptionally());
+		assertTrue(second.isCompletedExceptionally());
+
+		StringBuilder value = Futures.await(flight.get("a", () -> read(CompletableFuture.completedFuture(new StringBuilder("A")))));
+		assertEquals("A", value.toString());
+		assertEquals(2, reads.get());
+	}
+
+	@Test
+	public void aReadThrowingFailsTheFuture() {
+		CompletableFuture<StringBuilder> future = flight.get("a", () -> {
+			throw new IllegalStateException("down");
+		});
+		assertTrue(future.isCompletedExceptionally());
+		assertEquals(0, flight.getStats().getInt("inflight"));
+	}
+
+	@Test
+	public void sharedReadsCountTheReadsOfEveryDocument() {
+		assertTrue(SharedReads.getStats().has("products"));
+		assertTrue(SharedReads.getStats().has("clients"));
+		assertTrue(SharedReads.getStats().has("carts"));
+	}
+}
@@ -0,0 +1,134 @@
+package test.repository;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.*;
+
+import com.beans.Cart;
+import com.beans.CartLine;
+import com.connection.Futures;
+import com.repository.WriteAheadLog;
+import com.repository.WriteBehindCartRepository;
+import com.repository.memory.InMemoryCartRepository;
+
+public class TestWriteAheadLog {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static String record(String userid, long version, int quantity) {
+		return "{\"userid\":\"" + userid + "\",\"version\":" + version + ",\"cart\":{\"userid\":\"" + userid
+				+ "\",\"totalquantity\":" + quantity + ",\"totalcost\":" + quantity * 100
+				+ ",\"lines\":[{\"productid\":\"p1\",\"quantity\":" + quantity + ",\"price\":100}]}}";
+	}
+
+	private void writeSegment(File directory, long number, String content) throws IOException {
+		directory.mkdirs();
+		Files.write(new File(directory, "cart-" + number + ".wal").toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void recoversTheRecordsInTheOrderTheyWereWritten() throws IOException {
+		File directory = folder.newFolder("log");
+		WriteAheadLog log = new WriteAheadLog(directory, "cart");
+		Futures.await(log.append("a"));
+		Futures.await(log.append("b"));
+		Futures.await(log.rotate());
+		Futures.await(log.append("c"));
+		log.close();
+
+		WriteAheadLog reopened = new WriteAheadLog(directory, "cart");
+		assertEquals(Arrays.asList("a", "b", "c"), reopened.recover());
+		reopened.close();
+	}
+
+	@Test
+	public void deletesTheSegmentsBeforeARotation() throws IOException {
+		File directory = folder.newFolder("log");
+		WriteAheadLog log = new WriteAheadLog(directory, "cart");
+		Futures.await(log.append("a"));
+		List<File> closed = Futures.await(log.rotate());
+		Futures.await(log.append("b"));
+		log.delete(closed);
+		log.close();
+
+		WriteAheadLog reopened = new WriteAheadLog(directory, "cart");
+		assertEquals(Arrays.asList("b"), reopened.recover());
+		reopened.close();
+	}
+
+	@Test
+	public void recoversTheTornLastRecordAsItIs() throws IOException {
+		File directory = folder.newFolder("log");
+		writeSegment(directory, 1, "a\nb\n{\"userid\":\"u1\",\"ver");
+
+		WriteAheadLog log = new WriteAheadLog(directory, "cart");
+		assertEquals(Arrays.asList("a", "b", "{\"userid\":\"u1\",\"ver"), log.recover());
+		// the new records go to a new segment, not after the torn record
+		Futures.await(log.append("c"));
+		log.close();
+
+		WriteAheadLog reopened = new WriteAheadLog(directory, "cart");
+		assertEquals(Arrays.asList("a", "b", "{\"userid\":\"u1\",\"ver", "c"), reopened.recover());
+		reopened.close();
+	}
+
+	@Test
+	public void leavesOutTheCorruptAndTornRecordsOfTheCarts() throws IOException {
+		File directory = folder.newFolder("log");
+		writeSegment(directory, 1, record("u1", 10, 1) + "\nnot a record\n" + record("u2", 15, 2) + "\n");
+		writeSegment(directory, 2, record("u1", 20, 3) + "\n" + record("u1", 12, 5) + "\n{\"userid\":\"u3\",\"version\":30,\"ca");
+
+		WriteBehindCartRepository carts = new WriteBehindCartRepository(new InMemoryCartRepository(), directory, 60000);
+		JSONObject stats = carts.getStats();
+		assertEquals(4, stats.getLong("recovered"));
+		assertEquals(2, stats.getLong("corrupt"));
+
+		// the record with the highest version wins, whatever its place in the log
+		Cart cart = Futures.await(carts.findByUserid("u1"));
+		assertEquals(3, cart.getTotalquantity());
+		assertEquals(new CartLine("p1", 3, 100), cart.line("p1"));
+		assertEquals(2, Futures.await(carts.findByUserid("u2")).getTotalquantity());
+		assertNull(Futures.await(carts.findByUserid("u3")));
+		carts.close();
+	}
+
+	@Test
+	public void writesTheRecoveredCartsToTheStorage() throws IOException {
+		File directory = folder.newFolder("log");
+		writeSegment(directory, 1, record("u1", 10, 1) + "\n");
+		InMemoryCartRepository storage = new InMemoryCartRepository();
+
+		WriteBehindCartRepository carts = new WriteBehindCartRepository(storage, directory, 60000);
+		carts.close();
+
+		assertEquals(1, Futures.await(storage.findByUserid("u1")).getTotalquantity());
+	}
+
+	@Test
+	public void readsAgainACartChangedByAnotherInstance() throws IOException {
+		InMemoryCartRepository storage = new InMemoryCartRepository();
+		WriteBehindCartRepository carts = new WriteBehindCartRepository(storage, folder.newFolder("log"), 60000);
+		Futures.await(carts.change("u1", new CartLine("p1", 1, 100)));
+
+		// another instance has written a newer change of the Cart
+		Cart newer = new Cart(4, 400, Arrays.asList(new CartLine("p1", 4, 100)));
+		newer.setUserid("u1");
+		newer.setVersion(Long.MAX_VALUE);
+		Futures.await(storage.writeAll(Arrays.asList(newer), Arrays.asList()));
+
+		Futures.await(carts.flush("u1"));
+		assertEquals(1, carts.getStats().getLong("conflicts"));
+		assertEquals(4, Futures.await(carts.findByUserid("u1")).getTotalquantity());
+		carts.close();
+	}
+}